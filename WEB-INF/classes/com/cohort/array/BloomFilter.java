@@ -0,0 +1,286 @@
+/* This file is Copyright, NOAA.
+ * See the MIT/X-like license in LICENSE.txt.
+ */
+package com.cohort.array;
+
+import com.cohort.util.*;
+
+/**
+ * BloomFilter has static methods to make and test compact Bloom filters
+ * which summarize the distinct values in a String or integer PrimitiveArray.
+ * EDDTableFromFiles stores one (per variable) for each data file in its fileTable
+ * so it can quickly reject files which can't have a requested value
+ * (e.g., station_id="46088"), even if the file has several different values.
+ *
+ * <p>A filter is stored as a compact base64 String (11 characters per 64 bits,
+ * see java.util.Base64, without padding) so it can be stored in a StringArray
+ * column of a .nc file. Since a .nc file pads all of the Strings in a column
+ * to the length of the longest one, filters are limited to MAX_BITS.
+ * "" means there is no filter (e.g., there were too many distinct values),
+ * so mightContain() always returns true.
+ * A filter never has false negatives. With BITS_PER_VALUE=10 and N_HASHES=7,
+ * false positives are about 1%.
+ *
+ * <p>Missing values ("" or integer missing values) aren't added to the filter.
+ * Use the hasNaN info in fileTable for those.
+ */
+public class BloomFilter {
+
+    /** The number of bits per distinct value. */
+    public final static int BITS_PER_VALUE = 10;
+
+    /** The number of hash functions (bits set per value). */
+    public final static int N_HASHES = 7;
+
+    /** The maximum number of bits in a filter (so a filter is at most 1366 characters). */
+    public final static int MAX_BITS = 8192;
+
+    /** The base64 characters (as in java.util.Base64). */
+    private final static String BASE64 = 
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+    /**
+     * This indicates if a filter can be made for PrimitiveArrays of this type.
+     *
+     * @param paType the PAType of the PrimitiveArray
+     * @return true for STRING and the integer types except ULONG.
+     */
+    public static boolean isSupported(PAType paType) {
+        return paType == PAType.STRING ||
+            paType == PAType.BYTE  || paType == PAType.UBYTE  ||
+            paType == PAType.SHORT || paType == PAType.USHORT ||
+            paType == PAType.INT   || paType == PAType.UINT   ||
+            paType == PAType.LONG;
+    }
+
+    /**
+     * This makes a Bloom filter with all of the distinct non-missing values in pa.
+     *
+     * @param pa a PrimitiveArray of a supported type (see isSupported).
+     *    For integer types, missing values must be the standard (i.e., MAX_VALUE) missing values.
+     * @param maxBits the maximum number of bits in the filter (e.g., 4096).
+     *    Values greater than MAX_BITS are treated as MAX_BITS.
+     *    If there are more than maxBits/BITS_PER_VALUE distinct values, this returns "".
+     * @return the encoded filter, or "" if pa isn't supported, if there are no
+     *    non-missing values, or if there are too many distinct values.
+     */
+    public static String make(PrimitiveArray pa, int maxBits) {
+        PAType paType = pa.elementType();
+        int maxValues = Math.min(maxBits, MAX_BITS) / BITS_PER_VALUE;
+        if (!isSupported(paType) || maxValues <= 0)
+            return "";
+
+        //find the distinct values
+        boolean isString = paType == PAType.STRING;
+        PrimitiveArray keyPAs[] = new PrimitiveArray[]{pa};
+        GroupIndex gi = new GroupIndex(new PAType[]{paType}, 8);
+        int n = pa.size();
+        for (int row = 0; row < n; row++) {
+            if (isString? pa.getString(row).length() == 0 : pa.isMissingValue(row))
+                continue;
+            gi.add(keyPAs, row);
+            if (gi.size() > maxValues)
+                return "";
+        }
+        int nValues = gi.size();
+        if (nValues == 0)
+            return "";
+
+        //set the bits
+        int nWords = Math.max(1, (nValues * BITS_PER_VALUE + 63) / 64);
+        int nBits = nWords * 64;
+        long words[] = new long[nWords];
+        PrimitiveArray values = gi.keyColumn(0);
+        for (int i = 0; i < nValues; i++) {
+            long h = isString? hash(values.getString(i)) : hash(values.getLong(i));
+            int h1 = (int)h;
+            int h2 = ((int)(h >>> 32)) | 1;
+            for (int k = 0; k < N_HASHES; k++) {
+                int bit = ((h1 + k * h2) & Integer.MAX_VALUE) % nBits;
+                words[bit >>> 6] |= 1L << (bit & 63);
+            }
+        }
+
+        //encode as base64 (bit i is bit (i & 7) of byte i/8)
+        byte bytes[] = new byte[nWords * 8];
+        for (int i = 0; i < bytes.length; i++) 
+            bytes[i] = (byte)(words[i >>> 3] >>> ((i & 7) * 8));
+        return java.util.Base64.getEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * This indicates if the filter might contain the specified value.
+     *
+     * @param filter a filter from make(). If "", this returns true.
+     * @param paType the PAType of the PrimitiveArray that was used to make the filter
+     * @param value the value (as a String, e.g., "46088" or "17").
+     *    If value is "", or if paType is an integer type and value isn't a valid
+     *    integer, this returns true (since there's no way to know).
+     * @return false if the value definitely isn't in the filter, true if it might be.
+     */
+    public static boolean mightContain(String filter, PAType paType, String value) {
+        if (filter == null || filter.length() == 0 || value == null ||
+            value.length() == 0 || !isSupported(paType))
+            return true;
+        long h;
+        if (paType == PAType.STRING) {
+            h = hash(value);
+        } else {
+            double d = String2.parseDouble(value);
+            if (!Double.isFinite(d) || d != Math.rint(d) || Math.abs(d) >= 9e15)
+                return true; //not a simple integer, so let other tests decide
+            h = hash((long)d);
+        }
+        int nBits = ((filter.length() * 6 / 8) / 8) * 64; //nChars -> nBytes -> nWords -> nBits
+        if (nBits == 0)
+            return true;
+        int h1 = (int)h;
+        int h2 = ((int)(h >>> 32)) | 1;
+        for (int k = 0; k < N_HASHES; k++) {
+            int bit = ((h1 + k * h2) & Integer.MAX_VALUE) % nBits;
+            //position in the base64 bit stream (each byte is most significant bit first)
+            int po = (bit & ~7) + 7 - (bit & 7);
+            int digit = BASE64.indexOf(filter.charAt(po / 6));
+            if (digit < 0)
+                return true; //invalid filter, so let other tests decide
+            if ((digit & (1 << (5 - po % 6))) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /** This returns a 64 bit hash of a String (FNV-1a, then fmix64). */
+    private static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return fmix64(h);
+    }
+
+    /** This returns a 64 bit hash of a long. */
+    private static long hash(long l) {
+        return fmix64(l ^ 0x9e3779b97f4a7c15L);
+    }
+
+    /** This is MurmurHash3's fmix64, which spreads the bits. */
+    private static long fmix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** Test this class. */
+    public static void basicTest() {
+        String2.log("\n*** BloomFilter.basicTest");
+
+        //strings
+        StringArray sa = new StringArray(new String[]{"46088", "46089", "", "46088", "TAO_1"});
+        String filter = make(sa, 4096);
+        Test.ensureEqual(filter.length(), 11, ""); //3 values * 10 bits -> 1 word -> 11 chars
+        Test.ensureTrue(mightContain(filter, PAType.STRING, "46088"), "");
+        Test.ensureTrue(mightContain(filter, PAType.STRING, "46089"), "");
+        Test.ensureTrue(mightContain(filter, PAType.STRING, "TAO_1"), "");
+        Test.ensureTrue(mightContain(filter, PAType.STRING, ""),      ""); //unknown
+        Test.ensureTrue(mightContain("",     PAType.STRING, "zztop"), ""); //no filter
+
+        //false positive rate is low
+        sa = new StringArray();
+        for (int i = 0; i < 400; i++)
+            sa.add("station" + i);
+        filter = make(sa, 4096);
+        Test.ensureEqual(filter.length(), 672, ""); //4000 bits -> 63 words -> 504 bytes -> 672 chars
+        for (int i = 0; i < 400; i++)
+            Test.ensureTrue(mightContain(filter, PAType.STRING, "station" + i), "i=" + i);
+        int nFalse = 0;
+        for (int i = 400; i < 10400; i++)
+            if (mightContain(filter, PAType.STRING, "station" + i))
+                nFalse++;
+        String2.log("nFalsePositives=" + nFalse + " of 10000");
+        Test.ensureTrue(nFalse < 300, "nFalse=" + nFalse);
+
+        //too many distinct values
+        sa.add("one more");
+        Test.ensureEqual(make(sa, 4000), "", "");
+
+        //maxBits is limited to MAX_BITS
+        sa = new StringArray();
+        for (int i = 0; i < MAX_BITS / BITS_PER_VALUE + 1; i++)
+            sa.add("id" + i);
+        Test.ensureEqual(make(sa, 1000000), "", "");
+        sa.remove(0);
+        filter = make(sa, 1000000);
+        Test.ensureTrue(filter.length() <= 1366, "length=" + filter.length());
+        Test.ensureTrue(mightContain(filter, PAType.STRING, "id1"), "");
+
+        //integers
+        IntArray ia = new IntArray(new int[]{17, Integer.MAX_VALUE, -5, 17});
+        filter = make(ia, 4096);
+        Test.ensureTrue(mightContain(filter, PAType.INT, "17"),   "");
+        Test.ensureTrue(mightContain(filter, PAType.INT, "-5"),   "");
+        Test.ensureTrue(mightContain(filter, PAType.INT, "17.5"), ""); //not an integer, so unknown
+        Test.ensureTrue(mightContain(filter, PAType.INT, "NaN"),  "");
+        nFalse = 0;
+        for (int i = 100; i < 1100; i++)
+            if (mightContain(filter, PAType.INT, "" + i))
+                nFalse++;
+        Test.ensureTrue(nFalse < 50, "nFalse=" + nFalse);
+
+        //all missing
+        Test.ensureEqual(make(new IntArray(new int[]{Integer.MAX_VALUE}), 4096), "", "");
+        Test.ensureEqual(make(new StringArray(new String[]{""}), 4096), "", "");
+
+        //unsupported
+        Test.ensureEqual(make(new DoubleArray(new double[]{1.5}), 4096), "", "");
+        Test.ensureTrue(mightContain("AAAAAAAAAAA", PAType.DOUBLE, "1.5"), "");
+
+        String2.log("BloomFilter.basicTest finished");
+    }
+
+    /**
+     * This runs all of the interactive or not interactive tests for this class.
+     *
+     * @param errorSB all caught exceptions are logged to this.
+     * @param interactive  If true, this runs all of the interactive tests;
+     *   otherwise, this runs all of the non-interactive tests.
+     * @param doSlowTestsToo If true, this runs the slow tests, too.
+     * @param firstTest The first test to be run (0...).  Test numbers may change.
+     * @param lastTest The last test to be run, inclusive (0..., or -1 for the last test).
+     *   Test numbers may change.
+     */
+    public static void test(StringBuilder errorSB, boolean interactive,
+        boolean doSlowTestsToo, int firstTest, int lastTest) {
+        if (lastTest < 0)
+            lastTest = interactive? -1 : 0;
+        String msg = "\n^^^ BloomFilter.test(" + interactive + ") test=";
+
+        for (int test = firstTest; test <= lastTest; test++) {
+            try {
+                long time = System.currentTimeMillis();
+                String2.log(msg + test);
+
+                if (interactive) {
+                    //if (test ==  0) ...;
+
+                } else {
+                    if (test ==  0) basicTest();
+                }
+
+                String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
+            } catch (Throwable testThrowable) {
+                String eMsg = msg + test + " caught throwable:\n" +
+                    MustBe.throwableToString(testThrowable);
+                errorSB.append(eMsg);
+                String2.log(eMsg);
+                if (interactive)
+                    String2.pressEnterToContinue("");
+            }
+        }
+    }
+
+}
@@ -13,6 +13,7 @@ import java.io.InputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.text.MessageFormat;
 import java.util.Arrays;
 import java.util.BitSet;
@@ -1282,6 +1283,24 @@ public class ByteArray extends PrimitiveArray {
         size += n;
     }
 
+    /**
+     * This reads/adds up to n elements from a ByteBuffer 
+     * (e.g., a ByteBuffer with part of a file written by writeDos).
+     *
+     * @param bb the ByteBuffer (big endian, as written by writeDos). 
+     *    Its position is advanced past the elements that were read.
+     * @param n the maximum number of elements to be read/added
+     * @return the number of elements read/added. This is less than n
+     *    if bb doesn't have n (complete) elements remaining.
+     */
+    public int readByteBuffer(ByteBuffer bb, int n) {
+        n = Math.min(n, bb.remaining());
+        ensureCapacity(size + (long)n);
+        bb.get(array, size, n);
+        size += n;
+        return n;
+    }
+
     /**
      * This writes all the data to a DataOutputStream in the
      * DODS Array format (see www.opendap.org DAP 2.0 standard, section 7.3.2.1).
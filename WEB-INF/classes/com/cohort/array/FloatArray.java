@@ -12,6 +12,7 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.text.MessageFormat;
 import java.util.Arrays;
 import java.util.BitSet;
@@ -1140,6 +1141,25 @@ public class FloatArray extends PrimitiveArray {
             array[size++] = dis.readFloat();
     }
 
+    /**
+     * This reads/adds up to n elements from a ByteBuffer 
+     * (e.g., a ByteBuffer with part of a file written by writeDos).
+     *
+     * @param bb the ByteBuffer (big endian, as written by writeDos). 
+     *    Its position is advanced past the elements that were read.
+     * @param n the maximum number of elements to be read/added
+     * @return the number of elements read/added. This is less than n
+     *    if bb doesn't have n (complete) elements remaining.
+     */
+    public int readByteBuffer(ByteBuffer bb, int n) {
+        n = Math.min(n, bb.remaining() / 4);
+        ensureCapacity(size + (long)n);
+        bb.asFloatBuffer().get(array, size, n);
+        bb.position(bb.position() + n * 4);
+        size += n;
+        return n;
+    }
+
     /**
      * This reads/appends float values to this PrimitiveArray from a DODS DataInputStream,
      * and is thus the complement of externalizeForDODS.
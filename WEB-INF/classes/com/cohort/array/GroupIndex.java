@@ -0,0 +1,314 @@
+/* This file is Copyright, NOAA.
+ * See the MIT/X-like license in LICENSE.txt.
+ */
+package com.cohort.array;
+
+import com.cohort.util.*;
+import java.util.Arrays;
+
+/**
+ * GroupIndex assigns a dense group number (0, 1, 2, ...) to each distinct
+ * combination of key values found in rows of a set of PrimitiveArrays.
+ * It is the hash table behind the orderByMean/Count/Min/Max/MinMax TableWriters.
+ *
+ * <p>This is an open-addressing hash table (linear probing) which works directly
+ * on the PrimitiveArray values, so no key Strings or boxed objects are
+ * created for each row. The key values of each group are stored (once) in
+ * a PrimitiveArray per key (see keyColumn()), where row number = group number.
+ * Two key values are considered equal if PrimitiveArray.compare() returns 0,
+ * so NaN equals NaN.
+ *
+ * <p>This is not thread-safe.
+ */
+public class GroupIndex {
+
+    /** The maximum fraction of slots that may be used before the slots are enlarged. */
+    public final static double MAX_LOAD = 0.5;
+
+    protected PrimitiveArray keys[];  //one per key. row number = group number
+    protected int hashes[];           //the hash of each group (so rehash is fast)
+    protected int slots[];            //group number + 1, or 0 if empty. Length is a power of 2.
+    protected int size = 0;           //the number of groups
+
+    /**
+     * The constructor.
+     *
+     * @param keyTypes the PATypes of the key PrimitiveArrays that will be passed
+     *    to find() and add(). It's okay if there are 0 keys
+     *    (then all rows are in group 0).
+     * @param initialCapacity the expected number of groups
+     */
+    public GroupIndex(PAType keyTypes[], int initialCapacity) {
+        initialCapacity = Math.max(8, initialCapacity);
+        int nKeys = keyTypes.length;
+        keys = new PrimitiveArray[nKeys];
+        for (int k = 0; k < nKeys; k++)
+            keys[k] = PrimitiveArray.factory(keyTypes[k], initialCapacity, false);
+        hashes = new int[initialCapacity];
+        slots = new int[Integer.highestOneBit(Math2.roundToInt(initialCapacity / MAX_LOAD) - 1) << 1];
+    }
+
+    /**
+     * This returns the number of groups.
+     *
+     * @return the number of groups
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * This returns the number of keys.
+     *
+     * @return the number of keys
+     */
+    public int nKeys() {
+        return keys.length;
+    }
+
+    /**
+     * This returns the PrimitiveArray with the values of one of the keys
+     * for each group (row number = group number). Don't change it.
+     *
+     * @param k the key number (0..nKeys-1)
+     * @return the PrimitiveArray with the values of key k for each group.
+     */
+    public PrimitiveArray keyColumn(int k) {
+        return keys[k];
+    }
+
+    /**
+     * This calculates the hash of the key values in one row.
+     * Equal key values (as defined by PrimitiveArray.compare) always have equal hashes.
+     *
+     * @param keyPAs the key PrimitiveArrays
+     * @param row the row number
+     * @return the hash
+     */
+    public static int hash(PrimitiveArray keyPAs[], int row) {
+        int h = 1;
+        int nKeys = keyPAs.length;
+        for (int k = 0; k < nKeys; k++) {
+            PrimitiveArray pa = keyPAs[k];
+            PAType paType = pa.elementType();
+            long bits;
+            if (paType == PAType.STRING) {
+                StringHolder sh = ((StringArray)pa).getStringHolder(row);
+                bits = sh == null? 0 : sh.hashCode();
+            } else if (paType == PAType.DOUBLE || paType == PAType.FLOAT) {
+                bits = Double.doubleToLongBits(pa.getDouble(row)); //canonical NaN
+            } else {
+                bits = pa.getLong(row);
+            }
+            h = 31 * h + (int)(bits ^ (bits >>> 32));
+        }
+        //spread the bits (from MurmurHash3's fmix32) since slots.length is a power of 2
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * This finds the group number for the key values in one row.
+     *
+     * @param keyPAs the key PrimitiveArrays (with the PATypes specified in the constructor)
+     * @param row the row number
+     * @param hash the hash from hash(keyPAs, row)
+     * @return the group number, or -1 if this combination of key values isn't in the index.
+     */
+    public int find(PrimitiveArray keyPAs[], int row, int hash) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (true) {
+            int group = slots[slot] - 1;
+            if (group < 0)
+                return -1;
+            if (hashes[group] == hash && keysEqual(group, keyPAs, row))
+                return group;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * This finds the group number for the key values in one row.
+     *
+     * @param keyPAs the key PrimitiveArrays (with the PATypes specified in the constructor)
+     * @param row the row number
+     * @return the group number, or -1 if this combination of key values isn't in the index.
+     */
+    public int find(PrimitiveArray keyPAs[], int row) {
+        return find(keyPAs, row, hash(keyPAs, row));
+    }
+
+    /**
+     * This finds the group number for the key values in one row,
+     * adding a new group if needed.
+     *
+     * @param keyPAs the key PrimitiveArrays (with the PATypes specified in the constructor)
+     * @param row the row number
+     * @param hash the hash from hash(keyPAs, row)
+     * @return the group number. If it is a new group, it will equal the old size().
+     */
+    public int add(PrimitiveArray keyPAs[], int row, int hash) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (true) {
+            int group = slots[slot] - 1;
+            if (group < 0)
+                break;
+            if (hashes[group] == hash && keysEqual(group, keyPAs, row))
+                return group;
+            slot = (slot + 1) & mask;
+        }
+
+        //add a new group
+        int group = size++;
+        int nKeys = keys.length;
+        for (int k = 0; k < nKeys; k++)
+            keys[k].addFromPA(keyPAs[k], row);
+        if (group == hashes.length)
+            hashes = Arrays.copyOf(hashes, 2 * group);
+        hashes[group] = hash;
+        slots[slot] = size;
+        if (size > slots.length * MAX_LOAD)
+            rehash(slots.length * 2);
+        return group;
+    }
+
+    /**
+     * This finds the group number for the key values in one row,
+     * adding a new group if needed.
+     *
+     * @param keyPAs the key PrimitiveArrays (with the PATypes specified in the constructor)
+     * @param row the row number
+     * @return the group number. If it is a new group, it will equal the old size().
+     */
+    public int add(PrimitiveArray keyPAs[], int row) {
+        return add(keyPAs, row, hash(keyPAs, row));
+    }
+
+    /**
+     * This removes all groups (but keeps the capacity).
+     */
+    public void clear() {
+        size = 0;
+        Arrays.fill(slots, 0);
+        int nKeys = keys.length;
+        for (int k = 0; k < nKeys; k++)
+            keys[k].clear();
+    }
+
+    /** This returns true if the key values of group equal the key values in row of keyPAs. */
+    private boolean keysEqual(int group, PrimitiveArray keyPAs[], int row) {
+        int nKeys = keys.length;
+        for (int k = nKeys - 1; k >= 0; k--) { //last key most likely to differ
+            if (keys[k].compare(group, keyPAs[k], row) != 0)
+                return false;
+        }
+        return true;
+    }
+
+    /** This rebuilds slots with the new length (a power of 2). */
+    private void rehash(int newLength) {
+        slots = new int[newLength];
+        int mask = newLength - 1;
+        for (int group = 0; group < size; group++) {
+            int slot = hashes[group] & mask;
+            while (slots[slot] != 0)
+                slot = (slot + 1) & mask;
+            slots[slot] = group + 1;
+        }
+    }
+
+    /** Test this class. */
+    public static void basicTest() {
+        String2.log("\n*** GroupIndex.basicTest");
+        StringArray sa = new StringArray(new String[]{"a", "b", "a", "", "b", "a", ""});
+        DoubleArray da = new DoubleArray(new double[]{1, 2, 1, Double.NaN, 2, 3, Double.NaN});
+        PrimitiveArray keyPAs[] = new PrimitiveArray[]{sa, da};
+        GroupIndex gi = new GroupIndex(new PAType[]{PAType.STRING, PAType.DOUBLE}, 2);
+        IntArray groups = new IntArray();
+        for (int row = 0; row < sa.size(); row++)
+            groups.add(gi.add(keyPAs, row));
+        Test.ensureEqual(groups.toString(), "0, 1, 0, 2, 1, 3, 2", "");
+        Test.ensureEqual(gi.size(), 4, "");
+        Test.ensureEqual(gi.keyColumn(0).toString(), "a, b, , a", "");
+        Test.ensureEqual(gi.keyColumn(1).toString(), "1.0, 2.0, NaN, 3.0", "");
+        Test.ensureEqual(gi.find(keyPAs, 5), 3, "");
+
+        //other PrimitiveArrays (with the same PATypes)
+        PrimitiveArray otherPAs[] = new PrimitiveArray[]{
+            new StringArray(new String[]{"b", "b"}),
+            new DoubleArray(new double[]{2, 4})};
+        Test.ensureEqual(gi.find(otherPAs, 0), 1, "");
+        Test.ensureEqual(gi.find(otherPAs, 1), -1, "");
+
+        //many groups (forces rehash)
+        IntArray ia = new IntArray();
+        for (int i = 0; i < 100000; i++)
+            ia.add((i * 7919) % 30011);
+        gi = new GroupIndex(new PAType[]{PAType.INT}, 1);
+        keyPAs = new PrimitiveArray[]{ia};
+        for (int row = 0; row < ia.size(); row++)
+            gi.add(keyPAs, row);
+        Test.ensureEqual(gi.size(), 30011, "");
+        for (int row = 0; row < ia.size(); row++)
+            Test.ensureEqual(gi.keyColumn(0).getInt(gi.find(keyPAs, row)), ia.get(row), "row=" + row);
+
+        //0 keys: everything is group 0
+        gi = new GroupIndex(new PAType[0], 1);
+        Test.ensureEqual(gi.add(new PrimitiveArray[0], 0), 0, "");
+        Test.ensureEqual(gi.add(new PrimitiveArray[0], 1), 0, "");
+        Test.ensureEqual(gi.size(), 1, "");
+        gi.clear();
+        Test.ensureEqual(gi.size(), 0, "");
+        Test.ensureEqual(gi.find(new PrimitiveArray[0], 0), -1, "");
+
+        String2.log("GroupIndex.basicTest finished");
+    }
+
+    /**
+     * This runs all of the interactive or not interactive tests for this class.
+     *
+     * @param errorSB all caught exceptions are logged to this.
+     * @param interactive  If true, this runs all of the interactive tests;
+     *   otherwise, this runs all of the non-interactive tests.
+     * @param doSlowTestsToo If true, this runs the slow tests, too.
+     * @param firstTest The first test to be run (0...).  Test numbers may change.
+     * @param lastTest The last test to be run, inclusive (0..., or -1 for the last test).
+     *   Test numbers may change.
+     */
+    public static void test(StringBuilder errorSB, boolean interactive,
+        boolean doSlowTestsToo, int firstTest, int lastTest) {
+        if (lastTest < 0)
+            lastTest = interactive? -1 : 0;
+        String msg = "\n^^^ GroupIndex.test(" + interactive + ") test=";
+
+        for (int test = firstTest; test <= lastTest; test++) {
+            try {
+                long time = System.currentTimeMillis();
+                String2.log(msg + test);
+
+                if (interactive) {
+                    //if (test ==  0) ...;
+
+                } else {
+                    if (test ==  0) basicTest();
+                }
+
+                String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
+            } catch (Throwable testThrowable) {
+                String eMsg = msg + test + " caught throwable:\n" +
+                    MustBe.throwableToString(testThrowable);
+                errorSB.append(eMsg);
+                String2.log(eMsg);
+                if (interactive)
+                    String2.pressEnterToContinue("");
+            }
+        }
+    }
+
+}
@@ -14,6 +14,7 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.sql.Types;
 import java.text.MessageFormat;
 import java.util.ArrayList;
@@ -1731,6 +1732,20 @@ public abstract class PrimitiveArray {
      */
     abstract public void readDis(DataInputStream dis, int n) throws Exception;
 
+    /**
+     * This reads/adds up to n elements from a ByteBuffer 
+     * (e.g., a ByteBuffer with part of a file written by writeDos).
+     * This is much faster than readDis for the fixed-width types, 
+     * since it does a bulk copy.
+     *
+     * @param bb the ByteBuffer (big endian, as written by writeDos). 
+     *    Its position is advanced past the elements that were read.
+     * @param n the maximum number of elements to be read/added
+     * @return the number of elements read/added. This is less than n
+     *    if bb doesn't have n (complete) elements remaining.
+     */
+    abstract public int readByteBuffer(ByteBuffer bb, int n);
+
     /**
      * This writes a short with the classIndex() of the PA, an int with the 'size',
      * then the elements to a DataOutputStream.
@@ -2731,14 +2746,19 @@ public abstract class PrimitiveArray {
      *   second item in the sorted list, ...).
      */
     public static int[] rank(List table, int keys[], boolean[] ascending) {
-        return lowRank(new RowComparator(table, keys, ascending), table);
+        int rank[] = RowRanker.rank(table, keys, ascending, false);
+        return rank != null? rank : 
+            lowRank(new RowComparator(table, keys, ascending), table);
     }
 
     /** This is like rank, but StringArrays are tested case insensitively.   */
     public static int[] rankIgnoreCase(List table, int keys[], boolean[] ascending) {
-        return lowRank(new RowComparatorIgnoreCase(table, keys, ascending), table);
+        int rank[] = RowRanker.rank(table, keys, ascending, true);
+        return rank != null? rank : 
+            lowRank(new RowComparatorIgnoreCase(table, keys, ascending), table);
     }
     
+    /** This ranks the rows with a Comparator (for PrimitiveArray types that RowRanker doesn't support). */
     private static int[] lowRank(RowComparator comparator, List table) {
 
         //create the rowArray with pointer to specific rows
@@ -5173,6 +5193,45 @@ public abstract class PrimitiveArray {
     }
 
 
+    /** 
+     * This tests readByteBuffer (vs writeDos) for all PATypes.
+     *
+     * @throws Throwable if trouble
+     */
+    public static void testReadByteBuffer() throws Throwable {
+        String2.log("\n*** PrimitiveArray.testReadByteBuffer()");
+        String csv = "-2, 0, 1, 7, 99";
+        PAType paTypes[] = {PAType.BYTE, PAType.UBYTE, PAType.CHAR, PAType.SHORT, PAType.USHORT,
+            PAType.INT, PAType.UINT, PAType.LONG, PAType.ULONG, PAType.FLOAT, PAType.DOUBLE, PAType.STRING};
+        for (int t = 0; t < paTypes.length; t++) {
+            PrimitiveArray pa = paTypes[t] == PAType.STRING?
+                new StringArray(new String[]{"", "a", "caf\u00e9", "\u20ac\u0000z", "\ud83d\ude00!"}) :
+                csvFactory(paTypes[t], csv);
+            java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(baos);
+            pa.writeDos(dos);
+            dos.close();
+            byte bytes[] = baos.toByteArray();
+
+            //read all
+            PrimitiveArray pa2 = factory(paTypes[t], 1, false);
+            ByteBuffer bb = ByteBuffer.wrap(bytes);
+            Test.ensureEqual(pa2.readByteBuffer(bb, 100), 5, "paType=" + paTypes[t]);
+            Test.ensureEqual(pa2.toString(), pa.toString(), "paType=" + paTypes[t]);
+            Test.ensureEqual(bb.remaining(), 0, "paType=" + paTypes[t]);
+
+            //read part, then the rest (the last value is incomplete in the first buffer)
+            pa2.clear();
+            bb = ByteBuffer.wrap(bytes, 0, bytes.length - 1);
+            Test.ensureEqual(pa2.readByteBuffer(bb, 2), 2, "paType=" + paTypes[t]);
+            Test.ensureEqual(pa2.readByteBuffer(bb, 100), 2, "paType=" + paTypes[t]);
+            Test.ensureEqual(pa2.readByteBuffer(bb, 100), 0, "paType=" + paTypes[t]);
+            bb = ByteBuffer.wrap(bytes, bb.position(), bytes.length - bb.position());
+            Test.ensureEqual(pa2.readByteBuffer(bb, 100), 1, "paType=" + paTypes[t]);
+            Test.ensureEqual(pa2.toString(), pa.toString(), "paType=" + paTypes[t]);
+        }
+    }
+
     /** 
      * @throws RuntimeException if trouble
      */
@@ -5528,7 +5587,7 @@ public abstract class PrimitiveArray {
     public static void test(StringBuilder errorSB, boolean interactive, 
         boolean doSlowTestsToo, int firstTest, int lastTest) {
         if (lastTest < 0)
-            lastTest = interactive? -1 : 2;
+            lastTest = interactive? -1 : 3;
         String msg = "\n^^^ PrimitiveArray.test(" + interactive + ") test=";
 
         for (int test = firstTest; test <= lastTest; test++) {
@@ -5543,6 +5602,7 @@ public abstract class PrimitiveArray {
                     if (test ==  0) basicTest();
                     if (test ==  1) testTestValueOpValue();
                     if (test ==  2) testNccsv();
+                    if (test ==  3) testReadByteBuffer();
                 }
 
                 String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
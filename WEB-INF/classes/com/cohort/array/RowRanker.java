@@ -0,0 +1,416 @@
+/* This file is Copyright, NOAA.
+ * See the MIT/X-like license in LICENSE.txt.
+ */
+package com.cohort.array;
+
+import com.cohort.util.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * RowRanker is the engine for PrimitiveArray.rank and rankIgnoreCase
+ * (and so for Table.sort, TableWriterOrderBy, TableWriterDistinct, ...).
+ * It ranks the rows without making an Integer for each row and without
+ * calling a Comparator for each comparison.
+ *
+ * <p>For each key column, this makes a long[] with a sort key for each row,
+ * which sorts (as a signed long) in the same order as
+ * PrimitiveArray.compare (or compareIgnoreCase).
+ * For numeric columns, the key is made from the value's bits.
+ * For String and char columns, the key is the rank of the row's distinct value.
+ * Then the rows are sorted by the least important key, ..., then by the
+ * most important key, each with a stable LSD radix sort of the row numbers.
+ * The radix sort only sorts the bits needed for the range of each key
+ * (e.g., one pass for a String column with &lt;= 2048 distinct values),
+ * so the time is proportional to the number of rows.
+ *
+ * <p>Like the Comparator-based sort it replaces, this sort is stable:
+ * equal elements will not be reordered as a result of the sort.
+ */
+public class RowRanker {
+
+    private final static long LOW_32_BITS = 0xFFFFFFFFL;
+
+    //the radix sort sorts 11 bits per pass
+    private final static int RADIX_BITS = 11;
+    private final static int RADIX = 1 << RADIX_BITS;
+    private final static int RADIX_MASK = RADIX - 1;
+
+    /**
+     * This ranks the rows of a table.
+     * See PrimitiveArray.rank for details.
+     *
+     * @param table a List of PrimitiveArrays
+     * @param keys an array of the key column numbers
+     *    (each is 0..nColumns-1, the first key is the most important)
+     * @param ascending an array of booleans corresponding to the keys
+     * @param ignoreCase if true, StringArrays and CharArrays are compared
+     *    with compareIgnoreCase
+     * @return an int[] with values (0 ... size-1)
+     *   which points to the row number for a row with a specific rank,
+     *   or null if a key column is an unsupported type of PrimitiveArray
+     *   (so the caller should use a RowComparator).
+     * @throws RuntimeException if trouble
+     */
+    public static int[] rank(List table, int keys[], boolean ascending[], boolean ignoreCase) {
+        String errorInMethod = String2.ERROR + " in RowRanker.rank:\n";
+        Test.ensureNotEqual(keys.length, 0, errorInMethod + "keys.length must not be 0.");
+        Test.ensureEqual(keys.length, ascending.length, errorInMethod + "keys.length must equal ascending.length.");
+        for (int k = 0; k < keys.length; k++)
+            Test.ensureBetween(keys[k], 0, table.size() - 1, errorInMethod +
+                "keys[" + k + "] points to a column that isn't in the table.");
+        for (int k = 0; k < keys.length; k++)
+            if (!isSupported(((PrimitiveArray)table.get(keys[k])).elementType()))
+                return null;
+
+        int n = ((PrimitiveArray)table.get(0)).size();
+        int rank[] = new int[n];
+        for (int i = 0; i < n; i++)
+            rank[i] = i;
+        if (n < 2)
+            return rank;
+
+        int tRank[] = new int[n];
+        long sortKeys[] = new long[n]; //by row
+        long posKeys[] = new long[n];  //by position in rank
+        int count[] = new int[RADIX + 1];
+        for (int k = keys.length - 1; k >= 0; k--) { //least important key first
+            PrimitiveArray pa = (PrimitiveArray)table.get(keys[k]);
+            makeSortKeys(pa, n, ignoreCase, sortKeys);
+            if (!ascending[k]) {
+                for (int i = 0; i < n; i++)
+                    sortKeys[i] = ~sortKeys[i]; //reverses the order of signed longs
+            }
+
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (int i = 0; i < n; i++) {
+                long sk = sortKeys[i];
+                if (sk < min) min = sk;
+                if (sk > max) max = sk;
+            }
+            if (min == max)
+                continue; //all the same, so the order doesn't change
+
+            //posKeys are unsigned offsets from min, so only the needed bits are sorted
+            int nBits = 64 - Long.numberOfLeadingZeros(max - min);
+            for (int i = 0; i < n; i++)
+                posKeys[i] = sortKeys[rank[i]] - min;
+
+            //stable LSD radix sort of rank (and posKeys) by posKeys, RADIX_BITS at a time
+            long tKeys[] = sortKeys; //sortKeys isn't needed again for this key
+            for (int shift = 0; shift < nBits; shift += RADIX_BITS) {
+                Arrays.fill(count, 0);
+                for (int i = 0; i < n; i++)
+                    count[((int)(posKeys[i] >>> shift) & RADIX_MASK) + 1]++;
+                if (count[((int)(posKeys[0] >>> shift) & RADIX_MASK) + 1] == n)
+                    continue; //all in one bucket, so the order doesn't change
+                for (int b = 1; b < RADIX; b++)
+                    count[b] += count[b - 1]; //now count[b] is the start of bucket b
+                for (int i = 0; i < n; i++) {
+                    long key = posKeys[i];
+                    int to = count[(int)(key >>> shift) & RADIX_MASK]++;
+                    tRank[to] = rank[i];
+                    tKeys[to] = key;
+                }
+                int ti[] = rank;  rank = tRank;  tRank = ti;
+                long tl[] = posKeys; posKeys = tKeys; tKeys = tl;
+            }
+            sortKeys = tKeys;
+        }
+        return rank;
+    }
+
+    /**
+     * This indicates if makeSortKeys supports a PAType.
+     *
+     * @param paType a PAType
+     * @return true if makeSortKeys supports it
+     */
+    private static boolean isSupported(PAType paType) {
+        return paType == PAType.BYTE   || paType == PAType.UBYTE ||
+               paType == PAType.SHORT  || paType == PAType.USHORT ||
+               paType == PAType.INT    || paType == PAType.UINT ||
+               paType == PAType.LONG   || paType == PAType.ULONG ||
+               paType == PAType.FLOAT  || paType == PAType.DOUBLE ||
+               paType == PAType.CHAR   || paType == PAType.STRING;
+    }
+
+    /**
+     * This makes the sort keys for a column: longs which sort (as signed longs)
+     * in the same order as pa.compare (or compareIgnoreCase).
+     * E.g., the cohort missing value sorts highest, and
+     * for floats and doubles, -0 sorts before 0 and NaN sorts highest.
+     *
+     * @param pa the PrimitiveArray (a supported PAType)
+     * @param n the number of rows
+     * @param ignoreCase if true, Strings and chars are compared with compareIgnoreCase
+     * @param sortKeys receives the sort keys (length &gt;= n)
+     */
+    private static void makeSortKeys(PrimitiveArray pa, int n, boolean ignoreCase,
+        long sortKeys[]) {
+
+        //for the integer types, getInt/getLong (used by compare)
+        //  change the max value (the missing value) to a bigger max value,
+        //  which doesn't change the order
+        PAType paType = pa.elementType();
+        if (paType == PAType.BYTE) {
+            byte ar[] = ((ByteArray)pa).array;
+            for (int i = 0; i < n; i++) sortKeys[i] = ar[i];
+        } else if (paType == PAType.UBYTE) {
+            byte ar[] = ((UByteArray)pa).array;
+            for (int i = 0; i < n; i++) sortKeys[i] = ar[i] & 0xFF;
+        } else if (paType == PAType.SHORT) {
+            short ar[] = ((ShortArray)pa).array;
+            for (int i = 0; i < n; i++) sortKeys[i] = ar[i];
+        } else if (paType == PAType.USHORT) {
+            short ar[] = ((UShortArray)pa).array;
+            for (int i = 0; i < n; i++) sortKeys[i] = ar[i] & 0xFFFF;
+        } else if (paType == PAType.INT) {
+            int ar[] = ((IntArray)pa).array;
+            for (int i = 0; i < n; i++) sortKeys[i] = ar[i];
+        } else if (paType == PAType.UINT) {
+            int ar[] = ((UIntArray)pa).array;
+            for (int i = 0; i < n; i++) sortKeys[i] = ar[i] & LOW_32_BITS;
+        } else if (paType == PAType.LONG) {
+            System.arraycopy(((LongArray)pa).array, 0, sortKeys, 0, n);
+        } else if (paType == PAType.ULONG) {
+            long ar[] = ((ULongArray)pa).array;
+            for (int i = 0; i < n; i++) sortKeys[i] = ar[i] ^ Long.MIN_VALUE;
+        } else if (paType == PAType.FLOAT) {
+            //like Float.compare: floatToIntBits makes all NaNs the same (and highest)
+            float ar[] = ((FloatArray)pa).array;
+            for (int i = 0; i < n; i++) {
+                int bits = Float.floatToIntBits(ar[i]);
+                sortKeys[i] = bits ^ ((bits >> 31) & Integer.MAX_VALUE);
+            }
+        } else if (paType == PAType.DOUBLE) {
+            //like Double.compare
+            double ar[] = ((DoubleArray)pa).array;
+            for (int i = 0; i < n; i++) {
+                long bits = Double.doubleToLongBits(ar[i]);
+                sortKeys[i] = bits ^ ((bits >> 63) & Long.MAX_VALUE);
+            }
+        } else {
+            makeDistinctSortKeys(pa, n, ignoreCase, sortKeys);
+        }
+    }
+
+    /**
+     * For String and char columns, this makes the sort keys from
+     * the ranks of the distinct values.
+     * Values which are equal according to compare (or compareIgnoreCase),
+     * e.g., "a" and "A" with ignoreCase, get the same sort key.
+     *
+     * @param pa the PrimitiveArray
+     * @param n the number of rows
+     * @param ignoreCase if true, the values are compared with compareIgnoreCase
+     * @param sortKeys receives the sort keys (length &gt;= n)
+     */
+    private static void makeDistinctSortKeys(final PrimitiveArray pa, int n,
+        final boolean ignoreCase, long sortKeys[]) {
+
+        //find the distinct values and the first row with each
+        //(for StringArrays, use the StringHolders, so no Strings are made)
+        StringArray sa = pa instanceof StringArray? (StringArray)pa : null;
+        HashMap<Object,Integer> map = new HashMap();
+        IntArray firstRow = new IntArray();
+        for (int i = 0; i < n; i++) {
+            Object value = sa == null? pa.getString(i) : sa.getStringHolder(i);
+            Integer which = map.get(value);
+            if (which == null) {
+                which = Integer.valueOf(firstRow.size());
+                map.put(value, which);
+                firstRow.add(i);
+            }
+            sortKeys[i] = which.intValue();
+        }
+        map = null; //allow gc
+
+        //sort the distinct values
+        final int firstRowAr[] = firstRow.array;
+        int nDistinct = firstRow.size();
+        Integer distinct[] = new Integer[nDistinct];
+        for (int d = 0; d < nDistinct; d++)
+            distinct[d] = Integer.valueOf(d);
+        Arrays.sort(distinct, new Comparator<Integer>() {
+            public int compare(Integer d1, Integer d2) {
+                int row1 = firstRowAr[d1.intValue()];
+                int row2 = firstRowAr[d2.intValue()];
+                return ignoreCase? pa.compareIgnoreCase(row1, row2) : pa.compare(row1, row2);
+            }});
+
+        //rank them (equal values get the same rank)
+        int distinctRank[] = new int[nDistinct];
+        int tRank = 0;
+        for (int d = 1; d < nDistinct; d++) {
+            int row1 = firstRowAr[distinct[d - 1].intValue()];
+            int row2 = firstRowAr[distinct[d].intValue()];
+            if ((ignoreCase? pa.compareIgnoreCase(row1, row2) : pa.compare(row1, row2)) != 0)
+                tRank++;
+            distinctRank[distinct[d].intValue()] = tRank;
+        }
+        for (int i = 0; i < n; i++)
+            sortKeys[i] = distinctRank[(int)sortKeys[i]];
+    }
+
+    /**
+     * This tests that rank gets the same results as the Comparator-based sort.
+     */
+    public static void basicTest() throws Throwable {
+        String2.log("\n*** RowRanker.basicTest");
+        Random random = new Random(17);
+        String strings[] = {"", "a", "A", "aa", "aA", "Aa", "AA", "ab", "b", "B",
+            "\u00e9", "\u00c9", "e", "z", "1", "10", "9"};
+        double doubles[] = {Double.NaN, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+            -0.0, 0, 1, -1, 1e300, -1e300, Double.MIN_VALUE, -Double.MIN_VALUE,
+            0.5, 2.5, Double.longBitsToDouble(0x7ff8000000000001L)}; //another NaN
+        for (int nRows = 0; nRows < 300; nRows += 1 + nRows / 4) {
+            for (int rep = 0; rep < 20; rep++) {
+                //make a table with all the types
+                ArrayList table = new ArrayList();
+                PAType paTypes[] = {PAType.BYTE, PAType.UBYTE, PAType.SHORT, PAType.USHORT,
+                    PAType.INT, PAType.UINT, PAType.LONG, PAType.ULONG,
+                    PAType.FLOAT, PAType.DOUBLE, PAType.CHAR, PAType.STRING};
+                int nDistinct = 1 + random.nextInt(10);
+                for (int t = 0; t < paTypes.length; t++) {
+                    PrimitiveArray pa = PrimitiveArray.factory(paTypes[t], nRows, false);
+                    for (int row = 0; row < nRows; row++) {
+                        int r = random.nextInt(nDistinct + 3); //a few other values
+                        if (paTypes[t] == PAType.STRING) {
+                            pa.addString(strings[r % strings.length]);
+                        } else if (paTypes[t] == PAType.CHAR) {
+                            pa.addString(r == 0? "" : strings[r % strings.length]);
+                        } else if (paTypes[t] == PAType.FLOAT || paTypes[t] == PAType.DOUBLE) {
+                            pa.addDouble(r < doubles.length? doubles[r] : random.nextGaussian());
+                        } else if (r == nDistinct) {
+                            pa.addDouble(Double.NaN); //the missing value
+                        } else if (r == nDistinct + 1) {
+                            pa.addInt(-128);
+                        } else if (r == nDistinct + 2) {
+                            pa.addLong(random.nextLong() >> random.nextInt(64)); //may be clamped
+                        } else {
+                            pa.addInt(r * (random.nextBoolean()? 1 : -1));
+                        }
+                    }
+                    table.add(pa);
+                }
+
+                //rank by 1 to 3 random keys
+                int nKeys = 1 + random.nextInt(3);
+                int keys[] = new int[nKeys];
+                boolean ascending[] = new boolean[nKeys];
+                for (int k = 0; k < nKeys; k++) {
+                    keys[k] = random.nextInt(table.size());
+                    ascending[k] = random.nextBoolean();
+                }
+                boolean ignoreCase = random.nextBoolean();
+                Integer rowArray[] = new Integer[nRows];
+                for (int i = 0; i < nRows; i++)
+                    rowArray[i] = Integer.valueOf(i);
+                Arrays.sort(rowArray, ignoreCase?
+                    new RowComparatorIgnoreCase(table, keys, ascending) :
+                    new RowComparator(table, keys, ascending));
+                int expected[] = new int[nRows];
+                for (int i = 0; i < nRows; i++)
+                    expected[i] = rowArray[i].intValue();
+                Test.ensureEqual(rank(table, keys, ascending, ignoreCase), expected,
+                    "nRows=" + nRows + " keys=" + String2.toCSSVString(keys) +
+                    " ascending=" + String2.toCSSVString(ascending) +
+                    " ignoreCase=" + ignoreCase);
+            }
+        }
+        String2.log("RowRanker.basicTest finished");
+    }
+
+    /**
+     * This times ranking a table with 10^7 rows by 3 keys
+     * with rank and with the Comparator-based sort.
+     */
+    public static void timeRank() throws Throwable {
+        String2.log("\n*** RowRanker.timeRank");
+        int nRows = 10000000;
+        Random random = new Random(17);
+        IntArray ia = new IntArray(nRows, false);
+        DoubleArray da = new DoubleArray(nRows, false);
+        StringArray sa = new StringArray(nRows, false);
+        for (int row = 0; row < nRows; row++) {
+            ia.add(random.nextInt(1000));
+            da.add(random.nextDouble());
+            sa.add("station" + random.nextInt(100));
+        }
+        ArrayList table = String2.toArrayList(new Object[]{ia, da, sa});
+        int keys[] = {2, 0, 1};
+        boolean ascending[] = {true, false, true};
+        for (int attempt = 0; attempt < 3; attempt++) {
+            long time = System.currentTimeMillis();
+            Integer rowArray[] = new Integer[nRows];
+            for (int i = 0; i < nRows; i++)
+                rowArray[i] = Integer.valueOf(i);
+            Arrays.sort(rowArray, new RowComparator(table, keys, ascending));
+            long time1 = System.currentTimeMillis() - time;
+
+            time = System.currentTimeMillis();
+            int rank[] = rank(table, keys, ascending, false);
+            long time2 = System.currentTimeMillis() - time;
+            for (int i = 0; i < nRows; i++)
+                if (rank[i] != rowArray[i].intValue())
+                    throw new RuntimeException("rank[" + i + "]=" + rank[i] +
+                        " expected=" + rowArray[i]);
+
+            String2.log("RowRanker.timeRank nRows=" + nRows +
+                "\n  RowComparator: " + time1 + "ms" +
+                "\n  RowRanker:     " + time2 + "ms" +
+                "\n  (typical: RowComparator=~40000ms, RowRanker=~3800ms)");
+        }
+    }
+
+    /**
+     * This runs all of the interactive or not interactive tests for this class.
+     *
+     * @param errorSB all caught exceptions are logged to this.
+     * @param interactive  If true, this runs all of the interactive tests;
+     *   otherwise, this runs all of the non-interactive tests.
+     * @param doSlowTestsToo If true, this runs the slow tests, too.
+     * @param firstTest The first test to be run (0...).  Test numbers may change.
+     * @param lastTest The last test to be run, inclusive (0..., or -1 for the last test).
+     *   Test numbers may change.
+     */
+    public static void test(StringBuilder errorSB, boolean interactive,
+        boolean doSlowTestsToo, int firstTest, int lastTest) {
+        if (lastTest < 0)
+            lastTest = interactive? -1 : 0;
+        String msg = "\n^^^ RowRanker.test(" + interactive + ") test=";
+
+        for (int test = firstTest; test <= lastTest; test++) {
+            try {
+                long time = System.currentTimeMillis();
+                String2.log(msg + test);
+
+                if (interactive) {
+                    //if (test ==  0) ...;
+
+                } else {
+                    if (test ==  0) basicTest();
+
+                    //not usually run
+                    if (test == 1000) timeRank();
+                }
+
+                String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
+            } catch (Throwable testThrowable) {
+                String eMsg = msg + test + " caught throwable:\n" +
+                    MustBe.throwableToString(testThrowable);
+                errorSB.append(eMsg);
+                String2.log(eMsg);
+                if (interactive)
+                    String2.pressEnterToContinue("");
+            }
+        }
+    }
+
+}
@@ -21,6 +21,7 @@ import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
 import java.io.Writer;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -43,6 +44,11 @@ import java.util.Set;
  * <p>This class uses "" to represent a missing value (NaN).
  *
  * <p>Technically, this class might support element=null, but not fully tested.
+ *
+ * <p>compact() switches a (usually read-only) StringArray to a more compact
+ * storage mode (dictionary-encoded or packed UTF-8, chosen by the values'
+ * cardinality). That is invisible to users of the class: any method which 
+ * changes the values switches it back to the standard storage first.
  */
 public class StringArray extends PrimitiveArray {
 
@@ -75,7 +81,7 @@ public class StringArray extends PrimitiveArray {
         if (index >= size)
             throw new IllegalArgumentException(String2.ERROR + " in StringArray.isMissingValue: index (" + 
                 index + ") >= size (" + size + ").");
-        StringHolder sh = array[index];
+        StringHolder sh = holder(index);
         if (sh == null)
             return true;
         char car[] = sh.charArray();
@@ -91,6 +97,24 @@ public class StringArray extends PrimitiveArray {
      *   but string in an element may be null (but that's not fully supported/tested).
      */
     private StringHolder[] array; 
+
+    /**
+     * If array is null, compact() has put the values in a compact storage mode:
+     * <br>In dictionary mode, dictionary has the distinct StringHolders
+     *   and codes1 (if there are &lt;=256 distinct values) or codes2 (&lt;=65536)
+     *   has each element's index in dictionary.
+     * <br>In packed mode, utf8 has all of the elements' UTF-8 bytes, back to back,
+     *   and element i is utf8[offsets[i]] ... utf8[offsets[i+1] - 1].
+     * <br>Any method which changes the values calls expand() first.
+     */
+    private StringHolder[] dictionary;
+    private byte[]  codes1;
+    private short[] codes2;
+    private byte[]  utf8;
+    private int[]   offsets;
+
+    /** compact() doesn't bother with StringArrays with fewer elements than this. */
+    public static int compactMinSize = 1000;
     
     /**
      * A constructor for a capacity of 8 elements. The initial 'size' will be 0.
@@ -393,7 +417,237 @@ public class StringArray extends PrimitiveArray {
      * @return the current capacity (number of elements) of the internal data array.
      */
     public int capacity() {
-        return array.length;
+        return array == null? size : array.length;
+    }
+
+    /**
+     * This returns the StringHolder for an element, regardless of the storage mode.
+     * This doesn't check index and doesn't change this object, 
+     * so it is thread-safe for read-only StringArrays.
+     *
+     * @param index 0 ... size-1
+     * @return the StringHolder for the element (in packed mode, a new, non-canonical one)
+     */
+    private StringHolder holder(int index) {
+        StringHolder tArray[] = array;
+        if (tArray != null)
+            return tArray[index];
+        if (codes1 != null)
+            return dictionary[codes1[index] & 0xFF];
+        if (codes2 != null)
+            return dictionary[codes2[index] & 0xFFFF];
+        int start = offsets[index];
+        int end = offsets[index + 1];
+        return start == end? String2.STRING_HOLDER_ZERO :
+            new StringHolder(new String(utf8, start, end - start, String2.UTF_8_CHARSET));
+    }
+
+    /**
+     * This returns the String for an element, regardless of the storage mode.
+     * In packed mode, this decodes the UTF-8 bytes directly (without making a StringHolder).
+     *
+     * @param index 0 ... size-1
+     * @return the String for the element
+     */
+    private String string(int index) {
+        if (array != null || utf8 == null)
+            return holder(index).string();
+        int start = offsets[index];
+        int end = offsets[index + 1];
+        return start == end? String2.EMPTY_STRING :
+            new String(utf8, start, end - start, String2.UTF_8_CHARSET);
+    }
+
+    /**
+     * This is like holder(), but returns a canonical StringHolder in packed mode,
+     * so the result is suitable for storing in another StringArray's array.
+     *
+     * @param index 0 ... size-1
+     * @return the StringHolder for the element
+     */
+    private StringHolder canonicalHolder(int index) {
+        return utf8 == null? holder(index) : String2.canonicalStringHolder(holder(index));
+    }
+
+    /**
+     * This copies StringHolders from this StringArray (in any storage mode) 
+     * to another StringArray's array.
+     *
+     * @param index the first element to be copied
+     * @param dest the destination array
+     * @param destIndex the first position in dest to be filled
+     * @param n the number of elements to be copied
+     */
+    private void copyHolders(int index, StringHolder dest[], int destIndex, int n) {
+        if (array != null) {
+            System.arraycopy(array, index, dest, destIndex, n);
+        } else {
+            for (int i = 0; i < n; i++) 
+                dest[destIndex + i] = canonicalHolder(index + i);
+        }
+    }
+
+    /**
+     * If this StringArray is in a compact storage mode, this switches it back to
+     * the standard storage (an array of canonical StringHolders, with capacity=size).
+     */
+    private void expand() {
+        if (array != null)
+            return;
+        StringHolder tArray[] = new StringHolder[size];
+        copyHolders(0, tArray, 0, size);
+        array = tArray; //do first to minimize concurrency problems
+        dictionary = null;
+        codes1 = null;
+        codes2 = null;
+        utf8 = null;
+        offsets = null;
+    }
+
+    /**
+     * This returns true if this StringArray is using a compact storage mode.
+     *
+     * @return true if this StringArray is using a compact storage mode.
+     */
+    public boolean isCompact() {
+        return array == null;
+    }
+
+    /**
+     * This returns true if this StringArray is using the dictionary-encoded 
+     * compact storage mode.
+     *
+     * @return true if this StringArray is using the dictionary-encoded 
+     *    compact storage mode.
+     */
+    public boolean isDictionaryEncoded() {
+        return array == null && utf8 == null;
+    }
+
+    /**
+     * This switches this StringArray to a compact storage mode if that 
+     * would save a significant amount of memory.
+     * Use this for StringArrays which will be kept in memory for a long time
+     * and rarely (or never) changed, e.g., the columns of a dataset's 
+     * subsetVariables or fileTable table.
+     * The storage mode is chosen based on the number of distinct values:
+     * <ul>
+     * <li>If there are few distinct values (&lt;=65536), dictionary mode stores 
+     *   each element as a 1 or 2 byte code (instead of a 4 or 8 byte reference to a 
+     *   StringHolder) plus one reference to each distinct StringHolder.
+     * <li>If there are many distinct values, packed mode stores all of the 
+     *   elements' UTF-8 bytes in one byte[] plus an int[] of offsets,
+     *   so there is no StringHolder and char[] object (with their overhead) 
+     *   for each element.
+     *   Packed mode isn't used if there is a null element or an element with a 
+     *   surrogate char (because UTF-8 wouldn't round trip those exactly).
+     * </ul>
+     * This should be called before the StringArray is shared with other threads,
+     * since this changes the storage.
+     * The values and the behavior of all methods are unchanged.
+     * The first method call which changes the values (e.g., add, set, sort) 
+     * switches back to the standard storage.
+     *
+     * @return true if this StringArray is now using a compact storage mode.
+     */
+    public boolean compact() {
+        if (array == null)
+            return true;
+        if (size < compactMinSize)
+            return false;
+
+        //gather the distinct values and the number of UTF-8 bytes
+        HashMap<StringHolder,Integer> codeMap = new HashMap();
+        ArrayList<StringHolder> distinct = new ArrayList();
+        int nDistinct = 0;
+        long holderBytes = 0; //StringHolder + char[] for each distinct value
+        long nUtf8 = 0;
+        boolean packable = true;
+        for (int i = 0; i < size; i++) {
+            StringHolder sh = array[i];
+            char car[] = sh.charArray();
+            if (car == null) {
+                packable = false;
+            } else if (packable) {
+                int n = car.length;
+                for (int po = 0; po < n; po++) {
+                    char ch = car[po];
+                    if (ch < 0x80) {
+                        nUtf8++;
+                    } else if (ch < 0x800) {
+                        nUtf8 += 2;
+                    } else if (Character.isSurrogate(ch)) {
+                        packable = false;
+                        break;
+                    } else {
+                        nUtf8 += 3;
+                    }
+                }
+            }
+            if (codeMap.get(sh) == null) { 
+                codeMap.put(sh, nDistinct < 65536? nDistinct : -1);
+                if (nDistinct < 65536)
+                    distinct.add(sh);
+                nDistinct++;
+                holderBytes += 40 + 2 * (car == null? 0 : car.length);
+            }
+        }
+
+        //estimate the number of bytes used by each storage mode
+        long standardBytes = 4L * size + holderBytes;
+        long dictionaryBytes = nDistinct <= 65536? 
+            (nDistinct <= 256? 1L : 2L) * size + 4L * nDistinct + holderBytes : 
+            Long.MAX_VALUE;
+        long packedBytes = packable? nUtf8 + 4L * (size + 1) : Long.MAX_VALUE;
+        long bestBytes = Math.min(dictionaryBytes, packedBytes);
+        if (bestBytes > standardBytes * 3 / 4) //not worth it
+            return false;
+
+        if (bestBytes == dictionaryBytes) {
+            StringHolder tDictionary[] = distinct.toArray(new StringHolder[nDistinct]);
+            if (nDistinct <= 256) {
+                byte tCodes[] = new byte[size];
+                for (int i = 0; i < size; i++)
+                    tCodes[i] = (byte)codeMap.get(array[i]).intValue();
+                codes1 = tCodes;
+            } else {
+                short tCodes[] = new short[size];
+                for (int i = 0; i < size; i++)
+                    tCodes[i] = (short)codeMap.get(array[i]).intValue();
+                codes2 = tCodes;
+            }
+            dictionary = tDictionary;
+        } else {
+            codeMap = null;
+            distinct = null;
+            Math2.ensureArraySizeOkay(nUtf8, "StringArray.compact");  
+            byte tUtf8[] = new byte[(int)nUtf8];
+            int tOffsets[] = new int[size + 1];
+            int po = 0;
+            for (int i = 0; i < size; i++) {
+                tOffsets[i] = po;
+                char car[] = array[i].charArray();
+                int n = car.length;
+                for (int ci = 0; ci < n; ci++) {
+                    char ch = car[ci];
+                    if (ch < 0x80) {
+                        tUtf8[po++] = (byte)ch;
+                    } else if (ch < 0x800) {
+                        tUtf8[po++] = (byte)(0xC0 | (ch >> 6));
+                        tUtf8[po++] = (byte)(0x80 | (ch & 0x3F));
+                    } else {
+                        tUtf8[po++] = (byte)(0xE0 | (ch >> 12));
+                        tUtf8[po++] = (byte)(0x80 | ((ch >> 6) & 0x3F));
+                        tUtf8[po++] = (byte)(0x80 | (ch & 0x3F));
+                    }
+                }
+            }
+            tOffsets[size] = po;
+            utf8 = tUtf8;
+            offsets = tOffsets;
+        }
+        array = null; //do last
+        return true;
     }
 
     /**
@@ -409,7 +663,7 @@ public class StringArray extends PrimitiveArray {
         //and https://stackoverflow.com/questions/299304/why-does-javas-hashcode-in-string-use-31-as-a-multiplier
         int code = 0;
         for (int i = 0; i < size; i++) 
-            code = 31*code + array[i].hashCode();
+            code = 31*code + holder(i).hashCode();
         return code;
     }
 
@@ -450,11 +704,11 @@ public class StringArray extends PrimitiveArray {
         }
         StringHolder tar[] = sa.array;
         if (stride == 1) {
-            System.arraycopy(array, startIndex, tar, 0, willFind);
+            copyHolders(startIndex, tar, 0, willFind);
         } else {
             int po = 0;
             for (int i = startIndex; i <= stopIndex; i+=stride) 
-                tar[po++] = array[i];
+                tar[po++] = canonicalHolder(i);
         }
         return sa;
     }
@@ -483,6 +737,7 @@ public class StringArray extends PrimitiveArray {
      * @param value the value to be added to the array
      */
     public void add(String value) {
+        if (array == null) expand();
         if (size == array.length) //if we're at capacity
             ensureCapacity(size + 1L);
         array[size++] = value == null?        String2.STRING_HOLDER_NULL : //quick, saves time
@@ -532,6 +787,7 @@ public class StringArray extends PrimitiveArray {
      * @param value the value to be added to the array
      */
     public void addNotCanonical(String value) {
+        if (array == null) expand();
         if (size == array.length) //if we're at capacity
             ensureCapacity(size + 1L);
         //still do most common canonicallization
@@ -571,6 +827,7 @@ public class StringArray extends PrimitiveArray {
      *
      */
     public void makeCanonical() {
+        if (array == null) expand();
         for (int i = 0; i < size; i++)
             array[i] = String2.canonicalStringHolder(array[i]);
     }
@@ -615,6 +872,7 @@ public class StringArray extends PrimitiveArray {
         if (index < 0 || index > size)
             throw new IllegalArgumentException(MessageFormat.format(
                 ArrayAtInsert, getClass().getSimpleName(), "" + index, "" + size));
+        if (array == null) expand();
         if (size == array.length) //if we're at capacity
             ensureCapacity(size + 1L);
         System.arraycopy(array, index, array, index + 1, size - index);
@@ -758,7 +1016,7 @@ public class StringArray extends PrimitiveArray {
                     " + nValues=" + nValues + 
                     " > otherPA.size=" + otherPA.size);
             ensureCapacity(size + nValues);            
-            System.arraycopy(((StringArray)otherPA).array, otherIndex, array, size, nValues);
+            ((StringArray)otherPA).copyHolders(otherIndex, array, size, nValues);
             size += nValues;
             return this;
         }
@@ -789,6 +1047,7 @@ public class StringArray extends PrimitiveArray {
         if (index >= size)
             throw new IllegalArgumentException(MessageFormat.format(
                 ArrayRemove, getClass().getSimpleName(), "" + index, "" + size));
+        if (array == null) expand();
         System.arraycopy(array, index + 1, array, index, size - index - 1);
         size--;
 
@@ -812,6 +1071,7 @@ public class StringArray extends PrimitiveArray {
             throw new IllegalArgumentException(String2.ERROR + " in StringArray.removeRange: from (" + 
                 from + ") > to (" + to + ").");
         }
+        if (array == null) expand();
         System.arraycopy(array, to, array, from, size - to);
         size -= to - from;
 
@@ -825,6 +1085,7 @@ public class StringArray extends PrimitiveArray {
      * @return the new size
      */
     public int removeEmptyAtEnd() {
+        if (array == null) expand();
         int last = size;
         while (last > 0) {
             char[] car = array[last - 1].charArray(); 
@@ -842,6 +1103,7 @@ public class StringArray extends PrimitiveArray {
      * @return the new size
      */
     public int removeIfNothing() {
+        if (array == null) expand();
         int nGood = 0;
         for (int po = 0; po < size; po++) {
             char[] car = array[po].charArray();
@@ -883,6 +1145,7 @@ public class StringArray extends PrimitiveArray {
               first + ") or >= last (" + last + ").");
         if (first == last || destination == first || destination == last) 
             return; //nothing to do
+        if (array == null) expand();
         //String2.log("move first=" + first + " last=" + last + " dest=" + destination);
         //String2.log("move initial " + String2.toCSSVString(array));
 
@@ -919,6 +1182,7 @@ public class StringArray extends PrimitiveArray {
      * @param bitset The BitSet indicating which rows (indices) should be kept.
      */
     public void justKeep(BitSet bitset) {
+        if (array == null) expand();
         int newSize = 0;
         for (int row = 0; row < size; row++) {
             if (bitset.get(row)) 
@@ -934,6 +1198,7 @@ public class StringArray extends PrimitiveArray {
      *    minCapacity is type long, but &gt;= Integer.MAX_VALUE will throw exception.
      */
     public void ensureCapacity(long minCapacity) {
+        if (array == null) expand();
         if (array.length < minCapacity) {
             //ensure minCapacity is < Integer.MAX_VALUE
             Math2.ensureArraySizeOkay(minCapacity, "StringArray");  
@@ -959,7 +1224,7 @@ public class StringArray extends PrimitiveArray {
         Math2.ensureMemoryAvailable(8L * size, "StringArray.toArray"); //8L is guess
         String[] tArray = new String[size];
         for (int i = 0; i < size; i++)
-            tArray[i] = array[i].string();
+            tArray[i] = string(i);
         return tArray;
     }
    
@@ -1008,7 +1273,7 @@ public class StringArray extends PrimitiveArray {
         if (index >= size)
             throw new IllegalArgumentException(String2.ERROR + " in StringArray.get: index (" + 
                 index + ") >= size (" + size + ").");
-        return array[index].string();
+        return string(index);
     }
 
     /**
@@ -1021,7 +1286,7 @@ public class StringArray extends PrimitiveArray {
         if (index >= size)
             throw new IllegalArgumentException(String2.ERROR + " in StringArray.getStringHolder: index (" + 
                 index + ") >= size (" + size + ").");
-        return array[index];
+        return holder(index);
     }
 
     /**
@@ -1034,6 +1299,7 @@ public class StringArray extends PrimitiveArray {
         if (index >= size)
             throw new IllegalArgumentException(String2.ERROR + " in StringArray.set: index (" + 
                 index + ") >= size (" + size + ").");
+        if (array == null) expand();
         array[index] = String2.canonicalStringHolder(new StringHolder(value));
     }
 
@@ -1240,7 +1506,7 @@ public class StringArray extends PrimitiveArray {
             return -1;
         char[] lookForc = lookFor.toCharArray();
         for (int i = startIndex; i < size; i++) 
-            if (Arrays.equals(array[i].charArray(), lookForc)) //could use == if assume canonical; it's okay if either/both c[] are null
+            if (Arrays.equals(holder(i).charArray(), lookForc)) //could use == if assume canonical; it's okay if either/both c[] are null
                 return i;
         return -1;
     }
@@ -1288,7 +1554,7 @@ public class StringArray extends PrimitiveArray {
                 startIndex + ") >= size (" + size + ").");
         char[] lookForc = lookFor.toCharArray();
         for (int i = startIndex; i >= 0; i--) 
-            if (Arrays.equals(array[i].charArray(), lookForc)) //could use == if assume canonical. it's okay if either/both b[] are null
+            if (Arrays.equals(holder(i).charArray(), lookForc)) //could use == if assume canonical. it's okay if either/both b[] are null
                 return i;
         return -1;
     }
@@ -1334,7 +1600,7 @@ public class StringArray extends PrimitiveArray {
      * so capacity will equal size.
      */
     public void trimToSize() {
-        if (size == array.length)
+        if (array == null || size == array.length) //compact storage is already trimmed
             return;
         StringHolder[] newArray = new StringHolder[size];
         System.arraycopy(array, 0, newArray, 0, size);
@@ -1354,7 +1620,7 @@ public class StringArray extends PrimitiveArray {
         if (other.size() != size)
             return false;
         for (int i = 0; i < size; i++)
-            if (!array[i].equals(other.array[i])) //could use == if assume canonical
+            if (!holder(i).equals(other.holder(i))) //could use == if assume canonical
                 return false;
         return true;
     }
@@ -1376,7 +1642,7 @@ public class StringArray extends PrimitiveArray {
             return "The two StringArrays aren't equal: one has " + size + 
                " value(s); the other has " + other.size() + " value(s).";
         for (int i = 0; i < size; i++)
-            if (!array[i].equals(other.array[i]))
+            if (!holder(i).equals(other.holder(i)))
                 return "The two StringArrays aren't equal: this[" + i + "]=\"" + get(i) + 
                                                      "\"; other[" + i + "]=\"" + other.get(i) + "\".";
         return "";
@@ -1427,6 +1693,7 @@ public class StringArray extends PrimitiveArray {
      * to the beginning.
      */
     public void sort() {
+        if (array == null) expand();
         Arrays.sort(array, 0, size, stringHolderComparator);
     }
 
@@ -1438,6 +1705,7 @@ public class StringArray extends PrimitiveArray {
      * E.g., all charAt(0) A's will sort by for all charAt(0) a's  (e.g., AA, Aa, aA, aa).
      */
     public void sortIgnoreCase() {
+        if (array == null) expand();
         Arrays.sort(array, 0, size, stringHolderComparatorIgnoreCase);
     }
 
@@ -1482,7 +1750,7 @@ public class StringArray extends PrimitiveArray {
             ((StringArray)otherPA).getStringHolder(index2) :
             new StringHolder(otherPA.getString(index2));
 
-        return array[index1].compareToIgnoreCase(sh2);
+        return holder(index1).compareToIgnoreCase(sh2);
     }
 
 
@@ -1496,6 +1764,7 @@ public class StringArray extends PrimitiveArray {
      * @param to an index number 0 ... size-1
      */
     public void copy(int from, int to) {
+        if (array == null) expand();
         array[to] = array[from];
     }
 
@@ -1510,6 +1779,7 @@ public class StringArray extends PrimitiveArray {
      */
     public void reorder(int rank[]) {
         int n = rank.length;
+        if (array == null) expand();
         //new length could be n, but I'll keep it the same array.length as before
         StringHolder[] newArray = new StringHolder[array.length]; 
         for (int i = 0; i < n; i++)
@@ -1569,6 +1839,54 @@ public class StringArray extends PrimitiveArray {
             add(dis.readUTF());
     }
 
+    /**
+     * This reads/adds up to n elements from a ByteBuffer 
+     * (e.g., a ByteBuffer with part of a file written by writeDos, i.e., via writeUTF).
+     *
+     * @param bb the ByteBuffer (big endian, as written by writeDos). 
+     *    Its position is advanced past the elements that were read.
+     * @param n the maximum number of elements to be read/added
+     * @return the number of elements read/added. This is less than n
+     *    if bb doesn't have n (complete) elements remaining.
+     * @throws IllegalArgumentException if the bytes aren't valid modified UTF-8
+     */
+    public int readByteBuffer(ByteBuffer bb, int n) {
+        ensureCapacity(size + (long)Math.min(n, bb.remaining() / 2));
+        char chars[] = new char[64];
+        for (int i = 0; i < n; i++) {
+            int po = bb.position();
+            if (bb.remaining() < 2)
+                return i;
+            int nBytes = bb.getShort(po) & 0xffff;
+            if (bb.remaining() < 2 + nBytes)
+                return i;
+            if (chars.length < nBytes)
+                chars = new char[nBytes];
+
+            //decode modified UTF-8 (see java.io.DataInput.readUTF)
+            int nChars = 0;
+            int bPo = po + 2;
+            int bEnd = bPo + nBytes;
+            while (bPo < bEnd) {
+                int b = bb.get(bPo++) & 0xff;
+                if (b < 0x80) {
+                    chars[nChars++] = (char)b;
+                } else if ((b & 0xe0) == 0xc0 && bPo < bEnd) {
+                    chars[nChars++] = (char)(((b & 0x1f) << 6) | (bb.get(bPo++) & 0x3f));
+                } else if ((b & 0xf0) == 0xe0 && bPo + 1 < bEnd) {
+                    int b2 = bb.get(bPo++) & 0x3f;
+                    chars[nChars++] = (char)(((b & 0x0f) << 12) | (b2 << 6) | (bb.get(bPo++) & 0x3f));
+                } else {
+                    throw new IllegalArgumentException(
+                        "StringArray.readByteBuffer: malformed UTF-8 at byte #" + (bPo - 1));
+                }
+            }
+            add(new String(chars, 0, nChars));
+            bb.position(bEnd);
+        }
+        return n;
+    }
+
     /**
      * This writes a short with the classIndex() of the PA, an int with the 'size',
      * then the elements to a DataOutputStream.
@@ -1729,7 +2047,7 @@ public class StringArray extends PrimitiveArray {
         int otherSize = pa.size(); 
         ensureCapacity(size + (long)otherSize);
         if (pa instanceof StringArray) {
-            System.arraycopy(((StringArray)pa).array, 0, array, size, otherSize);
+            ((StringArray)pa).copyHolders(0, array, size, otherSize);
             size += otherSize; 
         //2017-04-06 this was contemplated, but better to handle this some other way, 
         //  e.g., CharArray.getString()
@@ -1756,7 +2074,7 @@ public class StringArray extends PrimitiveArray {
         int otherSize = pa.size(); 
         ensureCapacity(size + (long)otherSize);
         if (pa instanceof StringArray) {
-            System.arraycopy(((StringArray)pa).array, 0, array, size, otherSize);
+            ((StringArray)pa).copyHolders(0, array, size, otherSize);
             size += otherSize; //do last to minimize concurrency problems
         } else {
             for (int i = 0; i < otherSize; i++)
@@ -1880,6 +2198,7 @@ public class StringArray extends PrimitiveArray {
             return 0;
         char[] fromc = from.toCharArray();
         StringHolder tosh = String2.canonicalStringHolder(new StringHolder(to));
+        if (array == null) expand();
         int count = 0;
         for (int i = 0; i < size; i++) {
             if (Arrays.equals(array[i].charArray(), fromc)) {  //could be == if assume all elements are canonical
@@ -2402,7 +2721,7 @@ public class StringArray extends PrimitiveArray {
      */
     public int firstTie() {
         for (int i = 1; i < size; i++) {
-            if (Arrays.equals(array[i - 1].charArray(), array[i].charArray())) { //either or both can be null
+            if (Arrays.equals(holder(i - 1).charArray(), holder(i).charArray())) { //either or both can be null
                 return i - 1;
             }
         }
@@ -2597,6 +2916,7 @@ public class StringArray extends PrimitiveArray {
      * @return the number of non-"" elements converted.
      */
     public int convertIsSomething2() {
+        if (array == null) expand();
         int count = 0;
         for (int i = 0; i < size; i++) {
             char[] car = array[i].charArray();
@@ -3314,6 +3634,152 @@ public class StringArray extends PrimitiveArray {
 
     }
 
+    /**
+     * This tests that a compact StringArray behaves exactly like the standard one.
+     *
+     * @param sa a compact StringArray
+     * @param standard a StringArray with the same values, in the standard storage mode
+     */
+    private static void testCompactSame(StringArray sa, StringArray standard) throws Throwable {
+        Test.ensureTrue(sa.isCompact(), "");
+        Test.ensureEqual(sa.size(), standard.size(), "");
+        Test.ensureEqual(sa.capacity(), sa.size(), "");
+        Test.ensureEqual(sa.testEquals(standard), "", "");
+        Test.ensureEqual(standard.testEquals(sa), "", "");
+        Test.ensureTrue(sa.equals(standard), "");
+        Test.ensureEqual(sa.hashCode(), standard.hashCode(), "");
+        int n = sa.size();
+        for (int i = 0; i < n; i += 7) {
+            Test.ensureEqual(sa.get(i), standard.get(i), "i=" + i);
+            Test.ensureEqual(sa.getStringHolder(i), standard.getStringHolder(i), "i=" + i);
+            Test.ensureEqual(sa.isMissingValue(i), standard.isMissingValue(i), "i=" + i);
+            Test.ensureEqual(sa.compare(i, standard, n - 1 - i), 
+                       standard.compare(i, standard, n - 1 - i), "i=" + i);
+            Test.ensureEqual(sa.compareIgnoreCase(i, standard, n - 1 - i), 
+                       standard.compareIgnoreCase(i, standard, n - 1 - i), "i=" + i);
+            Test.ensureEqual(sa.indexOf(standard.get(i)), standard.indexOf(standard.get(i)), "i=" + i);
+            Test.ensureEqual(sa.lastIndexOf(standard.get(i), n - 1), 
+                       standard.lastIndexOf(standard.get(i), n - 1), "i=" + i);
+        }
+        Test.ensureEqual(sa.indexOf("not there"), -1, "");
+        Test.ensureEqual(sa.firstTie(), standard.firstTie(), "");
+        Test.ensureEqual(sa.toArray(), standard.toArray(), "");
+        Test.ensureEqual(sa.subset(3, 5, n - 2).testEquals(standard.subset(3, 5, n - 2)), "", "");
+
+        //copies are in the standard mode, with canonical StringHolders
+        StringArray sa2 = (StringArray)sa.clone();
+        Test.ensureTrue(!sa2.isCompact(), "");
+        Test.ensureEqual(sa2.testEquals(standard), "", "");
+        Test.ensureTrue(sa2.getStringHolder(n - 1) == standard.getStringHolder(n - 1), "");
+        sa2 = new StringArray();
+        sa2.append(sa);
+        sa2.addFromPA(sa, 1, 2);
+        Test.ensureEqual(sa2.size(), n + 2, "");
+        Test.ensureEqual(sa2.get(n + 1), standard.get(2), "");
+        Test.ensureTrue(sa.isCompact(), ""); //reading didn't change sa
+
+        //a change switches back to the standard mode
+        sa2 = (StringArray)standard.clone();
+        Test.ensureTrue(sa2.compact(), "");
+        sa2.set(0, "changed");
+        Test.ensureTrue(!sa2.isCompact(), "");
+        Test.ensureEqual(sa2.get(0), "changed", "");
+        Test.ensureEqual(sa2.get(n - 1), standard.get(n - 1), "");
+        Test.ensureTrue(sa2.compact(), "");
+        sa2.add("added");
+        Test.ensureEqual(sa2.size(), n + 1, "");
+        Test.ensureEqual(sa2.get(n), "added", "");
+        Test.ensureTrue(sa2.compact(), "");
+        sa2.sort();
+        Test.ensureTrue(!sa2.isCompact(), "");
+        Test.ensureEqual(sa2.isAscending(), "", "");
+        Test.ensureTrue(sa2.compact(), "");
+        sa2.removeRange(0, n - 1);
+        Test.ensureEqual(sa2.size(), 2, "");
+    }
+
+    /**
+     * This returns the memory in use after garbage collection,
+     * including purging the canonical maps' entries for gc'd StringHolders.
+     */
+    private static long testCompactMemoryInUse() {
+        for (int i = 0; i < 3; i++) {
+            Math2.gc(500);
+            String2.canonicalStatistics(); //purges the canonical maps
+        }
+        return Math2.getMemoryInUse();
+    }
+
+    /**
+     * This tests compact() and shows how much memory it saves.
+     */
+    public static void testCompact() throws Throwable {
+        String2.log("\n*** StringArray.testCompact()");
+
+        //few distinct values -> dictionary mode with 1 byte codes
+        int n = 5000;
+        StringArray standard = new StringArray();
+        for (int i = 0; i < n; i++)
+            standard.add(i % 10 == 0? "" : i % 3 == 0? "Monterey Bay" : "station" + (i % 7));
+        StringArray sa = (StringArray)standard.clone();
+        Test.ensureTrue(sa.compact(), "");
+        Test.ensureTrue(sa.isDictionaryEncoded(), "");
+        testCompactSame(sa, standard);
+
+        //more distinct values -> dictionary mode with 2 byte codes
+        standard = new StringArray();
+        for (int i = 0; i < 20 * n; i++)
+            standard.add("s" + (i % 1000));
+        sa = (StringArray)standard.clone();
+        Test.ensureTrue(sa.compact(), "");
+        Test.ensureTrue(sa.isDictionaryEncoded(), "");
+        testCompactSame(sa, standard);
+
+        //all distinct values (with non-ASCII chars) -> packed UTF-8 mode
+        standard = new StringArray();
+        for (int i = 0; i < n; i++)
+            standard.add(i % 100 == 0? "" : "M\u00fcnchen \u20ac" + i);
+        sa = (StringArray)standard.clone();
+        Test.ensureTrue(sa.compact(), "");
+        Test.ensureTrue(!sa.isDictionaryEncoded(), "");
+        testCompactSame(sa, standard);
+
+        //a surrogate char prevents packed mode
+        standard.set(5, "a\ud83d\ude00b");
+        sa = (StringArray)standard.clone();
+        Test.ensureTrue(!sa.compact(), "");
+        Test.ensureTrue(!sa.isCompact(), "");
+
+        //small arrays aren't compacted
+        sa = new StringArray(new String[]{"a", "a", "a"});
+        Test.ensureTrue(!sa.compact(), "");
+
+        //benchmark: memory used by 1,000,000 elements in each mode
+        n = 1000000;
+        String names[] = {"dictionary", "packed"};
+        for (int mode = 0; mode < 2; mode++) {
+            StringArray sas[] = new StringArray[2];
+            long mem[] = new long[3];
+            mem[0] = testCompactMemoryInUse();
+            sas[0] = new StringArray();
+            for (int i = 0; i < n; i++) 
+                sas[0].add(mode == 0? "WMO" + (i % 200) : "file" + i + ".nc");
+            sas[0].trimToSize();
+            mem[1] = testCompactMemoryInUse();
+            sas[1] = (StringArray)sas[0].clone();
+            Test.ensureTrue(sas[1].compact(), "");
+            sas[0] = null;
+            mem[2] = testCompactMemoryInUse();
+            long time = System.currentTimeMillis();
+            int count = 0;
+            for (int i = 0; i < n; i++) 
+                count += sas[1].get(i).length();
+            String2.log(names[mode] + " mode: standard=" + ((mem[1] - mem[0]) / Math2.BytesPerKB) + 
+                "KB compact=" + ((mem[2] - mem[0]) / Math2.BytesPerKB) + 
+                "KB  get() time=" + (System.currentTimeMillis() - time) + "ms (count=" + count + ")");
+        }
+    }
+
     /**
      * This runs all of the interactive or not interactive tests for this class.
      *
@@ -3328,7 +3794,7 @@ public class StringArray extends PrimitiveArray {
     public static void test(StringBuilder errorSB, boolean interactive, 
         boolean doSlowTestsToo, int firstTest, int lastTest) {
         if (lastTest < 0)
-            lastTest = interactive? -1 : 0;
+            lastTest = interactive? -1 : 1;
         String msg = "\n^^^ StringArray.test(" + interactive + ") test=";
 
         for (int test = firstTest; test <= lastTest; test++) {
@@ -3341,6 +3807,7 @@ public class StringArray extends PrimitiveArray {
 
                 } else {
                     if (test ==  0) basicTest();
+                    if (test ==  1) testCompact();
                 }
 
                 String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
@@ -0,0 +1,435 @@
+/* This file is Copyright, NOAA.
+ * See the MIT/X-like license in LICENSE.txt.
+ */
+package com.cohort.util;
+
+import com.cohort.array.ByteArray;
+import com.cohort.array.DoubleArray;
+import com.cohort.array.FloatArray;
+import com.cohort.array.IntArray;
+import com.cohort.array.LongArray;
+import com.cohort.array.PAType;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.array.ShortArray;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * FormattingWriter is a BufferedWriter with methods which write numbers and
+ * ISO 8601 times (e.g., the cells of a table) directly into the buffer,
+ * without making a String (and the other short-lived objects) for each value.
+ * The text written is identical to the text from the standard methods,
+ * e.g., writeDouble(d) writes the same text as write(String.valueOf(d)), and
+ * writeIsoTime writes the same text as Calendar2.epochSecondsToLimitedIsoStringT.
+ *
+ * <p>The fast paths cover the common cases: all integers;
+ * doubles and floats in the range 1e-3 &lt;= |d| &lt; 1e7 (where Java uses plain notation)
+ * which have &lt;=15 (double) or &lt;=7 (float) significant digits;
+ * and times from 1582-10-15 (the start of the Gregorian calendar) through 9999.
+ * Other values are written with the standard methods.
+ * (Values with more significant digits aren't formatted here because
+ * Java's Double.toString(d) changed in Java 19, and this must match whichever
+ * Java is in use.)
+ *
+ * <p>This is not thread-safe.
+ */
+public class FormattingWriter extends BufferedWriter {
+
+    /** 10^0 ... 10^22, all of which are exactly representable as doubles. */
+    private final static double POWERS_OF_10[] = new double[23];
+    static {
+        double d = 1;
+        for (int i = 0; i < POWERS_OF_10.length; i++) {
+            POWERS_OF_10[i] = d;
+            d *= 10;
+        }
+    }
+
+    /** 1582-10-15T00:00:00Z, the first day of the Gregorian calendar in GregorianCalendar. */
+    public final static long GREGORIAN_START_MILLIS = -12219292800000L;
+    /** 10000-01-01T00:00:00Z */
+    public final static long YEAR_10000_MILLIS = 253402300800000L;
+
+    private final static long MILLIS_PER_DAY = 86400000L;
+
+    //the codes for the supported time_precisions (for writeIsoTime)
+    private final static int TP_YEAR = 1, TP_MONTH = 2, TP_DATE = 3,
+        TP_HOUR = 4, TP_MINUTE = 5, TP_SECOND = 6, TP_MILLIS1 = 7, TP_MILLIS2 = 8,
+        TP_MILLIS3 = 9;
+
+    /** The scratch space for formatting one value. */
+    private char scratch[] = new char[32];
+
+    //the most recently used time_precision and its code
+    private String lastTimePrecision = null;
+    private int lastTpCode = TP_SECOND;
+    private boolean lastTpZ = true;
+    private int lastTpNExtraZeros = 0;
+
+    /**
+     * A constructor.
+     *
+     * @param out the Writer which receives the text
+     */
+    public FormattingWriter(Writer out) {
+        super(out);
+    }
+
+    /**
+     * This makes a FormattingWriter which writes to an outputStream with a charset
+     * (like String2.getBufferedOutputStreamWriter).
+     *
+     * @param os the outputStream
+     * @param charset e.g., String2.UTF_8_CHARSET
+     * @return a FormattingWriter
+     */
+    public static FormattingWriter forOutputStream(OutputStream os, Charset charset) {
+        return new FormattingWriter(new OutputStreamWriter(os, charset));
+    }
+
+    /**
+     * This writes an int (identical to write(String.valueOf(i))).
+     *
+     * @param i the value
+     * @throws IOException if trouble
+     */
+    public void writeInt(int i) throws IOException {
+        writeLong(i);
+    }
+
+    /**
+     * This writes a long (identical to write(String.valueOf(l))).
+     *
+     * @param l the value
+     * @throws IOException if trouble
+     */
+    public void writeLong(long l) throws IOException {
+        int po = scratch.length;
+        boolean negative = l < 0;
+        if (!negative)
+            l = -l; //work with negative numbers so Long.MIN_VALUE works
+        do {
+            scratch[--po] = (char)('0' - (l % 10));
+            l /= 10;
+        } while (l != 0);
+        if (negative)
+            scratch[--po] = '-';
+        write(scratch, po, scratch.length - po);
+    }
+
+    /**
+     * This writes a double (identical to write(String.valueOf(d))).
+     *
+     * @param d the value
+     * @throws IOException if trouble
+     */
+    public void writeDouble(double d) throws IOException {
+        if (!writePlain(d, false, false))
+            write(String.valueOf(d));
+    }
+
+    /**
+     * This writes a float (identical to write(String.valueOf(f))).
+     *
+     * @param f the value
+     * @throws IOException if trouble
+     */
+    public void writeFloat(float f) throws IOException {
+        if (!writePlain(f, true, false))
+            write(String.valueOf(f));
+    }
+
+    /**
+     * If d (or f) is 0 or in the range 1e-3 &lt;= |d| &lt; 1e7 and has
+     * &lt;=15 (or &lt;=7 for a float) significant digits, this writes it
+     * in plain notation exactly as Double.toString (or Float.toString) would.
+     * The decimal digits found are the shortest which read back as d;
+     * with that few digits, they are the only such digits,
+     * so all versions of Java agree.
+     *
+     * @param d the value (if isFloat, a float converted to a double)
+     * @param isFloat true if d is really a float
+     * @param json if true, a trailing ".0" isn't written (as with String2.toJson)
+     * @return true if the value was written
+     * @throws IOException if trouble
+     */
+    private boolean writePlain(double d, boolean isFloat, boolean json) throws IOException {
+        double a = Math.abs(d);
+        if (a == 0) {
+            if (Double.doubleToRawLongBits(d) < 0)
+                write(json? "-0" : "-0.0");
+            else write(json? "0" : "0.0");
+            return true;
+        }
+        if (!(a >= 1e-3 && a < 1e7)) //also catches NaN
+            return false;
+
+        //find the fewest decimal places, k, which read back as d
+        double maxM = isFloat? 1e7 : 1e15;
+        long m = 0;
+        int k = 0;
+        while (true) {
+            double x = a * POWERS_OF_10[k];
+            if (x >= maxM)
+                return false;
+            m = Math.round(x);
+            //for a float, k<=8 ensures that rounding to double then to float
+            //is the same as rounding to float
+            if (isFloat? (float)(m / POWERS_OF_10[k]) == (float)a :
+                                m / POWERS_OF_10[k]  == a)
+                break;
+            if (++k > (isFloat? 8 : 22))
+                return false;
+        }
+
+        //write the digits of m with a decimal point k digits from the right
+        int po = scratch.length;
+        if (k == 0) {
+            if (!json) {
+                scratch[--po] = '0';
+                scratch[--po] = '.';
+            }
+        } else {
+            for (int i = 0; i < k; i++) {
+                scratch[--po] = (char)('0' + (m % 10));
+                m /= 10;
+            }
+            scratch[--po] = '.';
+        }
+        do {
+            scratch[--po] = (char)('0' + (m % 10));
+            m /= 10;
+        } while (m != 0);
+        if (d < 0)
+            scratch[--po] = '-';
+        write(scratch, po, scratch.length - po);
+        return true;
+    }
+
+    /**
+     * This writes pa.getString(index) (e.g., "" for a missing value in a numeric pa),
+     * or mvString if that would be "".
+     * This is fast for the numeric PATypes other than the unsigned types.
+     *
+     * @param pa a PrimitiveArray
+     * @param index the index of the value in pa
+     * @param mvString the String to write for missing values, e.g., "" or "NaN"
+     * @return true if the value wasn't "" (so mvString wasn't written)
+     * @throws IOException if trouble
+     */
+    public boolean writeString(PrimitiveArray pa, int index, String mvString) throws IOException {
+        PAType paType = pa.elementType();
+        if (paType == PAType.DOUBLE) {
+            double d = ((DoubleArray)pa).get(index);
+            if (Double.isFinite(d)) {
+                writeDouble(d);
+                return true;
+            }
+        } else if (paType == PAType.FLOAT) {
+            float f = ((FloatArray)pa).get(index);
+            if (Float.isFinite(f)) {
+                writeFloat(f);
+                return true;
+            }
+        } else if (paType == PAType.LONG) {
+            long l = ((LongArray)pa).get(index);
+            if (l != Long.MAX_VALUE) {
+                writeLong(l);
+                return true;
+            }
+        } else if (paType == PAType.INT) {
+            int i = ((IntArray)pa).get(index);
+            if (i != Integer.MAX_VALUE) {
+                writeLong(i);
+                return true;
+            }
+        } else if (paType == PAType.SHORT) {
+            short s = ((ShortArray)pa).get(index);
+            if (s != Short.MAX_VALUE) {
+                writeLong(s);
+                return true;
+            }
+        } else if (paType == PAType.BYTE) {
+            byte b = ((ByteArray)pa).get(index);
+            if (b != Byte.MAX_VALUE) {
+                writeLong(b);
+                return true;
+            }
+        } else {
+            String s = pa.getString(index);
+            if (s.length() > 0) {
+                write(s);
+                return true;
+            }
+        }
+        write(mvString);
+        return false;
+    }
+
+    /**
+     * This writes pa.getJsonString(index) (e.g., "null" for a missing value).
+     * This is fast for the numeric PATypes other than the unsigned types.
+     *
+     * @param pa a PrimitiveArray
+     * @param index the index of the value in pa
+     * @throws IOException if trouble
+     */
+    public void writeJsonString(PrimitiveArray pa, int index) throws IOException {
+        PAType paType = pa.elementType();
+        if (paType == PAType.DOUBLE) {
+            double d = ((DoubleArray)pa).get(index);
+            if (!writePlain(d, false, true))
+                write(String2.toJson(d));
+        } else if (paType == PAType.FLOAT) {
+            float f = ((FloatArray)pa).get(index);
+            if (!writePlain(f, true, true))
+                write(String2.toJson(f));
+        } else if (paType == PAType.LONG  || paType == PAType.INT ||
+                   paType == PAType.SHORT || paType == PAType.BYTE) {
+            writeString(pa, index, "null");
+        } else {
+            write(pa.getJsonString(index));
+        }
+    }
+
+    /**
+     * This writes the same text as
+     * Calendar2.epochSecondsToLimitedIsoStringT(time_precision, seconds, NaNString).
+     *
+     * @param time_precision see Calendar2.limitedFormatAsISODateTimeT
+     * @param seconds the epoch seconds
+     * @param NaNString the text to write if seconds is NaN
+     * @throws IOException if trouble
+     */
+    public void writeIsoTime(String time_precision, double seconds, String NaNString)
+        throws IOException {
+
+        //should be floor(?), but round avoids issues with computer precision
+        long millis = Math2.roundToLong(seconds * 1000);
+        if (millis == Long.MAX_VALUE) {
+            write(NaNString);
+            return;
+        }
+
+        //get the code for time_precision (usually, it's the same object as last time)
+        if (time_precision != lastTimePrecision) {
+            setTimePrecision(time_precision);
+            lastTimePrecision = time_precision;
+        }
+        if (lastTpCode < 0 || millis < GREGORIAN_START_MILLIS || millis >= YEAR_10000_MILLIS) {
+            write(Calendar2.epochSecondsToLimitedIsoStringT(time_precision, seconds, NaNString));
+            return;
+        }
+
+        //convert days to year, month, date  (proleptic Gregorian calendar)
+        //see http://howardhinnant.github.io/date_algorithms.html#civil_from_days
+        long days = Math.floorDiv(millis, MILLIS_PER_DAY);
+        int msOfDay = (int)(millis - days * MILLIS_PER_DAY);
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        int doe = (int)(z - era * 146097);                                  //0 ... 146096
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;    //0 ... 399
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);                  //0 ... 365
+        int mp = (5 * doy + 2) / 153;                                       //0 ... 11
+        int date = doy - (153 * mp + 2) / 5 + 1;                            //1 ... 31
+        int month = mp < 10? mp + 3 : mp - 9;                               //1 ... 12
+        int year = (int)(yoe + era * 400) + (month <= 2? 1 : 0);
+
+        //build it   (year is always 4 digits here)
+        char car[] = scratch;
+        int po = 0;
+        po = put(car, po, year / 100);
+        po = put(car, po, year % 100);
+        int code = lastTpCode;
+        if (code >= TP_MONTH) {
+            car[po++] = '-';
+            po = put(car, po, month);
+        }
+        if (code >= TP_DATE) {
+            car[po++] = '-';
+            po = put(car, po, date);
+        }
+        if (code >= TP_HOUR) {
+            car[po++] = 'T';
+            po = put(car, po, msOfDay / 3600000);
+        }
+        if (code >= TP_MINUTE) {
+            car[po++] = ':';
+            po = put(car, po, (msOfDay / 60000) % 60);
+        }
+        if (code >= TP_SECOND) {
+            car[po++] = ':';
+            po = put(car, po, (msOfDay / 1000) % 60);
+        }
+        if (code >= TP_MILLIS1) {
+            int ms = msOfDay % 1000;
+            car[po++] = '.';
+            car[po++] = (char)('0' + ms / 100);
+            if (code >= TP_MILLIS2)
+                car[po++] = (char)('0' + (ms / 10) % 10);
+            if (code >= TP_MILLIS3) {
+                car[po++] = (char)('0' + ms % 10);
+                for (int i = 0; i < lastTpNExtraZeros; i++)
+                    car[po++] = '0';
+            }
+        }
+        if (lastTpZ)
+            car[po++] = 'Z';
+        write(car, 0, po);
+    }
+
+    /** This puts a 2 digit, zero-padded number (0 ... 99) in car at po and returns the new po. */
+    private static int put(char car[], int po, int i) {
+        car[po++] = (char)('0' + i / 10);
+        car[po++] = (char)('0' + i % 10);
+        return po;
+    }
+
+    /**
+     * This sets lastTpCode, lastTpZ, and lastTpNExtraZeros for a time_precision,
+     * mimicking Calendar2.limitedFormatAsISODateTimeT.
+     * If time_precision isn't supported, lastTpCode is set to -1.
+     *
+     * @param tp the time_precision (may be null)
+     */
+    private void setTimePrecision(String tp) {
+        lastTpZ = false;
+        lastTpNExtraZeros = 0;
+        if (tp == null || tp.length() == 0)
+            tp = "1970-01-01T00:00:00Z";
+        if (tp.charAt(tp.length() - 1) == 'Z') {
+            tp = tp.substring(0, tp.length() - 1);
+            lastTpZ = true;
+        }
+        lastTpCode =
+            tp.equals("1970")? TP_YEAR :
+            tp.equals("1970-01")? TP_MONTH :
+            tp.equals("1970-01-01")? TP_DATE :
+            tp.equals("1970-01-01T00")? TP_HOUR :
+            tp.equals("1970-01-01T00:00")? TP_MINUTE :
+            tp.length() == 0 || tp.equals("1970-01-01T00:00:00")? TP_SECOND :
+            tp.equals("1970-01-01T00:00:00.0")? TP_MILLIS1 :
+            tp.equals("1970-01-01T00:00:00.00")? TP_MILLIS2 :
+            -1;
+        if (lastTpCode < 0 && tp.startsWith("1970-01-01T00:00:00.000")) {
+            String end = tp.substring(23);
+            if (end.matches("0*")) {
+                //(if there are too many 0's for scratch, leave it to Calendar2)
+                lastTpCode = end.length() <= scratch.length - 26? TP_MILLIS3 : -1;
+                lastTpNExtraZeros = end.length();
+                return;
+            }
+        }
+        if (lastTpCode < 0) {
+            //Calendar2's default: seconds, always with a Z
+            lastTpCode = TP_SECOND;
+            lastTpZ = true;
+        }
+    }
+
+}
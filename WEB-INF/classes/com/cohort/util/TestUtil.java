@@ -4,6 +4,14 @@
  */
 package com.cohort.util;
 
+import com.cohort.array.ByteArray;
+import com.cohort.array.DoubleArray;
+import com.cohort.array.FloatArray;
+import com.cohort.array.IntArray;
+import com.cohort.array.LongArray;
+import com.cohort.array.PAType;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.array.ShortArray;
 import com.cohort.array.StringArray;
 
 import java.awt.Color;
@@ -14,6 +22,7 @@ import java.awt.image.PixelGrabber;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.time.Instant;
 import java.util.ArrayList;
@@ -6602,6 +6611,235 @@ expected =
     }
 
 
+    /**
+     * Test FormattingWriter: the text must be identical to the text from the
+     * standard methods.
+     */
+    public static void testFormattingWriter() throws Exception {
+        String2.log("\n*** TestUtil.testFormattingWriter()");
+        StringWriter sw = new StringWriter();
+        StringBuffer sb = sw.getBuffer();
+        FormattingWriter fw = new FormattingWriter(sw);
+        Random random = new Random(17);
+
+        //ints and longs
+        long longs[] = {0, 1, -1, 9, 10, -10, 99, 100, Integer.MAX_VALUE, Integer.MIN_VALUE,
+            Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE - 1, Long.MIN_VALUE + 1};
+        for (int i = 0; i < longs.length; i++) {
+            fw.writeLong(longs[i]); fw.flush();
+            Test.ensureEqual(sb.toString(), "" + longs[i], "");
+            sb.setLength(0);
+            fw.writeInt((int)longs[i]); fw.flush();
+            Test.ensureEqual(sb.toString(), "" + (int)longs[i], "");
+            sb.setLength(0);
+        }
+        for (int i = 0; i < 1000000; i++) {
+            long l = random.nextLong() >> random.nextInt(64);
+            fw.writeLong(l); fw.flush();
+            Test.ensureEqual(sb.toString(), "" + l, "");
+            sb.setLength(0);
+            fw.writeInt((int)l); fw.flush();
+            Test.ensureEqual(sb.toString(), "" + (int)l, "");
+            sb.setLength(0);
+        }
+
+        //doubles and floats
+        double doubles[] = {0, -0.0, 1, -1, 0.1, 0.001, 0.00099999, 1e-3, 1e7, 9999999.5,
+            9999999.999999998, 1e-4, 123.456, -123.456, 1.0/3, 2.0/3, 0.3, 1e15, 1e22, 1e300,
+            Double.MIN_VALUE, Double.MAX_VALUE, Double.NaN, 
+            Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 
+            Float.MIN_VALUE, Float.MAX_VALUE, 16777216, 16777217, 0.1f, 1.1f, 3.4028235e38f};
+        for (int i = 0; i < doubles.length + 2000000; i++) {
+            double d;
+            if (i < doubles.length) {
+                d = doubles[i];
+            } else {
+                int which = i % 4;
+                if (which == 0) {       //a typical value (few decimal digits)
+                    d = Math.round(random.nextDouble() * Math.pow(10, random.nextInt(12))) / 
+                        Math.pow(10, random.nextInt(10));
+                } else if (which == 1) { //all digits
+                    d = random.nextDouble() * Math.pow(10, random.nextInt(14) - 5);
+                } else if (which == 2) { //float precision
+                    d = (float)(random.nextDouble() * Math.pow(10, random.nextInt(14) - 5));
+                } else {                 //any bits
+                    d = Double.longBitsToDouble(random.nextLong());
+                }
+                if (random.nextBoolean()) 
+                    d = -d;
+            }
+            fw.writeDouble(d); fw.flush();
+            Test.ensureEqual(sb.toString(), String.valueOf(d), "d=" + d);
+            sb.setLength(0);
+            float f = (float)d;
+            fw.writeFloat(f); fw.flush();
+            Test.ensureEqual(sb.toString(), String.valueOf(f), "f=" + f);
+            sb.setLength(0);
+        }
+
+        //PrimitiveArrays 
+        PrimitiveArray pas[] = {
+            new DoubleArray(new double[]{0, -0.0, 1.5, -2, 1e-5, 1e20, 123.456, Double.NaN, Double.POSITIVE_INFINITY}),
+            new FloatArray(new float[]{0, -0.0f, 1.5f, -2, 1e-5f, 1e20f, 123.456f, Float.NaN, Float.NEGATIVE_INFINITY}),
+            new LongArray(new long[]{0, -1, Long.MIN_VALUE, Long.MAX_VALUE}),
+            new IntArray(new int[]{0, -1, Integer.MIN_VALUE, Integer.MAX_VALUE}),
+            new ShortArray(new short[]{0, -1, Short.MIN_VALUE, Short.MAX_VALUE}),
+            new ByteArray(new byte[]{0, -1, Byte.MIN_VALUE, Byte.MAX_VALUE}),
+            PrimitiveArray.csvFactory(PAType.UINT, "0, 1, 4294967294, "),
+            PrimitiveArray.csvFactory(PAType.STRING, "a, \"b c\", \"\"")};
+        for (int p = 0; p < pas.length; p++) {
+            PrimitiveArray pa = pas[p];
+            for (int i = 0; i < pa.size(); i++) {
+                String s = pa.getString(i);
+                boolean result = fw.writeString(pa, i, "NaN"); fw.flush();
+                Test.ensureEqual(sb.toString(), s.length() == 0? "NaN" : s, "p=" + p + " i=" + i);
+                Test.ensureEqual(result, s.length() > 0, "p=" + p + " i=" + i);
+                sb.setLength(0);
+                fw.writeJsonString(pa, i); fw.flush();
+                Test.ensureEqual(sb.toString(), pa.getJsonString(i), "p=" + p + " i=" + i);
+                sb.setLength(0);
+            }
+        }
+        DoubleArray da = new DoubleArray();
+        for (int i = 0; i < 1000000; i++)
+            da.add(Math.round(random.nextDouble() * Math.pow(10, random.nextInt(12))) / 
+                Math.pow(10, random.nextInt(10)));
+        for (int i = 0; i < da.size(); i++) {
+            fw.writeJsonString(da, i); fw.flush();
+            Test.ensureEqual(sb.toString(), da.getJsonString(i), "i=" + i);
+            sb.setLength(0);
+        }
+
+        //times
+        String tps[] = {null, "", "zztop", "1970", "1970-01", "1970-01-01", 
+            "1970-01-01T00Z", "1970-01-01T00:00Z", "1970-01-01T00:00:00Z", 
+            "1970-01-01T00", "1970-01-01T00:00", "1970-01-01T00:00:00", 
+            "1970-01-01T00:00:00.0Z", "1970-01-01T00:00:00.00Z", "1970-01-01T00:00:00.000Z", 
+            "1970-01-01T00:00:00.0000Z", "1970-01-01T00:00:00.000000000Z", 
+            "1970-01-01T00:00:00.0", "1970-01-01T00:00:00.000"};
+        double seconds[] = {0, -0.001, 0.001, 0.0005, -0.0005, 1.999, Double.NaN, 
+            Double.POSITIVE_INFINITY, 
+            FormattingWriter.GREGORIAN_START_MILLIS / 1000.0, 
+            FormattingWriter.GREGORIAN_START_MILLIS / 1000.0 - 0.001, 
+            FormattingWriter.YEAR_10000_MILLIS / 1000.0, 
+            FormattingWriter.YEAR_10000_MILLIS / 1000.0 - 0.001, 
+            -62135596800.0, //0001-01-01
+            951782400,  //2000-02-29
+            4107542400.0}; //2100-03-01
+        for (int i = 0; i < seconds.length + 200000; i++) {
+            double d;
+            if (i < seconds.length) {
+                d = seconds[i];
+            } else {
+                //mostly Gregorian dates through 9999, some before and after
+                d = (random.nextDouble() * 3.2e11) - 2e10;
+                if (i % 3 == 0) 
+                    d = Math.rint(d);
+                else if (i % 3 == 1)
+                    d = Math.rint(d * 1000) / 1000;
+            }
+            for (int t = 0; t < tps.length; t++) {
+                fw.writeIsoTime(tps[t], d, "NaN"); fw.flush();
+                Test.ensureEqual(sb.toString(), 
+                    Calendar2.epochSecondsToLimitedIsoStringT(tps[t], d, "NaN"), 
+                    "d=" + d + " tp=" + tps[t]);
+                sb.setLength(0);
+            }
+        }
+        fw.close();
+    }
+
+    /**
+     * This times writing a CSV table with 10^8 cells (various numbers and times) 
+     * with the standard methods and with FormattingWriter.
+     * The Writer just counts the characters (so this just times the formatting).
+     */
+    public static void timeFormattingWriter() throws Exception {
+        String2.log("\n*** TestUtil.timeFormattingWriter()");
+        int nRows = 1000000;
+        int nReps = 10;
+        Random random = new Random(17);
+        PrimitiveArray pas[] = {
+            new DoubleArray(), //time
+            new DoubleArray(), new DoubleArray(), //lon, lat
+            new FloatArray(), new FloatArray(), 
+            new DoubleArray(), //all digits
+            new IntArray(), new ShortArray(), new LongArray(), new ByteArray()};
+        int nCols = pas.length;
+        for (int row = 0; row < nRows; row++) {
+            ((DoubleArray)pas[0]).add(1.5e9 + row * 60);
+            ((DoubleArray)pas[1]).add(Math.rint((random.nextDouble() * 360 - 180) * 10000) / 10000);
+            ((DoubleArray)pas[2]).add(Math.rint((random.nextDouble() * 180 -  90) * 10000) / 10000);
+            ((FloatArray) pas[3]).add(Math.round(random.nextFloat() * 3000) / 100f);
+            ((FloatArray) pas[4]).add(row % 100 == 0? Float.NaN : Math.round(random.nextFloat() * 35000) / 1000f);
+            ((DoubleArray)pas[5]).add(random.nextDouble() * 1000);
+            ((IntArray)   pas[6]).add(random.nextInt());
+            ((ShortArray) pas[7]).add((short)random.nextInt(10000));
+            ((LongArray)  pas[8]).add(random.nextLong() >> 20);
+            ((ByteArray)  pas[9]).add((byte)random.nextInt(100));
+        }
+        String tp = "1970-01-01T00:00:00Z";
+        long nCells = (long)nRows * nCols * nReps;
+        for (int attempt = 0; attempt < 3; attempt++) {
+            //standard methods (as TableWriterSeparatedValue used to do)
+            long counter[] = new long[1];
+            BufferedWriter bw = new BufferedWriter(countingWriter(counter));
+            long time = System.currentTimeMillis();
+            for (int rep = 0; rep < nReps; rep++) {
+                for (int row = 0; row < nRows; row++) {
+                    for (int col = 0; col < nCols; col++) {
+                        if (col == 0) {
+                            bw.write(Calendar2.epochSecondsToLimitedIsoStringT(
+                                tp, pas[col].getDouble(row), ""));
+                        } else {
+                            String s = pas[col].getString(row);
+                            bw.write(s.length() == 0? "NaN" : s);
+                        }
+                        bw.write(col == nCols - 1? "\n" : ",");
+                    }
+                }
+            }
+            bw.close();
+            long time1 = System.currentTimeMillis() - time;
+            long nChar1 = counter[0];
+
+            //FormattingWriter
+            counter[0] = 0;
+            FormattingWriter fw = new FormattingWriter(countingWriter(counter));
+            time = System.currentTimeMillis();
+            for (int rep = 0; rep < nReps; rep++) {
+                for (int row = 0; row < nRows; row++) {
+                    for (int col = 0; col < nCols; col++) {
+                        if (col == 0) 
+                            fw.writeIsoTime(tp, pas[col].getDouble(row), "");
+                        else fw.writeString(pas[col], row, "NaN");
+                        fw.write(col == nCols - 1? "\n" : ",");
+                    }
+                }
+            }
+            fw.close();
+            long time2 = System.currentTimeMillis() - time;
+            Test.ensureEqual(counter[0], nChar1, "");
+
+            String2.log("timeFormattingWriter nCells=" + nCells + " nChar=" + nChar1 + 
+                "\n  standard methods: " + time1 + "ms (" + 
+                    Math2.roundToLong(nChar1 / (time1 / 1000.0) / Math2.BytesPerMB) + " MB/s)" +
+                "\n  FormattingWriter: " + time2 + "ms (" + 
+                    Math2.roundToLong(nChar1 / (time2 / 1000.0) / Math2.BytesPerMB) + " MB/s)" +
+                "\n  (typical: standard=~28000ms, FormattingWriter=~14000ms)");
+        }
+    }
+
+    /** This returns a Writer which just counts the characters written to it. */
+    private static Writer countingWriter(final long counter[]) {
+        return new Writer() {
+            public void write(char cbuf[], int off, int len) {counter[0] += len; }
+            public void flush() {}
+            public void close() {}
+        };
+    }
+
+
     /**
      * This runs all of the interactive or not interactive tests for this class.
      *
@@ -6617,7 +6855,7 @@ expected =
     public static void test(StringBuilder errorSB, boolean interactive, 
         boolean doSlowTestsToo, int firstTest, int lastTest) {
         if (lastTest < 0)
-            lastTest = interactive? 1 : 17;
+            lastTest = interactive? 1 : 18;
         String msg = "\n^^^ TestUtil.test(" + interactive + ") test=";
 
         for (int test = firstTest; test <= lastTest; test++) {
@@ -6645,12 +6883,14 @@ expected =
                     if (test == 14) testCalendar2();
                     if (test == 16) timeCurrentTimeMillis();
                     if (test == 17) timeString2Log();
+                    if (test == 18) testFormattingWriter();
 
                     //not usually run
                     if (test == 1001) testString2utf8();
                     if (test == 1002) testFileWriteSpeed();
                     if (test == 1003) testWriteToFileSpeed();
                     if (test == 1004) testReadFromFileSpeed();
+                    if (test == 1006) timeFormattingWriter();
 
                     if (test == 1005) storeLongsInDoubles(); //one time
                 }
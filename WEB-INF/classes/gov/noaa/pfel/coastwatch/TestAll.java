@@ -1785,7 +1785,9 @@ String2.log("captureGroup="+ String2.extractCaptureGroup(s, regex, 1));
 //level class and so won't recompile it.  Mentioning the class here solves 
 //the problem.
 Attributes att;       
+AsciiChunkParser acp;
 AttributedString2 as2;
+BloomFilter bf;
 Boundaries boun;
 Browser browser;
 ByteArray ba;
@@ -1793,6 +1795,7 @@ Calendar2 calendar2;
 CharArray chara;
 CompoundColorMap ccm;
 CompoundColorMapLayerChild ccmlc;
+CompressedFileIndex cfi;
 ContourScreen cons;
 CWUser cwUser;
 CWBrowser cwBrowser;
@@ -1826,11 +1829,13 @@ GDateTime gdt;
 GenerateThreddsXml gtx;
 GraphDataLayer gdl;
 Grid grid;
+GridRasterizer gridRasterizer;
 GridDataSet gds;
 GridDataSetAnomaly gdsa;
 GridDataSetOpendap gdso;
 GridDataSetThredds gdst;
 GridScreen gs;
+GroupIndex gi;
 GSHHS gshhs;
 Image2 i2;
 IntArray inta;
@@ -1852,12 +1857,14 @@ PauseTest pt;
 PlainAxis2 sgtpa2;
 PointScreen ps;
 PointVectorScreen pvs;
+PolygonIndex polygonIndex;
 PrimitiveArray primitiveArray; 
 Projects projects;
 RegexFilenameFilter rff;
 ResourceBundle2 rb2;
 RowComparator rc;
 RowComparatorIgnoreCase rcic;
+RowRanker rowRanker;
 SdsReader sr;
 SgtGraph sgtGraph; 
 SgtMap sgtMap;     
@@ -2023,6 +2030,7 @@ TableWriterAll twa;
 TableWriterAllReduceDnlsTable twardt;
 TableWriterAllReduceDnlsTableNLevels twardtnl;
 TableWriterAllWithMetadata twawm;
+TableWriterArrow twarrow;
 TableWriterDataTable twdt;
 TableWriterDistinct twdis;
 TableWriterDods twd;
@@ -2043,6 +2051,7 @@ TableWriterOrderByMin twobmin;
 TableWriterOrderByMinMax twobmm;
 TableWriterSeparatedValue twsv;
 TableWriterUnits twu;
+TaskQueue tq;
 TaskThread tt;
 WaitThenTryAgainException wttae;
 
@@ -2077,6 +2086,9 @@ WaitThenTryAgainException wttae;
         PrimitiveArray.test(         errorSB, interactive, doSlowTestsToo, 0, -1);
         PAOne.test(                  errorSB, interactive, doSlowTestsToo, 0, -1);
         Attributes.test(             errorSB, interactive, doSlowTestsToo, 0, -1);
+        GroupIndex.test(             errorSB, interactive, doSlowTestsToo, 0, -1);
+        BloomFilter.test(            errorSB, interactive, doSlowTestsToo, 0, -1);
+        RowRanker.test(              errorSB, interactive, doSlowTestsToo, 0, -1);
         ResourceBundle2.test(        errorSB, interactive, doSlowTestsToo, 0, -1);
 
         TestSSR.test(                errorSB, interactive, doSlowTestsToo, 0, -1); //requires localhost ERDDAP
@@ -2129,11 +2141,13 @@ WaitThenTryAgainException wttae;
         //other
         GSHHS.test(                  errorSB, interactive, doSlowTestsToo, 0, -1); 
         Boundaries.test(             errorSB, interactive, doSlowTestsToo, 0, -1); 
+        PolygonIndex.test(           errorSB, interactive, doSlowTestsToo, 0, -1);
         Browser.test(                errorSB, interactive, doSlowTestsToo, 0, -1); 
         DecimalDegreeFormatter.test( errorSB, interactive, doSlowTestsToo, 0, -1);  
         DegreeMinuteFormatter.test(  errorSB, interactive, doSlowTestsToo, 0, -1); 
         CompoundColorMap.test(       errorSB, interactive, doSlowTestsToo, 0, -1); 
         SgtMap.test(                 errorSB, interactive, doSlowTestsToo, 0, -1); 
+        GridRasterizer.test(         errorSB, interactive, doSlowTestsToo, 0, -1); 
         SgtUtil.test(                errorSB, interactive, doSlowTestsToo, 0, -1);  
         CartesianProjection.test(    errorSB, interactive, doSlowTestsToo, 0, -1); 
         SgtGraph.test(               errorSB, interactive, doSlowTestsToo, 0, -1);   
@@ -2152,8 +2166,11 @@ WaitThenTryAgainException wttae;
         EDVTimeStamp.test(           errorSB, interactive, doSlowTestsToo, 0, -1); 
         Units2.test(                 errorSB, interactive, doSlowTestsToo, 0, -1); 
         Subscriptions.test(          errorSB, interactive, doSlowTestsToo, 0, -1);  
+        SearchIndex.test(            errorSB, interactive, doSlowTestsToo, 0, -1);  
+        TaskQueue.test(              errorSB, interactive, doSlowTestsToo, 0, -1);
         FileVisitorDNLS.test(        errorSB, interactive, doSlowTestsToo, 0, -1);
         FileVisitorSubdir.test(      errorSB, interactive, doSlowTestsToo, 0, -1);  
+        CompressedFileIndex.test(    errorSB, interactive, doSlowTestsToo, 0, -1);
         WatchDirectory.test(         errorSB, interactive, doSlowTestsToo, 0, -1); 
 
         //give antivirus a chance to get caught up
@@ -2216,6 +2233,7 @@ WaitThenTryAgainException wttae;
         EDDTableCopy.test(           errorSB, interactive, doSlowTestsToo, 0, -1);
         EDDTableFromAllDatasets.test(errorSB, interactive, doSlowTestsToo, 0, -1);
         EDDTable.test(               errorSB, interactive, doSlowTestsToo, 0, -1);  //mostly currently-inactive SOS server tests
+        TableWriterArrow.test(       errorSB, interactive, doSlowTestsToo, 0, -1);
 
         //EDDTableFromMWFS.test(     errorSB, interactive, doSlowTestsToo, 0, -1);  //INACTIVE as of 2009-01-14 
         //EDDTableFromNOS.test(      errorSB, interactive, doSlowTestsToo, 0, -1);  //INACTIVE as of 2010-09-08
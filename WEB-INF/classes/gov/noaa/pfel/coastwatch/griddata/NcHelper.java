@@ -12,12 +12,19 @@ import com.cohort.util.MustBe;
 import com.cohort.util.String2;
 import com.cohort.util.Test;
 
+import gov.noaa.pfel.coastwatch.util.CompressedFileIndex;
+import gov.noaa.pfel.coastwatch.util.FileVisitorDNLS;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
 import java.io.StringWriter;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Enumeration;
+import java.util.IdentityHashMap;
 import java.util.List;
 
 /**
@@ -685,12 +692,297 @@ String2.log(">> NcHelper.getPrimitiveArray nc2Array.isUnsigned=" + nc2Array.isUn
      * @param fullName This may be a local file name, an "http:" address of a
      *    .nc file (discouraged), or an opendap url.  
      *    If this is an .ncml file, the name must end in .ncml.
+     *    If this is a compressed local .gz, .gzip, or .bz2 file
+     *    (FileVisitorDNLS.decompressIfNeeded only returns those names if they 
+     *    decompress to at most FileVisitorDNLS.decompressInMemoryMaxBytes),
+     *    it is decompressed into memory (not into a file on disk),
+     *    unless it is known to be bigger than that.
      * @return a NetcdfFile
      * @throws Exception if trouble
      */
     public static NetcdfFile openFile(String fullName) throws Exception {
-        return fullName.endsWith(".ncml")? NetcdfDataset.openDataset(fullName) : 
-            NetcdfFile.open(fullName);
+        if (fullName.endsWith(".ncml"))
+            return NetcdfDataset.openDataset(fullName);
+        if (CompressedFileIndex.isGzipOrBzip2(fullName) && !String2.isRemote(fullName)) {
+            long maxBytes = FileVisitorDNLS.decompressInMemoryMaxBytes;
+            long length = CompressedFileIndex.knownLength(fullName, null); //-1 if unknown
+            if (length <= maxBytes) {
+                byte bytes[] = readDecompressedBytes(fullName, length, maxBytes);
+                if (bytes != null)
+                    return NetcdfFile.openInMemory(fullName, bytes);
+                if (verbose) String2.log("NcHelper.openFile: " + fullName + 
+                    " decompresses to more than " + maxBytes + " bytes, so it isn't read into memory.");
+            }
+        }
+        return NetcdfFile.open(fullName);
+    }
+
+    /**
+     * This decompresses a compressed file into memory.
+     *
+     * @param fullName the full name of a compressed local file
+     * @param expectedLength the expected number of decompressed bytes 
+     *    (e.g., from CompressedFileIndex.knownLength), or -1 if unknown
+     * @param maxBytes the maximum number of decompressed bytes
+     * @return the decompressed bytes, or null if there are more than maxBytes
+     * @throws Exception if trouble
+     */
+    public static byte[] readDecompressedBytes(String fullName, long expectedLength, 
+        long maxBytes) throws Exception {
+        InputStream is = File2.getDecompressedBufferedInputStream(fullName);
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(
+                (int)Math.min(maxBytes, expectedLength >= 0? expectedLength : 
+                    4 * File2.length(fullName)) + 1);
+            byte buffer[] = new byte[65536];
+            int n;
+            while ((n = is.read(buffer)) >= 0) {
+                baos.write(buffer, 0, n);
+                if (baos.size() > maxBytes)
+                    return null;
+            }
+            return baos.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    public final static int DEFAULT_openFileCacheMaxOpen = 0; //off
+    public final static int DEFAULT_openFileCacheMaxIdleSeconds = 60;
+    /** 
+     * The maximum number of NetcdfFiles that openCachedFile will keep open
+     * (idle plus in use). 0 (the default) turns off the cache. 
+     * ERDDAP sets this from datasets.xml's &lt;ncFileCacheMaxOpen&gt;.
+     */
+    public static volatile int openFileCacheMaxOpen = DEFAULT_openFileCacheMaxOpen;
+    /** 
+     * The maximum time (in milliseconds) that an idle NetcdfFile is kept open by the cache. 
+     * ERDDAP sets this from datasets.xml's &lt;ncFileCacheMaxIdleSeconds&gt;.
+     */
+    public static volatile long openFileCacheMaxIdleMillis = DEFAULT_openFileCacheMaxIdleSeconds * 1000L;
+
+    /** One open NetcdfFile in the open file cache. */
+    private static class OpenFile {
+        String fullName;
+        long lastModified, length;
+        long releasedAt; //when it was last released (for idle entries)
+        NetcdfFile ncFile;
+    }
+    //all of these are guarded by synchronized(openFileCacheIdle)
+    //idle entries in the order that they were released (so the first is the LRU)
+    private static ArrayList<OpenFile> openFileCacheIdle = new ArrayList();  
+    private static IdentityHashMap<NetcdfFile,OpenFile> openFileCacheInUse = new IdentityHashMap();
+    private static long openFileCacheNHits = 0, openFileCacheNMisses = 0, 
+        openFileCacheNStale = 0, openFileCacheNEvicted = 0;
+
+    /**
+     * This is like openFile, but it reuses an idle, already open NetcdfFile for 
+     * the same local file (if the file's lastModified and length haven't changed),
+     * so the file's header doesn't have to be read and parsed again.
+     * The NetcdfFile is used exclusively by the caller until it calls
+     * releaseCachedFile (NetcdfFiles aren't thread-safe).
+     * ALWAYS call releaseCachedFile(ncFile, ...) (not ncFile.close()) 
+     * when you are finished with it, preferably in a "finally" clause.
+     *
+     * <p>The cache keeps at most openFileCacheMaxOpen files open (idle or in use)
+     * and closes idle files after openFileCacheMaxIdleMillis
+     * (when closeIdleCachedFiles() is called, e.g., periodically by RunLoadDatasets)
+     * or as soon as the file's lastModified or length changes.
+     * Remote files (e.g., "http:") and compressed files 
+     * (which openFile may read into memory) aren't cached.
+     *
+     * @param fullName a local file name (see openFile)
+     * @return a NetcdfFile
+     * @throws Exception if trouble
+     */
+    public static NetcdfFile openCachedFile(String fullName) throws Exception {
+        int maxOpen = openFileCacheMaxOpen;
+        if (maxOpen <= 0 || String2.isRemote(fullName) || 
+            File2.isDecompressible(fullName)) //don't keep decompressed bytes in memory
+            return openFile(fullName);
+        File file = new File(fullName);
+        long lastModified = file.lastModified(); //0 if trouble
+        long length = file.length();
+        if (lastModified == 0) 
+            return openFile(fullName);
+
+        ArrayList<OpenFile> toClose = new ArrayList();
+        OpenFile of = null;
+        boolean track = true;
+        synchronized(openFileCacheIdle) {
+            closeIdleCachedFiles(toClose);
+
+            //look for an idle copy of this file (most recently released first)
+            for (int i = openFileCacheIdle.size() - 1; i >= 0; i--) {
+                OpenFile tOf = openFileCacheIdle.get(i);
+                if (!tOf.fullName.equals(fullName))
+                    continue;
+                openFileCacheIdle.remove(i);
+                if (tOf.lastModified == lastModified && tOf.length == length) {
+                    of = tOf;
+                    break;
+                }
+                openFileCacheNStale++;
+                toClose.add(tOf); //the file has changed
+            }
+
+            if (of != null) {
+                openFileCacheNHits++;
+                openFileCacheInUse.put(of.ncFile, of);
+            } else {
+                openFileCacheNMisses++;
+                //make room (close LRU idle files)
+                while (openFileCacheIdle.size() > 0 && 
+                       openFileCacheIdle.size() + openFileCacheInUse.size() >= maxOpen) {
+                    openFileCacheNEvicted++;
+                    toClose.add(openFileCacheIdle.remove(0));
+                }
+                //if all are in use, just don't track this one
+                track = openFileCacheIdle.size() + openFileCacheInUse.size() < maxOpen;
+            }
+        }
+        closeCachedFiles(toClose); //outside of synchronized
+        if (of != null)
+            return of.ncFile;
+
+        //open the file
+        NetcdfFile ncFile = openFile(fullName);
+        if (track) {
+            of = new OpenFile();
+            of.fullName = fullName;
+            of.lastModified = lastModified;
+            of.length = length;
+            of.ncFile = ncFile;
+            synchronized(openFileCacheIdle) {
+                openFileCacheInUse.put(ncFile, of);
+            }
+        }
+        return ncFile;
+    }
+
+    /**
+     * Call this when you are finished with a NetcdfFile from openCachedFile.
+     * This won't throw an exception.
+     *
+     * @param ncFile the NetcdfFile from openCachedFile. If null, nothing is done.
+     * @param reuse If true, the NetcdfFile is put back in the cache (if possible) 
+     *   so it can be reused.
+     *   Use false if there was trouble while using the file
+     *   (then the file is closed, since its state is unknown).
+     */
+    public static void releaseCachedFile(NetcdfFile ncFile, boolean reuse) {
+        if (ncFile == null)
+            return;
+        OpenFile of;
+        synchronized(openFileCacheIdle) {
+            of = openFileCacheInUse.remove(ncFile);
+        }
+        if (of != null && reuse && openFileCacheMaxOpen > 0) {
+            //don't keep it if the file has changed (or has been deleted)
+            File file = new File(of.fullName);
+            boolean unchanged = file.lastModified() == of.lastModified && 
+                                file.length()       == of.length;
+            synchronized(openFileCacheIdle) {
+                if (unchanged) {
+                    of.releasedAt = System.currentTimeMillis();
+                    openFileCacheIdle.add(of);
+                    return;
+                }
+                openFileCacheNStale++;
+            }
+        }
+        try {
+            ncFile.close();
+        } catch (Throwable t) {
+            String2.log("Error while trying to close " + ncFile.getLocation() +
+                "\n" + MustBe.throwableToShortString(t));
+        }
+    }
+
+    /**
+     * This closes all idle files in the open file cache which have been idle
+     * longer than openFileCacheMaxIdleMillis, and all idle files whose 
+     * lastModified or length has changed (or which have been deleted),
+     * so an open handle doesn't keep a file from being replaced or deleted.
+     * RunLoadDatasets calls this every few seconds.
+     */
+    public static void closeIdleCachedFiles() {
+        ArrayList<OpenFile> toClose = new ArrayList();
+        ArrayList<OpenFile> idle;
+        synchronized(openFileCacheIdle) {
+            closeIdleCachedFiles(toClose);
+            idle = openFileCacheIdle.size() == 0? null : new ArrayList(openFileCacheIdle);
+        }
+
+        //look for changed files (not while synchronized)
+        if (idle != null) {
+            ArrayList<OpenFile> changed = new ArrayList();
+            for (int i = 0; i < idle.size(); i++) {
+                OpenFile of = idle.get(i);
+                File file = new File(of.fullName);
+                if (file.lastModified() != of.lastModified || file.length() != of.length)
+                    changed.add(of);
+            }
+            if (changed.size() > 0) {
+                synchronized(openFileCacheIdle) {
+                    for (int i = 0; i < changed.size(); i++) {
+                        OpenFile of = changed.get(i);
+                        if (openFileCacheIdle.remove(of)) { //it may have been reused in the meantime
+                            openFileCacheNStale++;
+                            toClose.add(of);
+                        }
+                    }
+                }
+            }
+        }
+        closeCachedFiles(toClose);
+    }
+
+    /** 
+     * This removes the too-old idle files (or all, if the cache is off) 
+     * and adds them to toClose. 
+     * The caller must have synchronized on openFileCacheIdle.
+     */
+    private static void closeIdleCachedFiles(ArrayList<OpenFile> toClose) {
+        long tooOld = System.currentTimeMillis() - openFileCacheMaxIdleMillis;
+        boolean all = openFileCacheMaxOpen <= 0;
+        while (openFileCacheIdle.size() > 0 && 
+               (all || openFileCacheIdle.get(0).releasedAt < tooOld)) 
+            toClose.add(openFileCacheIdle.remove(0));
+    }
+
+    /** This closes the files (not while synchronized). This won't throw an exception. */
+    private static void closeCachedFiles(ArrayList<OpenFile> toClose) {
+        for (int i = 0; i < toClose.size(); i++) {
+            OpenFile of = toClose.get(i);
+            try {
+                of.ncFile.close();
+            } catch (Throwable t) {
+                String2.log("Error while trying to close " + of.fullName +
+                    "\n" + MustBe.throwableToShortString(t));
+            }
+        }
+    }
+
+    /**
+     * This returns a string with statistics about the open file cache 
+     * (for the status page).
+     *
+     * @return a string with statistics about the open file cache
+     */
+    public static String openFileCacheStatsString() {
+        synchronized(openFileCacheIdle) {
+            long n = openFileCacheNHits + openFileCacheNMisses;
+            return "NcHelper open file cache: nIdle=" + openFileCacheIdle.size() + 
+                ", nInUse=" + openFileCacheInUse.size() + 
+                " (max=" + openFileCacheMaxOpen + 
+                ", maxIdleSeconds=" + (openFileCacheMaxIdleMillis / 1000) + ")" +
+                ", nHits=" + openFileCacheNHits + 
+                " (" + (n == 0? 0 : Math2.roundToInt(100.0 * openFileCacheNHits / n)) + "%)" +
+                ", nMisses=" + openFileCacheNMisses + 
+                ", nStale=" + openFileCacheNStale + 
+                ", nEvicted=" + openFileCacheNEvicted;
+        }
     }
 
     /** 
@@ -2665,6 +2957,137 @@ String2.log(pas13.toString());
 
     }
 
+    /** 
+     * This returns the number of files tracked by the open file cache (idle plus in use),
+     * which must never be more than openFileCacheMaxOpen. 
+     */
+    private static int openFileCacheNOpen() {
+        synchronized(openFileCacheIdle) {
+            return openFileCacheIdle.size() + openFileCacheInUse.size();
+        }
+    }
+
+    /** 
+     * This tests openCachedFile and releaseCachedFile: 
+     * hits, misses, evictions, stale (changed) files, the maximum number of open files,
+     * and that threads never share a NetcdfFile.
+     */
+    public static void testOpenFileCache() throws Throwable {
+        String2.log("\n*** NcHelper.testOpenFileCache");
+        String dir = File2.getSystemTempDirectory() + "testOpenFileCache/";
+        File2.makeDirectory(dir);
+        String names[] = {dir + "a.nc", dir + "b.nc", dir + "c.nc"};
+        gov.noaa.pfel.coastwatch.pointdata.Table table = new gov.noaa.pfel.coastwatch.pointdata.Table();
+        table.addColumn("row", new IntArray(new int[]{1, 2, 3}));
+        table.saveAsFlatNc(names[0], "row");
+        Test.ensureTrue(File2.copy(names[0], names[1]), "");
+        Test.ensureTrue(File2.copy(names[0], names[2]), "");
+
+        int oMaxOpen = openFileCacheMaxOpen;
+        try {
+            //start with an empty cache and no counts
+            openFileCacheMaxOpen = 0;
+            closeIdleCachedFiles();
+            synchronized(openFileCacheIdle) {
+                Test.ensureEqual(openFileCacheInUse.size(), 0, "Something else is using the cache.");
+                openFileCacheNHits = 0; 
+                openFileCacheNMisses = 0; 
+                openFileCacheNStale = 0; 
+                openFileCacheNEvicted = 0;
+            }
+            openFileCacheMaxOpen = 2;
+
+            //a miss, then a hit (the same NetcdfFile)
+            NetcdfFile a1 = openCachedFile(names[0]);
+            releaseCachedFile(a1, true);
+            NetcdfFile nc = openCachedFile(names[0]);
+            Test.ensureTrue(nc == a1, "");
+            releaseCachedFile(nc, true);
+            Test.ensureEqual(openFileCacheNOpen(), 1, "");
+
+            //fill the cache, then evict the least recently used (a)
+            releaseCachedFile(openCachedFile(names[1]), true);
+            Test.ensureEqual(openFileCacheNOpen(), 2, "");
+            NetcdfFile c1 = openCachedFile(names[2]);
+            releaseCachedFile(c1, true);
+            Test.ensureEqual(openFileCacheNOpen(), 2, "");
+            nc = openCachedFile(names[0]); //evicts b
+            Test.ensureTrue(nc != a1, "");
+            releaseCachedFile(nc, true);
+            Test.ensureEqual(openFileCacheNOpen(), 2, "");
+
+            //a changed file is reopened, not served stale
+            File cFile = new File(names[2]);
+            Test.ensureTrue(cFile.setLastModified(cFile.lastModified() + 10000), "");
+            nc = openCachedFile(names[2]);
+            Test.ensureTrue(nc != c1, "");
+            Test.ensureEqual(nc.findVariable("row").read().getInt(2), 3, "");
+            releaseCachedFile(nc, true);
+            Test.ensureEqual(openFileCacheNOpen(), 2, "");
+
+            synchronized(openFileCacheIdle) {
+                Test.ensureEqual(openFileCacheNHits,    1, "");
+                Test.ensureEqual(openFileCacheNMisses,  5, "");
+                Test.ensureEqual(openFileCacheNStale,   1, "");
+                Test.ensureEqual(openFileCacheNEvicted, 2, "");
+            }
+
+            //when all are in use, another file is opened but not tracked
+            NetcdfFile inUse[] = {openCachedFile(names[0]), openCachedFile(names[1]), openCachedFile(names[2])};
+            Test.ensureEqual(openFileCacheNOpen(), 2, "");
+            for (int i = 0; i < 3; i++)
+                for (int j = 0; j < i; j++)
+                    Test.ensureTrue(inUse[i] != inUse[j], "");
+            for (int i = 0; i < 3; i++) 
+                releaseCachedFile(inUse[i], true);
+            Test.ensureEqual(openFileCacheNOpen(), 2, "");
+
+            //concurrent opens of the same files never share a NetcdfFile
+            final IdentityHashMap<NetcdfFile,String> using = new IdentityHashMap();
+            final StringBuffer errors = new StringBuffer();
+            Thread threads[] = new Thread[8];
+            for (int t = 0; t < threads.length; t++) {
+                final int ft = t;
+                threads[t] = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < 200; i++) {
+                            NetcdfFile tnc = openCachedFile(names[(ft + i) % 2]);
+                            try {
+                                synchronized(using) {
+                                    if (using.put(tnc, "") != null) 
+                                        errors.append("shared NetcdfFile: " + tnc.getLocation() + "\n");
+                                }
+                                if (openFileCacheNOpen() > 2)
+                                    errors.append("nOpen=" + openFileCacheNOpen() + "\n");
+                                if (tnc.findVariable("row").read().getInt(0) != 1) 
+                                    errors.append("unexpected value\n");
+                                synchronized(using) {
+                                    using.remove(tnc);
+                                }
+                            } finally {
+                                releaseCachedFile(tnc, true);
+                            }
+                        }
+                    } catch (Throwable th) {
+                        errors.append(MustBe.throwableToString(th));
+                    }
+                });
+                threads[t].start();
+            }
+            for (int t = 0; t < threads.length; t++)
+                threads[t].join();
+            Test.ensureEqual(errors.toString(), "", "");
+            Test.ensureTrue(openFileCacheNOpen() <= 2, "");
+            String2.log(openFileCacheStatsString());
+
+        } finally {
+            openFileCacheMaxOpen = 0;
+            closeIdleCachedFiles(); //closes all idle files
+            openFileCacheMaxOpen = oMaxOpen;
+            File2.deleteAllFiles(dir, true, true);
+        }
+    }
+
     /**
      * This runs all of the interactive or not interactive tests for this class.
      *
@@ -2679,7 +3102,7 @@ String2.log(pas13.toString());
     public static void test(StringBuilder errorSB, boolean interactive, 
         boolean doSlowTestsToo, int firstTest, int lastTest) {
         if (lastTest < 0)
-            lastTest = interactive? -1 : 2;
+            lastTest = interactive? -1 : 3;
         String msg = "\n^^^ NcHelper.test(" + interactive + ") test=";
 
         for (int test = firstTest; test <= lastTest; test++) {
@@ -2694,6 +3117,7 @@ String2.log(pas13.toString());
                     if (test ==  0) testBasic();
                     if (test ==  1) testFindAllVariablesWithDims();
                     if (test ==  2) testUnlimited();        
+                    if (test ==  3) testOpenFileCache();
                 }
 
                 String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
@@ -0,0 +1,548 @@
+/*
+ * AsciiChunkParser Copyright, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.coastwatch.pointdata;
+
+import com.cohort.array.*;
+import com.cohort.util.*;
+
+import java.io.BufferedReader;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * AsciiChunkParser is used by Table.readASCII to parse the data lines of an
+ * ASCII file after the header.
+ * It reads big blocks of characters (not one String per line),
+ * splits them into chunks of complete lines, and parses the chunks in parallel
+ * (with a fixed pool of nThreads threads for each file).
+ * For each line, it finds the items (as offsets in the chunk).
+ * Plain decimal numbers (e.g., -12 or 12.345) in columns which will be 
+ * doubles, floats, longs, ints, shorts or bytes are parsed right from the chunk's chars 
+ * into those types. Strings are only made for other items 
+ * (e.g., NaN, 1e10, String columns) in the loadColumns and testColumns.
+ *
+ * <p>The results are identical to Table.readASCII's line by line parsing.
+ * Lines with a '"' or '\\' (which need the full treatment) are parsed
+ * with the same methods as readASCII uses.
+ *
+ * <p>One AsciiChunkParser is made for each file. parse() is thread-safe.
+ *
+ * <p>Only Table.readASCII (e.g., for EDDTableFromAsciiFiles) uses this.
+ * Table.readColumnarASCII (EDDTableFromColumnarAsciiFiles) and 
+ * Table.readJsonlCSV (EDDTableFromJsonlCSVFiles) still read line by line.
+ */
+public class AsciiChunkParser {
+
+    /** The number of chars in each chunk (except the last). */
+    public static int chunkSize = 1 << 20;
+
+    /** 
+     * The number of threads parseAll uses to parse the chunks of one file.
+     * 1 means parse the chunks in the calling thread.
+     * LoadDatasets sets this to EDStatic.nTableThreads.
+     */
+    public static volatile int nThreads = 1;
+
+    /** 
+     * POWERS_OF_10[i] is exactly 10^i.
+     * (Doubles represent powers of 10 up to 10^22 exactly.)
+     */
+    private final static double POWERS_OF_10[] = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 
+        1e11, 1e12, 1e13, 1e14, 1e15};
+
+    //the settings (which don't change)
+    private final char colSeparator;
+    private final int expectedNItems;
+    private final boolean allowRaggedRight;
+    private final int testColumnNumbers[];
+    private final double testMin[], testMax[];
+    private final int loadColumnNumbers[];
+    private final PAType loadColumnPATypes[];
+
+    /** The results from parsing one chunk. */
+    public static class Result {
+        /** The data for each load column. */
+        public PrimitiveArray pas[];
+        /** The warnings (in order). */
+        public StringBuilder warnings = new StringBuilder();
+        /** The position in warnings of the chunk's first allowRaggedRight note (or -1). */
+        public int noteStart = -1, noteEnd = -1;
+    }
+
+    /**
+     * The constructor.
+     *
+     * @param tColSeparator the separator (e.g., ',', '\t', ' ' or '\u0000' if just one item per line)
+     * @param tExpectedNItems the expected number of items per line
+     * @param tAllowRaggedRight see Table.allowRaggedRightInReadASCII
+     * @param tTestColumnNumbers the item numbers of the test columns
+     * @param tTestMin the minimum allowed value for each testColumn
+     * @param tTestMax the maximum allowed value for each testColumn
+     * @param tLoadColumnNumbers the item number for each load column (-1 if not in the file)
+     * @param tLoadColumnPATypes the PAType for each load column (see Table.addAsciiString)
+     */
+    public AsciiChunkParser(char tColSeparator, int tExpectedNItems, boolean tAllowRaggedRight,
+        int tTestColumnNumbers[], double tTestMin[], double tTestMax[],
+        int tLoadColumnNumbers[], PAType tLoadColumnPATypes[]) {
+
+        colSeparator      = tColSeparator;
+        expectedNItems    = tExpectedNItems;
+        allowRaggedRight  = tAllowRaggedRight;
+        testColumnNumbers = tTestColumnNumbers;
+        testMin           = tTestMin;
+        testMax           = tTestMax;
+        loadColumnNumbers = tLoadColumnNumbers;
+        loadColumnPATypes = tLoadColumnPATypes;
+    }
+
+    /**
+     * This reads the rest of the lines from the reader, parses them
+     * (in parallel), and appends the results to loadColumnPAs and warnings.
+     * This doesn't close the reader.
+     *
+     * @param reader the reader (already positioned at the start of a line)
+     * @param row the number of lines read so far (so the first line read
+     *    here is row+1)
+     * @param loadColumnPAs receives the data for each load column
+     * @param missingItemNoted true if an allowRaggedRight note has already been
+     *    added to warnings (so no more are added)
+     * @param warnings receives the warnings
+     * @throws Exception if trouble
+     */
+    public void parseAll(BufferedReader reader, int row, PrimitiveArray loadColumnPAs[],
+        boolean missingItemNoted, StringBuilder warnings) throws Exception {
+
+        int tnThreads = Math.max(1, nThreads); //local copy (it may change)
+        ExecutorService executor = tnThreads > 1? Executors.newFixedThreadPool(tnThreads) : null;
+        int maxInFlight = tnThreads > 1? tnThreads + 1 : 1;
+        ArrayDeque<Future<Result>> inFlight = new ArrayDeque();
+        char remainder[] = new char[0];
+        int nRemainder = 0;
+        boolean eof = false;
+        try {
+            while (!eof || !inFlight.isEmpty()) {
+                //collect the oldest result (in order) if too many are in flight
+                if (eof || inFlight.size() >= maxInFlight) {
+                    Result result = getResult(inFlight.removeFirst());
+                    for (int col = 0; col < loadColumnPAs.length; col++)
+                        loadColumnPAs[col].append(result.pas[col]);
+                    if (result.noteStart >= 0) {
+                        if (missingItemNoted)
+                            result.warnings.delete(result.noteStart, result.noteEnd);
+                        missingItemNoted = true;
+                    }
+                    warnings.append(result.warnings);
+                    continue;
+                }
+
+                //read the next chunk (plus the remainder from the previous block)
+                char buf[] = new char[nRemainder + chunkSize];
+                System.arraycopy(remainder, 0, buf, 0, nRemainder);
+                int n = nRemainder;
+                while (n < buf.length) {
+                    int got = reader.read(buf, n, buf.length - n);
+                    if (got < 0) {
+                        eof = true;
+                        break;
+                    }
+                    n += got;
+                }
+
+                //the chunk ends after the last complete line
+                //(a \r at the very end may be followed by a \n, so the last char isn't checked)
+                int end = n;
+                if (!eof) {
+                    end = n - 1;
+                    while (end > 0 && buf[end - 1] != '\n' && buf[end - 1] != '\r')
+                        end--;
+                    if (end == 0) //a line longer than the buffer: keep it all for next time
+                        end = -1;
+                    else if (buf[end - 1] == '\r' && buf[end] == '\n')
+                        end++; //include the \n of \r\n
+                }
+                if (end < 0) {
+                    remainder = buf;
+                    nRemainder = n;
+                    continue;
+                }
+                nRemainder = n - end;
+                remainder = new char[nRemainder];
+                System.arraycopy(buf, end, remainder, 0, nRemainder);
+                if (end == 0)
+                    continue;
+
+                //submit the chunk
+                final char fBuf[] = buf;
+                final int fEnd = end;
+                final int fRow = row;
+                if (executor == null) {
+                    FutureTask<Result> task = new FutureTask<Result>(() -> parse(fBuf, 0, fEnd, fRow));
+                    task.run();
+                    inFlight.add(task);
+                } else {
+                    inFlight.add(executor.submit(() -> parse(fBuf, 0, fEnd, fRow)));
+                }
+                row += countLines(buf, 0, end);
+            }
+        } finally {
+            for (Future<Result> future : inFlight)
+                future.cancel(true);
+            if (executor != null)
+                executor.shutdownNow();
+        }
+    }
+
+    /**
+     * This gets a result, unwrapping an ExecutionException.
+     */
+    private static Result getResult(Future<Result> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException ee) {
+            Throwable t = ee.getCause();
+            if (t instanceof Exception)
+                throw (Exception)t;
+            throw ee;
+        }
+    }
+
+    /**
+     * This counts the lines in a chunk (\n, \r\n, and \r end lines,
+     * as with BufferedReader.readLine).
+     *
+     * @param buf the chars
+     * @param start the first char
+     * @param end the end (exclusive)
+     * @return the number of lines
+     */
+    public static int countLines(char buf[], int start, int end) {
+        int nLines = 0;
+        for (int po = start; po < end; po++) {
+            char ch = buf[po];
+            if (ch == '\n') {
+                nLines++;
+            } else if (ch == '\r') {
+                nLines++;
+                if (po + 1 < end && buf[po + 1] == '\n')
+                    po++;
+            }
+        }
+        if (end > start && buf[end - 1] != '\n' && buf[end - 1] != '\r')
+            nLines++; //the last line has no end-of-line
+        return nLines;
+    }
+
+    /**
+     * This parses a plain int (e.g., -12) from chars, without making a String.
+     *
+     * @param buf the chars
+     * @param start the first char of the (trimmed) item
+     * @param end the end (exclusive) of the item
+     * @return the value (the same as String2.parseInt would return), 
+     *   or Integer.MIN_VALUE if the item isn't '-'(optional) and 1 - 9 digits
+     *   (so the caller needs to use String2.parseInt).
+     */
+    public static int parseInt(char buf[], int start, int end) {
+        boolean negative = start < end && buf[start] == '-';
+        if (negative)
+            start++;
+        if (end - start < 1 || end - start > 9)
+            return Integer.MIN_VALUE;
+        int i = 0;
+        for (int po = start; po < end; po++) {
+            char ch = buf[po];
+            if (ch < '0' || ch > '9')
+                return Integer.MIN_VALUE;
+            i = i * 10 + (ch - '0');
+        }
+        return negative? -i : i;
+    }
+
+    /**
+     * This parses a plain long (e.g., -12) from chars, without making a String.
+     *
+     * @param buf the chars
+     * @param start the first char of the (trimmed) item
+     * @param end the end (exclusive) of the item
+     * @return the value (the same as String2.parseLong would return), 
+     *   or Long.MIN_VALUE if the item isn't '-'(optional) and 1 - 18 digits
+     *   (so the caller needs to use String2.parseLong).
+     */
+    public static long parseLong(char buf[], int start, int end) {
+        boolean negative = start < end && buf[start] == '-';
+        if (negative)
+            start++;
+        if (end - start < 1 || end - start > 18)
+            return Long.MIN_VALUE;
+        long i = 0;
+        for (int po = start; po < end; po++) {
+            char ch = buf[po];
+            if (ch < '0' || ch > '9')
+                return Long.MIN_VALUE;
+            i = i * 10 + (ch - '0');
+        }
+        return negative? -i : i;
+    }
+
+    /**
+     * This parses a plain decimal number (e.g., -12 or 12.345) from chars, 
+     * without making a String.
+     * With at most 15 digits, the digits (as a long) and the power of 10 
+     * are exact doubles, so the quotient is correctly rounded and is 
+     * the same value that Double.parseDouble returns.
+     *
+     * @param buf the chars
+     * @param start the first char of the (trimmed) item
+     * @param end the end (exclusive) of the item
+     * @return the value (the same as String2.parseDouble would return),
+     *   or Double.NaN if the item isn't '-'(optional), 1 - 15 digits, and 
+     *   optionally a '.' after the first digit
+     *   (e.g., NaN, 1e10, .5, +1, 0x1F, or more digits)
+     *   (so the caller needs to use String2.parseDouble).
+     */
+    public static double parseDouble(char buf[], int start, int end) {
+        boolean negative = start < end && buf[start] == '-';
+        if (negative)
+            start++;
+        long m = 0;
+        int nDigits = 0;
+        int nFractionDigits = 0;
+        boolean inFraction = false;
+        for (int po = start; po < end; po++) {
+            char ch = buf[po];
+            if (ch >= '0' && ch <= '9') {
+                if (++nDigits > 15)
+                    return Double.NaN;
+                m = m * 10 + (ch - '0');
+                if (inFraction)
+                    nFractionDigits++;
+            } else if (ch == '.' && !inFraction && nDigits > 0) {
+                inFraction = true;
+            } else {
+                return Double.NaN;
+            }
+        }
+        if (nDigits == 0)
+            return Double.NaN;
+        double d = m / POWERS_OF_10[nFractionDigits];
+        return negative? -d : d;
+    }
+
+    /**
+     * This adds an item to a load column, the same way Table.addAsciiString does,
+     * but without making a String if the item is a plain number in a numeric column.
+     *
+     * @param pa the load column
+     * @param paType pa's elementType
+     * @param buf the chars
+     * @param start the first char of the (trimmed) item
+     * @param end the end (exclusive) of the item
+     */
+    private static void addItem(PrimitiveArray pa, PAType paType, char buf[], int start, int end) {
+        if (paType == PAType.DOUBLE || paType == PAType.FLOAT) {
+            double d = parseDouble(buf, start, end);
+            if (!Double.isNaN(d)) {
+                if (paType == PAType.DOUBLE)
+                    ((DoubleArray)pa).add(d);
+                else ((FloatArray)pa).add(Math2.doubleToFloatNaN(d));
+                return;
+            }
+        } else if (paType == PAType.INT || paType == PAType.SHORT || paType == PAType.BYTE) {
+            int i = parseInt(buf, start, end);
+            if (i != Integer.MIN_VALUE) {
+                if (paType == PAType.INT)
+                    ((IntArray)pa).add(i);
+                else if (paType == PAType.SHORT)
+                    ((ShortArray)pa).add(Math2.narrowToShort(i));
+                else ((ByteArray)pa).add(Math2.narrowToByte(i));
+                return;
+            }
+        } else if (paType == PAType.LONG) {
+            long tl = parseLong(buf, start, end);
+            if (tl != Long.MIN_VALUE) {
+                ((LongArray)pa).add(tl);
+                return;
+            }
+        }
+        //everything else
+        Table.addAsciiString(pa, new String(buf, start, end - start));
+    }
+
+    /**
+     * This parses the lines in a chunk.
+     *
+     * @param buf the chars
+     * @param start the start of the first line
+     * @param end the end (exclusive) of the last line (usually after its end-of-line)
+     * @param row the number of lines in the file before this chunk
+     * @return the results
+     */
+    public Result parse(char buf[], int start, int end, int row) {
+        Result result = new Result();
+        int nLoad = loadColumnNumbers.length;
+        result.pas = new PrimitiveArray[nLoad];
+        for (int col = 0; col < nLoad; col++)
+            result.pas[col] = PrimitiveArray.factory(loadColumnPATypes[col], 8, false);
+        StringBuilder warnings = result.warnings;
+        int itemStart[] = new int[Math.max(8, expectedNItems + 1)];
+        int itemEnd[]   = new int[itemStart.length];
+        String items[] = null; //for lines which need the full treatment
+
+        int po = start;
+        while (po < end) {
+            //find the end of the line
+            int lineStart = po;
+            boolean needsFullTreatment = false;
+            while (po < end) {
+                char ch = buf[po];
+                if (ch == '\n' || ch == '\r')
+                    break;
+                if (ch == '"' || ch == '\\')
+                    needsFullTreatment = true;
+                po++;
+            }
+            int lineEnd = po;
+            if (po < end) {
+                if (buf[po] == '\r' && po + 1 < end && buf[po + 1] == '\n')
+                    po++;
+                po++;
+            }
+            row++;
+
+            //break the line into items
+            int nItems = 0;
+            if (needsFullTreatment) {
+                String oneLine = new String(buf, lineStart, lineEnd - lineStart);
+                try {
+                    if (colSeparator == ',')
+                        items = StringArray.arrayFromCSV(oneLine);  //does handle "'d phrases
+                    else if (colSeparator == ' ')
+                        items = StringArray.wordsAndQuotedPhrases(oneLine).toArray();
+                    else if (colSeparator == '\u0000')
+                        items = new String[]{oneLine.trim()};
+                    else items = String2.split(oneLine, colSeparator);
+                } catch (Exception e) {
+                    warnings.append(String2.WARNING + ": line #" + row + ": " + e.getMessage() + "\n");
+                    continue;
+                }
+                nItems = items.length;
+            } else {
+                //like the methods above, but just find the items' start and end
+                if (colSeparator == ' ') {
+                    int tPo = lineStart;
+                    while (tPo < lineEnd) {
+                        char ch = buf[tPo];
+                        if (String2.isWhite(ch) || ch == ',') {
+                            tPo++;
+                        } else {
+                            int tEnd = tPo + 1;
+                            while (tEnd < lineEnd && !String2.isWhite(buf[tEnd]) && buf[tEnd] != ',')
+                                tEnd++;
+                            if (nItems == itemStart.length) {
+                                itemStart = Arrays.copyOf(itemStart, 2 * nItems);
+                                itemEnd   = Arrays.copyOf(itemEnd,   2 * nItems);
+                            }
+                            itemStart[nItems] = tPo;
+                            itemEnd[nItems++] = tEnd;
+                            tPo = tEnd;
+                        }
+                    }
+                } else if (colSeparator == ',' && lineStart == lineEnd) {
+                    //arrayFromCSV("") returns 0 items
+                } else {
+                    int tPo = lineStart;
+                    while (true) {
+                        int tEnd = tPo;
+                        if (colSeparator != '\u0000')
+                            while (tEnd < lineEnd && buf[tEnd] != colSeparator)
+                                tEnd++;
+                        else tEnd = lineEnd;
+                        if (nItems == itemStart.length) {
+                            itemStart = Arrays.copyOf(itemStart, 2 * nItems);
+                            itemEnd   = Arrays.copyOf(itemEnd,   2 * nItems);
+                        }
+                        //trim (like String.trim)
+                        int ts = tPo, te = tEnd;
+                        while (ts < te && buf[ts] <= ' ') ts++;
+                        while (te > ts && buf[te - 1] <= ' ') te--;
+                        itemStart[nItems] = ts;
+                        itemEnd[nItems++] = te;
+                        if (tEnd >= lineEnd)
+                            break;
+                        tPo = tEnd + 1;
+                    }
+                }
+            }
+
+            //ensure nItems is correct
+            if (nItems == 0)
+                continue; //silent error
+            if (nItems > expectedNItems ||
+                (nItems < expectedNItems && !allowRaggedRight)) { // if allow..., it is noted below once
+                warnings.append(String2.WARNING + ": skipping line #" + row +
+                    ": unexpected number of items (observed=" + nItems +
+                       ", expected=" + expectedNItems + "). [a]\n");
+                continue;
+            }
+
+            //do the tests
+            boolean ok = true;
+            for (int test = 0; test < testColumnNumbers.length; test++) {
+                int which = testColumnNumbers[test];
+                if (which < 0 || which >= nItems)  //value treated as NaN. NaN will fail any test.
+                    continue;
+                double d;
+                if (needsFullTreatment) {
+                    d = String2.parseDouble(items[which]);
+                } else {
+                    d = parseDouble(buf, itemStart[which], itemEnd[which]);
+                    if (Double.isNaN(d)) 
+                        d = String2.parseDouble(
+                            new String(buf, itemStart[which], itemEnd[which] - itemStart[which]));
+                }
+                if (d >= testMin[test] && d <= testMax[test]) { //NaN will fail this test
+                    continue;
+                } else {
+                    ok = false;
+                    break;
+                }
+            }
+            if (!ok)
+                continue;
+
+            //store the data items
+            for (int col = 0; col < nLoad; col++) {
+                int itemNumber = loadColumnNumbers[col];
+                if (itemNumber < 0) {
+                    //request col is not in the file
+                    Table.addAsciiString(result.pas[col], "");
+                } else if (itemNumber < nItems) {
+                    if (needsFullTreatment)
+                        Table.addAsciiString(result.pas[col], 
+                            String2.fromNccsvString(items[itemNumber]));
+                    else addItem(result.pas[col], loadColumnPATypes[col], 
+                        buf, itemStart[itemNumber], itemEnd[itemNumber]);
+                } else { //allowRaggedRight (else incorrect nItems added to warnings above)
+                    if (result.noteStart < 0) {
+                        result.noteStart = warnings.length();
+                        warnings.append("NOTE: skipping line #" + row +
+                            " (and others?): unexpected number of items (observed=" + nItems +
+                           ", expected=" + expectedNItems + ") starting on this line. [allowRaggedRightInReadASCII=true]\n");
+                        result.noteEnd = warnings.length();
+                    }
+                    Table.addAsciiString(result.pas[col], ""); //missing value
+                }
+            }
+        }
+        return result;
+    }
+
+}
@@ -161,6 +161,30 @@ public class Table  {
      */
     public boolean allowRaggedRightInReadASCII = false;
 
+    /**
+     * If true (the default), after the first few data lines, readASCII reads
+     * the rest of the file in big chunks which are parsed in parallel 
+     * (see AsciiChunkParser). The results are the same either way.
+     * This is public so tests can compare the two ways.
+     */
+    public static boolean readAsciiWithChunks = true;
+
+    /**
+     * If true (the default), readNcCF reads just the needed sections 
+     * (runs of rows) of obs variables (see readNcCFRows), 
+     * instead of reading all of each obs variable and then discarding 
+     * the unneeded rows. The results are the same either way.
+     * This is public so tests can compare the two ways.
+     */
+    public static boolean readNcCFWithSections = true;
+
+    /** 
+     * In readNcCFRows, runs of needed rows separated by fewer than this 
+     * number of unneeded rows are read with one section read
+     * (it's faster to read and discard a few rows than to do another read).
+     */
+    public final static int READ_NC_CF_MIN_GAP = 8192;
+
     /**
      * If true, readOpendap requestes compressed data. 
      * I think this should always be true.
@@ -666,6 +690,24 @@ public class Table  {
             convertIsSomething2(col);
     }
 
+    /**
+     * This runs StringArray.compact (switch to a compact storage mode if 
+     * that saves memory) on all StringArray columns.
+     * Use this for tables which will be kept in memory and not changed.
+     *
+     * @return the number of columns which are now compact
+     */
+    public int compactStringColumns() {
+        int nCompact = 0;
+        int nColumns = columns.size();
+        for (int col = 0; col < nColumns; col++) {
+            PrimitiveArray pa = getColumn(col);
+            if (pa.elementType() == PAType.STRING && ((StringArray)pa).compact())
+                nCompact++;
+        }
+        return nCompact;
+    }
+
     /**
      * This copies the values from one row to another already extant row 
      * (without affecting any other rows).
@@ -2272,10 +2314,27 @@ public class Table  {
         String testColumns[], double testMin[], double testMax[], 
         String loadColumns[], boolean simplify) throws Exception {
 
+        readASCII(fullFileName, charset, 
+            skipHeaderToRegex, skipLinesRegex, columnNamesLine, dataStartLine, tColSeparator,
+            testColumns, testMin, testMax, loadColumns, null, simplify); 
+    }
+
+    /**
+     * Like the other readASCII, but with loadColumnTypes.
+     *
+     * @param loadColumnTypes the PAType for each of the loadColumns 
+     *     (or null if all should be read as Strings). See addAsciiString.
+     */
+    public void readASCII(String fullFileName, String charset, 
+        String skipHeaderToRegex, String skipLinesRegex,
+        int columnNamesLine, int dataStartLine, String tColSeparator,
+        String testColumns[], double testMin[], double testMax[], 
+        String loadColumns[], PAType loadColumnTypes[], boolean simplify) throws Exception {
+
         readASCII(fullFileName, 
             File2.getDecompressedBufferedFileReader(fullFileName, charset), 
             skipHeaderToRegex, skipLinesRegex, columnNamesLine, dataStartLine, tColSeparator,
-            testColumns, testMin, testMax, loadColumns, simplify); 
+            testColumns, testMin, testMax, loadColumns, loadColumnTypes, simplify); 
     }
  
 
@@ -2351,6 +2410,31 @@ public class Table  {
         String testColumns[], double testMin[], double testMax[], 
         String loadColumns[], boolean simplify) throws Exception {
 
+        readASCII(fileName, linesReader, skipHeaderToRegex, skipLinesRegex,
+            columnNamesLine, dataStartLine, tColSeparator,
+            testColumns, testMin, testMax, loadColumns, null, simplify);
+    }
+
+    /**
+     * Like the other readASCII, but with loadColumnTypes.
+     * After the first few data lines (and if there is no skipLinesRegex), 
+     * the rest of the file is parsed in parallel chunks (see AsciiChunkParser).
+     *
+     * @param loadColumnTypes the PAType for each of the loadColumns 
+     *     (or null if all should be read as Strings). 
+     *     Use this only if loadColumns != null.
+     *     The values are parsed as the type as they are read (see addAsciiString),
+     *     so it is faster and uses much less memory than reading Strings and 
+     *     converting later.
+     *     DOUBLE, FLOAT, LONG, INT, SHORT, BYTE and STRING are supported.
+     *     For other types, read as STRING and convert later.
+     */
+    public void readASCII(String fileName, BufferedReader linesReader,
+        String skipHeaderToRegex, String skipLinesRegex,
+        int columnNamesLine, int dataStartLine, String tColSeparator,
+        String testColumns[], double testMin[], double testMax[], 
+        String loadColumns[], PAType loadColumnTypes[], boolean simplify) throws Exception {
+
         try { 
 
         //clear everything
@@ -2373,6 +2457,17 @@ public class Table  {
             Test.ensureTrue(dataStartLine >= 0, 
                 errorInMethod + "dataStartLine=" + dataStartLine + " must be >=0.");
         }
+        if (loadColumnTypes != null) {
+            Test.ensureTrue(loadColumns != null && loadColumns.length == loadColumnTypes.length, 
+                errorInMethod + "loadColumnTypes.length != loadColumns.length.");
+            for (int col = 0; col < loadColumnTypes.length; col++) {
+                PAType tType = loadColumnTypes[col];
+                Test.ensureTrue(tType == PAType.DOUBLE || tType == PAType.FLOAT  || 
+                    tType == PAType.LONG  || tType == PAType.INT    || tType == PAType.SHORT || 
+                    tType == PAType.BYTE  || tType == PAType.STRING,
+                    errorInMethod + "Unsupported loadColumnType=" + tType + ".");
+            }
+        }
         Pattern skipLinesPattern = skipLinesRegex != null && !skipLinesRegex.equals("")?
              Pattern.compile(skipLinesRegex) : null;
 
@@ -2464,10 +2559,23 @@ public class Table  {
         //get the data
         int testColumnNumbers[] = null;
         int loadColumnNumbers[] = null;
-        StringArray loadColumnSA[] = null;
+        PrimitiveArray loadColumnPA[] = null;
         boolean missingItemNoted = false;
         StringBuilder warnings = new StringBuilder();
         while (true) {
+            //after the one time things and the cached lines, parse the rest in parallel chunks
+            if (readAsciiWithChunks && loadColumnNumbers != null && 
+                skipLinesPattern == null && nextLinesCache >= linesCacheSize) {
+                PAType loadColumnPATypes[] = new PAType[loadColumnPA.length];
+                for (int col = 0; col < loadColumnPA.length; col++)
+                    loadColumnPATypes[col] = loadColumnPA[col].elementType();
+                AsciiChunkParser parser = new AsciiChunkParser(colSeparator, expectedNItems, 
+                    allowRaggedRightInReadASCII, testColumnNumbers, testMin, testMax,
+                    loadColumnNumbers, loadColumnPATypes);
+                parser.parseAll(linesReader, row, loadColumnPA, missingItemNoted, warnings);
+                break;
+            }
+
             oneLine = null;
             if (nextLinesCache < linesCacheSize) {
                 oneLine = linesCache.get(nextLinesCache);
@@ -2532,19 +2640,20 @@ public class Table  {
                 if (loadColumns == null) {
                     //load all
                     loadColumnNumbers = new int[fileColumnNames.size()];
-                    loadColumnSA = new StringArray[fileColumnNames.size()];
+                    loadColumnPA = new PrimitiveArray[fileColumnNames.size()];
                     for (int col = 0; col < fileColumnNames.size(); col++) {
                         loadColumnNumbers[col] = col;
-                        loadColumnSA[col] = new StringArray(); 
-                        addColumn(fileColumnNames.get(col), loadColumnSA[col]);                         
+                        loadColumnPA[col] = new StringArray(); 
+                        addColumn(fileColumnNames.get(col), loadColumnPA[col]);                         
                     }
                 } else {
                     loadColumnNumbers = new int[loadColumns.length];
-                    loadColumnSA = new StringArray[loadColumns.length];
+                    loadColumnPA = new PrimitiveArray[loadColumns.length];
                     for (int col = 0; col < loadColumns.length; col++) {
                         loadColumnNumbers[col] = fileColumnNames.indexOf(loadColumns[col], 0);
-                        loadColumnSA[col] = new StringArray(); 
-                        addColumn(loadColumns[col], loadColumnSA[col]); 
+                        loadColumnPA[col] = loadColumnTypes == null? new StringArray() :
+                            PrimitiveArray.factory(loadColumnTypes[col], 8, false); 
+                        addColumn(loadColumns[col], loadColumnPA[col]); 
                     }
                 }
                 //if (reallyVerbose) String2.log("loadColumnNumbers=" + String2.toCSSVString(loadColumnNumbers));
@@ -2585,9 +2694,9 @@ public class Table  {
                 int itemNumber = loadColumnNumbers[col];
                 if (itemNumber < 0) {
                     //request col is not in the file
-                    loadColumnSA[col].add(""); 
+                    addAsciiString(loadColumnPA[col], ""); 
                 } else if (itemNumber < nItems) {
-                    loadColumnSA[col].add(String2.fromNccsvString(items[itemNumber]));
+                    addAsciiString(loadColumnPA[col], String2.fromNccsvString(items[itemNumber]));
                 } else if (allowRaggedRightInReadASCII) {  
                     //it is a bad idea to allow this (who knows which value is missing?), 
                     //but some buoy files clearly lack the last value,
@@ -2598,7 +2707,7 @@ public class Table  {
                            ", expected=" + expectedNItems + ") starting on this line. [allowRaggedRightInReadASCII=true]\n");
                         missingItemNoted = true;
                     }
-                    loadColumnSA[col].add(""); //missing value
+                    addAsciiString(loadColumnPA[col], ""); //missing value
                 } //else incorrect nItems added to warnings above
             }
         }
@@ -2627,6 +2736,22 @@ public class Table  {
         }
     }
 
+    /**
+     * This adds a String value from an ASCII file to a column made by readASCII.
+     * Numeric values are parsed exactly as StringArray's values are when 
+     * they are later appended to that type of PrimitiveArray
+     * (e.g., FLOAT via parseDouble then doubleToFloatNaN), so the results are
+     * the same as reading as Strings and converting later.
+     *
+     * @param pa a column (of one of the types supported by readASCII's loadColumnTypes)
+     * @param s the value (already trimmed)
+     */
+    public static void addAsciiString(PrimitiveArray pa, String s) {
+        if (pa.elementType() == PAType.FLOAT)
+            ((FloatArray)pa).add(Math2.doubleToFloatNaN(String2.parseDouble(s)));
+        else pa.addString(s);
+    }
+
     /** 
      * Test readASCII with csv file.
      *
@@ -9603,6 +9728,92 @@ Dataset {
         return newValue;
     }
 
+    /**
+     * Used by readNcCF to read just the keep rows of an obs variable
+     * (e.g., var[obs], var[outer][obs], or var[outer][inner][obs],
+     * plus the nChars dimension if it's a char variable).
+     * Outer dimension constraints have already been applied to the 
+     * index/rowSize variables to make keep, so typically (e.g., a request 
+     * for one profile or station) this only reads a small section of the variable.
+     * Runs of keep rows (in terms of the variable's leftmost dimension) 
+     * which are close together are read with one section read.
+     *
+     * @param var the variable
+     * @param keep indicates which of the nRows (flattened) rows should be kept.
+     * @param nRows the number of (flattened) rows in var. 
+     *   This must be a multiple of the size of var's leftmost dimension.
+     * @return a PrimitiveArray with just the keep rows.
+     *   If a section read returns an unexpected number of values, 
+     *   this logs it and reads the whole variable instead.
+     * @throws Exception if trouble
+     */
+    static PrimitiveArray readNcCFRows(Variable var, BitSet keep, int nRows) 
+        throws Exception {
+
+        int shape[] = var.getShape();
+        int nIndex = shape.length == 0? 0 : shape[0];
+        int rowsPerIndex = nIndex == 0? 0 : nRows / nIndex;
+        int firstRow = keep.nextSetBit(0);
+        if (!readNcCFWithSections || firstRow < 0 || 
+            rowsPerIndex == 0 || rowsPerIndex * nIndex != nRows) {
+            //read all, then justKeep
+            PrimitiveArray pa = NcHelper.getPrimitiveArray(var);
+            pa.justKeep(keep); 
+            pa.trimToSize();
+            return pa;
+        }
+
+        //read each run (or close-together group of runs) of keep rows 
+        int minGap = Math.max(1, READ_NC_CF_MIN_GAP / rowsPerIndex);
+        int origin[] = new int[shape.length]; //all 0's
+        PrimitiveArray results = null;
+        int nReads = 0;
+        int first = firstRow / rowsPerIndex;
+        while (first >= 0) {
+            //find last (inclusive) of this group of runs
+            int last = first;
+            while (true) {
+                int nextClear = keep.nextClearBit((last + 1) * rowsPerIndex);
+                last = (nextClear - 1) / rowsPerIndex;
+                int nextSet = nextClear >= nRows? -1 : keep.nextSetBit(nextClear);
+                if (nextSet < 0 || nextSet / rowsPerIndex - last > minGap)
+                    break;
+                last = nextSet / rowsPerIndex;
+            }
+            last = Math.min(last, nIndex - 1);
+
+            //read the section and apply keep
+            origin[0] = first;
+            shape[0] = last - first + 1;
+            int tNRows = shape[0] * rowsPerIndex;
+            PrimitiveArray pa = NcHelper.getPrimitiveArray(var.read(origin, shape));
+            nReads++;
+            if (pa.size() != tNRows) { //e.g., opendap returns the entire variable
+                //fall back to: read all, then justKeep
+                String2.log("WARNING in Table.readNcCFRows: " +
+                    "var.read(" + var.getFullName() + ") returned " + pa.size() + 
+                    " values, not " + tNRows + ", so the whole variable was read.");
+                if (pa.size() != nRows) 
+                    pa = NcHelper.getPrimitiveArray(var);
+                pa.justKeep(keep); 
+                pa.trimToSize();
+                return pa;
+            }
+            pa.justKeep(keep.get(first * rowsPerIndex, (last + 1) * rowsPerIndex));
+            if (results == null)
+                results = pa;
+            else results.append(pa);
+
+            int nextSet = (last + 1) * rowsPerIndex >= nRows? -1 : 
+                keep.nextSetBit((last + 1) * rowsPerIndex);
+            first = nextSet < 0? -1 : nextSet / rowsPerIndex;
+        }
+        results.trimToSize();
+        if (debugMode) String2.log("  Debug: readNcCFRows(" + var.getFullName() + 
+            ") nReads=" + nReads + " nKeep=" + results.size() + " of nRows=" + nRows);
+        return results;
+    }
+
     /**
      * This reads and flattens all specified variables from a .nc CF DSG file into a table.
      * <br>This does not unpack the values or convert to standardMissingValues.
@@ -9632,9 +9843,9 @@ Dataset {
     public void readNcCF(String fullName, StringArray loadVariableNames, 
         int standardizeWhat,
         StringArray conNames, StringArray conOps, StringArray conValues) throws Exception {
-        //FUTURE optimization: instead of reading all of 1D obs variables,
-        //find first and last set bit in obsKeep, just read a range of values,
-        //then apply obsKeep.
+        //Optimization: outer (and inner) constraints are applied first
+        //(via the index and rowSize variables) to make obsKeep, 
+        //then readNcCFRows just reads the needed sections of the obs variables.
 
         if (loadVariableNames == null) 
             loadVariableNames = new StringArray();
@@ -10434,9 +10645,7 @@ Dataset {
                         for (int v = 0; v < nVars; v++) {       
                             if (varInLoadOrConVariables[v] &&
                                 varNDims[v] == 1 && varUsesDim[v][obsDim]) {  //ensure correct dim
-                                PrimitiveArray pa = NcHelper.getPrimitiveArray(vars[v]);
-                                pa.justKeep(obsKeep); //as each var read in, to save memory
-                                pa.trimToSize();
+                                PrimitiveArray pa = readNcCFRows(vars[v], obsKeep, obsDimSize); //just obsKeep rows, to save memory
                                 addColumn(nColumns(), varNames[v], pa, varAtts[v]);
                                 standardizeLastColumn(standardizeWhat);
                             }
@@ -10524,9 +10733,7 @@ Dataset {
                             //String2.log("var[" + v + "]=" + varNames[v] + " ndim=" + varNDims[v] + " usesObsDim=" + varUsesDim[v][obsDim]);
                             if (varInLoadOrConVariables[v] &&
                                 varNDims[v] == 1 && varUsesDim[v][obsDim]) {  //ensure correct dim
-                                PrimitiveArray pa = NcHelper.getPrimitiveArray(vars[v]);
-                                pa.justKeep(obsKeep); //as each var read in, to save memory
-                                pa.trimToSize();
+                                PrimitiveArray pa = readNcCFRows(vars[v], obsKeep, obsDimSize); //just obsKeep rows, to save memory
                                 addColumn(nColumns(), varNames[v], pa, varAtts[v]);
                                 standardizeLastColumn(standardizeWhat);
                             }
@@ -10735,11 +10942,9 @@ Dataset {
                                 varNDims[v] == 2 && 
                                 varUsesDim[v][outerDim] && varUsesDim[v][obsDim]) { //dim order checked above
                                 if (ncCFcc != null) ncCFcc.set(54);
-                                PrimitiveArray pa = NcHelper.getPrimitiveArray(vars[v]);
+                                PrimitiveArray pa = readNcCFRows(vars[v], obsKeep, 
+                                    outerDimSize * obsDimSize); //just obsKeep rows, to save memory
                                 if (debugMode) String2.log("  Debug: read var=" + varNames[v] + " pa.size=" + pa.size());
-                                pa.justKeep(obsKeep); //as each var read in, to save memory
-                                pa.trimToSize();
-                                if (debugMode) String2.log("    trimmed pa.size=" + pa.size());
                                 addColumn(nColumns(), varNames[v], pa, varAtts[v]);
                                 standardizeLastColumn(standardizeWhat);
                             }
@@ -10996,9 +11201,7 @@ Dataset {
                     if (ncCFcc != null) ncCFcc.set(71);
                     if (varInLoadOrConVariables[v] &&
                         varNDims[v] == 1 && varUsesDim[v][obsDim]) { //ensure correct dim
-                        PrimitiveArray pa = NcHelper.getPrimitiveArray(vars[v]);
-                        pa.justKeep(obsKeep); //as each var read in, to save memory
-                        pa.trimToSize();
+                        PrimitiveArray pa = readNcCFRows(vars[v], obsKeep, obsDimSize); //just obsKeep rows, to save memory
                         addColumn(nColumns(), varNames[v], pa, varAtts[v]);
                         standardizeLastColumn(standardizeWhat);
                     }
@@ -11297,9 +11500,8 @@ Dataset {
                         varUsesDim[v][innerDim] && 
                         varUsesDim[v][obsDim]) {
                         if (ncCFcc != null) ncCFcc.set(92);
-                        PrimitiveArray pa = NcHelper.getPrimitiveArray(vars[v]);
-                        pa.justKeep(obsKeep); //as each var read in, to save memory
-                        pa.trimToSize();
+                        PrimitiveArray pa = readNcCFRows(vars[v], obsKeep, 
+                            outerXInnerDimSize * obsDimSize); //just obsKeep rows, to save memory
                         addColumn(nColumns(), varNames[v], pa, varAtts[v]);
                         standardizeLastColumn(standardizeWhat);
                     }
@@ -11437,6 +11639,71 @@ Dataset {
     }
 
 
+    /** 
+     * This tests that readNcCF returns the same results whether it reads
+     * just the needed sections of the obs variables (readNcCFWithSections=true) 
+     * or all of each obs variable. 
+     * For each file, this constrains the first (outer) column to a few of its values.
+     */
+    public static void testReadNcCFWithSections() throws Exception {
+        String2.log("\n*** Table.testReadNcCFWithSections");
+        boolean oWithSections = readNcCFWithSections;
+        String dir = String2.unitTestDataDir + "nccf/";
+        String fileNames[] = {
+            dir + "ncCF1b.nc",    //nLevels=1 contiguous ragged
+            dir + "ncCFMA1b.nc",  //nLevels=1 multidimensional
+            dir + "ncCF2b.nc",    //nLevels=2 ragged
+            dir + "ncCFMA2b.nc",  //nLevels=2 multidimensional
+            String2.unitTestDataDir + "CFPointConventions/timeSeries/" +
+                "timeSeries-Orthogonal-Multidimenstional-MultipleStations-H.2.1/" +
+                "timeSeries-Orthogonal-Multidimenstional-MultipleStations-H.2.1.nc"};
+        try {
+            for (int f = 0; f < fileNames.length; f++) {
+                String fileName = fileNames[f];
+                Table table = new Table();
+                readNcCFWithSections = true;
+                table.readNcCF(fileName, null, 0, null, null, null); //standardizeWhat=0
+                String allResults = table.dataToString();
+                readNcCFWithSections = false;
+                table.readNcCF(fileName, null, 0, null, null, null); 
+                Test.ensureEqual(table.dataToString(), allResults, "fileName=" + fileName);
+                Test.ensureTrue(table.nRows() > 0, "fileName=" + fileName);
+
+                //constrain the first column to its first, middle, and last values
+                StringArray loadVars = new StringArray(table.getColumnNames());
+                String conName = table.getColumnName(0);
+                PrimitiveArray conPA = table.getColumn(0);
+                int nRows = conPA.size();
+                int conRows[] = {0, nRows / 2, nRows - 1};
+                int nConRows = 0;
+                for (int cr = 0; cr < conRows.length; cr++) {
+                    String conValue = conPA.getString(conRows[cr]);
+                    StringArray conNames  = StringArray.fromCSV(conName);
+                    StringArray conOps    = StringArray.fromCSV("=");
+                    StringArray conValues = new StringArray(new String[]{conValue});
+
+                    readNcCFWithSections = false;
+                    table.readNcCF(fileName, loadVars, 0, conNames, conOps, conValues);
+                    String expected = table.dataToString();
+                    int expectedNRows = table.nRows();
+
+                    readNcCFWithSections = true;
+                    table.readNcCF(fileName, loadVars, 0, conNames, conOps, conValues);
+                    String results = table.dataToString();
+                    Test.ensureEqual(results, expected, 
+                        "fileName=" + fileName + " " + conName + "=" + conValue);
+                    Test.ensureTrue(expectedNRows <= nRows, 
+                        "fileName=" + fileName + " " + conName + "=" + conValue + 
+                        " nRows=" + expectedNRows);
+                    nConRows += expectedNRows;
+                }
+                Test.ensureTrue(nConRows > 0, "fileName=" + fileName);
+            }
+        } finally {
+            readNcCFWithSections = oWithSections;
+        }
+    }
+
     /** This tests reading an ncCF Contiguous Ragged Array file with 7(!) sample_dimension's.
      */
     public static void testReadNcCF7SampleDims() throws Exception {
@@ -33237,6 +33504,197 @@ expected =
 */
     }
 
+    /**
+     * This makes an ASCII test file for testReadAsciiChunks and testReadAsciiChunksSpeed.
+     *
+     * @param sep the column separator
+     * @param nRows the number of data rows
+     * @param messy if true, the file has quoted items, ragged and bad lines, 
+     *    blank lines, and a mix of \n, \r\n, and \r line endings
+     * @return the file's contents
+     */
+    private static String makeAsciiChunksTestFile(char sep, int nRows, boolean messy) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# a header line\n");
+        sb.append("aDouble" + sep + "aFloat" + sep + "anInt" + sep + "aString" + sep + "aByte\n");
+        String eols[] = messy? new String[]{"\n", "\r\n", "\r"} : new String[]{"\n"};
+        for (int row = 0; row < nRows; row++) {
+            String eol = eols[row % eols.length];
+            if (messy && row % 97 == 5) {
+                sb.append(eol); //blank line
+                continue;
+            }
+            if (messy && row % 89 == 7) { //ragged right
+                sb.append((row * 1.5) + "" + sep + (row / 8.0f) + eol); 
+                continue;
+            }
+            if (messy && row % 83 == 9) { //too many items
+                sb.append("1" + sep + "2" + sep + "3" + sep + "4" + sep + "5" + sep + "6" + eol);
+                continue;
+            }
+            String tString = 
+                !messy || row % 7 != 0? "s" + row :
+                sep == ' '? "\"a b" + row + "\"" :
+                row % 2 == 0? "\"a, \"\"b\"\" " + row + "\"" : "c\\td" + row;
+            sb.append(
+                (row % 11 == 0? "NaN" : 
+                 messy && row % 23 == 0? "-" + (row * 0.1) :  //often 17 digits
+                 messy && row % 29 == 0? row + "e-3" : 
+                 String.valueOf(row * 1.5)) + sep + 
+                (row % 13 == 0? (sep == ' '? "NaN" : "") : String.valueOf(row / 8.0f)) + sep + 
+                (row % 17 == 0? "9999999999" : String.valueOf(row * 10)) + sep + 
+                tString + sep + 
+                (row % 19 == 0? "1000" : String.valueOf(row % 100)) + eol);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * This tests that readASCII returns the same results whether or not it 
+     * parses the data in chunks (with AsciiChunkParser), with small chunks 
+     * so that lines (and \r\n) are split across chunk boundaries.
+     */
+    public static void testReadAsciiChunks() throws Exception {
+        String2.log("\n*** Table.testReadAsciiChunks");
+        String fileName = File2.getSystemTempDirectory() + "testReadAsciiChunks.txt";
+        String loadColumns[] = {"aString", "aDouble", "notInFile", "aByte", "aFloat", "anInt"};
+        PAType loadColumnTypes[] = {PAType.STRING, PAType.DOUBLE, PAType.DOUBLE, 
+            PAType.BYTE, PAType.FLOAT, PAType.INT};
+        int oChunkSize = AsciiChunkParser.chunkSize;
+        int oNThreads = AsciiChunkParser.nThreads;
+        boolean oWithChunks = readAsciiWithChunks;
+        try {
+            //parsing numbers right from the chars gives the same values as String2.parse...
+            String tokens[] = {"0", "-0", "7", "-12", "007", "123456789", "1234567890", 
+                "-999999999999999999", "1.5", "-1.5", "1.", "0.1", "-0.0", "0.30000000000000004", 
+                "123456789012345", "1234567890123456", "1e5", ".5", "+3", "NaN", "", "-", 
+                "1.2.3", "0x1F", "2147483647", "9999999999"};
+            java.util.Random random = new java.util.Random(17);
+            for (int i = 0; i < 100000 + tokens.length; i++) {
+                String tok = i < tokens.length? tokens[i] :
+                    java.math.BigDecimal.valueOf(random.nextLong() % 1000000000000000L, 
+                        random.nextInt(16)).toPlainString();
+                char ch[] = tok.toCharArray();
+                double d = AsciiChunkParser.parseDouble(ch, 0, ch.length);
+                if (!Double.isNaN(d)) 
+                    Test.ensureEqual(Double.doubleToLongBits(d), 
+                        Double.doubleToLongBits(String2.parseDouble(tok)), "tok=" + tok);
+                int ti = AsciiChunkParser.parseInt(ch, 0, ch.length);
+                if (ti != Integer.MIN_VALUE) 
+                    Test.ensureEqual(ti, String2.parseInt(tok), "tok=" + tok);
+                long tl = AsciiChunkParser.parseLong(ch, 0, ch.length);
+                if (tl != Long.MIN_VALUE) 
+                    Test.ensureEqual(tl, String2.parseLong(tok), "tok=" + tok);
+            }
+            //others are left for String2.parse...
+            Test.ensureEqual(AsciiChunkParser.parseDouble("0.1".toCharArray(), 0, 3), 0.1, "");
+            Test.ensureTrue(Double.isNaN(AsciiChunkParser.parseDouble("1e5".toCharArray(), 0, 3)), "");
+            Test.ensureTrue(Double.isNaN(AsciiChunkParser.parseDouble(
+                "0.30000000000000004".toCharArray(), 0, 19)), ""); //17 digits
+            Test.ensureEqual(AsciiChunkParser.parseInt("1234567890".toCharArray(), 0, 10), 
+                Integer.MIN_VALUE, ""); //10 digits
+            Test.ensureEqual(AsciiChunkParser.parseLong("+3".toCharArray(), 0, 2), 
+                Long.MIN_VALUE, "");
+
+            AsciiChunkParser.chunkSize = 101;
+            char seps[] = {',', '\t', ' ', ';'};
+            for (int sepi = 0; sepi < seps.length; sepi++) {
+                char sep = seps[sepi];
+                String error = String2.writeToFile(fileName, 
+                    makeAsciiChunksTestFile(sep, 2000, true));
+                Test.ensureEqual(error, "", "");
+                for (int opt = 0; opt < 8; opt++) {
+                    boolean ragged = opt % 2 == 1;
+                    boolean typed  = (opt / 2) % 2 == 1;
+                    boolean tested = opt / 4 == 1;
+                    String results[] = new String[3];
+                    for (int chunks = 0; chunks < 3; chunks++) {
+                        readAsciiWithChunks = chunks >= 1;
+                        AsciiChunkParser.nThreads = chunks == 2? 3 : 1;
+                        Table table = new Table();
+                        table.allowRaggedRightInReadASCII = ragged;
+                        table.readASCII(fileName, String2.ISO_8859_1, 
+                            "", "", 1, 2, "" + sep, 
+                            tested? new String[]{"aDouble"} : null,
+                            tested? new double[]{100} : null, 
+                            tested? new double[]{2000} : null,
+                            typed || tested? loadColumns : null, 
+                            typed? loadColumnTypes : null, false);
+                        StringBuilder sb = new StringBuilder();
+                        for (int col = 0; col < table.nColumns(); col++)
+                            sb.append(table.getColumnName(col) + " " + 
+                                table.getColumn(col).elementTypeString() + "\n");
+                        results[chunks] = sb.toString() + table.dataToString();
+                    }
+                    Test.ensureEqual(results[1], results[0], 
+                        "sep=#" + (int)sep + " opt=" + opt);
+                    Test.ensureEqual(results[2], results[0], 
+                        "nThreads=3 sep=#" + (int)sep + " opt=" + opt);
+                    Test.ensureTrue(results[0].length() > 20000, 
+                        "sep=#" + (int)sep + " opt=" + opt + " results=\n" + results[0]);
+                }
+            }
+
+            //the typed columns have the same values as reading Strings and converting later
+            readAsciiWithChunks = true;
+            Table table = new Table();
+            table.readASCII(fileName, String2.ISO_8859_1, "", "", 1, 2, ";", 
+                null, null, null, loadColumns, loadColumnTypes, false);
+            Table table2 = new Table();
+            table2.readASCII(fileName, String2.ISO_8859_1, "", "", 1, 2, ";", 
+                null, null, null, loadColumns, null, false);
+            for (int col = 0; col < loadColumns.length; col++) {
+                PrimitiveArray pa = PrimitiveArray.factory(loadColumnTypes[col], 1, false);
+                pa.append(table2.getColumn(col));
+                Test.ensureEqual(table.getColumn(col).toString(), pa.toString(), 
+                    "col=" + loadColumns[col]);
+            }
+        } finally {
+            AsciiChunkParser.chunkSize = oChunkSize;
+            AsciiChunkParser.nThreads = oNThreads;
+            readAsciiWithChunks = oWithChunks;
+            File2.delete(fileName);
+        }
+    }
+
+    /** 
+     * This compares the speed of readASCII with and without chunks 
+     * (and with and without loadColumnTypes) for a big csv file.
+     */
+    public static void testReadAsciiChunksSpeed() throws Exception {
+        String2.log("\n*** Table.testReadAsciiChunksSpeed");
+        String fileName = File2.getSystemTempDirectory() + "testReadAsciiChunksSpeed.csv";
+        String loadColumns[] = {"aDouble", "aFloat", "anInt", "aString", "aByte"};
+        PAType loadColumnTypes[] = {PAType.DOUBLE, PAType.FLOAT, PAType.INT, 
+            PAType.STRING, PAType.BYTE};
+        boolean oWithChunks = readAsciiWithChunks;
+        try {
+            String error = String2.writeToFile(fileName, 
+                makeAsciiChunksTestFile(',', 2000000, false));
+            Test.ensureEqual(error, "", "");
+            for (int attempt = 0; attempt < 2; attempt++) {
+                for (int chunks = 0; chunks < 2; chunks++) {
+                    for (int typed = 0; typed < 2; typed++) {
+                        readAsciiWithChunks = chunks == 1;
+                        Math2.gcAndWait(); //in a test
+                        long time = System.currentTimeMillis();
+                        Table table = new Table();
+                        table.readASCII(fileName, String2.ISO_8859_1, 
+                            "", "", 1, 2, ",", null, null, null, 
+                            loadColumns, typed == 1? loadColumnTypes : null, false);
+                        time = System.currentTimeMillis() - time;
+                        Test.ensureEqual(table.nRows(), 2000000, "");
+                        String2.log("attempt #" + attempt + " withChunks=" + readAsciiWithChunks + 
+                            " typed=" + (typed == 1) + " time=" + time + "ms");
+                    }
+                }
+            }
+        } finally {
+            readAsciiWithChunks = oWithChunks;
+            File2.delete(fileName);
+        }
+    }
+
     /** Test the speed of readASCII */
     public static void testReadASCIISpeed() throws Exception {
 
@@ -34560,6 +35018,7 @@ readAsNcCF?
                     if (test == 39) testUnpack();
 
                     if (test == 40 && doSlowTestsToo) testReadInvalidCRA(); //very slow
+                    if (test == 41) testReadAsciiChunks();
 
                     //readNcCF tests
                     if (test == 45) testReadNcCFPoint(false);  //pauseAfterEachTest
@@ -34579,6 +35038,7 @@ readAsNcCF?
                         Test.ensureEqual(ncCFcc.toString(), "{}", "Table.readNcCF code coverage");
                         ncCFcc = null; //turn off test of readNcCF code coverage
                     }
+                    if (test == 58) testReadNcCFWithSections();
 
                     if (test == 60) testReadASCIISpeed();
                     if (test == 61) testBigAscii();
@@ -34593,6 +35053,7 @@ readAsNcCF?
                     //if (test == 1001) testSql();     //Needs work. Not active.
                     //if (test == 1002) testIobis();   // Needs work. Not active. It needs work to deal with sessions.
                     //if (test == 1003) testOpendap(); //not done yet, see opendapSequence
+                    if (test == 1004) testReadAsciiChunksSpeed();
                 }
 
                 String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
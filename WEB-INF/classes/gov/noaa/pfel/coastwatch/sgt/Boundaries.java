@@ -231,6 +231,7 @@ public class Boundaries  {
      * This creates an SGTLine from the line (e.g., boundary) 
      * info in an SGTLine object.
      * This is the newer version that reads from .double files.
+     * It uses the file's PolygonIndex, so it just reads the paths near the request.
      * 
      * @param fullFileName the full name of the .double format source file
      * @param requestMinX usually 0..360 or +/-180, but -720 to 720 is supported
@@ -259,32 +260,32 @@ public class Boundaries  {
         }
         int nObjects = 0, nLatSkip = 0, nLonSkip = 0, nKeep = 0;
 
-        DataInputStream dis = new DataInputStream(
-            File2.getDecompressedBufferedInputStream(fullFileName));
+        //get the candidate paths from the file's index
+        //  (just the paths in the tiles which intersect the request, in file order)
+        PolygonIndex index = PolygonIndex.get(fullFileName, PolygonIndex.BOUNDARIES_FORMAT);
+        double candidateMinX[] = new double[4];
+        double candidateMaxX[] = new double[4];
+        for (int i = 0; i < 4; i++) {
+            candidateMinX[i] = requestMinX - shift[i];
+            candidateMaxX[i] = requestMaxX - shift[i];
+        }
+        int candidates[] = index.candidates(candidateMinX, candidateMaxX, 
+            requestMinY, requestMaxY);
+
+        //open the file (for the points which aren't cached)
+        PolygonIndex.Reader reader = index.openFile();
         try {
             //double minMinLon = 1e10, maxMaxLon = -1e10;   //file has minMinLon=6.10360875868E-4 maxMaxLon=359.99969482
-            while (true) { 
-                //read a path
-
-                //first value, first row should be NaN
-                if (!Double.isNaN(dis.readDouble())) {
-                    //dis will be closed in finally{} below
-                    throw new RuntimeException("Unexpected finite value at beginning of path in " +
-                        fullFileName);
-                }
-
-                //second value, first row is nPoints
-                int nPoints = Math2.roundToInt(dis.readDouble());
-                if (nPoints <= 0 || nPoints == Integer.MAX_VALUE) {
-                    //end of file
-                    break;
-                }
-
-                //read path's minLon minLat
-                double minLon = dis.readDouble();
-                double minLat = dis.readDouble();      
-                double maxLon = dis.readDouble();
-                double maxLat = dis.readDouble(); 
+            for (int candidate = 0; candidate < candidates.length; candidate++) { 
+                //a path
+                int path = candidates[candidate];
+                int nPoints = index.nPoints[path];
+
+                //path's minLon minLat
+                double minLon = index.west[path];
+                double minLat = index.south[path];      
+                double maxLon = index.east[path];
+                double maxLat = index.north[path]; 
                 
                 //if (debug) {
                 //    minMinLon = Math.min(minMinLon, minLon);
@@ -295,7 +296,6 @@ public class Boundaries  {
                 if (minLat > requestMaxY || maxLat < requestMinY) {
                     //skip this path
                     nLatSkip++;
-                    dis.skipBytes(nPoints * 16);
                     continue;
                 }
 
@@ -319,12 +319,12 @@ public class Boundaries  {
                 if (!displayIt) {
                     //skip this path
                     nLonSkip++;
-                    dis.skipBytes(nPoints * 16);
                     continue;
                 }
                 nKeep++;
                 
-                //read the points
+                //get the points
+                double points[] = index.getBoundaryPoints(path, reader); //lon,lat interleaved. Don't change.
                 double oLon = 0; //irrelevant
                 double oLat = 0;
                 double tLon = 0;
@@ -333,8 +333,8 @@ public class Boundaries  {
                 for (int point = 0; point < nPoints; point++) {
                     oLon = tLon;
                     oLat = tLat;
-                    tLon = dis.readDouble();
-                    tLat = dis.readDouble();      
+                    tLon = points[2 * point];
+                    tLat = points[2 * point + 1];      
                     if (debug) {
                         polyMinLon = Math.min(polyMinLon, tLon);
                         polyMaxLon = Math.max(polyMaxLon, tLon);
@@ -397,7 +397,7 @@ public class Boundaries  {
                 }
             }
         } finally {
-            dis.close();
+            reader.close();
         }
         if (reallyVerbose) String2.log("    Boundaries.readSgtLine nLatSkip=" + nLatSkip +
             " nLonSkip=" + nLonSkip + " nKeep=" + nKeep + " nObjects=" + nObjects);        
@@ -77,6 +77,7 @@ public class CompoundColorMap extends ColorMap {
     protected int halfI;
     protected double halfStart;
     protected Color color[];   //used only if !continuous
+    protected int argb1025[];  //lazily made by getARGB (if continuous): [piece*1025 + val1024]
 
     /** The cumulative variables are used to collect statistics. 
      * See resetStats() and getStats().
@@ -114,6 +115,7 @@ public class CompoundColorMap extends ColorMap {
         ccm.halfStart = halfStart;
         ccm.continuous = continuous;
         ccm.color = color;
+        ccm.argb1025 = argb1025;
         return (ColorMap)ccm;
     }
     
@@ -578,6 +580,83 @@ public class CompoundColorMap extends ColorMap {
         }
     }
     
+    /**
+     * This is like getColor(inVal).getRGB(), but faster since it doesn't make 
+     * a Color object for each value: for continuous palettes, 
+     * it uses a table with the 1025 possible colors for each piece.
+     * It returns exactly the same values as getColor(inVal).getRGB().
+     * GridRasterizer uses this.
+     *
+     * @param inVal a data value
+     * @return the ARGB int for the color for inVal
+     */
+    public int getARGB(double inVal) {
+
+        //deal with special cases quickly  (same as getColor)
+        if (Double.isNaN(inVal)) return NaNColor.getRGB();
+        if (inVal < rangeMin) return backgroundColor.getRGB();
+        if (inVal > rangeMax) return foregroundColor.getRGB();  
+
+        //find the piece (same as getColor)
+        int lastPiece = rangeLow.length - 1;
+        int foundPiece = -1;
+        for (int i = (inVal >= halfStart? halfI : 0); i < lastPiece; i++) {
+            if (inVal >= rangeLow[i] && inVal < rangeHigh[i]) { //note < for all except last range
+                foundPiece = i;
+                break;
+            }
+        }
+        if (foundPiece == -1) { 
+            if (inVal >= rangeLow[lastPiece] && inVal <= rangeHigh[lastPiece]) {
+                foundPiece = lastPiece;
+            } else return NaNColor.getRGB();
+        }
+
+        if (!continuous) 
+            return color[foundPiece].getRGB();
+
+        int val1024 = (int)Math.round((inVal - rangeLow[foundPiece]) / range1024[foundPiece]); 
+        int tArgb1025[] = argb1025; 
+        if (tArgb1025 == null) 
+            argb1025 = tArgb1025 = makeArgb1025(); //if 2 threads do this at once, no harm
+        int argb = val1024 >= 0 && val1024 <= 1024? tArgb1025[foundPiece * 1025 + val1024] : 0;
+        //0 (not a valid opaque color) means: let getColor deal with it (e.g., throw the same exception)
+        return argb == 0? getColor(inVal).getRGB() : argb;
+    }
+
+    /**
+     * This makes the argb1025 table used by getARGB.
+     *
+     * @return the table: [piece*1025 + val1024] is the ARGB int for that color
+     *    (or 0 if a component is out of range, so new Color() would throw an exception). 
+     */
+    private int[] makeArgb1025() {
+        int n = rangeLow.length;
+        int tArgb1025[] = new int[n * 1025];
+        for (int piece = 0; piece < n; piece++) {
+            for (int val1024 = 0; val1024 <= 1024; val1024++) {
+                int r = rLow[piece] + ((val1024 * rRange[piece]) >> 10);
+                int g = gLow[piece] + ((val1024 * gRange[piece]) >> 10);
+                int b = bLow[piece] + ((val1024 * bRange[piece]) >> 10);
+                if (r >= 0 && r <= 255 && g >= 0 && g <= 255 && b >= 0 && b <= 255)
+                    tArgb1025[piece * 1025 + val1024] = 0xff000000 | (r << 16) | (g << 8) | b; //same as new Color(r, g, b).getRGB()
+            }
+        }
+        return tArgb1025;
+    }
+
+    /**
+     * This returns true if all of the colors that getColor may return are opaque.
+     *
+     * @return true if all of the colors that getColor may return are opaque.
+     */
+    public boolean isOpaque() {
+        //colors made from r, g, b (the pieces' colors) are always opaque
+        return backgroundColor.getAlpha() == 255 &&
+               foregroundColor.getAlpha() == 255 &&
+               NaNColor.getAlpha() == 255;
+    }
+
     /**
      * This specifies the color that will be returned by getColor(aValueLessThanAnyRange).
      *
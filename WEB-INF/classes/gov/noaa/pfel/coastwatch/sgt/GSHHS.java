@@ -221,7 +221,8 @@ public class GSHHS  {
 
     /**
      * This actually reads the GSHHS files and populates lon and lat with info for a GeneralPath.
-     * This has nothing to do with the cache system.
+     * This has nothing to do with the GeneralPath cache system. 
+     * It uses the file's PolygonIndex, so it just reads the polygons near the request.
      *
      * @param gshhsDir the directory with the gshhs_[fhilc].b data files, with a slash at the end.
      * @param resolution 'f'ull, 'h'igh, 'i'ntermediate, 'l'ow, 'c'rude.
@@ -274,13 +275,27 @@ public class GSHHS  {
         boolean gMsgDisplayed = false;
         int count = 0;
 
-        //open the file
+        //get the candidate polygons from the file's index
+        //  (just the polygons in the tiles which intersect the request, in file order)
         //String2.log(File2.hexDump(dir + "gshhs_" + resolution + ".b", 10000));
-        DataInputStream dis = new DataInputStream(
-            File2.getDecompressedBufferedInputStream(gshhsDir + "gshhs_" + resolution + ".b"));
+        PolygonIndex index = PolygonIndex.get(gshhsDir + "gshhs_" + resolution + ".b",
+            PolygonIndex.GSHHS_FORMAT);
+        double candidateWest[] = new double[4];
+        double candidateEast[] = new double[4];
+        for (int i = 0; i < 4; i++) {
+            candidateWest[i] = (double)desiredWest - shift[i];
+            candidateEast[i] = (double)desiredEast - shift[i];
+        }
+        int candidates[] = index.candidates(candidateWest, candidateEast, 
+            desiredSouth, desiredNorth);
+
+        //open the file (for the points which aren't cached)
+        PolygonIndex.Reader reader = index.openFile();
         try {
-            while (dis.available() > 0) {
-                //read the header
+            for (int candidate = 0; candidate < candidates.length; candidate++) {
+                int polygon = candidates[candidate];
+
+                //the header (PolygonIndex read it from the file)
                 /* old GSHHS v 1.x
                 int id        = dis.readInt();   
                 int n         = dis.readInt();   
@@ -297,9 +312,8 @@ public class GSHHS  {
                 //GSHHS v2.1.1  2011-03-14
                 //GPL License http://www.soest.hawaii.edu/pwessel/gshhs/README.TXT
                 //int id        = DataStream.readInt(true, dis, buffer); // Unique polygon id number, starting at 0 
-                int id        = dis.readInt(); // Unique polygon id number, starting at 0 
-                int n         = dis.readInt(); // Number of points in this polygon 
-                int flag      = dis.readInt(); // = level + version << 8 + greenwich << 16 + source << 24 + river << 25 
+                int n         = index.nPoints[polygon]; // Number of points in this polygon 
+                int flag      = index.flag[polygon];    // = level + version << 8 + greenwich << 16 + source << 24 + river << 25 
                 // flag contains 5 items, as follows:
                 // low byte:    level = flag & 255: Values: 1 land, 2 lake, 3 island_in_lake, 4 pond_in_island_in_lake
                 // 2nd byte:    version = (flag >> 8) & 255: Values: Should be 7 for GSHHS release 7 (i.e., version 2.0)
@@ -307,14 +321,15 @@ public class GSHHS  {
                 // 4th byte:    source = (flag >> 24) & 1: Values: 0 = CIA WDBII, 1 = WVS
                 // 4th byte:    river = (flag >> 25) & 1: Values: 0 = not set, 1 = river-lake and level = 2
                 //
-                int west      = dis.readInt(); // min/max extent in micro-degrees    0 - 360 deg
-                int east      = dis.readInt(); 
-                int south     = dis.readInt(); 
-                int north     = dis.readInt(); 
-                int area      = dis.readInt(); // Area of polygon in 1/10 km^2 
-                int area_full = dis.readInt(); // Area of original full-resolution polygon in 1/10 km^2 
-                int container = dis.readInt(); // Id of container polygon that encloses this polygon (-1 if none) 
-                int ancestor  = dis.readInt(); // Id of ancestor polygon in the full resolution set that was the source of this polygon (-1 if none) 
+                int west      = (int)index.west[polygon]; // min/max extent in micro-degrees    0 - 360 deg
+                int east      = (int)index.east[polygon]; 
+                int south     = (int)index.south[polygon]; 
+                int north     = (int)index.north[polygon]; 
+                //the file also has (but PolygonIndex doesn't keep):
+                // area      // Area of polygon in 1/10 km^2 
+                // area_full // Area of original full-resolution polygon in 1/10 km^2 
+                // container // Id of container polygon that encloses this polygon (-1 if none) 
+                // ancestor  // Id of ancestor polygon in the full resolution set that was the source of this polygon (-1 if none) 
 
                 int level = flag & 255;
                 int greenwich = (flag >> 16) & 1; //Values: Greenwich is 1 if Greenwich is crossed
@@ -367,9 +382,10 @@ public class GSHHS  {
                         xArray = new int[n + 4];  //+4 for addAntarticCorners
                         yArray = new int[n + 4];
                     }
+                    int points[] = index.getGshhsPoints(polygon, reader); //x,y interleaved. Don't change.
                     for (int i = 0; i < n; i++) {
-                        xArray[i] = dis.readInt();
-                        yArray[i] = dis.readInt();
+                        xArray[i] = points[2 * i];
+                        yArray[i] = points[2 * i + 1];
                         //String2.log("xarray=" +String2.toCSSVString(xArray));
                         //String2.log("yarray=" +String2.toCSSVString(yArray));
                     }  
@@ -437,16 +453,11 @@ public class GSHHS  {
                         }
                     }
 
-                } else {
-                    //skip over the data
-                    long remain = 8L * n;   //2 (x,y) * 4 (bytes/int)
-                    while (remain > 0) 
-                        remain -= dis.skip(remain);
                 }
 
             }
         } finally {
-            dis.close();
+            reader.close();
         }
         if (reallyVerbose) String2.log("  GSHHS.getPathInfo done. res=" + resolution +
             " level=" + (desiredLevel==1? "land" : desiredLevel==2? "lake" : "" + desiredLevel) + 
@@ -0,0 +1,381 @@
+/*
+ * GridRasterizer Copyright, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.coastwatch.sgt;
+
+import com.cohort.util.Math2;
+import com.cohort.util.MustBe;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+
+import gov.noaa.pfel.coastwatch.griddata.Grid;
+import gov.noaa.pfel.coastwatch.util.SSR;
+
+import gov.noaa.pmel.sgt.LinearTransform;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * GridRasterizer draws a Grid as a raster (like SGT's GridCartesianRenderer
+ * with GridAttribute.RASTER), but much faster: the colors come from
+ * CompoundColorMap.getARGB (a lookup table, not a new Color for each cell),
+ * the pixels are written directly to an int[]-backed BufferedImage
+ * (not one fillRect per cell), and the rows are split among
+ * the threads of the common ForkJoinPool.
+ * Then the BufferedImage is drawn with one drawImage call.
+ *
+ * <p>The result is exactly the same, pixel for pixel,
+ * as SGT's result, since this uses SGT's calculations for the cell edges
+ * (the midpoints between the lon and lat values), SGT's conversion
+ * of those edges to device coordinates, and SGT's clip region.
+ * When this can't guarantee that (e.g., the grid has just 1 lon or lat value,
+ * or the cell edges aren't monotonic), draw() returns false
+ * and the caller should use SGT.
+ */
+public class GridRasterizer {
+
+    /**
+     * Set this to true (by calling verbose=true in your program,
+     * not by changing the code here)
+     * if you want lots of diagnostic messages sent to String2.log.
+     */
+    public static boolean verbose = false;
+
+    /** If false, draw() always returns false (so the caller uses SGT). For tests. */
+    public static boolean enabled = true;
+
+    /** Images with fewer pixels than this are made by 1 thread. */
+    public static int minParallelPixels = 128 * 128;
+
+    /** Each fork-join task makes at least this many rows. */
+    private static final int MIN_ROWS_PER_TASK = 16;
+
+    /**
+     * This tries to draw the grid as a raster on g2.
+     * This is for a JPane (and Layer) whose size (in device and physical units)
+     * is imageWidth by imageHeight, as in SgtMap.makeCleanMap
+     * (so a physical coordinate maps to device coordinate (int)p for x,
+     * and imageHeight - (int)p for y).
+     * This should be called before jPane.draw(g2), i.e., where SGT would draw
+     * the grid layer if it were the first layer.
+     *
+     * @param g2 the graphics2D object for a BufferedImage (not a printer or .pdf)
+     *    and with no transform. The clip isn't changed.
+     * @param grid the grid (with the data already scaled)
+     * @param colorMap the colorMap
+     * @param xt the graph's x transform (user to physical units)
+     * @param yt the graph's y transform (user to physical units)
+     * @param minX the graph's clip range (user units)
+     * @param maxX the graph's clip range (user units)
+     * @param minY the graph's clip range (user units)
+     * @param maxY the graph's clip range (user units)
+     * @param imageWidth the image's width (pixels)
+     * @param imageHeight the image's height (pixels)
+     * @return true if the grid was drawn. If false, nothing was drawn and
+     *    the caller should use SGT to draw the grid.
+     */
+    public static boolean draw(Graphics2D g2, Grid grid, CompoundColorMap colorMap,
+        LinearTransform xt, LinearTransform yt,
+        double minX, double maxX, double minY, double maxY,
+        int imageWidth, int imageHeight) {
+
+        if (!enabled || !colorMap.isOpaque() ||
+            grid.lon.length < 2 || grid.lat.length < 2 ||
+            !g2.getTransform().isIdentity())
+            return false;
+        long time = System.currentTimeMillis();
+
+        //the cell edges, in device coordinates (as in GridCartesianRenderer.drawRaster)
+        int xp[] = cellEdges(grid.lon, xt, 0, 1);
+        int yp[] = cellEdges(grid.lat, yt, imageHeight, -1);
+        if (xp == null || yp == null)
+            return false;
+
+        //the clip region (as in GridCartesianRenderer.draw)
+        //  (PaneProxy.draw replaced g2's clip with the pane's bounds)
+        int xmin = xPtoD(xt.getTransP(minX));
+        int xmax = xPtoD(xt.getTransP(maxX));
+        int ymin = yPtoD(yt.getTransP(minY), imageHeight);
+        int ymax = yPtoD(yt.getTransP(maxY), imageHeight);
+        int cx0 = Math.max(0,           Math.min(xmin, xmax));
+        int cx1 = Math.min(imageWidth,  Math.max(xmin, xmax)); //exclusive
+        int cy0 = Math.max(0,           Math.min(ymin, ymax));
+        int cy1 = Math.min(imageHeight, Math.max(ymin, ymax)); //exclusive
+        if (cx1 <= cx0 || cy1 <= cy0)
+            return true; //nothing to draw
+
+        //for each column and row of the clip region: the cell's index (or -1)
+        int colCell[] = pixelCells(xp, cx0, cx1);
+        int rowCell[] = pixelCells(yp, cy0, cy1);
+
+        //make the pixels
+        int width  = cx1 - cx0;
+        int height = cy1 - cy0;
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int pixels[] = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+        RowsTask task = new RowsTask(grid.data, grid.lat.length, colorMap,
+            colCell, rowCell, pixels, 0, height);
+        if ((long)width * height < minParallelPixels)
+            task.compute();
+        else ForkJoinPool.commonPool().invoke(task);
+
+        //draw the image
+        //NaN cells are transparent (so, like SGT, what's below is unchanged);
+        //all other pixels are opaque (so drawImage is the same as SGT's fillRect)
+        Shape oldClip = g2.getClip();
+        g2.setClip(null);
+        g2.drawImage(image, cx0, cy0, null);
+        g2.setClip(oldClip);
+
+        if (verbose) String2.log("GridRasterizer.draw " +
+            grid.lon.length + "x" + grid.lat.length + " cells -> " +
+            width + "x" + height + " pixels TIME=" +
+            (System.currentTimeMillis() - time) + "ms");
+        return true;
+    }
+
+    /** This converts an x physical coordinate to a device coordinate (like Layer.getXPtoD). */
+    private static int xPtoD(double p) {
+        return (int)p;
+    }
+
+    /** This converts a y physical coordinate to a device coordinate (like Layer.getYPtoD). */
+    private static int yPtoD(double p, int imageHeight) {
+        return imageHeight - (int)p;
+    }
+
+    /**
+     * This calculates the cell edges in device coordinates,
+     * exactly as GridCartesianRenderer.drawRaster does.
+     *
+     * @param values the lon or lat values (length 2+)
+     * @param transform the user to physical transform
+     * @param offset 0 for x, imageHeight for y
+     * @param sign 1 for x, -1 for y
+     * @return the edges (length = values.length + 1),
+     *    or null if they aren't all finite and monotonic.
+     */
+    private static int[] cellEdges(double values[], LinearTransform transform,
+        int offset, int sign) {
+
+        int n = values.length;
+        double u[] = new double[n + 1];
+        u[0] = values[0] - (values[1] - values[0]) * 0.5;
+        for (int i = 1; i < n; i++)
+            u[i] = (values[i - 1] + values[i]) * 0.5;
+        u[n] = values[n - 1] + (values[n - 1] - values[n - 2]) * 0.5;
+
+        int edges[] = new int[n + 1];
+        boolean up = true, down = true;
+        for (int i = 0; i <= n; i++) {
+            double p = transform.getTransP(u[i]);
+            if (!Double.isFinite(p) || Math.abs(p) >= Integer.MAX_VALUE / 2)
+                return null;
+            edges[i] = offset + sign * (int)p;
+            if (i > 0) {
+                if (edges[i] < edges[i - 1]) up   = false;
+                if (edges[i] > edges[i - 1]) down = false;
+            }
+        }
+        return up || down? edges : null;
+    }
+
+    /**
+     * For each pixel from p0 to p1 (exclusive), this finds the cell that
+     * covers it. Like fillRect, cell i covers pixels
+     * min(edges[i], edges[i+1]) to max(edges[i], edges[i+1]) (exclusive).
+     *
+     * @param edges the monotonic cell edges, in device coordinates
+     * @param p0 the first pixel
+     * @param p1 the last pixel (exclusive)
+     * @return [p - p0] is the index of the cell which covers pixel p, or -1 if none.
+     */
+    private static int[] pixelCells(int edges[], int p0, int p1) {
+        int cells[] = new int[p1 - p0];
+        java.util.Arrays.fill(cells, -1);
+        int nCells = edges.length - 1;
+        for (int i = 0; i < nCells; i++) {
+            int lo = Math.max(p0, Math.min(edges[i], edges[i + 1]));
+            int hi = Math.min(p1, Math.max(edges[i], edges[i + 1]));
+            for (int p = lo; p < hi; p++)
+                cells[p - p0] = i;
+        }
+        return cells;
+    }
+
+    /** A fork-join task which makes the pixels for some rows of the image. */
+    private static class RowsTask extends RecursiveAction {
+        private final double data[];
+        private final int nLat;
+        private final CompoundColorMap colorMap;
+        private final int colCell[], rowCell[], pixels[];
+        private final int row0, row1; //row1 is exclusive
+
+        RowsTask(double tData[], int tNLat, CompoundColorMap tColorMap,
+            int tColCell[], int tRowCell[], int tPixels[], int tRow0, int tRow1) {
+            data = tData;
+            nLat = tNLat;
+            colorMap = tColorMap;
+            colCell = tColCell;
+            rowCell = tRowCell;
+            pixels = tPixels;
+            row0 = tRow0;
+            row1 = tRow1;
+        }
+
+        protected void compute() {
+            int width = colCell.length;
+            if (row1 - row0 > MIN_ROWS_PER_TASK &&
+                (long)(row1 - row0) * width >= minParallelPixels / 4) {
+                int mid = (row0 + row1) / 2;
+                invokeAll(
+                    new RowsTask(data, nLat, colorMap, colCell, rowCell, pixels, row0, mid),
+                    new RowsTask(data, nLat, colorMap, colCell, rowCell, pixels, mid, row1));
+                return;
+            }
+
+            for (int row = row0; row < row1; row++) {
+                int j = rowCell[row];
+                if (j < 0)
+                    continue; //pixels stay 0 (transparent)
+                int po = row * width;
+                int lastCell = -1;
+                int argb = 0;
+                for (int col = 0; col < width; col++) {
+                    int i = colCell[col];
+                    if (i < 0)
+                        continue;
+                    if (i != lastCell) {
+                        lastCell = i;
+                        double val = data[i * nLat + j]; //as in SimpleGrid: lon-major
+                        argb = Double.isNaN(val)? 0 : colorMap.getARGB(val);
+                    }
+                    pixels[po + col] = argb;
+                }
+            }
+        }
+    }
+
+    /**
+     * This tests that draw() makes exactly the same image as SGT,
+     * via SgtMap.makeCleanMap.
+     */
+    public static void basicTest() throws Exception {
+        String2.log("\n*** GridRasterizer.basicTest");
+        String basePaletteDir = String2.webInfParentDirectory() + //with / separator and / at the end
+            "WEB-INF/cptfiles/";
+        String tempDir = SSR.getTempDirectory();
+
+        //a grid with uneven spacing, NaNs, and values beyond the palette's range
+        Grid grid = new Grid();
+        int nLon = 37, nLat = 23;
+        grid.lon = new double[nLon];
+        grid.lat = new double[nLat];
+        for (int i = 0; i < nLon; i++)
+            grid.lon[i] = -135 + i * 1.3 + (i % 3) * 0.1;
+        for (int j = 0; j < nLat; j++)
+            grid.lat[j] = 20 + j * 1.1;
+        grid.data = new double[nLon * nLat];
+        Math2.random(5); //sets up Math2.random
+        for (int k = 0; k < grid.data.length; k++)
+            grid.data[k] = k % 11 == 0? Double.NaN : 5 + 30 * Math2.random.nextDouble();
+
+        int size[][] = {{256, 256}, {601, 403}, {45, 31}};
+        for (int cont = 0; cont < 2; cont++) {
+            String palette = CompoundColorMap.makeCPT(basePaletteDir, "Rainbow", "Linear",
+                8, 32, 8, cont == 0, tempDir);
+            for (int si = 0; si < size.length; si++) {
+                int w = size[si][0], h = size[si][1];
+                int sgtPixels[] = null;
+                for (int fast = 0; fast < 2; fast++) {
+                    BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+                    Graphics2D g2 = (Graphics2D)image.getGraphics();
+                    g2.setColor(Color.YELLOW); //so NaN cells are visible
+                    g2.fillRect(0, 0, w, h);
+                    enabled = fast == 1;
+                    long time = System.currentTimeMillis();
+                    try {
+                        //map range is a little smaller than the grid, so clipping is tested
+                        SgtMap.makeCleanMap(-130, -100, 22, 40, false,
+                            (Grid)grid.clone(), 1, 1, 0, palette,
+                            false, false, SgtMap.NO_LAKES_AND_RIVERS, false, false,
+                            g2, w, h, 0, 0, w, h);
+                    } finally {
+                        enabled = true;
+                    }
+                    String2.log("  continuous=" + (cont == 0) + " " + w + "x" + h +
+                        " fast=" + (fast == 1) + " time=" +
+                        (System.currentTimeMillis() - time) + "ms");
+                    int pixels[] = image.getRGB(0, 0, w, h, null, 0, w);
+                    if (fast == 0) {
+                        sgtPixels = pixels;
+                    } else {
+                        for (int p = 0; p < pixels.length; p++)
+                            if (pixels[p] != sgtPixels[p])
+                                Test.error("pixel x=" + (p % w) + " y=" + (p / w) +
+                                    " sgt=" + Integer.toHexString(sgtPixels[p]) +
+                                    " fast=" + Integer.toHexString(pixels[p]));
+                    }
+                }
+            }
+        }
+
+        //getARGB is the same as getColor().getRGB()
+        CompoundColorMap ccm = new CompoundColorMap(CompoundColorMap.makeCPT(basePaletteDir,
+            "Rainbow", "Linear", 8, 32, 8, true, tempDir));
+        for (int i = 0; i < 10000; i++) {
+            double d = i % 100 == 0? Double.NaN : 7 + 26 * Math2.random.nextDouble();
+            Test.ensureEqual(ccm.getARGB(d), ccm.getColor(d).getRGB(), "d=" + d);
+        }
+        String2.log("GridRasterizer.basicTest finished successfully");
+    }
+
+    /**
+     * This runs all of the interactive or not interactive tests for this class.
+     *
+     * @param errorSB all caught exceptions are logged to this.
+     * @param interactive  If true, this runs all of the interactive tests;
+     *   otherwise, this runs all of the non-interactive tests.
+     * @param doSlowTestsToo If true, this runs the slow tests, too.
+     * @param firstTest The first test to be run (0...).  Test numbers may change.
+     * @param lastTest The last test to be run, inclusive (0..., or -1 for the last test).
+     *   Test numbers may change.
+     */
+    public static void test(StringBuilder errorSB, boolean interactive,
+        boolean doSlowTestsToo, int firstTest, int lastTest) {
+        if (lastTest < 0)
+            lastTest = interactive? -1 : 0;
+        String msg = "\n^^^ GridRasterizer.test(" + interactive + ") test=";
+
+        for (int test = firstTest; test <= lastTest; test++) {
+            try {
+                long time = System.currentTimeMillis();
+                String2.log(msg + test);
+
+                if (interactive) {
+                    //if (test ==  0) ...;
+
+                } else {
+                    if (test ==  0) basicTest();
+                }
+
+                String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
+            } catch (Throwable testThrowable) {
+                String eMsg = msg + test + " caught throwable:\n" +
+                    MustBe.throwableToString(testThrowable);
+                errorSB.append(eMsg);
+                String2.log(eMsg);
+                if (interactive)
+                    String2.pressEnterToContinue("");
+            }
+        }
+    }
+
+}
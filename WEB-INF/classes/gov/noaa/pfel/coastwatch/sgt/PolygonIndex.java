@@ -0,0 +1,563 @@
+/*
+ * PolygonIndex Copyright, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.coastwatch.sgt;
+
+import com.cohort.array.DoubleArray;
+import com.cohort.array.IntArray;
+import com.cohort.array.LongArray;
+import com.cohort.util.File2;
+import com.cohort.util.Math2;
+import com.cohort.util.MustBe;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A PolygonIndex is a spatial index of the polygons (or polylines) in a
+ * GSHHS shoreline file (gshhs_[fhilc].b) or a Boundaries file
+ * (e.g., nationalBoundariesf.double).
+ * It is made once (the first time the file is used) by reading just
+ * the polygons' headers. It has each polygon's bounds and file position,
+ * and a grid of TILE_SIZE degree tiles, each with a list of the polygons
+ * whose bounds intersect the tile.
+ *
+ * <p>So a request for a small region just looks at the polygons in
+ * the tiles which intersect the region (candidates()) and just reads
+ * those polygons' points (getGshhsPoints() or getBoundaryPoints()),
+ * instead of reading the entire file.
+ * The points of recently used polygons are kept in memory,
+ * up to maxCacheBytes.
+ *
+ * <p>The callers (GSHHS.getPathInfo and Boundaries.readSgtLineDouble)
+ * still do all of their tests on each candidate polygon, in file order,
+ * so the results are exactly the same as reading the entire file.
+ *
+ * <p>A compressed file (see File2.isDecompressible) can't be read
+ * with a RandomAccessFile, so its Reader reads the file sequentially
+ * (as before PolygonIndex), skipping forward to each candidate's points.
+ *
+ * <p>This is thread-safe.
+ */
+public class PolygonIndex {
+
+    /**
+     * Set this to true (by calling verbose=true in your program,
+     * not by changing the code here)
+     * if you want lots of diagnostic messages sent to String2.log.
+     */
+    public static boolean verbose = false;
+
+    /** The file formats. */
+    public final static int GSHHS_FORMAT = 0;      //ints: 11 int header, then n x,y pairs in micro-degrees
+    public final static int BOUNDARIES_FORMAT = 1; //doubles: NaN, n, minLon, minLat, maxLon, maxLat, then n lon,lat pairs
+
+    /** The size (in degrees) of the tiles. */
+    public final static double TILE_SIZE = 5;
+
+    /** The tiles cover lon -360 to 720, lat -90 to 90. Bounds beyond that are put in the edge tiles. */
+    public final static double MIN_LON = -360, MAX_LON = 720;
+    private final static int N_TILE_LON = Math2.roundToInt((MAX_LON - MIN_LON) / TILE_SIZE);
+    private final static int N_TILE_LAT = Math2.roundToInt(180 / TILE_SIZE);
+
+    /** The maximum number of bytes of polygon points which are kept in memory. */
+    public static long maxCacheBytes = 64L * Math2.BytesPerMB;
+
+    /** key=fileName, value=its PolygonIndex */
+    private static ConcurrentHashMap<String,PolygonIndex> indexes = new ConcurrentHashMap(16, 0.75f, 4);
+
+    //all of these are guarded by synchronized(cache)
+    //accessOrder=true, so the first entry is the least recently used
+    //key=fileName + "#" + polygon, value=int[] (GSHHS) or double[] (Boundaries)
+    private static LinkedHashMap<String,Object> cache = new LinkedHashMap(256, 0.75f, true);
+    private static long cacheBytes = 0;
+    private static long nHits = 0, nMisses = 0, nEvicted = 0;
+
+    /** The source file's name. */
+    public final String fileName;
+    /** GSHHS_FORMAT or BOUNDARIES_FORMAT */
+    public final int format;
+    /** The number of polygons. */
+    public final int nPolygons;
+
+    /** For each polygon: the number of points. */
+    public final int nPoints[];
+    /** For each polygon: GSHHS_FORMAT: the flag (level, greenwich, ...). BOUNDARIES_FORMAT: 0. */
+    public final int flag[];
+    /** For each polygon: the bounds, in the file's units
+     * (GSHHS_FORMAT: micro-degrees, 0 - 360e6 (or a little less than 0 if greenwich).
+     *  BOUNDARIES_FORMAT: degrees, 0 - 360). */
+    public final double west[], east[], south[], north[];
+    /** For each polygon: the position of the points in the file. */
+    private final long offset[];
+    /** For each tile [tileLat * N_TILE_LON + tileLon]: the polygons (in file order) whose bounds intersect it. */
+    private final int tiles[][];
+    /** 1e6 for GSHHS_FORMAT, 1 for BOUNDARIES_FORMAT. */
+    private final double unitsPerDegree;
+
+    /**
+     * This returns the PolygonIndex for a file, making it if needed.
+     *
+     * @param fileName the full name of the GSHHS or Boundaries file (perhaps compressed)
+     * @param format GSHHS_FORMAT or BOUNDARIES_FORMAT
+     * @return the PolygonIndex
+     * @throws Exception if trouble (e.g., the file doesn't exist)
+     */
+    public static PolygonIndex get(String fileName, int format) throws Exception {
+        PolygonIndex index = indexes.get(fileName);
+        if (index != null)
+            return index;
+        synchronized(String2.canonical(fileName)) { //so only 1 thread makes it
+            index = indexes.get(fileName);
+            if (index == null) {
+                index = new PolygonIndex(fileName, format);
+                indexes.put(fileName, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * The constructor. This reads the file's polygons' headers and makes the index.
+     *
+     * @param tFileName the full name of the GSHHS or Boundaries file
+     *    (perhaps compressed)
+     * @param tFormat GSHHS_FORMAT or BOUNDARIES_FORMAT
+     * @throws Exception if trouble
+     */
+    private PolygonIndex(String tFileName, int tFormat) throws Exception {
+        long time = System.currentTimeMillis();
+        fileName = tFileName;
+        format = tFormat;
+        unitsPerDegree = format == GSHHS_FORMAT? 1e6 : 1;
+        IntArray tNPoints = new IntArray(), tFlag = new IntArray();
+        DoubleArray tWest = new DoubleArray(), tEast  = new DoubleArray(),
+                    tSouth = new DoubleArray(), tNorth = new DoubleArray();
+        LongArray tOffset = new LongArray();
+
+        long position = 0;
+        DataInputStream dis = new DataInputStream(
+            File2.getDecompressedBufferedInputStream(fileName));
+        try {
+            if (format == GSHHS_FORMAT) {
+                //see GSHHS.getPathInfo
+                //(not dis.available(), which is 0 for some decompressing streams)
+                while (true) {
+                    try {
+                        dis.readInt();        //id
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    int n = dis.readInt();
+                    tFlag.add(dis.readInt());
+                    tWest.add( dis.readInt());
+                    tEast.add( dis.readInt());
+                    tSouth.add(dis.readInt());
+                    tNorth.add(dis.readInt());
+                    dis.readInt(); dis.readInt(); dis.readInt(); dis.readInt(); //area, area_full, container, ancestor
+                    position += 44;
+                    tNPoints.add(n);
+                    tOffset.add(position);
+                    skipFully(dis, 8L * n);   //2 (x,y) * 4 (bytes/int)
+                    position += 8L * n;
+                }
+            } else {
+                //see Boundaries.readSgtLineDouble
+                while (true) {
+                    double d;
+                    try {
+                        d = dis.readDouble();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    if (!Double.isNaN(d))
+                        throw new RuntimeException("Unexpected finite value at beginning of path in " +
+                            fileName);
+                    int n = Math2.roundToInt(dis.readDouble());
+                    if (n <= 0 || n == Integer.MAX_VALUE)
+                        break; //end of file
+                    tWest.add( dis.readDouble()); //minLon
+                    tSouth.add(dis.readDouble()); //minLat
+                    tEast.add( dis.readDouble()); //maxLon
+                    tNorth.add(dis.readDouble()); //maxLat
+                    position += 48;
+                    tFlag.add(0);
+                    tNPoints.add(n);
+                    tOffset.add(position);
+                    skipFully(dis, 16L * n);
+                    position += 16L * n;
+                }
+            }
+        } finally {
+            dis.close();
+        }
+        nPolygons = tNPoints.size();
+        nPoints = tNPoints.toArray();
+        flag    = tFlag.toArray();
+        west    = tWest.toArray();
+        east    = tEast.toArray();
+        south   = tSouth.toArray();
+        north   = tNorth.toArray();
+        offset  = tOffset.toArray();
+
+        //make the tiles
+        IntArray tTiles[] = new IntArray[N_TILE_LON * N_TILE_LAT];
+        for (int p = 0; p < nPolygons; p++) {
+            int lon0 = tileLon(west[p]), lon1 = tileLon(east[p]);
+            int lat0 = tileLat(south[p]), lat1 = tileLat(north[p]);
+            for (int tLat = lat0; tLat <= lat1; tLat++) {
+                for (int tLon = lon0; tLon <= lon1; tLon++) {
+                    int t = tLat * N_TILE_LON + tLon;
+                    if (tTiles[t] == null)
+                        tTiles[t] = new IntArray(8, false);
+                    tTiles[t].add(p);
+                }
+            }
+        }
+        tiles = new int[tTiles.length][];
+        for (int t = 0; t < tTiles.length; t++)
+            tiles[t] = tTiles[t] == null? new int[0] : tTiles[t].toArray();
+
+        if (verbose) String2.log("PolygonIndex made for " + fileName +
+            " nPolygons=" + nPolygons +
+            " TIME=" + (System.currentTimeMillis() - time) + "ms");
+    }
+
+    /** This skips nBytes of dis (or throws EOFException). */
+    private static void skipFully(DataInputStream dis, long nBytes) throws Exception {
+        while (nBytes > 0) {
+            long n = dis.skip(nBytes);
+            if (n <= 0) { //skip() may return 0 before the end
+                if (dis.read() < 0)
+                    throw new EOFException();
+                n = 1;
+            }
+            nBytes -= n;
+        }
+    }
+
+    /** This returns the tile column for a lon value (in the file's units), clamped to the valid range. */
+    private int tileLon(double x) {
+        return Math.max(0, Math.min(N_TILE_LON - 1,
+            Math2.roundToInt(Math.floor((x / unitsPerDegree - MIN_LON) / TILE_SIZE))));
+    }
+
+    /** This returns the tile row for a lat value (in the file's units), clamped to the valid range. */
+    private int tileLat(double y) {
+        return Math.max(0, Math.min(N_TILE_LAT - 1,
+            Math2.roundToInt(Math.floor((y / unitsPerDegree + 90) / TILE_SIZE))));
+    }
+
+    /**
+     * This returns the polygons whose tiles intersect any of the lon ranges
+     * and the lat range.
+     * The result includes all of the polygons whose bounds intersect
+     * a lon range and the lat range (and maybe some others),
+     * so the caller must still test each polygon's bounds.
+     *
+     * @param minX the min of each lon range (in the file's units).
+     * @param maxX the max of each lon range (in the file's units).
+     *    A range with minX &gt; maxX (or NaN) is ignored.
+     * @param minY the min of the lat range (in the file's units)
+     * @param maxY the max of the lat range (in the file's units)
+     * @return the polygons' numbers, sorted (i.e., in file order), without duplicates
+     */
+    public int[] candidates(double minX[], double maxX[], double minY, double maxY) {
+        if (!(minY <= maxY))
+            return new int[0];
+        BitSet bitSet = new BitSet(nPolygons);
+        int lat0 = tileLat(minY), lat1 = tileLat(maxY);
+        for (int r = 0; r < minX.length; r++) {
+            if (!(minX[r] <= maxX[r]))
+                continue;
+            int lon0 = tileLon(minX[r]), lon1 = tileLon(maxX[r]);
+            for (int tLat = lat0; tLat <= lat1; tLat++) {
+                for (int tLon = lon0; tLon <= lon1; tLon++) {
+                    int tile[] = tiles[tLat * N_TILE_LON + tLon];
+                    for (int i = 0; i < tile.length; i++)
+                        bitSet.set(tile[i]);
+                }
+            }
+        }
+        int result[] = new int[bitSet.cardinality()];
+        int po = 0;
+        for (int p = bitSet.nextSetBit(0); p >= 0; p = bitSet.nextSetBit(p + 1))
+            result[po++] = p;
+        return result;
+    }
+
+    /**
+     * For a GSHHS_FORMAT file, this returns a polygon's points.
+     * Don't change the array's values.
+     *
+     * @param polygon the polygon's number
+     * @param reader the file, open for reading (used if the points aren't in memory).
+     *    Use openFile() to get it and close it when done.
+     * @return the x,y points (interleaved), in micro-degrees (as in the file)
+     * @throws Exception if trouble
+     */
+    public int[] getGshhsPoints(int polygon, Reader reader) throws Exception {
+        String key = fileName + "#" + polygon;
+        int points[] = (int[])getCached(key);
+        if (points == null) {
+            ByteBuffer bb = reader.readBytes(offset[polygon], 8 * nPoints[polygon]);
+            points = new int[2 * nPoints[polygon]];
+            bb.asIntBuffer().get(points);
+            putCached(key, points, 4L * points.length);
+        }
+        return points;
+    }
+
+    /**
+     * For a BOUNDARIES_FORMAT file, this returns a path's points.
+     * Don't change the array's values.
+     *
+     * @param polygon the path's number
+     * @param reader the file, open for reading (used if the points aren't in memory).
+     *    Use openFile() to get it and close it when done.
+     * @return the lon,lat points (interleaved), in degrees (as in the file)
+     * @throws Exception if trouble
+     */
+    public double[] getBoundaryPoints(int polygon, Reader reader) throws Exception {
+        String key = fileName + "#" + polygon;
+        double points[] = (double[])getCached(key);
+        if (points == null) {
+            ByteBuffer bb = reader.readBytes(offset[polygon], 16 * nPoints[polygon]);
+            points = new double[2 * nPoints[polygon]];
+            bb.asDoubleBuffer().get(points);
+            putCached(key, points, 8L * points.length);
+        }
+        return points;
+    }
+
+    /**
+     * This opens the file for reading polygons' points.
+     * The caller must close it.
+     *
+     * @return the file, open for reading
+     * @throws Exception if trouble
+     */
+    public Reader openFile() throws Exception {
+        return new Reader(fileName);
+    }
+
+    /**
+     * A Reader reads polygons' points from a file:
+     * with a RandomAccessFile, or (if the file is compressed) sequentially,
+     * with File2.getDecompressedBufferedInputStream.
+     * Sequential reading is efficient if the points are read in file order
+     * (as candidates() returns them).
+     * A Reader isn't thread-safe: use one per thread.
+     */
+    public static class Reader {
+        private final String fileName;
+        private RandomAccessFile raf;  //if not compressed
+        private DataInputStream dis;   //if compressed (opened when first needed)
+        private long disPosition;      //dis's position in the decompressed file
+
+        private Reader(String tFileName) throws Exception {
+            fileName = tFileName;
+            if (!File2.isDecompressible(fileName))
+                raf = new RandomAccessFile(fileName, "r");
+        }
+
+        /** This reads nBytes (big-endian), starting at position (in the decompressed file). */
+        private ByteBuffer readBytes(long position, int nBytes) throws Exception {
+            byte bytes[] = new byte[nBytes];
+            if (raf != null) {
+                raf.seek(position);
+                raf.readFully(bytes);
+            } else {
+                if (dis == null || position < disPosition) {
+                    //(re)start at the beginning of the file
+                    if (dis != null)
+                        dis.close();
+                    dis = null;
+                    dis = new DataInputStream(File2.getDecompressedBufferedInputStream(fileName));
+                    disPosition = 0;
+                }
+                skipFully(dis, position - disPosition);
+                dis.readFully(bytes);
+                disPosition = position + nBytes;
+            }
+            return ByteBuffer.wrap(bytes);
+        }
+
+        /** This closes the file. */
+        public void close() throws Exception {
+            if (raf != null) raf.close();
+            if (dis != null) dis.close();
+            raf = null;
+            dis = null;
+        }
+    }
+
+    /** This gets an item from the cache (or null). */
+    private static Object getCached(String key) {
+        synchronized(cache) {
+            Object o = cache.get(key);
+            if (o == null) nMisses++;
+            else           nHits++;
+            return o;
+        }
+    }
+
+    /** This puts an item in the cache (if it isn't too big), removing the least recently used items to make room. */
+    private static void putCached(String key, Object o, long nBytes) {
+        synchronized(cache) {
+            if (nBytes > maxCacheBytes / 10)
+                return;
+            Iterator<Map.Entry<String,Object>> it = cache.entrySet().iterator();
+            while (it.hasNext() && cacheBytes + nBytes > maxCacheBytes) {
+                cacheBytes -= sizeOf(it.next().getValue());
+                it.remove();
+                nEvicted++;
+            }
+            Object old = cache.put(key, o);
+            if (old != null)
+                cacheBytes -= sizeOf(old);
+            cacheBytes += nBytes;
+        }
+    }
+
+    /** The size (in bytes) of a cached int[] or double[]. */
+    private static long sizeOf(Object o) {
+        return o instanceof int[]? 4L * ((int[])o).length : 8L * ((double[])o).length;
+    }
+
+    /** This removes all of the indexes and cached points (e.g., for tests). */
+    public static void clear() {
+        indexes.clear();
+        synchronized(cache) {
+            cache.clear();
+            cacheBytes = 0;
+        }
+    }
+
+    /** This returns a stats string for PolygonIndex (for the status page). */
+    public static String statsString() {
+        synchronized(cache) {
+            long n = nHits + nMisses;
+            return "PolygonIndex: nFiles=" + indexes.size() +
+                ", nCachedPolygons=" + cache.size() +
+                ", cachedMB=" + (cacheBytes / Math2.BytesPerMB) +
+                " of " + (maxCacheBytes / Math2.BytesPerMB) +
+                ", nHits=" + nHits +
+                " (" + (n == 0? 0 : Math2.roundToInt(100.0 * nHits / n)) + "%)" +
+                ", nMisses=" + nMisses +
+                ", nEvicted=" + nEvicted;
+        }
+    }
+
+    /**
+     * This tests that candidates() finds all of the polygons whose
+     * bounds intersect the request.
+     */
+    public static void basicTest() throws Exception {
+        String2.log("\n*** PolygonIndex.basicTest");
+        String2.log(statsString());
+        Math2.random(5); //sets up Math2.random
+
+        for (int f = 0; f < 2; f++) {
+            PolygonIndex index = f == 0?
+                get(GSHHS.gshhsDirectory + "gshhs_l.b", GSHHS_FORMAT) :
+                get(Boundaries.REF_DIRECTORY + Boundaries.NATIONAL_FILE_NAMES[3], BOUNDARIES_FORMAT);
+            Test.ensureTrue(index.nPolygons > 100, "nPolygons=" + index.nPolygons);
+            Test.ensureTrue(get(index.fileName, index.format) == index, ""); //reused
+
+            for (int i = 0; i < 1000; i++) {
+                double w = -400 + 1100 * Math2.random.nextDouble();
+                double e = w + (i % 2 == 0? 1 : 40) * Math2.random.nextDouble();
+                double s = -95 + 185 * Math2.random.nextDouble();
+                double n = s + (i % 2 == 0? 1 : 40) * Math2.random.nextDouble();
+                double u = index.unitsPerDegree;
+                int cand[] = index.candidates(new double[]{w * u}, new double[]{e * u}, s * u, n * u);
+                int po = 0;
+                for (int p = 0; p < index.nPolygons; p++) {
+                    boolean intersects =
+                        index.west[p] <= e * u && index.east[p]  >= w * u &&
+                        index.south[p] <= n * u && index.north[p] >= s * u;
+                    while (po < cand.length && cand[po] < p)
+                        po++;
+                    if (intersects)
+                        Test.ensureTrue(po < cand.length && cand[po] == p,
+                            "polygon=" + p + " wesn=" + w + " " + e + " " + s + " " + n);
+                }
+            }
+
+            //the points are the same as in the file (first and last points are the same)
+            Reader reader = index.openFile();
+            try {
+                for (int p = 0; p < index.nPolygons; p += 37) {
+                    if (f == 0) {
+                        int points[] = index.getGshhsPoints(p, reader);
+                        Test.ensureEqual(points.length, 2 * index.nPoints[p], "");
+                        Test.ensureTrue(index.getGshhsPoints(p, reader) == points, ""); //cached
+                    } else {
+                        double points[] = index.getBoundaryPoints(p, reader);
+                        Test.ensureEqual(points.length, 2 * index.nPoints[p], "");
+                        for (int i = 0; i < points.length; i += 2)
+                            Test.ensureTrue(points[i] >= index.west[p] && points[i] <= index.east[p],
+                                "p=" + p + " lon=" + points[i]);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        String2.log(statsString());
+        String2.log("PolygonIndex.basicTest finished successfully");
+    }
+
+    /**
+     * This runs all of the interactive or not interactive tests for this class.
+     *
+     * @param errorSB all caught exceptions are logged to this.
+     * @param interactive  If true, this runs all of the interactive tests;
+     *   otherwise, this runs all of the non-interactive tests.
+     * @param doSlowTestsToo If true, this runs the slow tests, too.
+     * @param firstTest The first test to be run (0...).  Test numbers may change.
+     * @param lastTest The last test to be run, inclusive (0..., or -1 for the last test).
+     *   Test numbers may change.
+     */
+    public static void test(StringBuilder errorSB, boolean interactive,
+        boolean doSlowTestsToo, int firstTest, int lastTest) {
+        if (lastTest < 0)
+            lastTest = interactive? -1 : 0;
+        String msg = "\n^^^ PolygonIndex.test(" + interactive + ") test=";
+
+        for (int test = firstTest; test <= lastTest; test++) {
+            try {
+                long time = System.currentTimeMillis();
+                String2.log(msg + test);
+
+                if (interactive) {
+                    //if (test ==  0) ...;
+
+                } else {
+                    if (test ==  0) basicTest();
+                }
+
+                String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
+            } catch (Throwable testThrowable) {
+                String eMsg = msg + test + " caught throwable:\n" +
+                    MustBe.throwableToString(testThrowable);
+                errorSB.append(eMsg);
+                String2.log(eMsg);
+                if (interactive)
+                    String2.pressEnterToContinue("");
+            }
+        }
+    }
+
+}
@@ -1782,14 +1782,6 @@ public class SgtMap  {
             CompoundColorMap colorMap = null;
             if (grid != null) {
                 colorMap = new CompoundColorMap(gridPaletteFileName);
-                CartesianGraph graph = new CartesianGraph("", xt, yt);
-                Layer layer = new Layer("grid", layerDimension2D);
-                layerNames.add(layer.getId());
-                jPane.add(layer);      //calls layer.setPane(this);
-                layer.setGraph(graph); //calls graph.setLayer(this);
-                graph.setClip(xUserRange.start, xUserRange.end,
-                              yUserRange.start, yUserRange.end);
-                graph.setClipping(true);
 
                 //get the Grid
                 long readTime = System.currentTimeMillis();
@@ -1804,11 +1796,27 @@ public class SgtMap  {
                 if (reallyVerbose) String2.log("  SgtMap.makeCleanMap grid readGrd time=" + 
                     (System.currentTimeMillis() - readTime) + "ms");
                 DataHelper.scale(grid.data, gridScaleFactor * gridAltScaleFactor, gridAltOffset);
-                SimpleGrid simpleGrid = new SimpleGrid(grid.data, grid.lon, grid.lat, ""); //title
 
-                //assign the data 
-                graph.setData(simpleGrid, new GridAttribute(GridAttribute.RASTER, colorMap)); 
+                //if the grid is the first layer, GridRasterizer can draw it now
+                //  (much faster than SGT, and exactly the same pixels)
+                if (layerNames.size() > 0 ||
+                    !GridRasterizer.draw(g2, grid, colorMap, xt, yt, 
+                        xUserRange.start, xUserRange.end, yUserRange.start, yUserRange.end,
+                        imageWidth, imageHeight)) {
+                    CartesianGraph graph = new CartesianGraph("", xt, yt);
+                    Layer layer = new Layer("grid", layerDimension2D);
+                    layerNames.add(layer.getId());
+                    jPane.add(layer);      //calls layer.setPane(this);
+                    layer.setGraph(graph); //calls graph.setLayer(this);
+                    graph.setClip(xUserRange.start, xUserRange.end,
+                                  yUserRange.start, yUserRange.end);
+                    graph.setClipping(true);
 
+                    SimpleGrid simpleGrid = new SimpleGrid(grid.data, grid.lon, grid.lat, ""); //title
+
+                    //assign the data 
+                    graph.setData(simpleGrid, new GridAttribute(GridAttribute.RASTER, colorMap)); 
+                }
             }
 
             //*** draw land over
@@ -0,0 +1,728 @@
+/*
+ * CompressedFileIndex Copyright, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.coastwatch.util;
+
+import com.cohort.util.File2;
+import com.cohort.util.Math2;
+import com.cohort.util.MustBe;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+
+/**
+ * CompressedFileIndex has what FileVisitorDNLS.decompressIfNeeded and 
+ * NcHelper.openFile need to know about a .gz (or .gzip) or .bz2 source file
+ * without decompressing it again:
+ * <ul>
+ * <li>knownLength returns the length of the decompressed data:
+ *   for a gzip file, from the ISIZE field in the gzip trailer;
+ *   for a bzip2 file, from its index (if it has one). 
+ *   So small files can be decompressed into memory instead of into the
+ *   decompressed file cache.
+ * <li>For a bzip2 file, the index has the position of each block 
+ *   (usually 900KB of data before compression) in the first bzip2 stream.
+ *   The index is made (in one pass, by makeIndex) the first time the file is 
+ *   decompressed into the cache and is stored in an index directory
+ *   (for ERDDAP, EDD.compressedIndexDirectory(), next to the dataset's fileTable.nc).
+ *   Blocks are independent, so when the file has to be decompressed again
+ *   (e.g., after the decompressed file was pruned from the cache),
+ *   decompressTo decompresses the blocks in parallel
+ *   (each as a one-block stream, with commons-compress's BZip2CompressorInputStream).
+ * </ul>
+ * Gzip files aren't indexed: their deflate data can't be split into 
+ * independent pieces (java.util.zip.Inflater can't start at a deflate block boundary),
+ * and ISIZE already has the length.
+ * This doesn't provide random access (reads from the middle) of the decompressed data.
+ *
+ * <p>Like File2.getDecompressedBufferedInputStream, this only deals with the
+ * first bzip2 stream in the file.
+ */
+public class CompressedFileIndex {
+
+    /**
+     * Set this to true (by calling verbose=true in your program,
+     * not by changing the code here)
+     * if you want lots of diagnostic messages sent to String2.log.
+     */
+    public static boolean verbose = false;
+
+    /** The version number of the index file format. */
+    public final static int INDEX_VERSION = 3;
+
+    /** The extension of index files. */
+    public final static String INDEX_EXTENSION = ".bz2Index";
+
+    final static long BZIP2_BLOCK_MAGIC = 0x314159265359L;
+    final static long BZIP2_EOS_MAGIC   = 0x177245385090L;
+    final static long MASK48            = 0xFFFFFFFFFFFFL;
+
+    //the source file
+    private final String sourceFullName;
+    private final long sourceLength, sourceLastModified;
+    private byte bzip2Level; //'1' - '9'
+
+    //the index: the blocks, in order
+    private long length; //decompressed
+    private int nBlocks;
+    private long blockStartBit[]; //the bit position in the source file
+    private long blockEndBit[];   //the end of the block (exclusive)
+    private long blockOutPos[];   //the position in the decompressed data
+    private int blockCrc[];       //the block's CRC
+
+    /** The constructor. Use openIfIndexed() or makeIndex() to get an instance. */
+    private CompressedFileIndex(String tSourceFullName) {
+        sourceFullName = tSourceFullName;
+        sourceLength = File2.length(sourceFullName);
+        sourceLastModified = File2.getLastModified(sourceFullName);
+    }
+
+    /**
+     * This returns true if the file is a .gz, .gzip, or .bz2 file, 
+     * but not an archive (e.g., .tar.gz or .tgz),
+     * i.e., a file whose length knownLength may know.
+     *
+     * @param fileName The file's name (with or without dir).
+     */
+    public static boolean isGzipOrBzip2(String fileName) {
+        return isGzip(fileName) || isIndexable(fileName);
+    }
+
+    /** This returns true if the file is a .gz or .gzip file (but not .tar.gz or .tar.gzip). */
+    private static boolean isGzip(String fileName) {
+        return (fileName.endsWith(".gz")   && !fileName.endsWith(".tar.gz")) ||
+               (fileName.endsWith(".gzip") && !fileName.endsWith(".tar.gzip"));
+    }
+
+    /**
+     * This returns true if the file can be indexed: a .bz2 file 
+     * (but not .tar.bz2).
+     *
+     * @param fileName The file's name (with or without dir).
+     */
+    public static boolean isIndexable(String fileName) {
+        return fileName.endsWith(".bz2") && !fileName.endsWith(".tar.bz2");
+    }
+
+    /**
+     * This returns the name of the index file for a source file.
+     *
+     * @param sourceFullName the full name of the compressed source file
+     * @param indexDir the index directory (with slash at end)
+     * @return the full name of the index file
+     */
+    public static String indexFullName(String sourceFullName, String indexDir) {
+        return indexDir + String2.md5Hex12(sourceFullName) + INDEX_EXTENSION;
+    }
+
+    /**
+     * This gets a CompressedFileIndex if there is a valid index for the source file.
+     *
+     * @param sourceFullName the full name of the compressed source file
+     * @param indexDir the index directory (with slash at end)
+     * @return a CompressedFileIndex, or null if there is no valid index
+     *   (e.g., none or the source file has changed)
+     */
+    public static CompressedFileIndex openIfIndexed(String sourceFullName, String indexDir) {
+        if (!isIndexable(sourceFullName))
+            return null;
+        String indexName = indexFullName(sourceFullName, indexDir);
+        if (!File2.isFile(indexName))
+            return null;
+        try {
+            CompressedFileIndex cfi = new CompressedFileIndex(sourceFullName);
+            if (cfi.readIndex(indexName))
+                return cfi;
+        } catch (Exception e) {
+            String2.log("CompressedFileIndex.openIfIndexed caught " +
+                MustBe.throwableToString(e));
+        }
+        File2.delete(indexName);
+        return null;
+    }
+
+    /**
+     * This makes the index for a .bz2 source file (in one pass through the file)
+     * and saves it in indexDir.
+     * This optionally writes the decompressed data to copyTo at the same time,
+     * so a file can be indexed while it is decompressed the usual way.
+     *
+     * @param sourceFullName the full name of the compressed source file
+     * @param indexDir the index directory (with slash at end),
+     *   or null if the index shouldn't be saved
+     * @param copyTo if not null, this receives the decompressed data.
+     *   This doesn't close it.
+     * @return a CompressedFileIndex
+     * @throws Exception if trouble
+     */
+    public static CompressedFileIndex makeIndex(String sourceFullName, String indexDir,
+        OutputStream copyTo) throws Exception {
+
+        long time = System.currentTimeMillis();
+        if (!isIndexable(sourceFullName))
+            throw new IllegalArgumentException(String2.ERROR +
+                " in CompressedFileIndex: unsupported file type: " + sourceFullName);
+        CompressedFileIndex cfi = new CompressedFileIndex(sourceFullName);
+        cfi.makeBzip2Index(copyTo);
+        if (indexDir != null)
+            cfi.writeIndex(indexFullName(sourceFullName, indexDir));
+        if (verbose) String2.log("CompressedFileIndex.makeIndex(" + sourceFullName +
+            ") nBlocks=" + cfi.nBlocks + " length=" + cfi.length +
+            " time=" + (System.currentTimeMillis() - time) + "ms");
+        return cfi;
+    }
+
+    /** The full name of the source file. */
+    public String sourceFullName() {
+        return sourceFullName;
+    }
+
+    /** The number of bytes of decompressed data. */
+    public long length() {
+        return length;
+    }
+
+    /** The number of blocks in the index. */
+    public int nBlocks() {
+        return nBlocks;
+    }
+
+    /**
+     * This returns the length of a compressed file's decompressed data,
+     * if it is known without decompressing the file:
+     * for a gzip file, from the ISIZE field at the end of the gzip trailer;
+     * for a bzip2 file, from its valid index.
+     * ISIZE is the length (mod 2^32) of the last gzip member, so it is wrong
+     * for huge files and files with several members: callers must still
+     * check the length while decompressing (as NcHelper.readDecompressedBytes does).
+     *
+     * @param sourceFullName the full name of the compressed source file
+     * @param indexDir the index directory (with slash at end), or null to not look for an index
+     * @return the length of the decompressed data, or -1 if it isn't known
+     *   (e.g., a bzip2 file without an index)
+     */
+    public static long knownLength(String sourceFullName, String indexDir) {
+        if (isIndexable(sourceFullName)) {
+            CompressedFileIndex cfi = indexDir == null? null : 
+                openIfIndexed(sourceFullName, indexDir);
+            return cfi == null? -1 : cfi.length();
+        }
+        if (!isGzip(sourceFullName))
+            return -1;
+        try {
+            RandomAccessFile raf = new RandomAccessFile(sourceFullName, "r");
+            try {
+                long fileLength = raf.length();
+                if (fileLength < 20) //header(10) + empty deflate data(2) + trailer(8)
+                    return -1;
+                raf.seek(fileLength - 4);
+                return Integer.reverseBytes(raf.readInt()) & 0xFFFFFFFFL; //little-endian
+            } finally {
+                raf.close();
+            }
+        } catch (Exception e) {
+            String2.log("CompressedFileIndex.knownLength(" + sourceFullName + 
+                ") caught " + MustBe.throwableToShortString(e));
+            return -1;
+        }
+    }
+
+
+    /* *************************** bzip2 ********************************* */
+
+    /** Writes bits, most significant first (as bzip2 stores them). */
+    private static class MsbBitWriter {
+        final ByteArrayOutputStream baos;
+        private long bitBuf;
+        private int nBits;
+
+        MsbBitWriter(int capacity) {
+            baos = new ByteArrayOutputStream(capacity);
+        }
+
+        /** This writes the low n bits (n &lt;= 48) of value. */
+        void writeBits(long value, int n) {
+            for (int i = n - 1; i >= 0; i--) {
+                bitBuf = (bitBuf << 1) | ((value >>> i) & 1);
+                if (++nBits == 8) {
+                    baos.write((int)bitBuf);
+                    bitBuf = 0;
+                    nBits = 0;
+                }
+            }
+        }
+
+        /**
+         * This copies nBits bits from src, starting at bit srcBit.
+         */
+        void copyBits(byte src[], long srcBit, long nBitsToCopy) {
+            //fast path: whole bytes (if this writer is byte-aligned)
+            if (nBits == 0) {
+                int shift = (int)(srcBit & 7);
+                int po = (int)(srcBit >>> 3);
+                long nBytes = nBitsToCopy >>> 3;
+                for (long i = 0; i < nBytes; i++) {
+                    int b = ((src[po] & 0xff) << shift) |
+                        (shift == 0? 0 : (src[po + 1] & 0xff) >>> (8 - shift));
+                    baos.write(b & 0xff);
+                    po++;
+                }
+                srcBit += nBytes * 8;
+                nBitsToCopy -= nBytes * 8;
+            }
+            for (long i = 0; i < nBitsToCopy; i++) {
+                long bit = srcBit + i;
+                writeBits((src[(int)(bit >>> 3)] >>> (7 - (int)(bit & 7))) & 1, 1);
+            }
+        }
+
+        byte[] toByteArray() {
+            if (nBits > 0)
+                writeBits(0, 8 - nBits);
+            return baos.toByteArray();
+        }
+    }
+
+    /** This reads the bytes of the source file which hold bits [startBit, endBit). */
+    private byte[] readBits(RandomAccessFile raf, long startBit, long endBit) throws IOException {
+        long startByte = startBit >>> 3;
+        long endByte = (endBit + 7) >>> 3;
+        byte buf[] = new byte[(int)(endByte - startByte) + 1]; //+1 for copyBits' lookahead
+        raf.seek(startByte);
+        raf.readFully(buf, 0, buf.length - 1);
+        return buf;
+    }
+
+    /**
+     * This makes a complete bzip2 stream with just one block of the source file.
+     * Since the stream's combined CRC of a one-block stream is the block's CRC,
+     * it is a valid stream that a BZip2CompressorInputStream can decompress.
+     */
+    private byte[] singleBlockStream(RandomAccessFile raf, long startBit, long endBit, int blockCrc)
+        throws IOException {
+        byte src[] = readBits(raf, startBit, endBit);
+        MsbBitWriter bw = new MsbBitWriter(src.length + 16);
+        bw.writeBits(('B' << 24) | ('Z' << 16) | ('h' << 8) | bzip2Level, 32);
+        bw.copyBits(src, startBit & 7, endBit - startBit);
+        bw.writeBits(BZIP2_EOS_MAGIC, 48);
+        bw.writeBits(blockCrc & 0xffffffffL, 32);
+        return bw.toByteArray();
+    }
+
+    /**
+     * This finds the blocks in the first bzip2 stream of the source file,
+     * decompresses each (to find its size), and makes the index.
+     */
+    private void makeBzip2Index(OutputStream copyTo) throws Exception {
+        ArrayList<Long> starts = new ArrayList();
+        long eosBit = -1;
+        InputStream in = new BufferedInputStream(new FileInputStream(sourceFullName), 65536);
+        try {
+            if (in.read() != 'B' || in.read() != 'Z' || in.read() != 'h')
+                throw new IOException("Not a bzip2 file: " + sourceFullName);
+            bzip2Level = (byte)in.read();
+            if (bzip2Level < '1' || bzip2Level > '9')
+                throw new IOException("Invalid bzip2 block size: " + sourceFullName);
+
+            //scan for the 48 bit block and end-of-stream magic numbers
+            //(block data could contain a magic number, but that's very unlikely
+            //and the block's CRC would catch it below)
+            long reg = 0;
+            long bitPos = 32;
+            int b;
+            scan:
+            while ((b = in.read()) >= 0) {
+                for (int i = 7; i >= 0; i--) {
+                    reg = ((reg << 1) | ((b >>> i) & 1)) & MASK48;
+                    bitPos++;
+                    if (reg == BZIP2_BLOCK_MAGIC) {
+                        starts.add(bitPos - 48);
+                    } else if (reg == BZIP2_EOS_MAGIC) {
+                        eosBit = bitPos - 48;
+                        break scan;
+                    }
+                }
+            }
+        } finally {
+            in.close();
+        }
+        if (eosBit < 0)
+            throw new IOException("Unexpected end of bzip2 file: " + sourceFullName);
+
+        nBlocks = starts.size();
+        blockStartBit  = new long[nBlocks];
+        blockEndBit = new long[nBlocks];
+        blockOutPos = new long[nBlocks];
+        blockCrc    = new int[nBlocks];
+        RandomAccessFile raf = new RandomAccessFile(sourceFullName, "r");
+        try {
+            byte buf[] = new byte[65536];
+            long outPos = 0;
+            for (int p = 0; p < nBlocks; p++) {
+                blockStartBit[p]  = starts.get(p);
+                blockEndBit[p] = p < nBlocks - 1? starts.get(p + 1) : eosBit;
+                blockOutPos[p] = outPos;
+                byte crcBytes[] = readBits(raf, blockStartBit[p] + 48, blockStartBit[p] + 80);
+                MsbBitWriter bw = new MsbBitWriter(4);
+                bw.copyBits(crcBytes, (blockStartBit[p] + 48) & 7, 32);
+                byte crc4[] = bw.toByteArray();
+                blockCrc[p] = ((crc4[0] & 0xff) << 24) | ((crc4[1] & 0xff) << 16) |
+                    ((crc4[2] & 0xff) << 8) | (crc4[3] & 0xff);
+
+                InputStream bis = new BZip2CompressorInputStream(new ByteArrayInputStream(
+                    singleBlockStream(raf, blockStartBit[p], blockEndBit[p], blockCrc[p])));
+                try {
+                    int n;
+                    while ((n = bis.read(buf)) >= 0) {
+                        outPos += n;
+                        if (copyTo != null)
+                            copyTo.write(buf, 0, n);
+                    }
+                } finally {
+                    bis.close();
+                }
+            }
+            length = outPos;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * This opens a stream with the decompressed data of one bzip2 block.
+     */
+    private InputStream openBlock(int p) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(sourceFullName, "r");
+        try {
+            return new BZip2CompressorInputStream(new ByteArrayInputStream(
+                singleBlockStream(raf, blockStartBit[p], blockEndBit[p], blockCrc[p])));
+        } finally {
+            raf.close();
+        }
+    }
+
+
+
+    /**
+     * This decompresses the whole file to destFullName,
+     * decompressing the blocks in parallel.
+     *
+     * @param destFullName the full name of the destination file
+     *    (its directory must already exist)
+     * @throws Exception if trouble (then the destination file is deleted)
+     */
+    public void decompressTo(String destFullName) throws Exception {
+        long time = System.currentTimeMillis();
+        boolean ok = false;
+        RandomAccessFile raf = new RandomAccessFile(destFullName, "rw");
+        try {
+            raf.setLength(length);
+            final FileChannel channel = raf.getChannel();
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            ArrayList<Future<Object>> futures = new ArrayList();
+            for (int p = 0; p < nBlocks; p++) {
+                final int fp = p;
+                futures.add(pool.submit(() -> {
+                    InputStream in = openBlock(fp);
+                    try {
+                        byte buf[] = new byte[1 << 20];
+                        long outPos = blockOutPos[fp];
+                        int n;
+                        while ((n = in.read(buf)) >= 0) {
+                            ByteBuffer bb = ByteBuffer.wrap(buf, 0, n);
+                            while (bb.hasRemaining())
+                                outPos += channel.write(bb, outPos);
+                        }
+                    } finally {
+                        in.close();
+                    }
+                    return null;
+                }));
+            }
+            try {
+                for (Future<Object> future : futures)
+                    future.get();
+            } catch (ExecutionException ee) {
+                for (Future<Object> future : futures)
+                    future.cancel(true);
+                Throwable t = ee.getCause();
+                if (t instanceof Exception)
+                    throw (Exception)t;
+                throw ee;
+            }
+            ok = true;
+        } finally {
+            raf.close();
+            if (!ok)
+                File2.delete(destFullName);
+        }
+        if (verbose) String2.log("CompressedFileIndex.decompressTo(" + destFullName +
+            ") nBlocks=" + nBlocks + " time=" + (System.currentTimeMillis() - time) + "ms");
+    }
+
+
+    /* *************************** the index file ********************************* */
+
+    /**
+     * This writes the index to a file (via a temporary file, so other
+     * threads never see a partial index).
+     */
+    private void writeIndex(String indexName) throws IOException {
+        File2.makeDirectory(File2.getDirectory(indexName));
+        String tempName = indexName + Math2.random(Integer.MAX_VALUE);
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+            new GZIPOutputStream(new FileOutputStream(tempName))));
+        try {
+            dos.writeInt(INDEX_VERSION);
+            dos.writeUTF(sourceFullName);
+            dos.writeLong(sourceLength);
+            dos.writeLong(sourceLastModified);
+            dos.writeByte(bzip2Level);
+            dos.writeLong(length);
+            dos.writeInt(nBlocks);
+            for (int p = 0; p < nBlocks; p++) {
+                dos.writeLong(blockStartBit[p]);
+                dos.writeLong(blockEndBit[p]);
+                dos.writeLong(blockOutPos[p]);
+                dos.writeInt(blockCrc[p]);
+            }
+        } finally {
+            dos.close();
+        }
+        File2.rename(tempName, indexName);
+    }
+
+    /**
+     * This reads the index from a file.
+     *
+     * @return true if the index is valid for the source file
+     *   (e.g., the source file hasn't changed and the index's version is INDEX_VERSION)
+     */
+    private boolean readIndex(String indexName) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(
+            new GZIPInputStream(new FileInputStream(indexName))));
+        try {
+            if (dis.readInt() != INDEX_VERSION ||
+                !dis.readUTF().equals(sourceFullName) ||
+                dis.readLong() != sourceLength ||
+                dis.readLong() != sourceLastModified)
+                return false;
+            bzip2Level = dis.readByte();
+            length = dis.readLong();
+            nBlocks = dis.readInt();
+            blockStartBit = new long[nBlocks];
+            blockEndBit   = new long[nBlocks];
+            blockOutPos   = new long[nBlocks];
+            blockCrc      = new int[nBlocks];
+            for (int p = 0; p < nBlocks; p++) {
+                blockStartBit[p] = dis.readLong();
+                blockEndBit[p]   = dis.readLong();
+                blockOutPos[p]   = dis.readLong();
+                blockCrc[p]      = dis.readInt();
+            }
+            return true;
+        } finally {
+            dis.close();
+        }
+    }
+
+
+    /* *************************** tests ********************************* */
+
+    /** This makes test data: a mix of repetitive text and random bytes. */
+    private static byte[] makeTestData(int nBytes) {
+        Random random = new Random(17);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(nBytes + 100);
+        int row = 0;
+        while (baos.size() < nBytes) {
+            if (row % 500 == 499) {
+                byte b[] = new byte[5000];
+                random.nextBytes(b);
+                baos.write(b, 0, b.length);
+            } else {
+                String s = row + "," + (row * 0.125) + ",station" + (row % 37) + "," +
+                    random.nextInt(1000) + "\n";
+                byte b[] = String2.stringToUtf8Bytes(s);
+                baos.write(b, 0, b.length);
+            }
+            row++;
+        }
+        byte all[] = baos.toByteArray();
+        byte data[] = new byte[nBytes];
+        System.arraycopy(all, 0, data, 0, nBytes);
+        return data;
+    }
+
+    /** This tests knownLength, makeIndex, decompressTo, and the index file. */
+    public static void basicTest() throws Exception {
+        String2.log("\n*** CompressedFileIndex.basicTest");
+        verbose = true;
+        String dir = File2.getSystemTempDirectory() + "CompressedFileIndex/";
+        String indexDir = dir + "index/";
+        File2.makeDirectory(dir);
+        try {
+            byte data[] = makeTestData(3000000);
+            Test.ensureTrue(!isGzipOrBzip2(dir + "a.tar.gz"), "");
+            Test.ensureTrue(!isGzipOrBzip2(dir + "a.zip"), "");
+
+            //gzip: the length is in the trailer. It isn't indexed.
+            String name = dir + "test.gz";
+            OutputStream os = new GZIPOutputStream(new FileOutputStream(name));
+            os.write(data);
+            os.close();
+            Test.ensureTrue(isGzipOrBzip2(name), "");
+            Test.ensureTrue(!isIndexable(name), "");
+            Test.ensureEqual(knownLength(name, indexDir), data.length, "");
+            Test.ensureTrue(openIfIndexed(name, indexDir) == null, "");
+
+            //bzip2
+            name = dir + "test.bz2";
+            os = new BZip2CompressorOutputStream(new FileOutputStream(name), 1); //100KB blocks
+            os.write(data);
+            os.close();
+            File2.delete(indexFullName(name, indexDir));
+            Test.ensureEqual(knownLength(name, indexDir), -1, ""); //not indexed yet
+
+            //makeIndex (and decompress at the same time)
+            ByteArrayOutputStream copy = new ByteArrayOutputStream();
+            CompressedFileIndex cfi = makeIndex(name, indexDir, copy);
+            Test.ensureEqual(cfi.length(), data.length, "");
+            Test.ensureTrue(java.util.Arrays.equals(copy.toByteArray(), data), "");
+            Test.ensureTrue(cfi.nBlocks() >= 10, "nBlocks=" + cfi.nBlocks());
+
+            //the saved index
+            cfi = openIfIndexed(name, indexDir);
+            Test.ensureTrue(cfi != null, "");
+            Test.ensureEqual(cfi.length(), data.length, "");
+            Test.ensureEqual(knownLength(name, indexDir), data.length, "");
+            Test.ensureEqual(knownLength(name, null), -1, "");
+
+            //decompressTo
+            String destName = dir + "decompressed";
+            cfi.decompressTo(destName);
+            InputStream is = new FileInputStream(destName);
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            File2.copy(is, baos);
+            is.close();
+            Test.ensureTrue(java.util.Arrays.equals(baos.toByteArray(), data), "");
+            File2.delete(destName);
+
+            //a changed source file makes the index invalid
+            Math2.sleep(1100);
+            File2.touch(name);
+            Test.ensureTrue(openIfIndexed(name, indexDir) == null, "");
+            Test.ensureEqual(knownLength(name, indexDir), -1, "");
+        } finally {
+            File2.deleteAllFiles(dir, true, true);
+        }
+    }
+
+    /**
+     * This compares the time to decompress a big .bz2 file the usual way,
+     * with makeIndex, and with decompressTo (via the index).
+     */
+    public static void timeDecompress() throws Exception {
+        String2.log("\n*** CompressedFileIndex.timeDecompress");
+        String dir = File2.getSystemTempDirectory() + "CompressedFileIndex/";
+        String indexDir = dir + "index/";
+        File2.makeDirectory(dir);
+        try {
+            byte data[] = makeTestData(200000000);
+            String name = dir + "test.bz2";
+            OutputStream os = new BZip2CompressorOutputStream(new FileOutputStream(name));
+            os.write(data);
+            os.close();
+
+            long time = System.currentTimeMillis();
+            InputStream is = File2.getDecompressedBufferedInputStream(name);
+            File2.copy(is, new ByteArrayOutputStream());
+            is.close();
+            long fullTime = System.currentTimeMillis() - time;
+
+            time = System.currentTimeMillis();
+            CompressedFileIndex cfi = makeIndex(name, indexDir, null);
+            long indexTime = System.currentTimeMillis() - time;
+
+            time = System.currentTimeMillis();
+            cfi = openIfIndexed(name, indexDir);
+            cfi.decompressTo(dir + "decompressed");
+            long decompressToTime = System.currentTimeMillis() - time;
+
+            String2.log("test.bz2: full decompression=" + fullTime +
+                "ms, makeIndex=" + indexTime +
+                "ms, decompressTo=" + decompressToTime + "ms");
+        } finally {
+            File2.deleteAllFiles(dir, true, true);
+        }
+    }
+
+    /**
+     * This runs all of the interactive or not interactive tests for this class.
+     *
+     * @param errorSB all caught exceptions are logged to this.
+     * @param interactive  If true, this runs all of the interactive tests;
+     *   otherwise, this runs all of the non-interactive tests.
+     * @param doSlowTestsToo If true, this runs the slow tests, too.
+     * @param firstTest The first test to be run (0...).  Test numbers may change.
+     * @param lastTest The last test to be run, inclusive (0..., or -1 for the last test).
+     *   Test numbers may change.
+     */
+    public static void test(StringBuilder errorSB, boolean interactive,
+        boolean doSlowTestsToo, int firstTest, int lastTest) {
+        if (lastTest < 0)
+            lastTest = interactive? -1 : 0;
+        String msg = "\n^^^ CompressedFileIndex.test(" + interactive + ") test=";
+
+        for (int test = firstTest; test <= lastTest; test++) {
+            try {
+                long time = System.currentTimeMillis();
+                String2.log(msg + test);
+
+                if (interactive) {
+                    //if (test ==  0) ...;
+
+                } else {
+                    if (test ==  0) basicTest();
+
+                    //not usually run
+                    if (test == 1000) timeDecompress();
+                }
+
+                String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
+            } catch (Throwable testThrowable) {
+                String eMsg = msg + test + " caught throwable:\n" +
+                    MustBe.throwableToString(testThrowable);
+                errorSB.append(eMsg);
+                String2.log(eMsg);
+                if (interactive)
+                    String2.pressEnterToContinue("");
+            }
+        }
+    }
+
+}
@@ -43,6 +43,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.StringReader;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.FileSystems;
 import java.nio.file.FileVisitOption;
@@ -53,6 +54,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashSet;
@@ -138,6 +142,24 @@ public class FileVisitorDNLS extends SimpleFileVisitor<Path> {
     /** ConcurrentHashMap handles multi-threaded access well. */
     public static ConcurrentHashMap<String,Long> pruneCacheDirSize = new ConcurrentHashMap(); /* dirName, bytes */
 
+    /** 
+     * If a compressed source file decompresses to at most this many bytes
+     * (and that is known without decompressing it, see CompressedFileIndex.knownLength)
+     * and there is no decompressed copy in the cache,
+     * decompressIfNeeded (with inMemoryOk=true) doesn't decompress it into the cache;
+     * the reader decompresses it into memory (see NcHelper.openFile).
+     */
+    public static long decompressInMemoryMaxBytes = 20 * Math2.BytesPerMB;
+
+    /** 
+     * The number of threads oneStep uses to walk a local directory tree when recursive=true.
+     * If &gt;1, each subdirectory is listed by a separate fork-join task, 
+     * which is much faster for big trees on network or parallel file systems.
+     * 1 means walk the tree sequentially with Files.walkFileTree.
+     * LoadDatasets sets this to EDStatic.nTableThreads.
+     */
+    public static volatile int nThreads = 1;
+
     /** things set by constructor */
     public String dir;  //with \\ or / separators. With trailing slash (to match).
     private char fromSlash, toSlash;
@@ -264,6 +286,144 @@ public class FileVisitorDNLS extends SimpleFileVisitor<Path> {
         return FileVisitResult.CONTINUE;    
     }
 
+    /**
+     * This walks the directory tree starting at startDir in parallel
+     * (each subdirectory is a separate fork-join task) and adds the results 
+     * (in no particular order) to this instance's table.
+     * This is only used for recursive walks. 
+     * Like Files.walkFileTree with FOLLOW_LINKS, this follows symbolic links
+     * and doesn't follow symbolic links which point to an ancestor directory.
+     *
+     * @param startDir the starting directory (which must exist)
+     * @param tnThreads the number of threads (2+)
+     */
+    public void walkInParallel(Path startDir, int tnThreads) {
+        ConcurrentLinkedQueue<Table> results = new ConcurrentLinkedQueue();
+        ForkJoinPool pool = new ForkJoinPool(tnThreads);
+        try {
+            pool.invoke(new WalkTask(startDir, null, results));
+        } finally {
+            pool.shutdown();
+        }
+        for (Table tTable : results) {
+            directoryPA.append(   tTable.getColumn(0));
+            namePA.append(        tTable.getColumn(1));
+            lastModifiedPA.append(tTable.getColumn(2));
+            sizePA.append(        tTable.getColumn(3));
+        }
+    }
+
+    /** An ancestor directory's fileKey (for detecting symbolic link loops). */
+    private static class Ancestor {
+        final Object key;
+        final Ancestor parent;
+        Ancestor(Object tKey, Ancestor tParent) {
+            key = tKey;
+            parent = tParent;
+        }
+    }
+
+    /** 
+     * A fork-join task which gathers the info for one directory's files 
+     * and forks a task for each subdirectory.
+     */
+    private class WalkTask extends RecursiveAction {
+        private final Path path;
+        private final Ancestor ancestors;
+        private final ConcurrentLinkedQueue<Table> results;
+
+        WalkTask(Path tPath, Ancestor tAncestors, ConcurrentLinkedQueue<Table> tResults) {
+            path = tPath;
+            ancestors = tAncestors;
+            results = tResults;
+        }
+
+        protected void compute() {
+            String ttDir = String2.replaceAll(path.toString(), fromSlash, toSlash) + toSlash;
+            Ancestor me;
+            try {
+                me = new Ancestor(fileKey(path, 
+                    Files.readAttributes(path, BasicFileAttributes.class)), ancestors);
+            } catch (IOException e) {
+                String2.log("WARNING: FileVisitorDNLS.visitFileFailed: " + e.getMessage());
+                return;
+            }
+            Table tTable = makeEmptyTable();
+            StringArray tDirectoryPA    = (StringArray)tTable.getColumn(DIRECTORY);
+            StringArray tNamePA         = (StringArray)tTable.getColumn(NAME);
+            LongArray   tLastModifiedPA = (  LongArray)tTable.getColumn(LASTMODIFIED);
+            LongArray   tSizePA         = (  LongArray)tTable.getColumn(SIZE);
+            ArrayList<WalkTask> subtasks = new ArrayList();
+
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+                for (Path tPath : stream) {
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(tPath, BasicFileAttributes.class); //follows links
+                    } catch (IOException e) {
+                        String2.log("WARNING: FileVisitorDNLS.visitFileFailed: " + e.getMessage());
+                        continue;
+                    }
+
+                    if (attrs.isDirectory()) {
+                        String subDir = String2.replaceAll(tPath.toString(), fromSlash, toSlash) + toSlash;
+                        //skip because it doesn't match pathRegex?
+                        if (pathPattern != null && !pathPattern.matcher(subDir).matches()) {
+                            if (debugMode) String2.log(">> doesn't match pathRegex: " + subDir + " regex=" + pathRegex);
+                            continue;
+                        }
+                        //skip because it is a symbolic link to an ancestor?
+                        Object key = fileKey(tPath, attrs);
+                        boolean isLoop = false;
+                        for (Ancestor a = me; a != null; a = a.parent) {
+                            if (a.key.equals(key)) {
+                                isLoop = true;
+                                break;
+                            }
+                        }
+                        if (isLoop) {
+                            String2.log("WARNING: FileVisitorDNLS.visitFileFailed: file system loop at " + subDir);
+                            continue;
+                        }
+                        if (directoriesToo) {
+                            tDirectoryPA.add(subDir);
+                            tNamePA.add("");
+                            tLastModifiedPA.add(attrs.lastModifiedTime().toMillis());
+                            tSizePA.add(0);
+                        }
+                        subtasks.add(new WalkTask(tPath, me, results));
+
+                    } else {
+                        String name = tPath.getFileName().toString();
+                        if (!fileNamePattern.matcher(name).matches()) 
+                            continue;
+                        tDirectoryPA.add(ttDir);
+                        tNamePA.add(name);
+                        tLastModifiedPA.add(attrs.lastModifiedTime().toMillis());
+                        tSizePA.add(attrs.size());
+                    }
+                }
+            } catch (Throwable t) {
+                //like visitFileFailed: log it and return the info gathered so far
+                String2.log("WARNING: FileVisitorDNLS.visitFileFailed: " + ttDir + "\n" +
+                    MustBe.throwableToString(t));
+            }
+
+            if (tTable.nRows() > 0)
+                results.add(tTable);
+            invokeAll(subtasks);
+        }
+    }
+
+    /** 
+     * This returns an object which identifies a directory, 
+     * even if it is reached via a symbolic link.
+     */
+    private static Object fileKey(Path path, BasicFileAttributes attrs) throws IOException {
+        Object key = attrs.fileKey(); //null on some file systems, e.g., Windows
+        return key == null? path.toRealPath().toString() : key;
+    }
+
     /** table.dataToString(); */
     public String resultsToString() {
         return table.dataToString();
@@ -625,11 +785,17 @@ public class FileVisitorDNLS extends SimpleFileVisitor<Path> {
         //  http://bugs.java.com/bugdatabase/view_bug.do?bug_id=4237760
         FileVisitorDNLS fv = new FileVisitorDNLS(tDir, tFileNameRegex, tRecursive, 
             tPathRegex, tDirectoriesToo);
-        EnumSet<FileVisitOption> opts = EnumSet.of(FileVisitOption.FOLLOW_LINKS);
-        Files.walkFileTree(FileSystems.getDefault().getPath(tDir), 
-            opts,               //follow symbolic links
-            Integer.MAX_VALUE,  //maxDepth
-            fv);
+        Path startPath = FileSystems.getDefault().getPath(tDir);
+        int tnThreads = nThreads; //local copy (it may change)
+        if (tRecursive && tnThreads > 1 && Files.isDirectory(startPath)) {
+            fv.walkInParallel(startPath, tnThreads);
+        } else {
+            EnumSet<FileVisitOption> opts = EnumSet.of(FileVisitOption.FOLLOW_LINKS);
+            Files.walkFileTree(startPath, 
+                opts,               //follow symbolic links
+                Integer.MAX_VALUE,  //maxDepth
+                fv);
+        }
         fv.table.leftToRightSortIgnoreCase(2);
         if (verbose) String2.log("FileVisitorDNLS.oneStep(" + tDir + ") finished successfully. n=" + 
             fv.directoryPA.size() + " time=" +
@@ -730,9 +896,37 @@ public class FileVisitorDNLS extends SimpleFileVisitor<Path> {
     public static String decompressIfNeeded(String sourceFullName, 
         String sourceBaseDir, String cacheDir,
         int pruneCacheWhenGB, boolean reuseExisting) throws Exception {
+        return decompressIfNeeded(sourceFullName, sourceBaseDir, cacheDir,
+            pruneCacheWhenGB, reuseExisting, null, false);
+    }
+
+    /** 
+     * Like the other decompressIfNeeded, but this can use CompressedFileIndex
+     * block indexes of .bz2 source files.
+     * The first time such a file is decompressed, it is indexed at the same time.
+     * After that (e.g., after the decompressed file has been pruned from the cache), 
+     * its blocks are decompressed in parallel via the index.
+     * If inMemoryOk and a .gz or indexed .bz2 file is small, 
+     * it isn't decompressed to the cache at all.
+     *
+     * @param indexDir the directory for the CompressedFileIndex indexes
+     *    (for ERDDAP, edd.compressedIndexDirectory()), or null to not use indexes.
+     * @param inMemoryOk If true, the caller's reader opens files with NcHelper.openFile,
+     *    which decompresses small compressed files into memory.
+     *    So if there is no decompressed copy in the cache and the source file
+     *    is known (from its index or gzip trailer) to decompress to at most 
+     *    decompressInMemoryMaxBytes, this returns sourceFullName.
+     *    If the length isn't known, the file is decompressed into the cache
+     *    (and indexed).
+     */
+    public static String decompressIfNeeded(String sourceFullName, 
+        String sourceBaseDir, String cacheDir,
+        int pruneCacheWhenGB, boolean reuseExisting,
+        String indexDir, boolean inMemoryOk) throws Exception {
         //        !isDecompressible?  then nothing needs to be done
         if (!File2.isDecompressible(sourceFullName))
             return sourceFullName;
+        boolean indexable = indexDir != null && CompressedFileIndex.isIndexable(sourceFullName);
 
         //make destination cacheFullName
         if (!sourceFullName.startsWith(sourceBaseDir))
@@ -755,6 +949,16 @@ public class FileVisitorDNLS extends SimpleFileVisitor<Path> {
             return cacheFullName; 
         }
 
+        //small enough to decompress into memory?
+        //  Only if the length is known without decompressing (from the index or gzip's ISIZE).
+        if (indexDir != null && inMemoryOk && 
+            CompressedFileIndex.isGzipOrBzip2(sourceFullName) &&
+            File2.length(sourceFullName) <= decompressInMemoryMaxBytes) {
+            long decompressedLength = CompressedFileIndex.knownLength(sourceFullName, indexDir);
+            if (decompressedLength >= 0 && decompressedLength <= decompressInMemoryMaxBytes)
+                return sourceFullName;
+        }
+
         //pruneCache?     safer to prune ahead of time        
         pruneCache(cacheDir, pruneCacheWhenGB * Math2.BytesPerGB, PRUNE_CACHE_DEFAULT_FRACTION);
 
@@ -770,17 +974,33 @@ public class FileVisitorDNLS extends SimpleFileVisitor<Path> {
             //make dir and decompressed file
             long time = System.currentTimeMillis();
             File2.makeDirectory(File2.getDirectory(cacheFullName));
-            InputStream is = File2.getDecompressedBufferedInputStream(sourceFullName);
-            OutputStream os = null;
-            try {
-                os = new BufferedOutputStream(new FileOutputStream(cacheFullName));
-                if (!File2.copy(is, os))
-                    throw new IOException("Unable to decompress " + sourceFullName);
-                if (verbose) String2.log("  decompressed " + sourceFullName + "  time=" + 
+            CompressedFileIndex cfi = indexable?
+                CompressedFileIndex.openIfIndexed(sourceFullName, indexDir) : null;
+            if (cfi != null) {
+                //decompress the blocks in parallel via the index
+                cfi.decompressTo(cacheFullName);
+                if (verbose) String2.log("  decompressed (via index) " + sourceFullName + "  time=" + 
                     (System.currentTimeMillis() - time) + "ms");
-            } finally {
-                try { if (os != null) os.close(); } catch (Exception e2) {}
-                try { if (is != null) is.close(); } catch (Exception e2) {}
+            } else {
+                InputStream is = indexable? null : File2.getDecompressedBufferedInputStream(sourceFullName);
+                OutputStream os = null;
+                boolean ok = false;
+                try {
+                    os = new BufferedOutputStream(new FileOutputStream(cacheFullName));
+                    if (indexable) 
+                        //decompress and make the index at the same time
+                        CompressedFileIndex.makeIndex(sourceFullName, indexDir, os);
+                    else if (!File2.copy(is, os))
+                        throw new IOException("Unable to decompress " + sourceFullName);
+                    ok = true;
+                    if (verbose) String2.log("  decompressed " + sourceFullName + "  time=" + 
+                        (System.currentTimeMillis() - time) + "ms");
+                } finally {
+                    try { if (os != null) os.close(); } catch (Exception e2) {}
+                    try { if (is != null) is.close(); } catch (Exception e2) {}
+                    if (!ok) 
+                        File2.delete(cacheFullName); //don't leave a partial file in the cache
+                }
             }
             long cs = incrementPruneCacheDirSize(cacheDir, Math.max(0, File2.length(cacheFullName)));
             if (reallyVerbose) String2.log("  decompressIfNeeded finished. time=" + 
@@ -2577,6 +2797,27 @@ String2.unitTestDataDir + "fileNames/,jplMURSST20150104090000.png,1420665738000,
 String2.unitTestDataDir + "fileNames/sub/,jplMURSST20150105090000.png,1420665704000,46549\n";
         Test.ensureEqual(results, expected, "results=\n" + results);
 
+        //recursive, in parallel (results must be the same)
+        int oNThreads = nThreads;
+        try {
+            nThreads = 4;
+            table = oneStep(String2.unitTestDataDir + "fileNames", ".*\\.png", true, tPathRegex, false);
+            results = table.dataToString();
+            Test.ensureEqual(results, expected, "results=\n" + results);
+
+            table = oneStep(String2.unitTestDataDir + "fileNames", ".*\\.png", true, tPathRegex, true);
+            results = table.dataToString();
+            Test.ensureEqual(results, 
+"directory,name,lastModified,size\n" +
+String2.unitTestDataDir + "fileNames/,jplMURSST20150103090000.png,1421272444000,46482\n" +
+String2.unitTestDataDir + "fileNames/,jplMURSST20150104090000.png,1420665738000,46586\n" +
+String2.unitTestDataDir + "fileNames/sub/,,1420732100000,0\n" +
+String2.unitTestDataDir + "fileNames/sub/,jplMURSST20150105090000.png,1420665704000,46549\n",
+                "results=\n" + results);
+        } finally {
+            nThreads = oNThreads;
+        }
+
         //!recursive and dirToo
         table = oneStep(String2.unitTestDataDir + "fileNames", ".*\\.png", false, tPathRegex, true);
         results = table.dataToString();
@@ -50,6 +50,7 @@ import java.awt.image.BufferedImage;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -336,11 +337,22 @@ public class Erddap extends HttpServlet {
             categoryInfo.put(EDStatic.categoryAttributes[cat], 
                 new ConcurrentHashMap(16, 0.75f, 4));
 
+        //restore the tasks that were unfinished when ERDDAP was last stopped
+        //(before datasets are loaded, so copy datasets don't make them again)
+        EDStatic.restoreTasks();
+
         //start RunLoadDatasets
         runLoadDatasets = new RunLoadDatasets(this);
         EDStatic.runningThreads.put("runLoadDatasets", runLoadDatasets); 
         runLoadDatasets.start(); 
 
+        //start the WmsTileCache.Prerenderer
+        if (EDStatic.wmsActive) {
+            WmsTileCache.Prerenderer prerenderer = new WmsTileCache.Prerenderer(this);
+            EDStatic.runningThreads.put(prerenderer.getName(), prerenderer); 
+            prerenderer.start(); 
+        }
+
         //done
         String2.log("\n\\\\\\\\**** Erddap constructor finished. TIME=" +
             (System.currentTimeMillis() - constructorMillis) + "ms");
@@ -554,15 +566,33 @@ public class Erddap extends HttpServlet {
             //Be as restrictive as possible (so resourceNotFound can be caught below, if possible).
             if (protocol.equals("griddap") ||
                 protocol.equals("tabledap")) {
-                doDap(request, response, loggedInAs, protocol, protocolEnd + 1, userQuery);
+                if (!admitRequest(response, ipAddress, requestNumber))
+                    return;
+                try {
+                    doDap(request, response, loggedInAs, protocol, protocolEnd + 1, userQuery);
+                } finally {
+                    RequestLimiter.release(ipAddress);
+                }
             } else if (protocol.equals("files")) {
-                doFiles(request, response, loggedInAs, protocolEnd + 1, userQuery);
+                if (!admitRequest(response, ipAddress, requestNumber))
+                    return;
+                try {
+                    doFiles(request, response, loggedInAs, protocolEnd + 1, userQuery);
+                } finally {
+                    RequestLimiter.release(ipAddress);
+                }
             } else if (protocol.equals("sos")) {
                 doSos(request, response, loggedInAs, protocolEnd + 1, userQuery); 
             //} else if (protocol.equals("wcs")) {
             //    doWcs(request, response, loggedInAs, protocolEnd + 1, userQuery); 
             } else if (protocol.equals("wms")) {
-                doWms(request, response, loggedInAs, protocolEnd + 1, userQuery);
+                if (!admitRequest(response, ipAddress, requestNumber))
+                    return;
+                try {
+                    doWms(request, response, loggedInAs, protocolEnd + 1, userQuery);
+                } finally {
+                    RequestLimiter.release(ipAddress);
+                }
             } else if (endOfRequest.equals("") || endOfRequest.equals("index.htm")) {
                 sendRedirect(response, tErddapUrl + "/index.html");
             } else if (protocol.startsWith("index.")) {
@@ -690,6 +720,34 @@ public class Erddap extends HttpServlet {
 
     }
 
+    /**
+     * This asks RequestLimiter if a data request (griddap, tabledap, files, wms)
+     * may start. If not, this tallies it and sends the error (429 or 503).
+     * If this returns true, the caller MUST call RequestLimiter.release(ipAddress)
+     * when the request is finished.
+     *
+     * @param response
+     * @param ipAddress the requester's IP address
+     * @param requestNumber for the log
+     * @return true if the request may start
+     * @throws InterruptedException if interrupted while waiting
+     */
+    protected boolean admitRequest(HttpServletResponse response, String ipAddress, 
+        int requestNumber) throws InterruptedException {
+
+        int status = RequestLimiter.admit(ipAddress);
+        if (status == 0)
+            return true;
+        String reason = status == RequestLimiter.SC_TOO_MANY_REQUESTS? 
+            "too many requests" : "server too busy";
+        //use full ipAddress, to help id user
+        EDStatic.tally.add("Request refused: " + reason + " (since last daily report)", ipAddress);
+        EDStatic.tally.add("Request refused: " + reason + " (since startup)", ipAddress);
+        String2.log("}}}}#" + requestNumber + " Request refused by RequestLimiter: " + reason + ".");
+        EDStatic.lowSendError(response, status, RequestLimiter.refusedMessage(status));
+        return false;
+    }
+
     /** 
      * This responds to an /erddap/index.xxx request
      *
@@ -4324,6 +4382,7 @@ writer.write(
             }
             if (newOrderBy ||
                 fromErddap.redirect() == false ||
+                fileTypeName.equals(".arrow") ||  //remote ERDDAPs don't support it
                 fileTypeName.equals(".das") || 
                 fileTypeName.equals(".dds") || 
                 fileTypeName.equals(".html") || 
@@ -4358,11 +4417,27 @@ writer.write(
             //give the dataset the opportunity to update (DAP)
             dataset.update();
 
-            //respond to the request
-            dataset.respondToDapQuery(request, response,
-                loggedInAs, requestUrl, userDapQuery, 
-                outputStreamSource, 
-                cacheDir, fileName, fileTypeName);            
+            //is the response in the ResponseCache (or is an identical request in progress)?
+            String responseCacheKey = ResponseCache.key(request, dataset, loggedInAs, 
+                userDapQuery, fileTypeName); //null if not cacheable
+            ResponseCache.Capture capture = responseCacheKey == null? null :
+                ResponseCache.respondOrCapture(responseCacheKey, dataset.datasetID(), 
+                    request, response, outputStreamSource); //null if response was sent
+            if (responseCacheKey == null || capture != null) {
+
+                //respond to the request (and maybe put the response in the ResponseCache)
+                try {
+                    dataset.respondToDapQuery(request, response,
+                        loggedInAs, requestUrl, userDapQuery, 
+                        capture == null? outputStreamSource : capture, 
+                        cacheDir, fileName, fileTypeName);            
+                    if (capture != null)
+                        capture.store(); //cache it, release waiting identical requests, then send it
+                } finally {
+                    if (capture != null)
+                        capture.finished(); //let waiting identical requests proceed
+                }
+            }
 
         } catch (WaitThenTryAgainException wttae) {
             String2.log("!!ERDDAP caught WaitThenTryAgainException");
@@ -6723,6 +6798,8 @@ Spec questions? Ask Jeff DLb (author of WMS spec!): Jeff.deLaBeaujardiere@noaa.g
             //if request is for JUST a transparent, non-data layer, use a _wms/... cache 
             //  so files can be shared by many datasets and no number of files in dataset dir is reduced
             boolean isNonDataLayer = false;
+            String tQueries[] = new String[layers.length]; //all null
+            String tileDatasetIDs[] = new String[0];
             if (transparent &&
                 (layersCsv.equals("Land") || 
                  layersCsv.equals("LandMask") || 
@@ -6739,233 +6816,63 @@ Spec questions? Ask Jeff DLb (author of WMS spec!): Jeff.deLaBeaujardiere@noaa.g
                 fileName = layersCsv + "_" + 
                     String2.md5Hex12(bboxCsv + "w" + width + "h" + height);
 
+            } else {
+                //check access to each data layer's dataset
+                String roles[] = EDStatic.getRoles(loggedInAs);
+                for (int layeri = 0; layeri < layers.length; layeri++) {
+                    int spo = layers[layeri].indexOf(EDD.WMS_SEPARATOR);
+                    if (spo <= 0) 
+                        continue; //invalid layers are caught by wmsLayerQueries
+                    String datasetID = layers[layeri].substring(0, spo);
+                    EDDGrid eddGrid = gridDatasetHashMap.get(datasetID);
+                    if (eddGrid != null &&
+                        !eddGrid.isAccessibleTo(roles) &&
+                        !eddGrid.graphsAccessibleToPublic()) {
+                        //WMS: all requests are graphics requests
+                        //listPrivateDatasets doesn't apply
+                        EDStatic.sendHttpUnauthorizedError(loggedInAs, response, datasetID,
+                            false);
+                        return;
+                    }
+                }
+
+                //The file name is based on the griddap query for each data layer
+                //(not the userQuery), so e.g., time=current and time=[the last time] 
+                //share an image, and on each dataset's generation, so the image 
+                //isn't used after the dataset changes.
+                tQueries = wmsLayerQueries(layers, styles, queryMap, 
+                    minx, maxx, miny, maxy, width, height);
+                tileDatasetIDs = wmsTileDatasetIDs(layers, tQueries);
+                fileName = (mainDatasetID == null? "" : mainDatasetID + "_") + "wms_" + 
+                    String2.md5Hex12(wmsTileKey(layers, tQueries, 
+                        minx, maxx, miny, maxy, width, height, transparent, bgColori));
             }
 
-            //is the image in the cache?
-            if (File2.isFile(cacheDir + fileName + extension)) { 
+            //is the image in the WmsTileCache (memory) or in the cacheDir (disk)?
+            String tileKey = cacheDir + fileName + extension;
+            byte tile[] = WmsTileCache.get(tileKey);
+            if (tile == null && File2.isFile(tileKey)) { 
                 //touch nonDataLayer files, since they don't change
                 if (isNonDataLayer)
-                    File2.touch(cacheDir + fileName + extension);
-
-                //write out the image
-                outputStreamSource = new OutputStreamFromHttpResponse(request, response, 
-                    fileName, fileTypeName, extension);
-                outputStream = outputStreamSource.outputStream("");
-                doTransfer(request, response, cacheDir, "_wms/", 
-                    fileName + extension, 
-                    outputStream, outputStreamSource.usingCompression()); 
-                return;
+                    File2.touch(tileKey);
+                tile = SSR.getFileBytes(tileKey);
+                WmsTileCache.put(tileKey, tileDatasetIDs, tile);
             }
-            
 
             //*** params are basically ok; try to make the map
-            //make the image
-            BufferedImage bufferedImage = new BufferedImage(width, height, 
-                BufferedImage.TYPE_INT_ARGB); //I need opacity "A"
-            Graphics g = bufferedImage.getGraphics(); 
-            Graphics2D g2 = (Graphics2D)g;
-            Color bgColor = new Color(0xFF000000 | bgColori); //0xFF000000 makes it opaque
-            g.setColor(bgColor);    
-            g.fillRect(0, 0, width, height);  
-
-            //add the layers
-            String roles[] = EDStatic.getRoles(loggedInAs);
-            LAYER:
-            for (int layeri = 0; layeri < layers.length; layeri++) {
-
-                //***deal with non-data layers
-                if (layers[layeri].equals(""))
-                    continue; 
-                if (layers[layeri].equals("Land") || 
-                    layers[layeri].equals("LandMask") || 
-                    layers[layeri].equals("Coastlines") || 
-                    layers[layeri].equals("LakesAndRivers") || 
-                    layers[layeri].equals("Nations") ||
-                    layers[layeri].equals("States")) {
-                    SgtMap.makeCleanMap(minx, maxx, miny, maxy, 
-                        false,
-                        null, 1, 1, 0, null,
-                        layers[layeri].equals("Land") || 
-                        layers[layeri].equals("LandMask"), //no need to draw it twice; no distinction here
-                        layers[layeri].equals("Coastlines"), 
-                        layers[layeri].equals("LakesAndRivers")? 
-                            SgtMap.STROKE_LAKES_AND_RIVERS : //stroke (not fill) so, e.g., Great Lakes temp data not obscured by lakeColor
-                            SgtMap.NO_LAKES_AND_RIVERS,
-                        layers[layeri].equals("Nations"), 
-                        layers[layeri].equals("States"),
-                        g2, width, height,
-                        0, 0, width, height);  
-                    //String2.log("WMS layeri="+ layeri + " request was for a non-data layer=" + layers[layeri]);
-                    continue;
-                }
-
-                //*** deal with grid data
-                int spo = layers[layeri].indexOf(EDD.WMS_SEPARATOR);
-                if (spo <= 0 || spo >= layers[layeri].length() - 1)
-                    throw new SimpleException(EDStatic.queryError + "LAYER=" + layers[layeri] + 
-                        " is invalid (invalid separator position).");
-                String datasetID = layers[layeri].substring(0, spo);
-                String destVar = layers[layeri].substring(spo + 1);
-                EDDGrid eddGrid = gridDatasetHashMap.get(datasetID);
-                if (eddGrid == null)
-                    throw new SimpleException(EDStatic.queryError + "LAYER=" + layers[layeri] + 
-                        " is invalid (dataset not found).");
-                if (!eddGrid.isAccessibleTo(roles) &&
-                    !eddGrid.graphsAccessibleToPublic()) {
-                    //WMS: all requests are graphics requests
-                    //listPrivateDatasets doesn't apply
-                    EDStatic.sendHttpUnauthorizedError(loggedInAs, response, datasetID,
-                        false);
-                    return;
-                }
-                if (eddGrid.accessibleViaWMS().length() > 0)
-                    throw new SimpleException(EDStatic.queryError + "LAYER=" + layers[layeri] + 
-                        " is invalid (not accessible via WMS).");
-                int dvi = String2.indexOf(eddGrid.dataVariableDestinationNames(), destVar);
-                if (dvi < 0)
-                    throw new SimpleException(EDStatic.queryError + "LAYER=" + layers[layeri] + 
-                        " is invalid (variable not found).");
-                EDV tDataVariable = eddGrid.dataVariables()[dvi];
-                if (!tDataVariable.hasColorBarMinMax())
-                    throw new SimpleException(EDStatic.queryError + "LAYER=" + layers[layeri] + 
-                        " is invalid (variable doesn't have valid colorBarMinimum/Maximum).");
-
-                //style  (currently just the default)
-                if (!styles[layeri].equals("") && 
-                    !styles[layeri].toLowerCase().equals("default")) { //nonstandard?  but allow it
-                    throw new SimpleException(EDStatic.queryError + "for LAYER=" + layers[layeri] + 
-                        ", STYLE=" + styles[layeri] + " is invalid (must be \"\").");
-                }
-
-                //get other dimension info
-                EDVGridAxis ava[] = eddGrid.axisVariables();
-                StringBuilder tQuery = new StringBuilder(destVar);
-                for (int avi = 0; avi < ava.length; avi++) {
-                    EDVGridAxis av = ava[avi];
-                    if (avi == eddGrid.lonIndex()) {
-                        if (maxx <= av.destinationMinDouble() ||
-                            minx >= av.destinationMaxDouble()) {
-                            if (reallyVerbose) String2.log("  layer=" + layeri + 
-                                " rejected because request is out of lon range.");
-                            continue LAYER;
-                        }
-                        int first = av.destinationToClosestSourceIndex(minx);
-                        int last = av.destinationToClosestSourceIndex(maxx);
-                        if (first > last) {int ti = first; first = last; last = ti;}
-                        int stride = DataHelper.findStride(last - first + 1, width);
-                        tQuery.append("[" + first + ":" + stride + ":" + last + "]");
-                        continue;
-                    }
-
-                    if (avi == eddGrid.latIndex()) {
-                        if (maxy <= av.destinationMinDouble() ||
-                            miny >= av.destinationMaxDouble()) {
-                            if (reallyVerbose) String2.log("  layer=" + layeri + 
-                                " rejected because request is out of lat range.");
-                            continue LAYER;
-                        }
-                        int first = av.destinationToClosestSourceIndex(miny);
-                        int last = av.destinationToClosestSourceIndex(maxy);
-                        if (first > last) {int ti = first; first = last; last = ti;}
-                        int stride = DataHelper.findStride(last - first + 1, height);
-                        tQuery.append("[" + first + ":" + stride + ":" + last + "]");
-                        continue;
-                    }
-
-                    //all other axes
-                    String tAvName = 
-                        avi == eddGrid.altIndex()? "elevation" :
-                        avi == eddGrid.depthIndex()? "elevation" :  //convert depth to elevation
-                        avi == eddGrid.timeIndex()? "time" : 
-                        "dim_" + ava[avi].destinationName().toLowerCase(); //make it case-insensitive for queryMap.get
-                    String tValueS = queryMap.get(tAvName);
-                    if (tValueS == null || 
-                        (avi == eddGrid.timeIndex() && tValueS.toLowerCase().equals("current")))
-                        //default is always the last value
-                        tQuery.append("[" + (ava[avi].sourceValues().size() - 1) + "]");
-                    else {
-                        double tValueD = av.destinationToDouble(tValueS); //needed in particular for iso time -> epoch seconds
-                        if (avi == eddGrid.depthIndex())
-                            tValueD = -tValueD;
-                        if (Double.isNaN(tValueD) ||
-                            tValueD < av.destinationCoarseMin() ||
-                            tValueD > av.destinationCoarseMax()) {
-                            if (reallyVerbose) String2.log("  layer=" + layeri + 
-                                " rejected because tValueD=" + tValueD + 
-                                " for " + tAvName);
-                            continue LAYER;
-                        }
-                        int first = av.destinationToClosestSourceIndex(tValueD);
-                        tQuery.append("[" + first + "]");
-                    }
-                }
-
-                //get the data
-                GridDataAccessor gda = new GridDataAccessor(
-                    eddGrid, 
-                    "/" + EDStatic.warName + "/griddap/" + datasetID + ".dods", tQuery.toString(), 
-                    false, //Grid needs column-major order
-                    true); //convertToNaN
-                long requestNL = gda.totalIndex().size();
-                EDStatic.ensureArraySizeOkay(requestNL, "doWmsGetMap");
-                int nBytesPerElement = 8;
-                int requestN = (int)requestNL; //safe since checked by ensureArraySizeOkay above
-                EDStatic.ensureMemoryAvailable(requestNL * nBytesPerElement, "doWmsGetMap"); 
-                Grid grid = new Grid();
-                grid.data = new double[requestN];
-                int po = 0;
-                while (gda.increment()) 
-                    grid.data[po++] = gda.getDataValueAsDouble(0);
-                grid.lon = gda.axisValues(eddGrid.lonIndex()).toDoubleArray();
-                grid.lat = gda.axisValues(eddGrid.latIndex()).toDoubleArray(); 
-                gda = null; //free up memory if possible
-
-                //make the palette
-                //I checked hasColorBarMinMax above.
-                //Note that EDV checks validity of values.
-                double minData = tDataVariable.combinedAttributes().getDouble("colorBarMinimum"); 
-                double maxData = tDataVariable.combinedAttributes().getDouble("colorBarMaximum"); 
-                String palette = tDataVariable.combinedAttributes().getString("colorBarPalette"); 
-                if (String2.indexOf(EDStatic.palettes, palette) < 0)
-                    palette = Math2.almostEqual(3, -minData, maxData)? "BlueWhiteRed" : "Rainbow"; 
-                int nSections = tDataVariable.combinedAttributes().getInt("colorBarNSections"); 
-                if (nSections > 100)
-                    nSections = -1;
-                boolean paletteContinuous = String2.parseBoolean( //defaults to true
-                    tDataVariable.combinedAttributes().getString("colorBarContinuous")); 
-                String scale = tDataVariable.combinedAttributes().getString("colorBarScale"); 
-                if (String2.indexOf(EDV.VALID_SCALES, scale) < 0)
-                    scale = "Linear";
-                String cptFullName = CompoundColorMap.makeCPT(EDStatic.fullPaletteDirectory, 
-                    palette, scale, minData, maxData, nSections, paletteContinuous, 
-                    EDStatic.fullCptCacheDirectory);
-
-                //draw the data on the map
-                //for now, just cartesian  -- BEWARE: it may be stretched!
-                SgtMap.makeCleanMap( 
-                    minx, maxx, miny, maxy, 
-                    false,
-                    grid, 1, 1, 0, cptFullName, 
-                    false, false, SgtMap.NO_LAKES_AND_RIVERS, false, false,
-                    g2, width, height,
-                    0, 0, width, height); 
-
+            if (tile == null) {
+                tile = makeWmsTile(layers, tQueries, minx, maxx, miny, maxy, 
+                    width, height, transparent, bgColori);
+                saveWmsTile(tileKey, tileDatasetIDs, tile);
+                if (reallyVerbose) String2.log("  image created: " + fileName + extension);
             }
 
-            //save image as file in cache dir
-            //(It saves as temp file, then renames if ok.)
-            SgtUtil.saveAsTransparentPng(bufferedImage, 
-                transparent? bgColor : null, 
-                cacheDir + fileName); 
-
-            //copy image from file to client
-            if (reallyVerbose) String2.log("  image created. copying to client: " + fileName + extension);
+            //write out the image
             outputStreamSource = new OutputStreamFromHttpResponse(request, response, 
                 fileName, fileTypeName, extension);
             outputStream = outputStreamSource.outputStream("");
-            doTransfer(request, response, cacheDir, "_wms/", 
-                fileName + extension, 
-                outputStream, outputStreamSource.usingCompression()); 
+            outputStream.write(tile);
+            outputStream.flush();
 
         } catch (Throwable t) {
             EDStatic.rethrowClientAbortException(t);  //first thing in catch{}
@@ -7041,6 +6948,414 @@ Spec questions? Ask Jeff DLb (author of WMS spec!): Jeff.deLaBeaujardiere@noaa.g
 
     }
 
+    /**
+     * This validates the data layers of a WMS GetMap request
+     * and makes the griddap query for each data layer.
+     * The caller must have checked that the user has access to the datasets.
+     *
+     * @param layers the layers, e.g., erdBAssta5day:sst or Land
+     * @param styles the styles (parallel to layers)
+     * @param queryMap has name=value from the url query string (names are toLowerCase).
+     *    Only the dimension values (e.g., time=) are used here.
+     * @param minx the bbox (already validated)
+     * @param width the image's width (in pixels)
+     * @return a String[] (parallel to layers) with the griddap query 
+     *    (e.g., sst[12][0:2:200][0:2:400]) for each data layer, 
+     *    or null for "" and non-data layers and for data layers which are out of range 
+     *    (since there is nothing to draw).
+     * @throws Throwable if trouble (e.g., an invalid layer or style)
+     */
+    String[] wmsLayerQueries(String layers[], String styles[], 
+        HashMap<String, String> queryMap,
+        double minx, double maxx, double miny, double maxy,
+        int width, int height) throws Throwable {
+
+        String tQueries[] = new String[layers.length];
+        LAYER:
+        for (int layeri = 0; layeri < layers.length; layeri++) {
+
+            //non-data layers
+            if (layers[layeri].equals("") ||
+                layers[layeri].equals("Land") || 
+                layers[layeri].equals("LandMask") || 
+                layers[layeri].equals("Coastlines") || 
+                layers[layeri].equals("LakesAndRivers") || 
+                layers[layeri].equals("Nations") ||
+                layers[layeri].equals("States")) 
+                continue; 
+
+            //*** deal with grid data
+            int spo = layers[layeri].indexOf(EDD.WMS_SEPARATOR);
+            if (spo <= 0 || spo >= layers[layeri].length() - 1)
+                throw new SimpleException(EDStatic.queryError + "LAYER=" + layers[layeri] + 
+                    " is invalid (invalid separator position).");
+            String datasetID = layers[layeri].substring(0, spo);
+            String destVar = layers[layeri].substring(spo + 1);
+            EDDGrid eddGrid = gridDatasetHashMap.get(datasetID);
+            if (eddGrid == null)
+                throw new SimpleException(EDStatic.queryError + "LAYER=" + layers[layeri] + 
+                    " is invalid (dataset not found).");
+            if (eddGrid.accessibleViaWMS().length() > 0)
+                throw new SimpleException(EDStatic.queryError + "LAYER=" + layers[layeri] + 
+                    " is invalid (not accessible via WMS).");
+            int dvi = String2.indexOf(eddGrid.dataVariableDestinationNames(), destVar);
+            if (dvi < 0)
+                throw new SimpleException(EDStatic.queryError + "LAYER=" + layers[layeri] + 
+                    " is invalid (variable not found).");
+            EDV tDataVariable = eddGrid.dataVariables()[dvi];
+            if (!tDataVariable.hasColorBarMinMax())
+                throw new SimpleException(EDStatic.queryError + "LAYER=" + layers[layeri] + 
+                    " is invalid (variable doesn't have valid colorBarMinimum/Maximum).");
+
+            //style  (currently just the default)
+            if (!styles[layeri].equals("") && 
+                !styles[layeri].toLowerCase().equals("default")) { //nonstandard?  but allow it
+                throw new SimpleException(EDStatic.queryError + "for LAYER=" + layers[layeri] + 
+                    ", STYLE=" + styles[layeri] + " is invalid (must be \"\").");
+            }
+
+            //get other dimension info
+            EDVGridAxis ava[] = eddGrid.axisVariables();
+            StringBuilder tQuery = new StringBuilder(destVar);
+            for (int avi = 0; avi < ava.length; avi++) {
+                EDVGridAxis av = ava[avi];
+                if (avi == eddGrid.lonIndex()) {
+                    if (maxx <= av.destinationMinDouble() ||
+                        minx >= av.destinationMaxDouble()) {
+                        if (reallyVerbose) String2.log("  layer=" + layeri + 
+                            " rejected because request is out of lon range.");
+                        continue LAYER;
+                    }
+                    int first = av.destinationToClosestSourceIndex(minx);
+                    int last = av.destinationToClosestSourceIndex(maxx);
+                    if (first > last) {int ti = first; first = last; last = ti;}
+                    int stride = DataHelper.findStride(last - first + 1, width);
+                    tQuery.append("[" + first + ":" + stride + ":" + last + "]");
+                    continue;
+                }
+
+                if (avi == eddGrid.latIndex()) {
+                    if (maxy <= av.destinationMinDouble() ||
+                        miny >= av.destinationMaxDouble()) {
+                        if (reallyVerbose) String2.log("  layer=" + layeri + 
+                            " rejected because request is out of lat range.");
+                        continue LAYER;
+                    }
+                    int first = av.destinationToClosestSourceIndex(miny);
+                    int last = av.destinationToClosestSourceIndex(maxy);
+                    if (first > last) {int ti = first; first = last; last = ti;}
+                    int stride = DataHelper.findStride(last - first + 1, height);
+                    tQuery.append("[" + first + ":" + stride + ":" + last + "]");
+                    continue;
+                }
+
+                //all other axes
+                String tAvName = 
+                    avi == eddGrid.altIndex()? "elevation" :
+                    avi == eddGrid.depthIndex()? "elevation" :  //convert depth to elevation
+                    avi == eddGrid.timeIndex()? "time" : 
+                    "dim_" + ava[avi].destinationName().toLowerCase(); //make it case-insensitive for queryMap.get
+                String tValueS = queryMap.get(tAvName);
+                if (tValueS == null || 
+                    (avi == eddGrid.timeIndex() && tValueS.toLowerCase().equals("current")))
+                    //default is always the last value
+                    tQuery.append("[" + (ava[avi].sourceValues().size() - 1) + "]");
+                else {
+                    double tValueD = av.destinationToDouble(tValueS); //needed in particular for iso time -> epoch seconds
+                    if (avi == eddGrid.depthIndex())
+                        tValueD = -tValueD;
+                    if (Double.isNaN(tValueD) ||
+                        tValueD < av.destinationCoarseMin() ||
+                        tValueD > av.destinationCoarseMax()) {
+                        if (reallyVerbose) String2.log("  layer=" + layeri + 
+                            " rejected because tValueD=" + tValueD + 
+                            " for " + tAvName);
+                        continue LAYER;
+                    }
+                    int first = av.destinationToClosestSourceIndex(tValueD);
+                    tQuery.append("[" + first + "]");
+                }
+            }
+            tQueries[layeri] = tQuery.toString();
+        }
+        return tQueries;
+    }
+
+    /**
+     * This returns the datasetIDs of the data layers which will be drawn.
+     *
+     * @param layers the layers
+     * @param tQueries from wmsLayerQueries
+     * @return the datasetIDs (perhaps length=0)
+     */
+    String[] wmsTileDatasetIDs(String layers[], String tQueries[]) {
+        StringArray sa = new StringArray();
+        for (int layeri = 0; layeri < layers.length; layeri++) {
+            if (tQueries[layeri] != null) {
+                String datasetID = layers[layeri].substring(0, 
+                    layers[layeri].indexOf(EDD.WMS_SEPARATOR));
+                if (sa.indexOf(datasetID) < 0)
+                    sa.add(datasetID);
+            }
+        }
+        return sa.toArray();
+    }
+
+    /**
+     * This returns the canonical description of a WMS GetMap image
+     * (which is md5'd to make the file name).
+     * It includes the generation of each data layer's dataset 
+     * (see WmsTileCache.generation).
+     *
+     * @param layers the layers
+     * @param tQueries from wmsLayerQueries
+     * @return the canonical description of the image
+     */
+    String wmsTileKey(String layers[], String tQueries[], 
+        double minx, double maxx, double miny, double maxy,
+        int width, int height, boolean transparent, int bgColori) {
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("bbox=" + minx + "," + miny + "," + maxx + "," + maxy +
+            " w=" + width + " h=" + height + 
+            " transparent=" + transparent + " bgcolor=" + bgColori);
+        for (int layeri = 0; layeri < layers.length; layeri++) {
+            sb.append("\n" + layers[layeri]);
+            if (tQueries[layeri] != null) {
+                EDDGrid eddGrid = gridDatasetHashMap.get(layers[layeri].substring(0, 
+                    layers[layeri].indexOf(EDD.WMS_SEPARATOR)));
+                sb.append("?" + tQueries[layeri] + " generation=" + 
+                    (eddGrid == null? "" : WmsTileCache.generation(eddGrid)));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * This makes a WMS GetMap image.
+     *
+     * @param layers the layers
+     * @param tQueries from wmsLayerQueries
+     * @param minx the bbox
+     * @param width the image's width (in pixels)
+     * @param height the image's height (in pixels)
+     * @param transparent if true, the bgColor is made transparent
+     * @param bgColori the background color (0xRRGGBB)
+     * @return the .png bytes
+     * @throws Throwable if trouble
+     */
+    byte[] makeWmsTile(String layers[], String tQueries[], 
+        double minx, double maxx, double miny, double maxy,
+        int width, int height, boolean transparent, int bgColori) throws Throwable {
+
+        //make the image
+        BufferedImage bufferedImage = new BufferedImage(width, height, 
+            BufferedImage.TYPE_INT_ARGB); //I need opacity "A"
+        Graphics g = bufferedImage.getGraphics(); 
+        Graphics2D g2 = (Graphics2D)g;
+        Color bgColor = new Color(0xFF000000 | bgColori); //0xFF000000 makes it opaque
+        g.setColor(bgColor);    
+        g.fillRect(0, 0, width, height);  
+
+        //add the layers
+        for (int layeri = 0; layeri < layers.length; layeri++) {
+
+            //***deal with non-data layers
+            if (layers[layeri].equals(""))
+                continue; 
+            if (layers[layeri].equals("Land") || 
+                layers[layeri].equals("LandMask") || 
+                layers[layeri].equals("Coastlines") || 
+                layers[layeri].equals("LakesAndRivers") || 
+                layers[layeri].equals("Nations") ||
+                layers[layeri].equals("States")) {
+                SgtMap.makeCleanMap(minx, maxx, miny, maxy, 
+                    false,
+                    null, 1, 1, 0, null,
+                    layers[layeri].equals("Land") || 
+                    layers[layeri].equals("LandMask"), //no need to draw it twice; no distinction here
+                    layers[layeri].equals("Coastlines"), 
+                    layers[layeri].equals("LakesAndRivers")? 
+                        SgtMap.STROKE_LAKES_AND_RIVERS : //stroke (not fill) so, e.g., Great Lakes temp data not obscured by lakeColor
+                        SgtMap.NO_LAKES_AND_RIVERS,
+                    layers[layeri].equals("Nations"), 
+                    layers[layeri].equals("States"),
+                    g2, width, height,
+                    0, 0, width, height);  
+                //String2.log("WMS layeri="+ layeri + " request was for a non-data layer=" + layers[layeri]);
+                continue;
+            }
+
+            //*** deal with grid data
+            if (tQueries[layeri] == null) //out of range
+                continue;
+            int spo = layers[layeri].indexOf(EDD.WMS_SEPARATOR);
+            String datasetID = layers[layeri].substring(0, spo);
+            String destVar = layers[layeri].substring(spo + 1);
+            EDDGrid eddGrid = gridDatasetHashMap.get(datasetID);
+            if (eddGrid == null)
+                throw new SimpleException(EDStatic.queryError + "LAYER=" + layers[layeri] + 
+                    " is invalid (dataset not found).");
+            int dvi = String2.indexOf(eddGrid.dataVariableDestinationNames(), destVar);
+            if (dvi < 0)
+                throw new SimpleException(EDStatic.queryError + "LAYER=" + layers[layeri] + 
+                    " is invalid (variable not found).");
+            EDV tDataVariable = eddGrid.dataVariables()[dvi];
+
+            //get the data
+            GridDataAccessor gda = new GridDataAccessor(
+                eddGrid, 
+                "/" + EDStatic.warName + "/griddap/" + datasetID + ".dods", tQueries[layeri], 
+                false, //Grid needs column-major order
+                true); //convertToNaN
+            long requestNL = gda.totalIndex().size();
+            EDStatic.ensureArraySizeOkay(requestNL, "doWmsGetMap");
+            int nBytesPerElement = 8;
+            int requestN = (int)requestNL; //safe since checked by ensureArraySizeOkay above
+            EDStatic.ensureMemoryAvailable(requestNL * nBytesPerElement, "doWmsGetMap"); 
+            Grid grid = new Grid();
+            grid.data = new double[requestN];
+            int po = 0;
+            while (gda.increment()) 
+                grid.data[po++] = gda.getDataValueAsDouble(0);
+            grid.lon = gda.axisValues(eddGrid.lonIndex()).toDoubleArray();
+            grid.lat = gda.axisValues(eddGrid.latIndex()).toDoubleArray(); 
+            gda = null; //free up memory if possible
+
+            //make the palette
+            //wmsLayerQueries checked hasColorBarMinMax.
+            //Note that EDV checks validity of values.
+            double minData = tDataVariable.combinedAttributes().getDouble("colorBarMinimum"); 
+            double maxData = tDataVariable.combinedAttributes().getDouble("colorBarMaximum"); 
+            String palette = tDataVariable.combinedAttributes().getString("colorBarPalette"); 
+            if (String2.indexOf(EDStatic.palettes, palette) < 0)
+                palette = Math2.almostEqual(3, -minData, maxData)? "BlueWhiteRed" : "Rainbow"; 
+            int nSections = tDataVariable.combinedAttributes().getInt("colorBarNSections"); 
+            if (nSections > 100)
+                nSections = -1;
+            boolean paletteContinuous = String2.parseBoolean( //defaults to true
+                tDataVariable.combinedAttributes().getString("colorBarContinuous")); 
+            String scale = tDataVariable.combinedAttributes().getString("colorBarScale"); 
+            if (String2.indexOf(EDV.VALID_SCALES, scale) < 0)
+                scale = "Linear";
+            String cptFullName = CompoundColorMap.makeCPT(EDStatic.fullPaletteDirectory, 
+                palette, scale, minData, maxData, nSections, paletteContinuous, 
+                EDStatic.fullCptCacheDirectory);
+
+            //draw the data on the map
+            //for now, just cartesian  -- BEWARE: it may be stretched!
+            SgtMap.makeCleanMap( 
+                minx, maxx, miny, maxy, 
+                false,
+                grid, 1, 1, 0, cptFullName, 
+                false, false, SgtMap.NO_LAKES_AND_RIVERS, false, false,
+                g2, width, height,
+                0, 0, width, height); 
+
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(32768);
+        SgtUtil.saveAsTransparentPng(bufferedImage, 
+            transparent? bgColor : null, baos); 
+        return baos.toByteArray();
+    }
+
+    /**
+     * This saves a WMS GetMap image in the cacheDir (disk) and in the WmsTileCache (memory).
+     * It saves to a temp file, then renames it, so other threads never see a partial file.
+     *
+     * @param tileKey cacheDir + fileName + extension
+     * @param datasetIDs the datasetIDs of the image's data layers
+     * @param tile the .png bytes
+     * @throws Throwable if trouble
+     */
+    void saveWmsTile(String tileKey, String datasetIDs[], byte tile[]) throws Throwable {
+        String tempName = tileKey + Math2.random(Integer.MAX_VALUE);
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(tempName));
+        try {
+            os.write(tile);
+        } finally {
+            os.close();
+        }
+        File2.rename(tempName, tileKey);
+        WmsTileCache.put(tileKey, datasetIDs, tile);
+    }
+
+    /**
+     * WmsTileCache.Prerenderer calls this to make the WMS images (tiles) for a dataset 
+     * (as requested by the dataset's Leaflet map on its WMS page:
+     * 256x256 pixel EPSG:4326 tiles, transparent, bgcolor=0x808080, the default time, 
+     * elevation, and other dimension values (the last values), 
+     * for zoom levels 0 through EDStatic.wmsPrerenderMaxZoom) 
+     * for each variable, if they aren't already in the cache.
+     * This stops early if the dataset changes again.
+     *
+     * @param datasetID the datasetID
+     * @return the number of tiles made
+     * @throws Throwable if trouble (e.g., InterruptedException)
+     */
+    public int prerenderWmsTiles(String datasetID) throws Throwable {
+        EDDGrid eddGrid = gridDatasetHashMap.get(datasetID);
+        if (eddGrid == null || 
+            !EDStatic.wmsActive ||
+            eddGrid.accessibleViaWMS().length() > 0 ||
+            (!eddGrid.isAccessibleTo(EDStatic.getRoles(null)) &&
+             !eddGrid.graphsAccessibleToPublic()))
+            return 0;
+
+        int width = 256, height = 256, bgColori = 0x808080;
+        boolean transparent = true;
+        EDVGridAxis lonAxis = eddGrid.axisVariables()[eddGrid.lonIndex()];
+        EDVGridAxis latAxis = eddGrid.axisVariables()[eddGrid.latIndex()];
+        double lonMin = lonAxis.destinationMinDouble(), lonMax = lonAxis.destinationMaxDouble();
+        double latMin = latAxis.destinationMinDouble(), latMax = latAxis.destinationMaxDouble();
+        String cacheDir = EDD.cacheDirectory(datasetID);
+        HashMap<String, String> queryMap = new HashMap(); //all defaults
+        EDV dataVariables[] = eddGrid.dataVariables();
+        int nTiles = 0;
+        for (int dvi = 0; dvi < dataVariables.length; dvi++) {
+            if (!dataVariables[dvi].hasColorBarMinMax())
+                continue;
+            String layers[] = {datasetID + EDD.WMS_SEPARATOR + dataVariables[dvi].destinationName()};
+            String styles[] = {""};
+            for (int zoom = 0; zoom <= EDStatic.wmsPrerenderMaxZoom; zoom++) {
+                //Leaflet's EPSG:4326 tiles: zoom 0 has 2 tiles (180x180 degrees), 
+                //  and each zoom level halves the tile size
+                double tileDegrees = 180.0 / (1 << zoom);
+                for (double minx = -180; minx < 360; minx += tileDegrees) {
+                    double maxx = minx + tileDegrees;
+                    if (maxx <= lonMin || minx >= lonMax)
+                        continue;
+                    for (double miny = -90; miny < 90; miny += tileDegrees) {
+                        double maxy = miny + tileDegrees;
+                        if (maxy <= latMin || miny >= latMax)
+                            continue;
+                        if (Thread.currentThread().isInterrupted())
+                            throw new InterruptedException();
+                        if (WmsTileCache.isPending(datasetID) || 
+                            gridDatasetHashMap.get(datasetID) != eddGrid)
+                            return nTiles; //it will be (or it can't be) done again
+
+                        String tQueries[] = wmsLayerQueries(layers, styles, queryMap, 
+                            minx, maxx, miny, maxy, width, height);
+                        String fileName = datasetID + "_wms_" + 
+                            String2.md5Hex12(wmsTileKey(layers, tQueries, 
+                                minx, maxx, miny, maxy, width, height, transparent, bgColori));
+                        String tileKey = cacheDir + fileName + ".png";
+                        if (File2.isFile(tileKey))
+                            continue;
+                        byte tile[] = makeWmsTile(layers, tQueries, 
+                            minx, maxx, miny, maxy, width, height, transparent, bgColori);
+                        saveWmsTile(tileKey, wmsTileDatasetIDs(layers, tQueries), tile);
+                        WmsTileCache.prerendered();
+                        nTiles++;
+                    }
+                }
+            }
+        }
+        return nTiles;
+    }
+
     /**
      * Respond to WMS GetCapabilities request for doWms.
      * To become a Layer, a grid variable must use evenly-spaced longitude and latitude variables.
@@ -11800,7 +12115,7 @@ XML.encodeAsXML(String2.noLongerThanDots(EDStatic.adminInstitution, 256)) + "</A
                 }
 
             } else {
-                //do the searches with the ORIGINAL searchEngine
+                //do the searches with the ORIGINAL (or INDEX) searchEngine
                 //prepare the byte[]s
                 boolean isNegative[]  = new boolean[nSearchWords];
                 byte searchWordsB[][] = new byte[   nSearchWords][];
@@ -11822,8 +12137,20 @@ XML.encodeAsXML(String2.noLongerThanDots(EDStatic.adminInstitution, 256)) + "</A
                     jumpB[w] = String2.makeJumpTable(searchWordsB[w]);
                 }
 
+                //searchEngine=index? get all of the matches and ranks at once
+                //(until the searchIndex is built at startup, use the original searchEngine)
+                HashMap<String,Integer> indexRanks = 
+                    EDStatic.useIndexSearchEngine && EDStatic.searchIndex.isReady()?
+                    EDStatic.searchIndex.search(isNegative, searchWordsB) : null;
+
                 for (int i = 0; i < ntDatasetIDs; i++) {
                     String tId = tDatasetIDs.get(i);
+                    Integer indexRank = null;
+                    if (indexRanks != null) {
+                        indexRank = indexRanks.get(tId);
+                        if (indexRank == null) //not a match
+                            continue;
+                    }
                     EDD edd = gridDatasetHashMap.get(tId);
                     if (edd == null)
                         edd = tableDatasetHashMap.get(tId);
@@ -11834,7 +12161,9 @@ XML.encodeAsXML(String2.noLongerThanDots(EDStatic.adminInstitution, 256)) + "</A
                         !edd.graphsAccessibleToPublic()) //search for datasets is always a metadata request
                         continue;
                     nDatasetsSearched++;
-                    int rank = edd.searchRank(isNegative, searchWordsB, jumpB);           
+                    int rank = indexRank == null? 
+                        edd.searchRank(isNegative, searchWordsB, jumpB) : 
+                        indexRank.intValue();           
                     if (rank < Integer.MAX_VALUE) {
                         // /10 makes rank less sensitive to exact char positions
                         // so more likely to be tied,
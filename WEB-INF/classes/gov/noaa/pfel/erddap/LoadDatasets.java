@@ -6,6 +6,7 @@ package gov.noaa.pfel.erddap;
 
 
 import com.cohort.array.Attributes;
+import com.cohort.array.BloomFilter;
 import com.cohort.array.StringArray;
 import com.cohort.util.Calendar2;
 import com.cohort.util.File2;
@@ -14,6 +15,8 @@ import com.cohort.util.MustBe;
 import com.cohort.util.String2;
 import com.cohort.util.XML;
 
+import gov.noaa.pfel.coastwatch.griddata.NcHelper;
+import gov.noaa.pfel.coastwatch.pointdata.AsciiChunkParser;
 import gov.noaa.pfel.coastwatch.sgt.GSHHS;
 import gov.noaa.pfel.coastwatch.sgt.SgtMap;
 import gov.noaa.pfel.coastwatch.util.FileVisitorDNLS;
@@ -32,6 +35,7 @@ import java.io.FileInputStream;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.concurrent.ConcurrentHashMap;
@@ -401,7 +405,9 @@ public class LoadDatasets extends Thread {
 
                             //clear the dataset's cache 
                             //since axis values may have changed and "last" may have changed
-                            File2.deleteAllFiles(dataset.cacheDirectory());                           
+                            File2.deleteAllFiles(dataset.cacheDirectory());
+                            ResponseCache.remove(tId);                           
+                            WmsTileCache.datasetChanged(tId);
                        
                             change = dataset.changed(oldDataset);
                             if (change.length() == 0 && dataset instanceof EDDTable)
@@ -465,6 +471,7 @@ public class LoadDatasets extends Thread {
 
                         //whether succeeded (new or swapped in) or failed (removed), it was changed
                         changedDatasetIDs.add(tId);
+                        updateSearchIndex(erddap, tId);
                         if (System.currentTimeMillis() - lastLuceneUpdate >
                             MAX_MILLIS_BEFORE_LUCENE_UPDATE) {
                             updateLucene(erddap, changedDatasetIDs);
@@ -519,6 +526,13 @@ public class LoadDatasets extends Thread {
                         EDStatic.convertToPublicSourceUrl.put(tFrom, tTo);                        
                 } else if (tags.equals("<erddapDatasets></convertToPublicSourceUrl>")) {
 
+                } else if (tags.equals("<erddapDatasets><dataRequestsMaxActive>")) {
+                } else if (tags.equals("<erddapDatasets></dataRequestsMaxActive>")) {
+                    int tnt = String2.parseInt(xmlReader.content());
+                    EDStatic.dataRequestsMaxActive = tnt < 0 || tnt == Integer.MAX_VALUE? 
+                        EDStatic.DEFAULT_dataRequestsMaxActive : tnt; 
+                    String2.log("dataRequestsMaxActive=" + EDStatic.dataRequestsMaxActive);
+
                 } else if (tags.equals("<erddapDatasets><decompressedCacheMaxGB>")) {
                 } else if (tags.equals("<erddapDatasets></decompressedCacheMaxGB>")) {
                     int tnt = String2.parseInt(xmlReader.content());
@@ -540,6 +554,13 @@ public class LoadDatasets extends Thread {
                     EDStatic.drawLandMask = tnt < 1? EDStatic.DEFAULT_drawLandMask : SgtMap.drawLandMask_OPTIONS[tnt]; 
                     String2.log("drawLandMask=" + EDStatic.drawLandMask);
 
+                } else if (tags.equals("<erddapDatasets><fileValueIndexMaxBits>")) {
+                } else if (tags.equals("<erddapDatasets></fileValueIndexMaxBits>")) {
+                    int tnt = String2.parseInt(xmlReader.content());
+                    EDStatic.fileValueIndexMaxBits = tnt < 0 || tnt == Integer.MAX_VALUE? 
+                        EDStatic.DEFAULT_fileValueIndexMaxBits : Math.min(tnt, BloomFilter.MAX_BITS); 
+                    String2.log("fileValueIndexMaxBits=" + EDStatic.fileValueIndexMaxBits);
+
                 } else if (tags.equals("<erddapDatasets><graphBackgroundColor>")) {
                 } else if (tags.equals("<erddapDatasets></graphBackgroundColor>")) {
                     String ts = xmlReader.content();
@@ -547,6 +568,20 @@ public class LoadDatasets extends Thread {
                     EDStatic.graphBackgroundColor = new Color(tnt, true); //hasAlpha
                     String2.log("graphBackgroundColor=" + String2.to0xHexString(tnt, 8));
 
+                } else if (tags.equals("<erddapDatasets><ipAddressMaxRequests>")) {
+                } else if (tags.equals("<erddapDatasets></ipAddressMaxRequests>")) {
+                    int tnt = String2.parseInt(xmlReader.content());
+                    EDStatic.ipAddressMaxRequests = tnt < 0 || tnt == Integer.MAX_VALUE? 
+                        EDStatic.DEFAULT_ipAddressMaxRequests : tnt; 
+                    String2.log("ipAddressMaxRequests=" + EDStatic.ipAddressMaxRequests);
+
+                } else if (tags.equals("<erddapDatasets><ipAddressMaxRequestsActive>")) {
+                } else if (tags.equals("<erddapDatasets></ipAddressMaxRequestsActive>")) {
+                    int tnt = String2.parseInt(xmlReader.content());
+                    EDStatic.ipAddressMaxRequestsActive = tnt < 0 || tnt == Integer.MAX_VALUE? 
+                        EDStatic.DEFAULT_ipAddressMaxRequestsActive : tnt; 
+                    String2.log("ipAddressMaxRequestsActive=" + EDStatic.ipAddressMaxRequestsActive);
+
                 } else if (tags.equals("<erddapDatasets><loadDatasetsMinMinutes>")) {
                 } else if (tags.equals("<erddapDatasets></loadDatasetsMinMinutes>")) {
                     int tnt = String2.parseInt(xmlReader.content());
@@ -565,6 +600,20 @@ public class LoadDatasets extends Thread {
                 } else if (tags.equals("<erddapDatasets></logLevel>")) {                    
                     EDStatic.setLogLevel(xmlReader.content()); //""->"info".  It prints diagnostic to log.txt.
 
+                } else if (tags.equals("<erddapDatasets><ncFileCacheMaxIdleSeconds>")) {
+                } else if (tags.equals("<erddapDatasets></ncFileCacheMaxIdleSeconds>")) {
+                    int tnt = String2.parseInt(xmlReader.content());
+                    NcHelper.openFileCacheMaxIdleMillis = (tnt < 1 || tnt == Integer.MAX_VALUE? 
+                        NcHelper.DEFAULT_openFileCacheMaxIdleSeconds : tnt) * 1000L; 
+                    String2.log("ncFileCacheMaxIdleSeconds=" + (NcHelper.openFileCacheMaxIdleMillis / 1000));
+
+                } else if (tags.equals("<erddapDatasets><ncFileCacheMaxOpen>")) {
+                } else if (tags.equals("<erddapDatasets></ncFileCacheMaxOpen>")) {
+                    int tnt = String2.parseInt(xmlReader.content());
+                    NcHelper.openFileCacheMaxOpen = tnt < 0 || tnt == Integer.MAX_VALUE? 
+                        NcHelper.DEFAULT_openFileCacheMaxOpen : Math.min(tnt, 10000); 
+                    String2.log("ncFileCacheMaxOpen=" + NcHelper.openFileCacheMaxOpen);
+
                 } else if (tags.equals("<erddapDatasets><nGridThreads>")) {
                 } else if (tags.equals("<erddapDatasets></nGridThreads>")) {
                     int tnt = String2.parseInt(xmlReader.content());
@@ -577,8 +626,17 @@ public class LoadDatasets extends Thread {
                     int tnt = String2.parseInt(xmlReader.content());
                     EDStatic.nTableThreads = tnt < 1 || tnt == Integer.MAX_VALUE? 
                         EDStatic.DEFAULT_nTableThreads : tnt; 
+                    FileVisitorDNLS.nThreads = EDStatic.nTableThreads; //for walking big local directory trees
+                    AsciiChunkParser.nThreads = EDStatic.nTableThreads; //for parsing big ASCII files
                     String2.log("nTableThreads=" + EDStatic.nTableThreads);
 
+                } else if (tags.equals("<erddapDatasets><nTaskThreads>")) {
+                } else if (tags.equals("<erddapDatasets></nTaskThreads>")) {
+                    int tnt = String2.parseInt(xmlReader.content());
+                    EDStatic.nTaskThreads = tnt < 1 || tnt == Integer.MAX_VALUE? 
+                        EDStatic.DEFAULT_nTaskThreads : Math.min(tnt, 100); 
+                    String2.log("nTaskThreads=" + EDStatic.nTaskThreads);
+
                 } else if (tags.equals("<erddapDatasets><partialRequestMaxBytes>")) {
                 } else if (tags.equals("<erddapDatasets></partialRequestMaxBytes>")) {
                     int tnt = String2.parseInt(xmlReader.content());
@@ -597,6 +655,35 @@ public class LoadDatasets extends Thread {
                 } else if (tags.equals("<erddapDatasets></requestBlacklist>")) {
                     EDStatic.setRequestBlacklist(xmlReader.content());
 
+                } else if (tags.equals("<erddapDatasets><responseCacheMaxMB>")) {
+                } else if (tags.equals("<erddapDatasets></responseCacheMaxMB>")) {
+                    int tnt = String2.parseInt(xmlReader.content());
+                    tnt = tnt < 0 || tnt == Integer.MAX_VALUE? 
+                        EDStatic.DEFAULT_responseCacheMaxMB : tnt; 
+                    if (tnt != EDStatic.responseCacheMaxMB) {
+                        EDStatic.responseCacheMaxMB = tnt;
+                        ResponseCache.clear(); //entries may be too big for new budget
+                    }
+                    String2.log("responseCacheMaxMB=" + EDStatic.responseCacheMaxMB);
+
+                } else if (tags.equals("<erddapDatasets><responseCacheDiskMaxMB>")) {
+                } else if (tags.equals("<erddapDatasets></responseCacheDiskMaxMB>")) {
+                    int tnt = String2.parseInt(xmlReader.content());
+                    tnt = tnt < 0 || tnt == Integer.MAX_VALUE? 
+                        EDStatic.DEFAULT_responseCacheDiskMaxMB : tnt; 
+                    if (tnt != EDStatic.responseCacheDiskMaxMB) {
+                        EDStatic.responseCacheDiskMaxMB = tnt;
+                        ResponseCache.clear(); //entries may be too big for new budget
+                    }
+                    String2.log("responseCacheDiskMaxMB=" + EDStatic.responseCacheDiskMaxMB);
+
+                } else if (tags.equals("<erddapDatasets><responseCacheMaxSeconds>")) {
+                } else if (tags.equals("<erddapDatasets></responseCacheMaxSeconds>")) {
+                    int tnt = String2.parseInt(xmlReader.content());
+                    EDStatic.responseCacheMaxSeconds = tnt < 1 || tnt == Integer.MAX_VALUE? 
+                        EDStatic.DEFAULT_responseCacheMaxSeconds : tnt; 
+                    String2.log("responseCacheMaxSeconds=" + EDStatic.responseCacheMaxSeconds);
+
                 } else if (tags.equals("<erddapDatasets><slowDownTroubleMillis>")) {
                 } else if (tags.equals("<erddapDatasets></slowDownTroubleMillis>")) {
                     int tms = String2.parseInt(xmlReader.content());
@@ -608,6 +695,13 @@ public class LoadDatasets extends Thread {
                     if (EDStatic.subscriptionSystemActive)
                         EDStatic.subscriptions.setEmailBlacklist(xmlReader.content());
 
+                } else if (tags.equals("<erddapDatasets><sortMemoryMaxBytes>")) {
+                } else if (tags.equals("<erddapDatasets></sortMemoryMaxBytes>")) {
+                    int tnt = String2.parseInt(xmlReader.content());
+                    EDStatic.sortMemoryMaxBytes = tnt < 1000000 || tnt == Integer.MAX_VALUE? 
+                        EDStatic.DEFAULT_sortMemoryMaxBytes : tnt; 
+                    String2.log("sortMemoryMaxBytes=" + EDStatic.sortMemoryMaxBytes);
+
                 } else if (tags.equals("<erddapDatasets><standardLicense>")) {
                 } else if (tags.equals("<erddapDatasets></standardLicense>")) {
                     String ts = xmlReader.content();
@@ -677,6 +771,31 @@ public class LoadDatasets extends Thread {
                     EDStatic.startBodyHtml = ts; //swap into place
                     String2.log("startBodyHtml5 was set.");
 
+                } else if (tags.equals("<erddapDatasets><taskPriorities>")) {
+                } else if (tags.equals("<erddapDatasets></taskPriorities>")) {
+                    //e.g., datasetID1=10, datasetID2=-5
+                    String ts = xmlReader.content();
+                    String parts[] = String2.isSomething(ts)? 
+                        StringArray.arrayFromCSV(ts) : new String[0];
+                    HashMap<String,Integer> tPriorities = new HashMap();
+                    for (int i = 0; i < parts.length; i++) {
+                        int po = parts[i].indexOf('=');
+                        int tp = po < 0? Integer.MAX_VALUE : 
+                            String2.parseInt(parts[i].substring(po + 1).trim());
+                        if (tp == Integer.MAX_VALUE) 
+                            String2.log(String2.ERROR + " in datasets.xml: invalid <taskPriorities> item: " + parts[i]);
+                        else tPriorities.put(parts[i].substring(0, po).trim(), new Integer(tp));
+                    }
+                    EDStatic.taskQueue.setPriorities(tPriorities);
+                    String2.log("taskPriorities=" + tPriorities);
+
+                } else if (tags.equals("<erddapDatasets><taskThreadsMaxPerHost>")) {
+                } else if (tags.equals("<erddapDatasets></taskThreadsMaxPerHost>")) {
+                    int tnt = String2.parseInt(xmlReader.content());
+                    EDStatic.taskThreadsMaxPerHost = tnt < 1 || tnt == Integer.MAX_VALUE? 
+                        EDStatic.DEFAULT_taskThreadsMaxPerHost : tnt; 
+                    String2.log("taskThreadsMaxPerHost=" + EDStatic.taskThreadsMaxPerHost);
+
                 } else if (tags.equals("<erddapDatasets><theShortDescriptionHtml>")) {
                 } else if (tags.equals("<erddapDatasets></theShortDescriptionHtml>")) {
                     String ts = xmlReader.content();
@@ -701,6 +820,32 @@ public class LoadDatasets extends Thread {
                         EDStatic.DEFAULT_unusualActivity : tnt; 
                     String2.log("unusualActivity=" + EDStatic.unusualActivity);
 
+                } else if (tags.equals("<erddapDatasets><wmsPrerenderDatasetIDs>")) {
+                } else if (tags.equals("<erddapDatasets></wmsPrerenderDatasetIDs>")) {
+                    String ts = xmlReader.content();
+                    EDStatic.wmsPrerenderDatasetIDs = String2.isSomething(ts)?
+                        StringArray.arrayFromCSV(ts) : new String[0];
+                    String2.log("wmsPrerenderDatasetIDs=" + 
+                        String2.toCSSVString(EDStatic.wmsPrerenderDatasetIDs));
+
+                } else if (tags.equals("<erddapDatasets><wmsPrerenderMaxZoom>")) {
+                } else if (tags.equals("<erddapDatasets></wmsPrerenderMaxZoom>")) {
+                    int tnt = String2.parseInt(xmlReader.content());
+                    EDStatic.wmsPrerenderMaxZoom = tnt < 0 || tnt > 6? 
+                        EDStatic.DEFAULT_wmsPrerenderMaxZoom : tnt; 
+                    String2.log("wmsPrerenderMaxZoom=" + EDStatic.wmsPrerenderMaxZoom);
+
+                } else if (tags.equals("<erddapDatasets><wmsTileCacheMaxMB>")) {
+                } else if (tags.equals("<erddapDatasets></wmsTileCacheMaxMB>")) {
+                    int tnt = String2.parseInt(xmlReader.content());
+                    tnt = tnt < 0 || tnt == Integer.MAX_VALUE? 
+                        EDStatic.DEFAULT_wmsTileCacheMaxMB : tnt; 
+                    if (tnt != EDStatic.wmsTileCacheMaxMB) {
+                        EDStatic.wmsTileCacheMaxMB = tnt;
+                        WmsTileCache.clear(); //tiles may be too big for new budget
+                    }
+                    String2.log("wmsTileCacheMaxMB=" + EDStatic.wmsTileCacheMaxMB);
+
                 //<user username="bsimons" password="..." roles="admin, role1" />
                 //this mimics tomcat syntax
                 } else if (tags.equals("<erddapDatasets><user>")) { 
@@ -773,6 +918,14 @@ public class LoadDatasets extends Thread {
             updateLucene(erddap, changedDatasetIDs);
             lastLuceneUpdate = System.currentTimeMillis();
 
+            //first major load? build the searchIndex (in parallel) from all of the datasets
+            if (EDStatic.useIndexSearchEngine && majorLoad && !EDStatic.searchIndex.isReady()) {
+                ArrayList<EDD> edds = new ArrayList(erddap.gridDatasetHashMap.values());
+                edds.addAll(erddap.tableDatasetHashMap.values());
+                EDStatic.searchIndex.build(edds.toArray(new EDD[0]), 
+                    Runtime.getRuntime().availableProcessors());
+            }
+
             //atomic swap into place
             EDStatic.setUserHashMap(tUserHashMap); 
             //datasetsThatFailedToLoad only swapped into place if majorLoad (see below)
@@ -821,6 +974,7 @@ public class LoadDatasets extends Thread {
 
             //majorLoad?
             if (majorLoad) {
+                NcHelper.closeIdleCachedFiles();
                 String2.distribute(loadDatasetsTime, EDStatic.majorLoadDatasetsDistribution24);
                 String2.distribute(loadDatasetsTime, EDStatic.majorLoadDatasetsDistributionTotal);
                 //gc so getMemoryInUse more accurate
@@ -951,6 +1105,8 @@ public class LoadDatasets extends Thread {
                     EDStatic.tally.remove("Request refused: not authorized (since last daily report)");
                     EDStatic.tally.remove("Request refused: not enough memory currently (since last daily report)");
                     EDStatic.tally.remove("Request refused: not enough memory ever (since last daily report)");
+                    EDStatic.tally.remove("Request refused: server too busy (since last daily report)");
+                    EDStatic.tally.remove("Request refused: too many requests (since last daily report)");
                     EDStatic.tally.remove("Requester's IP Address (Allowed) (since last daily report)");
                     EDStatic.tally.remove("Requester's IP Address (Blacklisted) (since last daily report)");
                     EDStatic.tally.remove("Requester's IP Address (Failed) (since last daily report)");
@@ -1269,6 +1425,26 @@ public class LoadDatasets extends Thread {
     }
 
 
+    /** 
+     * If useIndexSearchEngine and the searchIndex has been built, 
+     * this updates the searchIndex for this dataset right away
+     * (adding/replacing it if it is loaded, else removing it).
+     * Until the searchIndex is built (at the end of the first major LoadDatasets),
+     * this does nothing.
+     *
+     * @param tDatasetID
+     */
+    public static void updateSearchIndex(Erddap erddap, String tDatasetID) {
+        if (!EDStatic.useIndexSearchEngine || !EDStatic.searchIndex.isReady())
+            return;
+        EDD edd = erddap.gridDatasetHashMap.get(tDatasetID);
+        if (edd == null) 
+            edd = erddap.tableDatasetHashMap.get(tDatasetID);
+        if (edd == null) 
+            EDStatic.searchIndex.remove(tDatasetID);
+        else EDStatic.searchIndex.add(edd);
+    }
+
     /** Given a newline separated string in sb, this keeps the newest approximately keepLines. */
     static void removeOldLines(StringBuffer sb, int keepLines, int lineLength) {
         if (sb.length() > (keepLines+1) * lineLength) {
@@ -1311,7 +1487,10 @@ public class LoadDatasets extends Thread {
         String2.log("*** unloading datasetID=" + tId);
         addRemoveDatasetInfo(REMOVE, erddap.categoryInfo, oldEdd); 
         File2.deleteAllFiles(EDD.cacheDirectory(tId));
+        ResponseCache.remove(tId);
+        WmsTileCache.remove(tId);
         changedDatasetIDs.add(tId);
+        updateSearchIndex(erddap, tId);
         if (needToUpdateLucene)
             updateLucene(erddap, changedDatasetIDs);
         //do dataset actions so subscribers know it is gone
@@ -11,6 +11,7 @@ import com.cohort.util.Math2;
 import com.cohort.util.MustBe;
 import com.cohort.util.String2;
 
+import gov.noaa.pfel.coastwatch.griddata.NcHelper;
 import gov.noaa.pfel.erddap.dataset.EDD;
 import gov.noaa.pfel.erddap.util.*;
 
@@ -275,6 +276,9 @@ public class RunLoadDatasets extends Thread {
                         }
                     } 
 
+                    //close NcHelper's idle and changed cached files
+                    NcHelper.closeIdleCachedFiles();
+
                     //sleep for 5 seconds   
                     //(make this adjustable? only penalty to smaller is frequency of checking flag dir)
                     try {
@@ -316,6 +320,9 @@ public class RunLoadDatasets extends Thread {
                     if (isInterrupted()) 
                         break whileNotInterrupted;
 
+                    //close NcHelper's idle and changed cached files
+                    NcHelper.closeIdleCachedFiles();
+
                     //sleep for 10 seconds   
                     try {
                         //don't use Math2.sleep since want to detect InterruptedException
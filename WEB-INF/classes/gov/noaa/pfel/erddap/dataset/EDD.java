@@ -1247,6 +1247,15 @@ public abstract class EDD {
         return decompressedDirectory(datasetID);
     }
 
+    /** 
+     * The directory in which the indexes of this dataset's compressed source files
+     * (see CompressedFileIndex) are stored (with "/" at end): 
+     * a subdirectory of datasetDir(), next to fileTable.nc.
+     */
+    public String compressedIndexDirectory() {
+        return datasetDir() + "compressedIndex/";
+    }
+
     /** The directory to be used for a cache of decompressed files for this dataset (with "/" at end).
      */
     public static String decompressedDirectory(String tDatasetID) {
@@ -2445,7 +2454,12 @@ public abstract class EDD {
 
         //updateLock is locked by this thread.   Do the update!
         try {
-            return lowUpdate(msg, startUpdateMillis);
+            boolean changed = lowUpdate(msg, startUpdateMillis);
+            if (changed) {
+                ResponseCache.remove(datasetID); //cached responses may be out-of-date
+                WmsTileCache.datasetChanged(datasetID); //and WMS images
+            }
+            return changed;
 
         } finally {  
             lastUpdate = startUpdateMillis;     //say dataset is now up-to-date (or at least tried)
@@ -2601,7 +2615,9 @@ public abstract class EDD {
     }
 
     /**
-     * This makes/returns the searchBytes that originalSearchEngine searchRank searches.
+     * This makes/returns the searchBytes that originalSearchEngine searchRank searches
+     * (and that searchEngine=index indexes, and searches via searchRank until 
+     * the index is built).
      *
      * @return the searchBytes that searchRank searches.
      */
@@ -2609,8 +2625,8 @@ public abstract class EDD {
 
         if (searchBytes == null) {
             byte tSearchBytes[] = String2.stringToUtf8Bytes(searchString().toLowerCase());
-            if (EDStatic.useOriginalSearchEngine)
-                searchBytes = tSearchBytes; //cache it
+            if (EDStatic.useOriginalSearchEngine || EDStatic.useIndexSearchEngine)
+                searchBytes = tSearchBytes; //cache it (the SearchIndex shares it)
             else return tSearchBytes;       //don't cache it (10^6 datasets?!) (uses should be rare)
             //was NOT_ORIGINAL_SEARCH_ENGINE_BYTES;
         }
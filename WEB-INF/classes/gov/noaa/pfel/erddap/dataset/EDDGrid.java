@@ -129,7 +129,7 @@ public abstract class EDDGrid extends EDD {
     public final static String[] dataFileTypeNames = {  
         //If add new type and not actual-data type (e.g., .das), 
         //  add to graphsAccessibleToFileTypeNames below
-        ".asc", ".csv", ".csvp", ".csv0", ".das", ".dds", ".dods", 
+        ".arrow", ".asc", ".csv", ".csvp", ".csv0", ".das", ".dds", ".dods", 
         ".esriAscii", //".grd", ".hdf", 
         ".fgdc", ".graph", ".help", ".html", ".htmlTable",
         ".iso19115", ".itx", ".json", 
@@ -140,7 +140,7 @@ public abstract class EDDGrid extends EDD {
         ".odvTxt", ".timeGaps", ".tsv", ".tsvp", ".tsv0", 
         ".wav", ".xhtml"};
     public final static String[] dataFileTypeExtensions = {
-        ".asc", ".csv", ".csv", ".csv", ".das", ".dds", ".dods", 
+        ".arrow", ".asc", ".csv", ".csv", ".csv", ".das", ".dds", ".dods", 
         ".asc", //".grd", ".hdf", 
         ".xml", ".html", ".html", ".html", ".html",
         ".xml", ".itx", ".json", 
@@ -152,6 +152,7 @@ public abstract class EDDGrid extends EDD {
         ".txt", ".asc", ".tsv", ".tsv", ".tsv", 
         ".wav", ".xhtml"};
     public static String[] dataFileTypeDescriptions = {
+        EDStatic.fileHelp_arrow,
         EDStatic.fileHelp_asc,
         EDStatic.fileHelp_csv,
         EDStatic.fileHelp_csvp,
@@ -192,6 +193,7 @@ public abstract class EDDGrid extends EDD {
         };
     //These are encoded for use as HTML attributes (href)
     public static String[] dataFileTypeInfo = {  //"" if not available
+        "https://arrow.apache.org/docs/format/Columnar.html#ipc-streaming-format", //arrow
         "https://docs.opendap.org/index.php/UserGuideOPeNDAPMessages#ASCII_Service", //OPeNDAP ascii
         //csv: also see https://www.ietf.org/rfc/rfc4180.txt
         "https://en.wikipedia.org/wiki/Comma-separated_values", //csv was "http://www.creativyst.com/Doc/Articles/CSV/CSV01.htm", 
@@ -415,6 +417,36 @@ public abstract class EDDGrid extends EDD {
         return null;
     }
 
+    /**
+     * GridDataAccessor calls this to find the maximum size of each partial request
+     * (the data gotten from the source by one call to getSourceData).
+     * This returns EDStatic.partialRequestMaxBytes.
+     * Subclasses that read local files (e.g., EDDGridFromFiles) override this
+     * to return a smaller size when nThreads &gt; 1, so the threads can work
+     * in parallel. Remote sources (e.g., EDDGridFromDap) don't,
+     * since each partial request is another request to the remote server.
+     *
+     * @param tNThreads the number of threads that will get the data (1 or more)
+     * @param tTotalNBytes the number of bytes of data in the whole request
+     * @return the preferred maximum number of bytes per partial request
+     */
+    public int preferredPartialRequestMaxBytes(int tNThreads, long tTotalNBytes) {
+        return EDStatic.partialRequestMaxBytes;
+    }
+
+    /**
+     * If the subclass is EDDGridFromFiles or EDDGridCopy and all of the source
+     * files have the same number of leftmost axis values, this returns that number,
+     * so GridDataAccessor can make partial requests which stay within one file.
+     * Other subclasses return -1.
+     *
+     * @param tFileTable the fileTable from getFileTable() (may be null)
+     * @return the number of leftmost axis values in each source file, or -1 if unknown or it varies.
+     */
+    public int leftmostAxisNValuesPerFile(Table tFileTable) {
+        return -1;
+    }
+
 
     /**
      * If dimensionValuesInMemory=false, the constructor should call this after 
@@ -2282,6 +2314,11 @@ public abstract class EDDGrid extends EDD {
             String tErddapUrl = EDStatic.erddapUrl(loggedInAs);
 
             //save data to outputStream
+            if (fileTypeName.equals(".arrow")) {
+                saveAsArrow(requestUrl, userDapQuery, outputStreamSource);
+                return;
+            }
+
             if (fileTypeName.equals(".asc")) {
                 saveAsAsc(requestUrl, userDapQuery, outputStreamSource);
                 return;
@@ -4443,6 +4480,94 @@ public abstract class EDDGrid extends EDD {
     }
 
 
+    /**
+     * This gets the data for the userDapQuery and writes it to the outputStream
+     * as an Apache Arrow IPC stream (see TableWriterArrow).
+     * For grid data, each chunk of data from the GridDataAccessor becomes 
+     * one record batch, with a column for each axis variable (expanded to 
+     * the rows of the chunk) and a column for each data variable,
+     * so the data is never all in memory and isn't handled value by value.
+     * 
+     * @param requestUrl the part of the user's request, after EDStatic.baseUrl, before '?'.
+     * @param userDapQuery an OPeNDAP DAP-style query string, still percentEncoded (shouldn't be null).
+     *   e.g., ATssta[45:1:45][0:1:0][120:10:140][130:10:160]
+     * @param outputStreamSource the source of an outputStream (usually already 
+     *   buffered) to receive the results.
+     *   At the end of this method the outputStream is flushed, not closed.
+     * @throws Throwable  if trouble. 
+     */
+    public void saveAsArrow(String requestUrl, String userDapQuery, 
+        OutputStreamSource outputStreamSource) throws Throwable {
+
+        if (reallyVerbose) String2.log("  EDDGrid.saveAsArrow"); 
+        long time = System.currentTimeMillis();
+
+        //get dataAccessor first, in case of error when parsing query
+        boolean isAxisDapQuery = isAxisDapQuery(userDapQuery);
+        AxisDataAccessor ada = null;
+        GridDataAccessor gda = null;
+        if (isAxisDapQuery) 
+             ada = new AxisDataAccessor(this, requestUrl, userDapQuery);
+        else gda = new GridDataAccessor(this, requestUrl, userDapQuery, 
+            true, false);   //rowMajor, convertToNaN 
+
+        //write the data to the tableWriter
+        TableWriterArrow tw = new TableWriterArrow(this, 
+            getNewHistory(requestUrl, userDapQuery), outputStreamSource);
+        if (isAxisDapQuery) {
+            saveAsTableWriter(ada, tw);
+        } else {
+            try {
+                int nAv = axisVariables.length;
+                EDV queryDataVariables[] = gda.dataVariables();
+                int nDv = queryDataVariables.length;
+                int partialShape[] = gda.partialIndex().shape(); //1's on left since rowMajor
+                int nRows = (int)gda.partialIndex().size(); //a partial request is < 2GB
+                PAOne avPAOne[] = new PAOne[nAv];
+                for (int av = 0; av < nAv; av++) 
+                    avPAOne[av] = new PAOne(axisVariables[av].destinationDataPAType());
+                while (gda.incrementChunk()) {
+                    int start[] = gda.totalIndex().getCurrent();
+                    Table table = new Table();
+
+                    //axis values: in row major order, value k of axis av
+                    //is repeated nInner times, nOuter times
+                    int nOuter = 1;
+                    for (int av = 0; av < nAv; av++) {
+                        int nInner = nRows / nOuter / partialShape[av];
+                        PrimitiveArray axisValues = gda.axisValues(av);
+                        PrimitiveArray pa = PrimitiveArray.factory(
+                            avPAOne[av].paType(), nRows, false);
+                        for (int outer = 0; outer < nOuter; outer++) 
+                            for (int k = 0; k < partialShape[av]; k++) 
+                                pa.addNPAOnes(nInner, avPAOne[av].readFrom(axisValues, start[av] + k));
+                        table.addColumn(av, axisVariables[av].destinationName(), pa, 
+                            gda.axisAttributes(av));
+                        nOuter *= partialShape[av];
+                    }
+
+                    for (int dv = 0; dv < nDv; dv++) 
+                        table.addColumn(nAv + dv, queryDataVariables[dv].destinationName(), 
+                            gda.getPartialDataValues(dv), gda.dataAttributes(dv));
+
+                    tw.writeSome(table);
+                    if (tw.noMoreDataPlease) {
+                        tw.logCaughtNoMoreDataPlease(datasetID);
+                        break;
+                    }
+                }
+                tw.finish();
+            } finally {
+                gda.releaseResources();
+            }
+        }
+
+        //diagnostic
+        if (reallyVerbose)
+            String2.log("  EDDGrid.saveAsArrow done. nRecordBatches=" + tw.nRecordBatches +
+                " TIME=" + (System.currentTimeMillis() - time) + "ms\n");
+    }
+
     /**
      * This gets the data for the userDapQuery and writes the grid data to the 
      * outputStream in the DODS ASCII data format, which is not defined in OPeNDAP 2.0,
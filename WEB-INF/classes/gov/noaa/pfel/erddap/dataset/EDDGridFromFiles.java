@@ -76,6 +76,16 @@ public abstract class EDDGridFromFiles extends EDDGrid{
     /** Don't set this to true here.  Some test methods set this to true temporarily. */
     protected static boolean testQuickRestart = false;
 
+    /**
+     * When nThreads &gt; 1 and the files are local, preferredPartialRequestMaxBytes
+     * tries to split each request into about CHUNKS_PER_THREAD partial requests per thread 
+     * (so the threads stay busy even if some take longer than others),
+     * but they won't be smaller than MIN_CHUNK_BYTES 
+     * (so the per-request overhead stays small).
+     */
+    public final static int CHUNKS_PER_THREAD = 4;
+    public final static int MIN_CHUNK_BYTES = 4 * Math2.BytesPerMB;
+
     /** Columns in the File Table */
     protected final static int 
         FT_DIR_INDEX_COL=0, //useful that it is #0   (tFileTable uses same positions)
@@ -1220,7 +1230,11 @@ public abstract class EDDGridFromFiles extends EDDGrid{
         }
 
         //dirTable and fileTable InMemory?
-        if (!fileTableInMemory) {
+        if (fileTableInMemory) {
+            //they are read-only from here on, so use less memory
+            dirTable.compactStringColumns();
+            fileTable.compactStringColumns();
+        } else {
             dirTable = null;
             fileTable = null;
         }
@@ -1719,6 +1733,8 @@ public abstract class EDDGridFromFiles extends EDDGrid{
             saveDirTableFileTableBadFiles(-1, tDirTable, tFileTable, badFileMap); //throws Throwable
             if (fileTableInMemory) {
                 //quickly swap into place
+                tDirTable.compactStringColumns();
+                tFileTable.compactStringColumns();
                 dirTable  = tDirTable;
                 fileTable = tFileTable; 
             }
@@ -1815,6 +1831,50 @@ public abstract class EDDGridFromFiles extends EDDGrid{
         return tFileTable;
     }
 
+    /**
+     * GridDataAccessor calls this to find the maximum size of each partial request.
+     * If nThreads &gt; 1 and the files are local, this returns a smaller size
+     * than EDStatic.partialRequestMaxBytes, so the threads can read different
+     * files at the same time. Up to nThreads partial requests are in memory at once,
+     * so each is at most 1/nThreads of partialRequestMaxBytes.
+     *
+     * @param tNThreads the number of threads that will get the data (1 or more)
+     * @param tTotalNBytes the number of bytes of data in the whole request
+     * @return the preferred maximum number of bytes per partial request
+     */
+    public int preferredPartialRequestMaxBytes(int tNThreads, long tTotalNBytes) {
+        int max = EDStatic.partialRequestMaxBytes;
+        if (tNThreads <= 1 || !filesAreLocal)
+            return max;
+        long target = Math.max(MIN_CHUNK_BYTES, 
+            Math.min(max / tNThreads,
+                tTotalNBytes / (tNThreads * CHUNKS_PER_THREAD) + 1));
+        return (int)Math.min(max, target);
+    }
+
+    /**
+     * If all of the source files have the same number of leftmost axis values
+     * (and so file f has leftmost source indices [f*n, (f+1)*n) ), 
+     * this returns that number.
+     *
+     * @param tFileTable the fileTable from getFileTable() (may be null)
+     * @return the number of leftmost axis values in each source file, or -1 if it varies.
+     */
+    public int leftmostAxisNValuesPerFile(Table tFileTable) {
+        if (tFileTable == null || tFileTable.nRows() == 0)
+            return -1;
+        IntArray ftNValues     = (IntArray)tFileTable.getColumn(FT_N_VALUES_COL);
+        IntArray ftStartIndex  = (IntArray)tFileTable.getColumn(FT_START_INDEX_COL);
+        int n = ftNValues.get(0);
+        int nRows = tFileTable.nRows();
+        for (int row = 0; row < nRows; row++) {
+            if (ftNValues.get(row) != n ||
+                ftStartIndex.get(row) != (long)row * n)
+                return -1;
+        }
+        return n;
+    }
+
     /** 
      * Try to load the dirTable or fileTable.
      *
@@ -1960,6 +2020,30 @@ public abstract class EDDGridFromFiles extends EDDGrid{
         }
     }
 
+    /**
+     * This returns the name of the file to be read: the source file or, if it is 
+     * compressed, a decompressed copy in decompressedDirectory()
+     * (see FileVisitorDNLS.decompressIfNeeded).
+     *
+     * @param tFullName the full name of the source file
+     * @return the full name of the file to be read
+     * @throws Exception if trouble
+     */
+    protected String decompressIfNeeded(String tFullName) throws Exception {
+        return FileVisitorDNLS.decompressIfNeeded(tFullName, fileDir, 
+            decompressedDirectory(), EDStatic.decompressedCacheMaxGB, 
+            true, //reuseExisting
+            compressedIndexDirectory(), readsCompressedFilesInMemory());
+    }
+
+    /**
+     * Subclasses whose low-level readers open files with NcHelper.openFile
+     * (which can read small compressed files into memory) return true.
+     */
+    protected boolean readsCompressedFilesInMemory() {
+        return false;
+    }
+
     /**
      * This gets sourceGlobalAttributes and sourceDataAttributes from the specified 
      * source file (or does nothing if that isn't possible).
@@ -1990,9 +2074,7 @@ public abstract class EDDGridFromFiles extends EDDGrid{
 
             //if using temporary cache system, ensure file is in cache
             ensureInCache(tFileDir + tFileName); //throws Exception 
-            String decompFullName = FileVisitorDNLS.decompressIfNeeded(
-                tFileDir + tFileName, fileDir, decompressedDirectory(), 
-                EDStatic.decompressedCacheMaxGB, true); //reuseExisting
+            String decompFullName = decompressIfNeeded(tFileDir + tFileName);
             lowGetSourceMetadata(decompFullName, 
                 tSourceAxisNames, tSourceDataNames, tSourceDataTypes,
                 tSourceGlobalAttributes, tSourceAxisAttributes, tSourceDataAttributes);
@@ -2032,9 +2114,7 @@ public abstract class EDDGridFromFiles extends EDDGrid{
             System.arraycopy(tSourceAxisAttributes, 1, tSAAtts, 0, nAxes - 1);            
             //if using temporary cache system, ensure file is in cache
             ensureInCache(tFileDir + tFileName); //throws Exception 
-            String decompFullName = FileVisitorDNLS.decompressIfNeeded(
-                tFileDir + tFileName, fileDir, decompressedDirectory(), 
-                EDStatic.decompressedCacheMaxGB, true); //reuseExisting
+            String decompFullName = decompressIfNeeded(tFileDir + tFileName);
             lowGetSourceMetadata(decompFullName, 
                 sourceAxisNamesNoAxis0, tSourceDataNames, tSourceDataTypes,
                 tSourceGlobalAttributes, tSAAtts, tSourceDataAttributes);
@@ -2084,9 +2164,7 @@ public abstract class EDDGridFromFiles extends EDDGrid{
         if (axis0Type == AXIS0_REGULAR) {
             //if using temporary cache system, ensure file is in cache
             ensureInCache(tFileDir + tFileName); //throws Exception 
-            String decompFullName = FileVisitorDNLS.decompressIfNeeded(
-                tFileDir + tFileName, fileDir, decompressedDirectory(), 
-                EDStatic.decompressedCacheMaxGB, true); //reuseExisting
+            String decompFullName = decompressIfNeeded(tFileDir + tFileName);
             return lowGetSourceAxisValues(decompFullName, sourceAxisNames);
         }
         
@@ -2119,9 +2197,7 @@ public abstract class EDDGridFromFiles extends EDDGrid{
                 //get the axisValues for dimensions[1+]
                 //if using temporary cache system, ensure file is in cache
                 ensureInCache(tFileDir + tFileName); //throws Exception 
-                String decompFullName = FileVisitorDNLS.decompressIfNeeded(
-                    tFileDir + tFileName, fileDir, decompressedDirectory(), 
-                    EDStatic.decompressedCacheMaxGB, true); //reuseExisting
+                String decompFullName = decompressIfNeeded(tFileDir + tFileName);
                 PrimitiveArray tsav[] = lowGetSourceAxisValues(decompFullName, 
                     sourceAxisNamesNoAxis0);
                 System.arraycopy(tsav, 0, nsav, 1, nAxes - 1);            
@@ -2137,9 +2213,7 @@ public abstract class EDDGridFromFiles extends EDDGrid{
             } else {
                 Attributes sGlobalAtts = new Attributes();
                 ensureInCache(tFileDir + tFileName); //throws Exception   //probably already there (from above)
-                String decompFullName = FileVisitorDNLS.decompressIfNeeded(
-                    tFileDir + tFileName, fileDir, decompressedDirectory(), 
-                    EDStatic.decompressedCacheMaxGB, true); //reuseExisting
+                String decompFullName = decompressIfNeeded(tFileDir + tFileName);
                 lowGetSourceMetadata(decompFullName, 
                     new StringArray(), //sourceAxisNames,
                     new StringArray(), //sourceDataNames
@@ -2196,9 +2270,7 @@ public abstract class EDDGridFromFiles extends EDDGrid{
 
         //if using temporary cache system, ensure file is in cache
         ensureInCache(tFileDir + tFileName); //throws Exception 
-        String decompFullName = FileVisitorDNLS.decompressIfNeeded(
-            tFileDir + tFileName, fileDir, decompressedDirectory(), 
-            EDStatic.decompressedCacheMaxGB, true); //reuseExisting
+        String decompFullName = decompressIfNeeded(tFileDir + tFileName);
 
         if (axis0Type == AXIS0_REGULAR ||
             axis0Type == AXIS0_REPLACE_FROM_FILENAME) 
@@ -11729,6 +11729,69 @@ expected =
         Math2.gc(10000);
     }
 
+    /**
+     * This tests how GridDataAccessor splits a request into partial requests
+     * (partialShape and the number of chunks) for nThreads=1, 2, and 8,
+     * and GridDataAccessor.leftmostNPerChunk.
+     * This doesn't get any data.
+     *
+     * @throws Throwable if trouble
+     */
+    public static void testGridDataAccessorChunks() throws Throwable {
+        String2.log("\n*** EDDGridFromNcFiles.testGridDataAccessorChunks()\n");
+
+        //leftmostNPerChunk(nPerFile, start, stride, n, nBytesPerValue, maxBytes)
+        Test.ensureEqual(GridDataAccessor.leftmostNPerChunk(-1, 0, 1, 10, 100, 2000),  1, ""); //varies
+        Test.ensureEqual(GridDataAccessor.leftmostNPerChunk( 1, 0, 1, 10, 100, 2000),  1, ""); //1 per file
+        Test.ensureEqual(GridDataAccessor.leftmostNPerChunk(10, 0, 1, 10, 100, 2000), 10, ""); //1 file per chunk
+        Test.ensureEqual(GridDataAccessor.leftmostNPerChunk(10, 0, 1, 10, 100, 1000),  5, ""); //too big, so half a file
+        Test.ensureEqual(GridDataAccessor.leftmostNPerChunk(10, 0, 1, 30, 100, 5000), 10, ""); //never >1 file
+        Test.ensureEqual(GridDataAccessor.leftmostNPerChunk( 4, 0, 1, 10, 100, 2000),  2, ""); //last file is partial
+        Test.ensureEqual(GridDataAccessor.leftmostNPerChunk(10, 5, 1, 10, 100, 2000),  1, ""); //starts mid-file
+        Test.ensureEqual(GridDataAccessor.leftmostNPerChunk(10, 21, 2, 10, 100, 2000), 5, ""); //stride 2
+        Test.ensureEqual(GridDataAccessor.leftmostNPerChunk(10, 0, 3, 10, 100, 2000),  1, ""); //stride 3 doesn't fit files
+
+        //testGriddedNcFiles has 10 files, each with 1 time.
+        //x_wind[time = 10][altitude = 1][latitude = 720][longitude = 1440] is float
+        String id = "testGriddedNcFiles";
+        EDDGrid eddGrid = (EDDGrid)oneFromDatasetsXml(null, id); 
+        Test.ensureEqual(eddGrid.leftmostAxisNValuesPerFile(eddGrid.getFileTable()), 1, "");
+        long sliceBytes = 720 * 1440 * 4;  //4,147,200 bytes per time
+        int oPartialRequestMaxBytes = EDStatic.partialRequestMaxBytes;
+        int oNThreads = eddGrid.nThreads;
+        try {
+            EDStatic.partialRequestMaxBytes = 100000000;
+            int tNThreads[]             = {1,           2,       8};
+            int expectedPreferred[]     = {100000000,   5184001, EDDGridFromFiles.MIN_CHUNK_BYTES};
+            String expectedPartialShape[] = {
+                "10, 1, 720, 1440", "1, 1, 720, 1440", "1, 1, 720, 1440"};
+            long expectedNChunks[]      = {1,           10,      10};
+            for (int i = 0; i < tNThreads.length; i++) {
+                String msg = "nThreads=" + tNThreads[i];
+                eddGrid.nThreads = tNThreads[i];
+                Test.ensureEqual(eddGrid.preferredPartialRequestMaxBytes(tNThreads[i], 10 * sliceBytes),
+                    expectedPreferred[i], msg);
+                GridDataAccessor gda = new GridDataAccessor(eddGrid, "/griddap/" + id + ".csv", 
+                    "x_wind[0:9][][][]", true, false); //rowMajor, convertToNaN
+                try {
+                    Test.ensureEqual(String2.toCSSVString(gda.partialIndex().shape()), 
+                        expectedPartialShape[i], msg);
+                    Test.ensureEqual(gda.driverIndex().size(), expectedNChunks[i], msg);
+                    Test.ensureEqual(gda.totalNBytes(), 10 * sliceBytes, msg);
+                    long chunkBytes = gda.partialIndex().size() * 4;
+                    Test.ensureTrue(chunkBytes < EDStatic.partialRequestMaxBytes, msg);
+                    //the chunks in memory at once fit in partialRequestMaxBytes
+                    Test.ensureTrue(chunkBytes * tNThreads[i] <= EDStatic.partialRequestMaxBytes, msg);
+                } finally {
+                    gda.releaseResources();
+                }
+            }
+        } finally {
+            EDStatic.partialRequestMaxBytes = oPartialRequestMaxBytes;
+            eddGrid.nThreads = oNThreads;
+        }
+    }
+
     /**
      * This tests the /files/ "files" system.
      * This requires nceiPH53sstn1day in the local ERDDAP.
@@ -12060,6 +12123,7 @@ if (test == 33) testUnsignedGrid();  //not finished test of unsigned PAType
                     if (test == 45) testIgor();
                     if (test == 46) testBadNcFile(false);  //runIncrediblySlowTest?
                     if (test == 47) testInvalidShortenedNcFile();
+                    if (test == 48) testGridDataAccessorChunks();
 
                     if (test == 50 && doSlowTestsToo) testBigRequestSpeed(3, ".dods", 895847390, 20000); //expected bytes, ms. Also testNThreads.
                     if (test == 51 && doSlowTestsToo) testNThreads(3);
@@ -76,6 +76,11 @@ public abstract class EDDGridFromNcLow extends EDDGridFromFiles {
         return false;
     } 
 
+    /** NcHelper.openFile can read small compressed files into memory. */
+    protected boolean readsCompressedFilesInMemory() {
+        return true;
+    }
+
 
     /** Used by Bob only. Don't set this to true here -- do it in the calling code. */
     public static boolean generateDatasetsXmlCoastwatchErdMode = false;
@@ -283,7 +288,7 @@ public abstract class EDDGridFromNcLow extends EDDGridFromFiles {
         int nValues = -1; //not yet calculated
         EDV edv = null;
 
-        NetcdfFile ncFile = NcHelper.openFile(tFullName); //may throw exception
+        NetcdfFile ncFile = NcHelper.openCachedFile(tFullName); //may throw exception
         try {
 
             for (int dvi = 0; dvi < ndv; dvi++) {
@@ -333,18 +338,13 @@ public abstract class EDDGridFromNcLow extends EDDGridFromFiles {
                 }
             }
 
-            //I care about this exception
-            ncFile.close();
+            //keep it open (in NcHelper's cache) for the next request
+            NcHelper.releaseCachedFile(ncFile, true);
             return paa;
 
         } catch (Throwable t) {
-            //make sure it is explicitly closed
-            try {   
-                ncFile.close();    
-            } catch (Throwable t2) {
-                String2.log("Error while trying to close " + tFullName +
-                    "\n" + MustBe.throwableToShortString(t2));
-            }  
+            //make sure it is explicitly closed (its state is unknown)
+            NcHelper.releaseCachedFile(ncFile, false);
 
             String2.log("ERROR: while reading sourceName=" +
                 (edv == null? "null" : edv.sourceName()) + 
@@ -171,7 +171,7 @@ public abstract class EDDTable extends EDD {
     public final static String[] dataFileTypeNames = {  
         //If add new type and not actual-data type (e.g., .das), 
         //  add to graphsAccessibleToFileTypeNames below
-        ".asc", ".csv", ".csvp", ".csv0", ".dataTable", ".das", ".dds", 
+        ".arrow", ".asc", ".csv", ".csvp", ".csv0", ".dataTable", ".das", ".dds", 
         ".dods", ".esriCsv", ".fgdc", ".geoJson", ".graph", ".help", ".html", 
         ".htmlTable", ".iso19115", ".itx", ".json", 
         ".jsonlCSV1", ".jsonlCSV", ".jsonlKVP", ".mat", 
@@ -181,7 +181,7 @@ public abstract class EDDTable extends EDD {
         ".odvTxt", ".SDNodvTxt", ".subset", ".tsv", ".tsvp", ".tsv0", 
         ".wav", ".xhtml"};
     public final static String[] dataFileTypeExtensions = {
-        ".asc", ".csv", ".csv", ".csv", ".json", ".das", ".dds", 
+        ".arrow", ".asc", ".csv", ".csv", ".csv", ".json", ".das", ".dds", 
         ".dods", ".csv", ".xml", ".json", ".html", ".html", ".html", 
         ".html", ".xml", ".itx", ".json", 
         ".jsonl", ".jsonl", ".jsonl", ".mat", 
@@ -192,6 +192,7 @@ public abstract class EDDTable extends EDD {
         ".wav", ".xhtml"};
     //These all used to have " (It may take a while. Please be patient.)" at the end.
     public static String[] dataFileTypeDescriptions = {
+        EDStatic.fileHelp_arrow,
         EDStatic.fileHelp_asc,
         EDStatic.fileHelp_csv,
         EDStatic.fileHelp_csvp,
@@ -236,6 +237,7 @@ public abstract class EDDTable extends EDD {
     };
     //These are encoded for use as HTML attributes (href)
     public static String[] dataFileTypeInfo = {  //"" if not available
+        "https://arrow.apache.org/docs/format/Columnar.html#ipc-streaming-format", //arrow
         "https://docs.opendap.org/index.php/UserGuideOPeNDAPMessages#ASCII_Service", //OPeNDAP ascii
         //csv: also see https://www.ietf.org/rfc/rfc4180.txt
         "https://en.wikipedia.org/wiki/Comma-separated_values", //csv was "http://www.creativyst.com/Doc/Articles/CSV/CSV01.htm", 
@@ -2967,7 +2969,9 @@ public abstract class EDDTable extends EDD {
         TableWriterAllWithMetadata twawm = null;
         String tNewHistory = getNewHistory(requestUrl, userDapQuery);
         String jsonp = null;
-        if (fileTypeName.equals(".asc")) 
+        if (fileTypeName.equals(".arrow")) 
+            tableWriter = new TableWriterArrow(this, tNewHistory, outputStreamSource);
+        else if (fileTypeName.equals(".asc")) 
             tableWriter = new TableWriterDodsAscii(this, tNewHistory, outputStreamSource, SEQUENCE_NAME);
         else if (fileTypeName.equals(".csv")) 
             tableWriter = new TableWriterSeparatedValue(this, tNewHistory, outputStreamSource, ",", true, true, '2', "NaN");
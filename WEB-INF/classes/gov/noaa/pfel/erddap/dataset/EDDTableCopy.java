@@ -296,13 +296,9 @@ public class EDDTableCopy extends EDDTable{
             try {
                 //check if taskThread has finished previously assigned tasks for this dataset
                 EDStatic.ensureTaskThreadIsRunningIfNeeded();  //ensure info is up-to-date
-                Integer lastAssignedTask = (Integer)EDStatic.lastAssignedTask.get(datasetID);
-                boolean pendingTasks = lastAssignedTask != null &&  
-                    EDStatic.lastFinishedTask < lastAssignedTask.intValue();
+                boolean pendingTasks = EDStatic.hasPendingTasks(datasetID);
                 if (verbose) 
-                    String2.log("  lastFinishedTask=" + EDStatic.lastFinishedTask + 
-                        " < lastAssignedTask(" + tDatasetID + ")=" + lastAssignedTask + 
-                        "? pendingTasks=" + pendingTasks);
+                    String2.log("  pendingTasks(" + tDatasetID + ")=" + pendingTasks);
                 if (!pendingTasks) {
 
                     //get the distinct() combination of values for tExtractDestinationNames
@@ -372,7 +368,7 @@ public class EDDTableCopy extends EDDTable{
                         taskOA[3] = fileDir.toString(); //string, not StringBuilder
                         taskOA[4] = fileName;
                         taskOA[5] = ".nc";
-                        int tTaskNumber = EDStatic.addTask(taskOA);
+                        int tTaskNumber = EDStatic.addTask(datasetID, taskOA);
                         if (tTaskNumber >= 0) {
                             taskNumber = tTaskNumber;
                             if (reallyVerbose)
@@ -386,7 +382,7 @@ public class EDDTableCopy extends EDDTable{
                         Object taskOA[] = new Object[2];
                         taskOA[0] = TaskThread.TASK_SET_FLAG;
                         taskOA[1] = datasetID;
-                        taskNumber = EDStatic.addTask(taskOA); //TASK_SET_FLAG will always be added
+                        taskNumber = EDStatic.addTask(datasetID, taskOA); //TASK_SET_FLAG will always be added
                         if (reallyVerbose)
                             String2.log("  task#" + taskNumber + " TASK_SET_FLAG " + datasetID);
                     }
@@ -396,7 +392,6 @@ public class EDDTableCopy extends EDDTable{
                     MustBe.throwableToString(t));
             }
             if (taskNumber >= 0) {
-                EDStatic.lastAssignedTask.put(datasetID, new Integer(taskNumber));
                 EDStatic.ensureTaskThreadIsRunningIfNeeded();  //clients (like this class) are responsible for checking on it
             }
         }
@@ -178,6 +178,20 @@ public class EDDTableFromAsciiFiles extends EDDTableFromFiles {
             //Just return an empty table. There is never any metadata.
             return Table.makeEmptyTable(sourceDataNames.toArray(), sourceDataTypes);
 
+        //numeric types which readASCII can parse directly (others are read as Strings)
+        int nSourceDataNames = sourceDataNames.size();
+        PAType loadColumnTypes[] = new PAType[nSourceDataNames];
+        for (int sd = 0; sd < nSourceDataNames; sd++) {
+            String tType = sourceDataTypes[sd];
+            loadColumnTypes[sd] = 
+                tType.equals("double")? PAType.DOUBLE :
+                tType.equals("float")?  PAType.FLOAT  :
+                tType.equals("long")?   PAType.LONG   :
+                tType.equals("int")?    PAType.INT    :
+                tType.equals("short")?  PAType.SHORT  :
+                tType.equals("byte")?   PAType.BYTE   : PAType.STRING;
+        }
+
         Table table = new Table();
         table.allowRaggedRightInReadASCII = true;
         table.readASCII(tFileDir + tFileName, charset, 
@@ -185,7 +199,8 @@ public class EDDTableFromAsciiFiles extends EDDTableFromFiles {
             columnSeparator, 
             null, null, null, //testColumns, testMin, testMax,
             sourceDataNames.toArray(), //loadColumns, 
-            false); //don't simplify; just get the strings
+            loadColumnTypes,
+            false); //don't simplify
 
         //convert to desired sourceDataTypes
         int nCols = table.nColumns();
@@ -194,7 +209,8 @@ public class EDDTableFromAsciiFiles extends EDDTableFromFiles {
             if (sd >= 0) {
                 PrimitiveArray pa = table.getColumn(tc);
                 String tType = sourceDataTypes[sd];
-                if (tType.equals("String")) { //do nothing
+                if (tType.equals("String") || 
+                    pa.elementType() != PAType.STRING) { //do nothing (already parsed)
                 } else if (tType.equals("boolean")) {
                     table.setColumn(tc, ByteArray.toBooleanToByte(pa));
                 } else { 
@@ -6458,6 +6474,104 @@ String expected =
         } 
     }
 
+    /**
+     * This tests that a load which is interrupted part way through leaves a 
+     * _checkpoint_ fileTable, that the next load only re-reads the files after 
+     * the checkpoint (and isn't a quickRestart), and that _checkpoint_ is 
+     * removed once a load completes.
+     */
+    public static void testCheckpoint() throws Throwable {
+        String2.log("\n*** EDDTableFromAsciiFiles.testCheckpoint()\n");
+        String tID = "testCheckpoint";
+        String tDir = EDStatic.fullTestCacheDirectory + tID + "/";
+        String fileTableName = EDD.datasetDir(tID) + FILE_TABLE_FILENAME;
+        int nFiles = 10;
+        int nBefore = 4;
+        File2.makeDirectory(tDir);
+        File2.deleteAllFiles(tDir);
+        for (int i = 0; i < nFiles; i++) 
+            Test.ensureEqual(String2.writeToFile(tDir + "checkpoint" + String2.zeroPad("" + i, 2) + ".csv",
+                "station,value\ns" + i + "," + i + "\n"), "", "");
+        String xml = 
+"<dataset type=\"EDDTableFromAsciiFiles\" datasetID=\"" + tID + "\" active=\"true\">\n" +
+"    <reloadEveryNMinutes>10080</reloadEveryNMinutes>\n" +
+"    <fileDir>" + tDir + "</fileDir>\n" +
+"    <fileNameRegex>checkpoint.*\\.csv</fileNameRegex>\n" +
+"    <recursive>false</recursive>\n" +
+"    <columnNamesRow>1</columnNamesRow>\n" +
+"    <firstDataRow>2</firstDataRow>\n" +
+"    <fileTableInMemory>false</fileTableInMemory>\n" +
+"    <addAttributes>\n" +
+"        <att name=\"cdm_data_type\">Other</att>\n" +
+"        <att name=\"Conventions\">COARDS, CF-1.6, ACDD-1.3</att>\n" +
+"        <att name=\"infoUrl\">https://coastwatch.pfeg.noaa.gov/erddap</att>\n" +
+"        <att name=\"institution\">NOAA NMFS SWFSC ERD</att>\n" +
+"        <att name=\"license\">[standard]</att>\n" +
+"        <att name=\"summary\">A test of the fileTable checkpoint.</att>\n" +
+"        <att name=\"title\">Test Checkpoint</att>\n" +
+"    </addAttributes>\n" +
+"    <dataVariable>\n" +
+"        <sourceName>station</sourceName>\n" +
+"        <destinationName>station</destinationName>\n" +
+"        <dataType>String</dataType>\n" +
+"        <addAttributes>\n" +
+"            <att name=\"ioos_category\">Identifier</att>\n" +
+"        </addAttributes>\n" +
+"    </dataVariable>\n" +
+"    <dataVariable>\n" +
+"        <sourceName>value</sourceName>\n" +
+"        <destinationName>value</destinationName>\n" +
+"        <dataType>int</dataType>\n" +
+"        <addAttributes>\n" +
+"            <att name=\"ioos_category\">Unknown</att>\n" +
+"        </addAttributes>\n" +
+"    </dataVariable>\n" +
+"</dataset>\n";
+
+        long oCheckpointEveryNMillis = EDDTableFromFiles.checkpointEveryNMillis;
+        try {
+            //checkpoint before every file, then interrupt after nBefore files have been read
+            EDD.deleteCachedDatasetInfo(tID);
+            EDDTableFromFiles.checkpointEveryNMillis = 0;
+            EDDTableFromFiles.testInterruptAfterNReadFiles = nBefore;
+            String results = "";
+            try {
+                oneFromXmlFragment(null, xml);
+            } catch (Throwable t) {
+                results = t.toString();
+            }
+            Test.ensureTrue(results.indexOf(EDStatic.caughtInterrupted) >= 0, "results=" + results);
+            Table table = new Table();
+            table.readEnhancedFlatNc(fileTableName, null);
+            Test.ensureEqual(table.nRows(), nBefore, "");
+            Test.ensureEqual(table.globalAttributes().getString(_checkpoint_), 
+                nBefore + " of " + nFiles, "");
+
+            //a checkpoint fileTable isn't quickRestarted and only the files after the checkpoint are read
+            EDDTableFromFiles.testInterruptAfterNReadFiles = -1;
+            EDDTableFromFiles.testQuickRestart = true;
+            EDDTableFromFiles edd = (EDDTableFromFiles)oneFromXmlFragment(null, xml);
+            Test.ensureTrue(edd.filesChanged.indexOf(
+                "data files that were read: " + (nFiles - nBefore) + ".\n") >= 0, 
+                "filesChanged=" + edd.filesChanged);
+
+            //a complete load removes _checkpoint_, so the next load can be a quickRestart
+            table = new Table();
+            table.readEnhancedFlatNc(fileTableName, null);
+            Test.ensureEqual(table.nRows(), nFiles, "");
+            Test.ensureEqual(table.globalAttributes().get(_checkpoint_), null, "");
+            edd = (EDDTableFromFiles)oneFromXmlFragment(null, xml);
+            Test.ensureEqual(edd.filesChanged, "", "");
+            Test.ensureEqual(edd.getFileTable().nRows(), nFiles, "");
+
+        } finally {
+            EDDTableFromFiles.checkpointEveryNMillis = oCheckpointEveryNMillis;
+            EDDTableFromFiles.testInterruptAfterNReadFiles = -1;
+            EDDTableFromFiles.testQuickRestart = false;
+            EDD.deleteCachedDatasetInfo(tID);
+        }
+    }
+
 
     /**
      * This runs all of the interactive or not interactive tests for this class.
@@ -6473,7 +6587,7 @@ String expected =
     public static void test(StringBuilder errorSB, boolean interactive, 
         boolean doSlowTestsToo, int firstTest, int lastTest) {
         if (lastTest < 0)
-            lastTest = interactive? -1 : 15;
+            lastTest = interactive? -1 : 16;
         String msg = "\n^^^ EDDTableFromAsciiFiles.test(" + interactive + ") test=";
 
         boolean deleteCachedDatasetInfo = false; //usually false, rarely true
@@ -6503,6 +6617,7 @@ String expected =
                     if (test == 13) testTimeRange2();
                     if (test == 14) testStandardizeWhat();
                     if (test == 15) testFiles();
+                    if (test == 16) testCheckpoint();
 
                     //not usually run
                     if (test == 1000) testQuickRestart();
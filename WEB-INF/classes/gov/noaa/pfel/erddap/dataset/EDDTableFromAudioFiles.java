@@ -128,7 +128,8 @@ public class EDDTableFromAudioFiles extends EDDTableFromFiles {
         Table table = new Table();
         String decompFullName = FileVisitorDNLS.decompressIfNeeded(
             tFileDir + tFileName, fileDir, decompressedDirectory(), 
-            EDStatic.decompressedCacheMaxGB, true); //reuseExisting
+            EDStatic.decompressedCacheMaxGB, true, //reuseExisting
+            compressedIndexDirectory(), false); //inMemoryOk
         table.readAudioFile(decompFullName, mustGetData, true); //addElapsedTime
 
         //unpack
@@ -255,13 +255,21 @@ import gov.noaa.pfel.erddap.variable.*;
 //Changes to Java driver:
 //  https://github.com/datastax/java-driver/tree/3.0/upgrade_guide
 import com.datastax.driver.core.*;
+import com.datastax.driver.core.exceptions.NoHostAvailableException;
+import com.datastax.driver.core.exceptions.OperationTimedOutException;
+import com.datastax.driver.core.exceptions.ReadTimeoutException;
+import com.datastax.driver.core.exceptions.UnavailableException;
 
 import java.io.BufferedReader;
 import java.io.StringReader;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -306,6 +314,45 @@ public class EDDTableFromCassandra extends EDDTable{
     //http://www.datastax.com/documentation/cql/3.1/cql/cql_reference/escape_char_r.html
     protected String columnNameQuotes = "";  // empty string (default) or "
     protected boolean isListDV[]; //true if this dataVariable is a list dataType, e.g., doubleList
+    protected int nThreads; //the max number of partition queries in flight at once (via executeAsync)
+    protected boolean keepPartitionOrder; //if nThreads>1, write results in partitionKey order?
+
+    /** 
+     * The default max number of partition queries in flight at once 
+     * (if the dataset doesn't have an nThreads tag). 
+     * This is independent of EDStatic.nTableThreads, since these queries
+     * use the cluster's resources, not ERDDAP's threads.
+     */
+    public final static int DEFAULT_N_THREADS = 1;
+
+    /** The max number of times a partition query is retried (if it times out or the cluster is unavailable). */
+    public static int maxPartitionRetries = 2;
+
+    //statistics for partition queries (for the status page and daily report)
+    //These are guarded by synchronized(partitionQueryTimeDistribution).
+    private static int partitionQueryTimeDistribution[] = new int[String2.DistributionSize];
+    private static long nPartitionQueries = 0, nPartitionRetries = 0, nPartitionFailures = 0;
+
+    /** This runs a listener in the thread that completed the future. */
+    private final static Executor SAME_THREAD = new Executor() {
+        public void execute(Runnable runnable) {runnable.run();}
+    };
+
+    /** One partition query (for one row of the pkdTable) in async mode. */
+    private static class PartitionQuery {
+        int pkdRow;
+        Statement statement;
+        ResultSetFuture future;
+        long startMillis;
+        volatile long doneMillis;
+        int nTries = 0;
+
+        /** The time from the start of the last try until it finished (or until now). */
+        long elapsedMillis() {
+            long tDone = doneMillis; //the listener may not have run yet
+            return (tDone > 0? tDone : System.currentTimeMillis()) - startMillis;
+        }
+    }
 
     //public static String testUser = "postgres";
     //public static String testUrl = "jdbc:postgresql://localhost:5432/mydatabase";
@@ -361,6 +408,8 @@ public class EDDTableFromCassandra extends EDDTable{
         String tDefaultGraphQuery = null;
         String tAddVariablesWhere = null;
         String tPartitionKeyCSV = null;
+        int tNThreads = Integer.MAX_VALUE;
+        boolean tKeepPartitionOrder = true;
 
         //process the tags
         String startOfTags = xmlReader.allTags();
@@ -406,6 +455,10 @@ public class EDDTableFromCassandra extends EDDTable{
             else if (localTags.equals("</columnNameQuotes>")) tColumnNameQuotes = content; 
             else if (localTags.equals( "<partitionKeyCSV>")) {}
             else if (localTags.equals("</partitionKeyCSV>")) tPartitionKeyCSV = content; 
+            else if (localTags.equals( "<nThreads>")) {}
+            else if (localTags.equals("</nThreads>")) tNThreads = String2.parseInt(content); 
+            else if (localTags.equals( "<keepPartitionOrder>")) {}
+            else if (localTags.equals("</keepPartitionOrder>")) tKeepPartitionOrder = String2.parseBoolean(content); 
             else if (localTags.equals( "<sourceNeedsExpandedFP_EQ>")) {}
             else if (localTags.equals("</sourceNeedsExpandedFP_EQ>")) tSourceNeedsExpandedFP_EQ = String2.parseBoolean(content); 
             else if (localTags.equals( "<onChange>")) {}
@@ -444,7 +497,7 @@ public class EDDTableFromCassandra extends EDDTable{
                 tIndexColumnSourceNames,
                 tPartitionKeyCSV,
                 tMaxRequestFraction, tColumnNameQuotes,
-                tSourceNeedsExpandedFP_EQ);
+                tSourceNeedsExpandedFP_EQ, tNThreads, tKeepPartitionOrder);
     }
 
 
@@ -453,6 +506,10 @@ public class EDDTableFromCassandra extends EDDTable{
      * The constructor. See general documentation in EDDTable.java and 
      * specific documentation in setupDatasetsXml.html.
      * 
+     * @param tNThreads the max number of partition queries in flight at once.
+     *    Invalid values (e.g., Integer.MAX_VALUE) mean DEFAULT_N_THREADS.
+     * @param tKeepPartitionOrder if true (the default), results are written
+     *    in partitionKey order even if nThreads &gt; 1.
      * @throws Throwable if trouble
      */
     public EDDTableFromCassandra(String tDatasetID, 
@@ -469,7 +526,7 @@ public class EDDTableFromCassandra extends EDDTable{
         String tIndexColumnSourceNames,
         String tPartitionKeyCSV,
         double tMaxRequestFraction, String tColumnNameQuotes,
-        boolean tSourceNeedsExpandedFP_EQ
+        boolean tSourceNeedsExpandedFP_EQ, int tNThreads, boolean tKeepPartitionOrder
         ) throws Throwable {
 
         if (verbose) String2.log(
@@ -498,6 +555,8 @@ public class EDDTableFromCassandra extends EDDTable{
         publicSourceUrl = "(Cassandra)"; //not tLocalSourceUrl; keep it private
         addGlobalAttributes.set("sourceUrl", publicSourceUrl);  
         partitionKeyCSV = String2.isSomething(tPartitionKeyCSV)? tPartitionKeyCSV : null;
+        nThreads = tNThreads >= 1 && tNThreads < Integer.MAX_VALUE? tNThreads : DEFAULT_N_THREADS;
+        keepPartitionOrder = tKeepPartitionOrder;
 
         //connectionProperties may have secret (username and password)!
         //So use then throw away.
@@ -1301,97 +1360,45 @@ public class EDDTableFromCassandra extends EDDTable{
         int triggerNRows = EDStatic.partialRequestMaxCells / nRv;
         Table table = makeEmptySourceTable(rvToResultsEDV, triggerNRows + 1000); 
 
-        //make a call to Cassandra for each row in pkdTable 
+        //make a call to Cassandra for each row in pkdTable
         //(each relevant distinct combination of partitionKey values)
         int stats[] = new int[4]; //all 0's
-        for (int pkdRow = 0; pkdRow < pkdTableNRows; pkdRow++) { //chunks will be in sorted order, yea!
-
-            if (Thread.currentThread().isInterrupted())
-                throw new SimpleException("EDDTableFromCassandra.getDataForDapQuery" + 
-                    EDStatic.caughtInterrupted);
-        
-            //Make the BoundStatement
-            //***!!! This method avoids CQL/SQL Injection Vulnerability !!!***
-            //(see https://en.wikipedia.org/wiki/SQL_injection) by using
-            //preparedStatements (so String values are properly escaped and
-            //numbers are assured to be numbers).
-            //*** Plus, the statement is reused many times (so Prepared is recommended).
-            BoundStatement boundStatement = new BoundStatement(preparedStatement);
-
-            //assign values to nPartitionKeys constraints then nCon constraints
-            StringBuilder requestSB = reallyVerbose? 
-                new StringBuilder(">> statement: pkdRow=" + pkdRow + ", ") : 
-                null;
-            for (int i = 0; i < nPartitionKeys + nCon; i++) { 
-                boolean usePK = i < nPartitionKeys;
-                int coni = i - nPartitionKeys; //which con to use: only used if not !usePK
-
-                EDV edv = usePK? partitionKeyEDV[i] : conEDV[coni];
-                PrimitiveArray pa = usePK? pkdPA[i] : null;
-                PAType tPAType = edv.sourceDataPAType();
-                String conVal = usePK? null : constraintValues.get(coni);
-                if (requestSB != null)
-                    requestSB.append(edv.sourceName() + " is " + 
-                        (usePK? pa.getDouble(pkdRow) : conVal) + ", ");
-
-                //handle special cases first
-                if (edv instanceof EDVTimeStamp) {
-                    boundStatement.setTimestamp(i, //partition key value won't be nan/null                
-                        new Date(Math.round(
-                            (usePK? pa.getDouble(pkdRow) : String2.parseDouble(conVal)) 
-                            * 1000))); //round to nearest milli
-
-                } else if (edv.isBoolean()) {
-                    boundStatement.setBool(i, 
-                        (usePK? pa.getInt(pkdRow) == 1 : String2.parseBoolean(conVal)));
-                } else if (tPAType == PAType.DOUBLE ||
-                           tPAType == PAType.ULONG) {  //trouble: loss of precision
-                    boundStatement.setDouble(i, 
-                        (usePK? pa.getDouble(pkdRow) : String2.parseDouble(conVal)));
-                } else if (tPAType == PAType.FLOAT) {
-                    boundStatement.setFloat(i, 
-                        (usePK? pa.getFloat(pkdRow) : String2.parseFloat(conVal)));
-                } else if (tPAType == PAType.LONG ||
-                           tPAType == PAType.UINT) {  //???
-                    boundStatement.setLong(i, 
-                        (usePK? pa.getLong(pkdRow) : String2.parseLong(conVal)));
-                } else if (tPAType == PAType.INT  ||    
-                           tPAType == PAType.SHORT  || 
-                           tPAType == PAType.USHORT ||  //???
-                           tPAType == PAType.BYTE   ||
-                           tPAType == PAType.UBYTE) {   //???
-                    boundStatement.setInt(i, 
-                        (usePK? pa.getInt(pkdRow) : String2.parseInt(conVal))); 
-                } else {
-                    String val = usePK? pa.getString(pkdRow) : conVal;
-                    if (tPAType == PAType.STRING)   
-                        boundStatement.setString(i, val);
-                    else if (tPAType == PAType.CHAR)
-                        boundStatement.setString(i, 
-                            val.length() == 0? "\u0000" : val.substring(0, 1)); //FFFF??? 
-                    else throw new RuntimeException(
-                        "Unexpected dataType=" + edv.sourceDataType() + 
-                        "for var=" + edv.destinationName() + ".");            
-                }
+        int tnThreads = nThreads;
+        int partitionRetries[] = new int[1];
+        long partitionMaxMillis[] = new long[1];
+        if (tnThreads <= 1 || pkdTableNRows <= 1) {
+            for (int pkdRow = 0; pkdRow < pkdTableNRows; pkdRow++) { //chunks will be in sorted order, yea!
+
+                if (Thread.currentThread().isInterrupted())
+                    throw new SimpleException("EDDTableFromCassandra.getDataForDapQuery" +
+                        EDStatic.caughtInterrupted);
+
+                BoundStatement boundStatement = makeBoundStatement(preparedStatement,
+                    pkdRow, pkdPA, conEDV, constraintValues);
+
+                //get the data
+                long tTime = System.currentTimeMillis();
+                table = getDataForCassandraQuery(loggedInAs, requestUrl, userDapQuery,
+                    resultsDVI, rvToResultsEDV, session, boundStatement,
+                    table, tableWriter, stats);
+                tTime = System.currentTimeMillis() - tTime;
+                partitionMaxMillis[0] = Math.max(partitionMaxMillis[0], tTime);
+                recordPartitionQuery(tTime, false);
+                if (tableWriter.noMoreDataPlease)
+                    break;
             }
-            //boundStatement.toString() is useless
-            if (requestSB != null)
-                String2.log(requestSB.toString());
-
-            //get the data
-            //FUTURE: I think this could be parallelized. See EDDTableFromFiles.
-            table = getDataForCassandraQuery(loggedInAs, requestUrl, userDapQuery,
-                resultsDVI, rvToResultsEDV, session, boundStatement, 
-                table, tableWriter, stats);
-            if (tableWriter.noMoreDataPlease) 
-                break;
+        } else {
+            table = getDataForCassandraQueriesAsync(loggedInAs, requestUrl, userDapQuery,
+                resultsDVI, rvToResultsEDV, preparedStatement, pkdTableNRows,
+                pkdPA, conEDV, constraintValues, tnThreads,
+                table, tableWriter, stats, partitionRetries, partitionMaxMillis);
         }
 
         //write any data remaining in table
         //C* doesn't seem to have resultSet.close, statement.close(), ...
         //(In any case, gc should close them.)
         if (!tableWriter.noMoreDataPlease) {
-            preStandardizeResultsTable(loggedInAs, table); 
+            preStandardizeResultsTable(loggedInAs, table);
             if (table.nRows() > 0) {
                 //String2.log("preStandardize=\n" + table.dataToString());
                 standardizeResultsTable(requestUrl, userDapQuery, table);
@@ -1400,13 +1407,262 @@ public class EDDTableFromCassandra extends EDDTable{
             }
         }
         if (verbose) String2.log("* Cassandra stats: partitionKeyTable: " +
-            pkdTableNRows + "/" + oPkdTableNRows + "=" + fraction + " <= " + 
+            pkdTableNRows + "/" + oPkdTableNRows + "=" + fraction + " <= " +
                 maxRequestFraction +
-            " nCassRows=" + stats[1] + " nErddapRows=" + stats[2] + 
-            " nRowsToUser=" + stats[3]);
+            " nCassRows=" + stats[1] + " nErddapRows=" + stats[2] +
+            " nRowsToUser=" + stats[3] +
+            " nThreads=" + tnThreads +
+            " nRetries=" + partitionRetries[0] +
+            " maxPartitionTime=" + partitionMaxMillis[0] + "ms");
         tableWriter.finish();
     }
 
+    /**
+     * This makes the BoundStatement for one partition query.
+     *
+     * <p>This method avoids CQL/SQL Injection Vulnerability
+     * (see https://en.wikipedia.org/wiki/SQL_injection) by using
+     * preparedStatements (so String values are properly escaped and
+     * numbers are assured to be numbers).
+     * Plus, the statement is reused many times (so Prepared is recommended).
+     *
+     * @param preparedStatement the statement with nPartitionKeys + nCon '?'
+     * @param pkdRow the row in the partitionKeysDistinctTable
+     * @param pkdPA the partitionKeysDistinctTable's columns
+     * @param conEDV the EDV of each constraint
+     * @param constraintValues the value of each constraint
+     * @return the BoundStatement
+     */
+    protected BoundStatement makeBoundStatement(PreparedStatement preparedStatement,
+        int pkdRow, PrimitiveArray pkdPA[], EDV conEDV[], StringArray constraintValues) {
+
+        BoundStatement boundStatement = new BoundStatement(preparedStatement);
+        int nCon = conEDV.length;
+
+        //assign values to nPartitionKeys constraints then nCon constraints
+        StringBuilder requestSB = reallyVerbose?
+            new StringBuilder(">> statement: pkdRow=" + pkdRow + ", ") :
+            null;
+        for (int i = 0; i < nPartitionKeys + nCon; i++) {
+            boolean usePK = i < nPartitionKeys;
+            int coni = i - nPartitionKeys; //which con to use: only used if not !usePK
+
+            EDV edv = usePK? partitionKeyEDV[i] : conEDV[coni];
+            PrimitiveArray pa = usePK? pkdPA[i] : null;
+            PAType tPAType = edv.sourceDataPAType();
+            String conVal = usePK? null : constraintValues.get(coni);
+            if (requestSB != null)
+                requestSB.append(edv.sourceName() + " is " +
+                    (usePK? pa.getDouble(pkdRow) : conVal) + ", ");
+
+            //handle special cases first
+            if (edv instanceof EDVTimeStamp) {
+                boundStatement.setTimestamp(i, //partition key value won't be nan/null
+                    new Date(Math.round(
+                        (usePK? pa.getDouble(pkdRow) : String2.parseDouble(conVal))
+                        * 1000))); //round to nearest milli
+
+            } else if (edv.isBoolean()) {
+                boundStatement.setBool(i,
+                    (usePK? pa.getInt(pkdRow) == 1 : String2.parseBoolean(conVal)));
+            } else if (tPAType == PAType.DOUBLE ||
+                       tPAType == PAType.ULONG) {  //trouble: loss of precision
+                boundStatement.setDouble(i,
+                    (usePK? pa.getDouble(pkdRow) : String2.parseDouble(conVal)));
+            } else if (tPAType == PAType.FLOAT) {
+                boundStatement.setFloat(i,
+                    (usePK? pa.getFloat(pkdRow) : String2.parseFloat(conVal)));
+            } else if (tPAType == PAType.LONG ||
+                       tPAType == PAType.UINT) {  //???
+                boundStatement.setLong(i,
+                    (usePK? pa.getLong(pkdRow) : String2.parseLong(conVal)));
+            } else if (tPAType == PAType.INT  ||
+                       tPAType == PAType.SHORT  ||
+                       tPAType == PAType.USHORT ||  //???
+                       tPAType == PAType.BYTE   ||
+                       tPAType == PAType.UBYTE) {   //???
+                boundStatement.setInt(i,
+                    (usePK? pa.getInt(pkdRow) : String2.parseInt(conVal)));
+            } else {
+                String val = usePK? pa.getString(pkdRow) : conVal;
+                if (tPAType == PAType.STRING)
+                    boundStatement.setString(i, val);
+                else if (tPAType == PAType.CHAR)
+                    boundStatement.setString(i,
+                        val.length() == 0? "\u0000" : val.substring(0, 1)); //FFFF???
+                else throw new RuntimeException(
+                    "Unexpected dataType=" + edv.sourceDataType() +
+                    "for var=" + edv.destinationName() + ".");
+            }
+        }
+        //boundStatement.toString() is useless
+        if (requestSB != null)
+            String2.log(requestSB.toString());
+        return boundStatement;
+    }
+
+    /**
+     * This gets the data for all of the partition queries (one per row of the
+     * pkdTable) via session.executeAsync, with up to nThreads queries in flight at once,
+     * and may write some data to the tablewriter.
+     * If keepPartitionOrder, the results are processed in pkdRow order;
+     * otherwise, they are processed in the order that the queries finish.
+     * A query which times out or finds the cluster unavailable is retried
+     * (up to maxPartitionRetries times).
+     * This doesn't call tableWriter.finish();
+     *
+     * @param table May have some not-yet-tableWritten data when coming in.
+     *   May have some not-yet-tableWritten data when returning.
+     * @param stats see getDataForCassandraQuery
+     * @param partitionRetries is int[1]. This adds the number of retries.
+     * @param partitionMaxMillis is long[1]. This sets it to the max time for one partition query.
+     * @return the same or a different table (usually with some results rows)
+     * @throws Throwable if trouble
+     */
+    protected Table getDataForCassandraQueriesAsync(
+        String loggedInAs, String requestUrl, String userDapQuery,
+        int resultsDVI[], EDV rvToResultsEDV[],
+        PreparedStatement preparedStatement, int pkdTableNRows,
+        PrimitiveArray pkdPA[], EDV conEDV[], StringArray constraintValues, int tnThreads,
+        Table table, TableWriter tableWriter, int[] stats,
+        int[] partitionRetries, long[] partitionMaxMillis) throws Throwable {
+
+        ArrayDeque<PartitionQuery> inFlight = new ArrayDeque(); //in pkdRow order
+        final LinkedBlockingQueue<PartitionQuery> finished = new LinkedBlockingQueue();
+        int nextPkdRow = 0;
+        try {
+            while (true) {
+                //keep up to tnThreads queries in flight
+                while (nextPkdRow < pkdTableNRows && inFlight.size() < tnThreads) {
+                    PartitionQuery pq = new PartitionQuery();
+                    pq.pkdRow = nextPkdRow++;
+                    pq.statement = makeBoundStatement(preparedStatement,
+                        pq.pkdRow, pkdPA, conEDV, constraintValues);
+                    executeAsync(pq, keepPartitionOrder? null : finished);
+                    inFlight.add(pq);
+                }
+                if (inFlight.isEmpty())
+                    break;
+
+                //get a finished query
+                PartitionQuery pq;
+                if (keepPartitionOrder) {
+                    pq = inFlight.peekFirst();
+                    try {
+                        pq.future.get(); //waits
+                    } catch (ExecutionException ee) {
+                        //deal with it below
+                    }
+                } else {
+                    pq = finished.take(); //waits
+                }
+
+                ResultSet rs;
+                try {
+                    rs = pq.future.get(); //it's done, so this doesn't wait
+                } catch (ExecutionException ee) {
+                    Throwable t = ee.getCause() == null? ee : ee.getCause();
+                    boolean retryable =
+                        t instanceof ReadTimeoutException ||
+                        t instanceof OperationTimedOutException ||
+                        t instanceof UnavailableException ||
+                        t instanceof NoHostAvailableException;
+                    if (retryable && pq.nTries <= maxPartitionRetries) {
+                        String2.log("EDDTableFromCassandra(" + datasetID +
+                            ") retrying partition query for pkdRow=" + pq.pkdRow +
+                            " after " + t.toString());
+                        partitionRetries[0]++;
+                        recordPartitionRetry();
+                        executeAsync(pq, keepPartitionOrder? null : finished); //it stays in inFlight
+                        continue;
+                    }
+                    recordPartitionQuery(pq.elapsedMillis(), true);
+                    throw t;
+                }
+                inFlight.remove(pq);
+                long tTime = pq.elapsedMillis();
+                partitionMaxMillis[0] = Math.max(partitionMaxMillis[0], tTime);
+                recordPartitionQuery(tTime, false);
+
+                if (Thread.currentThread().isInterrupted())
+                    throw new SimpleException("EDDTableFromCassandra.getDataForDapQuery" +
+                        EDStatic.caughtInterrupted);
+
+                //process the results
+                table = processCassandraResultSet(loggedInAs, requestUrl, userDapQuery,
+                    resultsDVI, rvToResultsEDV, rs, table, tableWriter, stats);
+                if (tableWriter.noMoreDataPlease)
+                    break;
+            }
+        } finally {
+            //cancel any queries still in flight (e.g., if trouble or noMoreDataPlease)
+            for (PartitionQuery pq : inFlight)
+                pq.future.cancel(true);
+        }
+        return table;
+    }
+
+    /**
+     * This starts (or restarts) an async partition query.
+     *
+     * @param pq the partition query
+     * @param finished if not null, pq will be added to this when it finishes
+     */
+    private void executeAsync(final PartitionQuery pq,
+        final LinkedBlockingQueue<PartitionQuery> finished) {
+        pq.nTries++;
+        pq.startMillis = System.currentTimeMillis();
+        pq.doneMillis = 0;
+        final ResultSetFuture future = session.executeAsync(pq.statement);
+        pq.future = future;
+        future.addListener(new Runnable() {
+            public void run() {
+                pq.doneMillis = System.currentTimeMillis();
+                if (finished != null)
+                    finished.add(pq);
+            }
+        }, SAME_THREAD);
+    }
+
+    /**
+     * This records the statistics for one partition query 
+     * when it is finished (successfully or not, after any retries).
+     *
+     * @param millis the time its last try took
+     * @param failed true if this query failed
+     */
+    private static void recordPartitionQuery(long millis, boolean failed) {
+        synchronized(partitionQueryTimeDistribution) {
+            String2.distribute(millis, partitionQueryTimeDistribution);
+            nPartitionQueries++;
+            if (failed)
+                nPartitionFailures++;
+        }
+    }
+
+    /** This records that a partition query is being retried. */
+    private static void recordPartitionRetry() {
+        synchronized(partitionQueryTimeDistribution) {
+            nPartitionRetries++;
+        }
+    }
+
+    /**
+     * This returns a string with statistics about partition queries
+     * (for the status page and daily report).
+     *
+     * @return a string with statistics
+     */
+    public static String partitionQueryStatsString() {
+        synchronized(partitionQueryTimeDistribution) {
+            return "EDDTableFromCassandra partition queries: n=" + nPartitionQueries +
+                ", nRetries=" + nPartitionRetries +
+                ", nFailures=" + nPartitionFailures +
+                (nPartitionQueries == 0? "" :
+                    ", time: " + String2.getBriefDistributionStatistics(partitionQueryTimeDistribution));
+        }
+    }
+
 
     /** 
      * This executes the query statement and may write some data to the tablewriter. 
@@ -1429,6 +1685,27 @@ public class EDDTableFromCassandra extends EDDTable{
 
         //execute the statement
         ResultSet rs = session.execute(statement);
+        return processCassandraResultSet(loggedInAs, requestUrl, userDapQuery,
+            resultsDVI, rvToResultsEDV, rs, table, tableWriter, stats);
+    }
+
+    /** 
+     * This processes the resultSet from one query and may write some data to the tablewriter. 
+     * This doesn't call tableWriter.finish();
+     *
+     * @param resultsDVI dataVariables[i] (DVI) for each resultsVariable
+     * @param rs the resultSet from session.execute or executeAsync
+     * @param table May have some not-yet-tableWritten data when coming in.
+     *   May have some not-yet-tableWritten data when returning.
+     * @param stats is int[4]. stats[0]++; stats[1]+=nRows; stats[2]+=nExpandedRows; 
+     *    stats[3]+=nRowsAfterStandardize
+     * @return the same or a different table (usually with some results rows)
+     */
+    public Table processCassandraResultSet(
+        String loggedInAs, String requestUrl, String userDapQuery, 
+        int resultsDVI[], EDV rvToResultsEDV[], ResultSet rs,
+        Table table, TableWriter tableWriter, int[] stats) throws Throwable {
+
         ColumnDefinitions columnDef = rs.getColumnDefinitions();
         int nColumnDef = columnDef.size();
         stats[0]++;
@@ -3536,6 +3813,47 @@ expected =
         }
     }
 
+    /**
+     * This tests that async partition queries (nThreads &gt; 1) get the same results 
+     * as sequential queries, in partitionKey order or (if !keepPartitionOrder) any order.
+     *
+     * @throws Throwable if trouble
+     */
+    public static void testAsync() throws Throwable {
+        String2.log("\n*** EDDTableFromCassandra.testAsync");
+        testVerboseOn();
+        String dir = EDStatic.fullTestCacheDirectory;
+        String query = "deviceid,sampletime,cascii&deviceid>=1001";
+
+        EDDTableFromCassandra tedd = (EDDTableFromCassandra)oneFromDatasetsXml(null, 
+            "cass_bobKeyspace_bobTable"); 
+        tedd.nThreads = 1;
+        String tName = tedd.makeNewFileForDapQuery(null, null, query,
+            dir, tedd.className() + "_async1", ".csv"); 
+        String expected = String2.directReadFrom88591File(dir + tName);
+        Test.ensureTrue(expected.indexOf("1001,") > 0 && expected.indexOf("1008,") > 0, 
+            "expected=\n" + expected);
+
+        //in order
+        tedd.nThreads = 3;
+        tedd.keepPartitionOrder = true;
+        tName = tedd.makeNewFileForDapQuery(null, null, query,
+            dir, tedd.className() + "_async3", ".csv"); 
+        String results = String2.directReadFrom88591File(dir + tName);
+        Test.ensureEqual(results, expected, "\nresults=\n" + results);
+
+        //any order
+        tedd.keepPartitionOrder = false;
+        tName = tedd.makeNewFileForDapQuery(null, null, query + "&orderBy(\"deviceid,sampletime\")",
+            dir, tedd.className() + "_async3any", ".csv"); 
+        results = String2.directReadFrom88591File(dir + tName);
+        Test.ensureEqual(results, expected, "\nresults=\n" + results);
+
+        results = partitionQueryStatsString();
+        String2.log(results);
+        Test.ensureTrue(results.indexOf("nFailures=0") > 0, "results=\n" + results);
+    }
+
     /**
      * This is like testBasic, but on a dataset with 2 static columns.
      *
@@ -3813,7 +4131,7 @@ expected =
     public static void test(StringBuilder errorSB, boolean interactive, 
         boolean doSlowTestsToo, int firstTest, int lastTest) {
         if (lastTest < 0)
-            lastTest = interactive? -1 : 4;
+            lastTest = interactive? -1 : 5;
         String msg = "\n^^^ EDDTableFromCassandra.test(" + interactive + ") test=";
 
         for (int test = firstTest; test <= lastTest; test++) {
@@ -3830,6 +4148,7 @@ expected =
                     if (test ==  2) testMaxRequestFraction(false);  //pauseBetweenTests
                     if (test ==  3) testCass1Device(false); //pauseBetweenTests
                     if (test ==  4) testStatic(false); //pauseBetweenTests
+                    if (test ==  5) testAsync();
                 }
 
                 String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
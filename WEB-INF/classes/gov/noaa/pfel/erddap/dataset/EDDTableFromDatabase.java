@@ -51,12 +51,20 @@ import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.sql.DataSource;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.jexl3.JexlScript;
 import org.apache.commons.jexl3.MapContext;
@@ -84,6 +92,44 @@ public class EDDTableFromDatabase extends EDDTable{
     protected HashMap<String,HashSet<String>> scriptNeedsColumns = new HashMap(); //<sourceName, otherSourceColumnNames>
 
     protected String catalogSeparator;
+    protected int fetchSize;
+    protected int nThreads;
+    private String poolKey; //identifies this dataset's connections in connectionPool
+
+    /** 
+     * The default fetchSize (the number of rows the database sends at a time).
+     * 0 leaves it up to the driver (and doesn't change autoCommit).
+     */
+    public final static int DEFAULT_FETCH_SIZE = 0;
+
+    /** 
+     * If there is no dataSource, ERDDAP keeps (up to connectionPoolMaxIdle) 
+     * idle connections to each dataset's database for reuse,
+     * each for up to connectionPoolMaxIdleMillis.
+     * Before an idle connection is reused, it is tested with isValid(connectionValidSeconds).
+     */
+    public static int  connectionPoolMaxIdle = 4;
+    public static long connectionPoolMaxIdleMillis = 5 * Calendar2.MILLIS_PER_MINUTE;
+    public static int  connectionValidSeconds = 2;
+
+    /** One idle connection in the connectionPool. */
+    private static class PooledConnection {
+        Connection connection;
+        long idleSince = System.currentTimeMillis();
+        PooledConnection(Connection tConnection) {connection = tConnection;}
+    }
+
+    //these are guarded by synchronized(connectionPool)
+    private static HashMap<String,ArrayDeque<PooledConnection>> connectionPool = new HashMap(); //poolKey -> idle connections
+    private static long nConnectionsMade = 0, nConnectionsReused = 0, nConnectionsDiscarded = 0;
+
+    //the number of sub-query threads in use by all requests (at most EDStatic.nTableThreads)
+    //guarded by synchronized(partitionLock)
+    private final static Object partitionLock = new Object();
+    private static int nPartitionThreadsInUse = 0;
+
+    /** The end-of-partition marker in a partition's queue (see getDataForDapQuery). */
+    private final static Table END_OF_PARTITION = new Table();
 
     public static String testUser = "postgres";
     public static String testUrl = "jdbc:postgresql://localhost:5432/mydatabase";
@@ -142,6 +188,8 @@ public class EDDTableFromDatabase extends EDDTable{
         boolean tSourceNeedsExpandedFP_EQ = true;
         String tSourceCanOrderBy = "no";
         String tSourceCanDoDistinct = "no";
+        int tFetchSize = Integer.MAX_VALUE;
+        int tNThreads = Integer.MAX_VALUE;
         String tDefaultDataQuery = null;
         String tDefaultGraphQuery = null;
         String tAddVariablesWhere = null;
@@ -199,6 +247,10 @@ public class EDDTableFromDatabase extends EDDTable{
             else if (localTags.equals("</sourceCanOrderBy>")) tSourceCanOrderBy = content; 
             else if (localTags.equals( "<sourceCanDoDistinct>")) {}
             else if (localTags.equals("</sourceCanDoDistinct>")) tSourceCanDoDistinct = content; 
+            else if (localTags.equals( "<fetchSize>")) {}
+            else if (localTags.equals("</fetchSize>")) tFetchSize = String2.parseInt(content); 
+            else if (localTags.equals( "<nThreads>")) {}
+            else if (localTags.equals("</nThreads>")) tNThreads = String2.parseInt(content); 
             else if (localTags.equals( "<onChange>")) {}
             else if (localTags.equals("</onChange>")) tOnChange.add(content); 
             else if (localTags.equals( "<fgdcFile>")) {}
@@ -245,7 +297,8 @@ public class EDDTableFromDatabase extends EDDTable{
                 tLocalSourceUrl, tDriverName, 
                 tConnectionProperties.toArray(),
                 tCatalogName, tSchemaName, tTableName, tColumnNameQuotes, tOrderBy,
-                tSourceNeedsExpandedFP_EQ, tSourceCanOrderBy, tSourceCanDoDistinct);
+                tSourceNeedsExpandedFP_EQ, tSourceCanOrderBy, tSourceCanDoDistinct,
+                tFetchSize, tNThreads);
 
     }
 
@@ -398,6 +451,13 @@ public class EDDTableFromDatabase extends EDDTable{
      *    ORDER BY clause.
      *    The leftmost sourceName is most important; subsequent sourceNames are only used to break ties.
      * @param tSourceNeedsExpandedFP_EQ
+     * @param tFetchSize the number of rows the database should send to ERDDAP
+     *    at a time (via a cursor). 0 leaves it up to the driver
+     *    (and its connectionProperties).
+     *    Integer.MAX_VALUE or a negative number leads to DEFAULT_FETCH_SIZE.
+     * @param tNThreads the maximum number of parallel sub-queries (each for a
+     *    part of the requested time range) used to get the data for one request.
+     *    1 (or Integer.MAX_VALUE or an invalid value) means don't partition requests.
      * @throws Throwable if trouble
      */
     public EDDTableFromDatabase(String tDatasetID, 
@@ -414,7 +474,8 @@ public class EDDTableFromDatabase extends EDDTable{
         String tCatalogName, String tSchemaName, String tTableName,
         String tColumnNameQuotes, String tOrderBy[],
         boolean tSourceNeedsExpandedFP_EQ, 
-        String tSourceCanOrderBy, String tSourceCanDoDistinct
+        String tSourceCanOrderBy, String tSourceCanDoDistinct,
+        int tFetchSize, int tNThreads
         ) throws Throwable {
 
         if (verbose) String2.log(
@@ -471,6 +532,11 @@ public class EDDTableFromDatabase extends EDDTable{
             getNoPartialYes(tSourceCanOrderBy));
         sourceCanDoDistinct = Math2.minMax(0, 1, //so default=no
             getNoPartialYes(tSourceCanDoDistinct));
+        fetchSize = tFetchSize < 0 || tFetchSize == Integer.MAX_VALUE? DEFAULT_FETCH_SIZE : tFetchSize;
+        nThreads = tNThreads >= 1 && tNThreads < Integer.MAX_VALUE? tNThreads : 1;
+        //poolKey includes the connectionProperties (maybe a password), so never log it
+        poolKey = datasetID + "\n" + localSourceUrl + "\n" + driverName + "\n" + 
+            String2.toSVString(connectionProperties, "\n", false);
 
         //try to get the dataSource
         if (dataSourceName != null && dataSourceName.length() > 0) {
@@ -565,6 +631,7 @@ public class EDDTableFromDatabase extends EDDTable{
         //Failure causes dataset to fail to load!
         Connection connection = makeConnection(dataSourceName, dataSource, 
             localSourceUrl, driverName, connectionProperties);
+        boolean connectionOK = false;
         try {
             DatabaseMetaData meta = connection.getMetaData();
             catalogSeparator = meta.getCatalogSeparator();
@@ -580,12 +647,10 @@ public class EDDTableFromDatabase extends EDDTable{
                     "\njdbc majorVersion=" + meta.getJDBCMajorVersion() + 
                         " minorVersion=" + meta.getJDBCMinorVersion()); 
             }
+            connectionOK = true;
         } finally {  //not catch{}, so trouble causes dataset to fail to load!
-            try {
-                connection.close();
-            } catch (Throwable t) {
-                String2.log("Caught ERROR while closing database connection:\n" + MustBe.throwableToString(t));
-            }
+            //if ok, keep it for the first request
+            releaseConnection(connection, connectionOK);
         }
 
         //Don't gather ERDDAP sos information.
@@ -640,6 +705,178 @@ public class EDDTableFromDatabase extends EDDTable{
         }
     }
 
+    /**
+     * This gets a connection to this dataset's database:
+     * from the dataSource (if there is one), 
+     * else an idle connection from the connectionPool (if there is one which is still valid),
+     * else a new connection.
+     * The caller must call releaseConnection() when finished with it.
+     *
+     * @return a connection
+     * @throws Throwable if trouble
+     */
+    protected Connection getConnection() throws Throwable {
+        if (dataSource == null) {
+            while (true) {
+                PooledConnection pc = null;
+                synchronized(connectionPool) {
+                    ArrayDeque<PooledConnection> idle = connectionPool.get(poolKey);
+                    if (idle != null)
+                        pc = idle.pollLast(); //the most recently used is least likely to be stale
+                }
+                if (pc == null)
+                    break;
+                if (System.currentTimeMillis() - pc.idleSince < connectionPoolMaxIdleMillis &&
+                    isValid(pc.connection)) {
+                    synchronized(connectionPool) {
+                        nConnectionsReused++;
+                    }
+                    return pc.connection;
+                }
+                closeConnection(pc.connection);
+                synchronized(connectionPool) {
+                    nConnectionsDiscarded++;
+                }
+            }
+            synchronized(connectionPool) {
+                nConnectionsMade++;
+            }
+        }
+        return makeConnection(dataSourceName, dataSource, 
+            localSourceUrl, driverName, connectionProperties);
+    }
+
+    /**
+     * This is like getConnection, but if that fails, this waits 5 seconds 
+     * (to slow things down if the system is overwhelmed), then tries again.
+     *
+     * @return a connection
+     * @throws Throwable if trouble (notably, WaitThenTryAgainException)
+     */
+    protected Connection getConnectionForRequest() throws Throwable {
+        try {
+            return getConnection();
+        } catch (Throwable t) {
+
+            EDStatic.rethrowClientAbortException(t);  //first thing in catch{}
+
+            //unable to make connection
+            //wait 5 seconds (slow things down if system is overwhelmed), then try again
+            String msg = "ERROR from EDDTableFromDatabase(" + datasetID + ").getDataForDapQuery makeConnection #"; 
+            String2.log(msg + "1=\n" +
+                MustBe.throwableToString(t));
+            Math2.sleep(5000);
+            try {
+                return getConnection();
+            } catch (Throwable t2) {
+
+                EDStatic.rethrowClientAbortException(t2);  //first thing in catch{}
+
+                //give up
+                String2.log(msg + "2=\n" +
+                    MustBe.throwableToString(t2));
+                throw new WaitThenTryAgainException(EDStatic.waitThenTryAgain + 
+                    "\n(" + EDStatic.databaseUnableToConnect + ": " + t.toString() + ")");
+            }
+        }
+    }
+
+    /**
+     * This returns a connection from getConnection() to the connectionPool 
+     * (or to the dataSource, or closes it).
+     * This also closes connections which have been idle for too long.
+     *
+     * @param connection a connection (or null)
+     * @param reusable false if there was trouble (so the connection shouldn't be reused)
+     */
+    protected void releaseConnection(Connection connection, boolean reusable) {
+        if (connection == null)
+            return;
+        try {
+            //runQuery may have turned autoCommit off (so the driver uses a cursor)
+            if (!connection.getAutoCommit()) {
+                connection.rollback(); //end the read-only transaction
+                connection.setAutoCommit(true);
+            }
+        } catch (Throwable t) {
+            reusable = false;
+        }
+
+        ArrayList<Connection> toClose = new ArrayList();
+        long tooOld = System.currentTimeMillis() - connectionPoolMaxIdleMillis;
+        synchronized(connectionPool) {
+            if (dataSource == null && reusable) {
+                ArrayDeque<PooledConnection> idle = connectionPool.get(poolKey);
+                if (idle == null) {
+                    idle = new ArrayDeque();
+                    connectionPool.put(poolKey, idle);
+                }
+                if (idle.size() < connectionPoolMaxIdle) 
+                    idle.addLast(new PooledConnection(connection));
+                else toClose.add(connection);
+            } else {
+                //close() returns a dataSource's connection to the dataSource's pool
+                toClose.add(connection);
+            }
+
+            //close connections which have been idle too long (e.g., from datasets that are gone)
+            Iterator<ArrayDeque<PooledConnection>> it = connectionPool.values().iterator();
+            while (it.hasNext()) {
+                ArrayDeque<PooledConnection> idle = it.next();
+                while (!idle.isEmpty() && idle.peekFirst().idleSince < tooOld) {
+                    toClose.add(idle.pollFirst().connection);
+                    nConnectionsDiscarded++;
+                }
+                if (idle.isEmpty())
+                    it.remove();
+            }
+        }
+        for (int i = 0; i < toClose.size(); i++)
+            closeConnection(toClose.get(i));
+    }
+
+    /** This tests if a connection still works. */
+    private static boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(connectionValidSeconds);
+        } catch (Throwable t) {
+            //some old drivers don't support isValid(). So do a quick test.
+            try {
+                connection.getCatalog(); //ignore the response
+                return true;
+            } catch (Throwable t2) {
+                return false;
+            }
+        }
+    }
+
+    /** This closes a connection (and logs trouble). */
+    private static void closeConnection(Connection connection) {
+        try {
+            connection.close();
+        } catch (Throwable t) {
+            String2.log("Caught ERROR while closing database connection:\n" + MustBe.throwableToString(t));
+        }
+    }
+
+    /**
+     * This returns a string with statistics about the connectionPool
+     * (for the status page and daily report).
+     *
+     * @return a string with statistics
+     */
+    public static String connectionPoolStatsString() {
+        synchronized(connectionPool) {
+            int nIdle = 0;
+            for (ArrayDeque<PooledConnection> idle : connectionPool.values())
+                nIdle += idle.size();
+            return "EDDTableFromDatabase connectionPool: nIdle=" + nIdle + 
+                ", nMade=" + nConnectionsMade +
+                ", nReused=" + nConnectionsReused +
+                ", nDiscarded=" + nConnectionsDiscarded;
+        }
+    }
+
     /** 
      * This gets the data (chunk by chunk) from this EDDTable for the 
      * OPeNDAP DAP-style query and writes it to the TableWriter. 
@@ -773,157 +1010,361 @@ public class EDDTableFromDatabase extends EDDTable{
 
         //no need to further prune constraints
 
-        //make the connection
-        Connection connection = null;
-
-//??? Use a ConnectionPool???  See JDBC API Tutorial book, pg 640; or search web.
-//For now, make a new connection each time???  I think that is excessive, but simple.
-//  see connection.close() below.
+        //build the sql query
+        StringBuilder query = new StringBuilder();
+        int nRv = resultsVariables.size();
+        String distinctString = distinct? "DISTINCT " : "";
+        for (int rv = 0; rv < nRv; rv++)
+            //no danger of sql injection since query has been parsed and
+            //  resultsVariables must be known sourceNames
+            //Note that I tried to use '?' for resultsVariables, but never got it to work: wierd results.
+            //Quotes around colNames avoid trouble when colName is a SQL reserved word.
+            query.append((rv == 0? "SELECT " + distinctString : ", ") +
+                columnNameQuotes + resultsVariables.get(rv) + columnNameQuotes);
+        //Lack of quotes around table names means they can't be SQL reserved words.
+        //(If do quote in future, quote individual parts.)
+        query.append(" FROM " +
+            (catalogName.equals("")? "" : catalogName + catalogSeparator) +
+            (schemaName.equals( "")? "" : schemaName  + ".") +
+            tableName);
+
+        //create orderBySB
+        StringBuilder orderBySB = new StringBuilder();
+        String firstOrderBy = null;
+        if (queryOrderBy != null) {
+            //append queryOrderBy variables
+            for (int ob = 0; ob < queryOrderBy.size(); ob++) {
+                if (resultsVariables.indexOf(queryOrderBy.get(ob)) >= 0) { //should be
+                    if (orderBySB.length() > 0) orderBySB.append(", ");
+                    //Quotes around colNames avoid trouble when colName is a SQL reserved word.
+                    orderBySB.append(columnNameQuotes + queryOrderBy.get(ob) + columnNameQuotes);
+                }
+            }
+        } else {
+            //append predefined orderBy variables
+            for (int ob = 0; ob < orderBy.length; ob++) {
+                if (resultsVariables.indexOf(orderBy[ob]) >= 0) {
+                    if (orderBySB.length() > 0) orderBySB.append(", ");
+                    else firstOrderBy = orderBy[ob];
+                    //Quotes around colNames avoid trouble when colName is a SQL reserved word.
+                    orderBySB.append(columnNameQuotes + orderBy[ob] + columnNameQuotes);
+                }
+            }
+        }
+        //String2.log(">>orderBySB=" + orderBySB.toString());
+
+        //add constraints to query
+        int nCv = constraintVariables.size();
+        StringBuilder humanQuery = new StringBuilder(query);
+        int nActiveCV = 0;
+        for (int cv = 0; cv < nCv; cv++) {
+            String constraintVariable = constraintVariables.get(cv);
+            //if it's a fixedValue or script variable, don't ask database to constrain it
+            if (constraintVariable.startsWith("="))
+                continue;
+            nActiveCV++;
+
+            //sql uses "<>", not "!=";  other sql operators are the same as tableDap
+            String tOp = constraintOps.get(cv);
+            if (tOp.equals("!="))
+                tOp = "<>";
+
+            //convert time constraints (epochSeconds) to source units
+            //No need! Use Java's setTimeStamp below.
+
+            //again, no danger of sql injection since query has been parsed and
+            //  constraintVariables must be known sourceNames
+            //Quotes around colNames avoid trouble when colName is a SQL reserved word.
+            String ts = (nActiveCV == 1? " WHERE " : " AND ") +
+                columnNameQuotes + constraintVariables.get(cv) + columnNameQuotes + " " +
+                tOp;
+            query.append(ts + " ?"); //? is the place holder for a value
+            humanQuery.append(ts + " '" + constraintValues.get(cv) + "'");
+        }
+        String orderByString = orderBySB.length() > 0? " ORDER BY " + orderBySB.toString() : "";
+
+        //Split the request into nThreads sub-queries, each for part of the time range?
+        //That is only possible if the user's constraints define the time range
+        //(so the sub-queries' time ranges cover it and rows with NaN times aren't wanted)
+        //and if the sub-queries' results can simply be concatenated in order.
+        int nPartitions = 1;
+        String timeSourceName = timeIndex >= 0? dataVariables[timeIndex].sourceName() : null;
+        if (nThreads > 1 && timeSourceName != null && !timeSourceName.startsWith("=") &&
+            !distinct && queryOrderBy == null &&
+            (firstOrderBy == null || firstOrderBy.equals(timeSourceName))) {
+            double minTime = Double.NaN, maxTime = Double.NaN; //epochSeconds
+            for (int cv = 0; cv < nCv; cv++) {
+                if (!constraintVariables.get(cv).equals(timeSourceName))
+                    continue;
+                String tOp = constraintOps.get(cv);
+                double d = String2.parseDouble(constraintValues.get(cv));
+                if (!Double.isFinite(d))
+                    continue;
+                if (tOp.equals(">=") || tOp.equals(">"))
+                    minTime = Double.isNaN(minTime)? d : Math.max(minTime, d);
+                else if (tOp.equals("<=") || tOp.equals("<"))
+                    maxTime = Double.isNaN(maxTime)? d : Math.min(maxTime, d);
+            }
+            if (maxTime - minTime >= 2) //false if either is NaN
+                nPartitions = (int)Math.min(nThreads, maxTime - minTime); //at least 1 second each
+
+            //all requests share EDStatic.nTableThreads sub-query threads
+            if (nPartitions > 1) 
+                nPartitions = Math.max(1, reservePartitionThreads(nPartitions));
+
+            //partition p gets minTime + p*range/nPartitions (inclusive) to the next edge (exclusive)
+            if (nPartitions > 1) {
+                long edges[] = new long[nPartitions + 1]; //epochMillis
+                for (int p = 1; p < nPartitions; p++)
+                    edges[p] = Math.round((minTime + (maxTime - minTime) * p / nPartitions) * 1000);
+                String tsTime = (nActiveCV == 0? " WHERE " : " AND ") +
+                    columnNameQuotes + timeSourceName + columnNameQuotes;
+                String partitionQueries[] = new String[nPartitions];
+                String partitionHumanQueries[] = new String[nPartitions];
+                long partitionTimes[][] = new long[nPartitions][];
+                for (int p = 0; p < nPartitions; p++) {
+                    StringBuilder pq  = new StringBuilder(query);
+                    StringBuilder phq = new StringBuilder(humanQuery);
+                    String pAnd = tsTime;
+                    if (p > 0) {
+                        pq.append( pAnd + " >= ?");
+                        phq.append(pAnd + " >= '" + Calendar2.epochSecondsToIsoStringTZ(edges[p] / 1000.0) + "'");
+                        pAnd = " AND " + columnNameQuotes + timeSourceName + columnNameQuotes;
+                    }
+                    if (p < nPartitions - 1) {
+                        pq.append( pAnd + " < ?");
+                        phq.append(pAnd + " < '" + Calendar2.epochSecondsToIsoStringTZ(edges[p + 1] / 1000.0) + "'");
+                    }
+                    partitionQueries[p]      = pq.append(orderByString).toString();
+                    partitionHumanQueries[p] = phq.append(orderByString).toString();
+                    partitionTimes[p] =
+                        p == 0?               new long[]{edges[1]} :
+                        p == nPartitions - 1? new long[]{edges[p]} :
+                                              new long[]{edges[p], edges[p + 1]};
+                }
 
-        //See javadocs for isClosed -- it isn't very useful. So do quick test:
-        /*if (connection != null && !connection.isClosed()) {
-            try {
-                connection.getCatalog(); //simple test; ignore the response
-            } catch (Throwable t) {
-                String2.log("The existing connection isn't working. Closing it and creating a new one...");
                 try {
-                    connection.close();
-                } catch (Throwable t2) {
+                    getPartitionedData(loggedInAs, requestUrl, userDapQuery,
+                        partitionQueries, partitionHumanQueries, partitionTimes,
+                        constraintVariables, constraintOps, constraintValues,
+                        resultsVariables, scriptNames, scriptTypes, tableWriter);
+                } finally {
+                    releasePartitionThreads(nPartitions);
                 }
-                connection = null; //so new one will be created below
+                return;
             }
         }
-        */
+        query.append(orderByString);
+        humanQuery.append(orderByString);
 
-        //make a new connection
         try {
-            connection = makeConnection(dataSourceName, dataSource,
-                localSourceUrl, driverName, connectionProperties);        
-        } catch (Throwable t) {
-
-            EDStatic.rethrowClientAbortException(t);  //first thing in catch{}
+            runQuery(loggedInAs, requestUrl, userDapQuery,
+                query.toString(), humanQuery.toString(), new long[0],
+                constraintVariables, constraintOps, constraintValues,
+                resultsVariables, scriptNames, scriptTypes, tableWriter, null);
+            tableWriter.finish();
 
-            //unable to make connection
-            //wait 5 seconds (slow things down if system is overwhelmed), then try again
-            String msg = "ERROR from EDDTableFromDatabase(" + datasetID + ").getDataForDapQuery makeConnection #"; 
-            String2.log(msg + "1=\n" +
-                MustBe.throwableToString(t));
-            Math2.sleep(5000);
-            try {
-                connection = makeConnection(dataSourceName, dataSource,
-                    localSourceUrl, driverName, connectionProperties);        
-            } catch (Throwable t2) {
+        } catch (Throwable t) {
+            rethrowDataForDapQueryThrowable(t);
+        }
+    }
 
-                EDStatic.rethrowClientAbortException(t2);  //first thing in catch{}
+    /**
+     * This reserves up to n of the sub-query threads shared by all requests
+     * (at most EDStatic.nTableThreads are in use at once).
+     * If the result is &gt;= 2, the caller must call releasePartitionThreads(result)
+     * when finished.
+     *
+     * @param n the desired number of threads
+     * @return the number of threads reserved, or 0 if fewer than 2 are available
+     *   (so the request shouldn't be split).
+     */
+    private static int reservePartitionThreads(int n) {
+        synchronized(partitionLock) {
+            n = Math.min(n, EDStatic.nTableThreads - nPartitionThreadsInUse);
+            if (n < 2) 
+                return 0;
+            nPartitionThreadsInUse += n;
+            return n;
+        }
+    }
 
-                //give up
-                String2.log(msg + "2=\n" +
-                    MustBe.throwableToString(t2));
-                throw new WaitThenTryAgainException(EDStatic.waitThenTryAgain + 
-                    "\n(" + EDStatic.databaseUnableToConnect + ": " + t.toString() + ")");
-            }
+    /**
+     * This releases threads reserved by reservePartitionThreads.
+     *
+     * @param n the number of threads
+     */
+    private static void releasePartitionThreads(int n) {
+        synchronized(partitionLock) {
+            nPartitionThreadsInUse -= n;
         }
+    }
 
-        //try/catch to ensure connection and statement are closed at the end
-        PreparedStatement statement = null;
+    /**
+     * This gets the data for getDataForDapQuery via several sub-queries
+     * (each for part of the time range) which are run in parallel,
+     * each with its own connection.
+     * The sub-queries' results are written to the tableWriter in order.
+     *
+     * @param partitionQueries the sql for each sub-query (with '?' placeholders)
+     * @param partitionHumanQueries a human-readable version of each sub-query (for the log)
+     * @param partitionTimes the epochMillis values for each sub-query's extra
+     *    time placeholders (after the constraints' placeholders)
+     * @throws Throwable if trouble
+     */
+    private void getPartitionedData(final String loggedInAs, final String requestUrl,
+        final String userDapQuery, String partitionQueries[], String partitionHumanQueries[],
+        long partitionTimes[][],
+        final StringArray constraintVariables, final StringArray constraintOps,
+        final StringArray constraintValues, final StringArray resultsVariables,
+        final StringArray scriptNames, final StringArray scriptTypes,
+        TableWriter tableWriter) throws Throwable {
+
+        int nPartitions = partitionQueries.length;
+        if (verbose) String2.log("  EDDTableFromDatabase(" + datasetID +
+            ") nPartitions=" + nPartitions);
+        ExecutorService executorService = Executors.newFixedThreadPool(nPartitions);
         try {
-
-            //build the sql query
-            StringBuilder query = new StringBuilder();
-            int nRv = resultsVariables.size();
-            String distinctString = distinct? "DISTINCT " : "";
-            for (int rv = 0; rv < nRv; rv++) 
-                //no danger of sql injection since query has been parsed and
-                //  resultsVariables must be known sourceNames
-                //Note that I tried to use '?' for resultsVariables, but never got it to work: wierd results.
-                //Quotes around colNames avoid trouble when colName is a SQL reserved word.
-                query.append((rv == 0? "SELECT " + distinctString : ", ") + 
-                    columnNameQuotes + resultsVariables.get(rv) + columnNameQuotes); 
-            //Lack of quotes around table names means they can't be SQL reserved words.
-            //(If do quote in future, quote individual parts.)
-            query.append(" FROM " + 
-                (catalogName.equals("")? "" : catalogName + catalogSeparator) + 
-                (schemaName.equals( "")? "" : schemaName  + ".") + 
-                tableName);
-
-            //create orderBySB
-            StringBuilder orderBySB = new StringBuilder();
-            if (queryOrderBy != null) {
-                //append queryOrderBy variables
-                for (int ob = 0; ob < queryOrderBy.size(); ob++) {
-                    if (resultsVariables.indexOf(queryOrderBy.get(ob)) >= 0) { //should be
-                        if (orderBySB.length() > 0) orderBySB.append(", ");
-                        //Quotes around colNames avoid trouble when colName is a SQL reserved word.
-                        orderBySB.append(columnNameQuotes + queryOrderBy.get(ob) + columnNameQuotes);
+            ArrayList<ArrayBlockingQueue<Table>> queues = new ArrayList();
+            ArrayList<Future> futures = new ArrayList();
+            for (int p = 0; p < nPartitions; p++) {
+                //a small queue limits the memory used by partitions that are waiting to be written
+                final ArrayBlockingQueue<Table> queue = new ArrayBlockingQueue(2);
+                final String pQuery = partitionQueries[p];
+                final String pHumanQuery = partitionHumanQueries[p];
+                final long pTimes[] = partitionTimes[p];
+                queues.add(queue);
+                futures.add(executorService.submit(new Callable() {
+                    public Object call() throws Exception {
+                        try {
+                            runQuery(loggedInAs, requestUrl, userDapQuery,
+                                pQuery, pHumanQuery, pTimes,
+                                constraintVariables, constraintOps, constraintValues,
+                                resultsVariables, scriptNames, scriptTypes, null, queue);
+                            return null;
+                        } catch (Exception e) {
+                            throw e;
+                        } catch (Throwable t) {
+                            throw new Exception(t);
+                        } finally {
+                            try {
+                                queue.put(END_OF_PARTITION);
+                            } catch (InterruptedException e) {
+                                //the request was cancelled
+                            }
+                        }
                     }
-                }
-            } else {
-                //append predefined orderBy variables
-                for (int ob = 0; ob < orderBy.length; ob++) {
-                    if (resultsVariables.indexOf(orderBy[ob]) >= 0) {
-                        if (orderBySB.length() > 0) orderBySB.append(", ");
-                        //Quotes around colNames avoid trouble when colName is a SQL reserved word.
-                        orderBySB.append(columnNameQuotes + orderBy[ob] + columnNameQuotes);
+                }));
+            }
+
+            //write the partitions' results in order
+            PARTITION_LOOP:
+            for (int p = 0; p < nPartitions; p++) {
+                ArrayBlockingQueue<Table> queue = queues.get(p);
+                while (true) {
+                    Table table = queue.take();
+                    if (table == END_OF_PARTITION)
+                        break;
+                    tableWriter.writeSome(table);
+                    if (tableWriter.noMoreDataPlease) {
+                        tableWriter.logCaughtNoMoreDataPlease(datasetID);
+                        break PARTITION_LOOP;
                     }
                 }
+                futures.get(p).get(); //throws ExecutionException if that sub-query failed
             }
-            //String2.log(">>orderBySB=" + orderBySB.toString());
+            tableWriter.finish();
 
-            //add constraints to query  
-            int nCv = constraintVariables.size();
-            StringBuilder humanQuery = new StringBuilder(query);
-            int nActiveCV = 0;
-            for (int cv = 0; cv < nCv; cv++) {    
-                String constraintVariable = constraintVariables.get(cv);
-                //if it's a fixedValue or script variable, don't ask database to constrain it
-                if (constraintVariable.startsWith("="))
-                    continue;
-                nActiveCV++;
-                int dv = String2.indexOf(dataVariableSourceNames(), constraintVariable);
-                EDV edv = dataVariables[dv];
+        } catch (Throwable t) {
+            while (t instanceof ExecutionException && t.getCause() != null) //may be doubly wrapped
+                t = t.getCause();
+            if (t.getClass() == Exception.class && t.getCause() != null) //from call()
+                t = t.getCause();
+            rethrowDataForDapQueryThrowable(t);
 
-                //sql uses "<>", not "!=";  other sql operators are the same as tableDap
-                String tOp = constraintOps.get(cv);
-                if (tOp.equals("!=")) 
-                    tOp = "<>"; 
-
-                //convert time constraints (epochSeconds) to source units
-                //No need! Use Java's setTimeStamp below.
-
-                //again, no danger of sql injection since query has been parsed and
-                //  constraintVariables must be known sourceNames
-                //Quotes around colNames avoid trouble when colName is a SQL reserved word.
-                String ts = (nActiveCV == 1? " WHERE " : " AND ") +
-                    columnNameQuotes + constraintVariables.get(cv) + columnNameQuotes + " " + 
-                    tOp; 
-                query.append(ts + " ?"); //? is the place holder for a value
-                humanQuery.append(ts + " '" + constraintValues.get(cv) + "'");
-            }
-            if (orderBySB.length() > 0) {
-                String ts = " ORDER BY " + orderBySB.toString();
-                query.append(ts);
-                humanQuery.append(ts);
-            }
+        } finally {
+            //stop any sub-queries that are still running
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * This handles a Throwable caught by getDataForDapQuery.
+     *
+     * @param t the Throwable
+     * @throws Throwable always: t or (for most errors from the database) a wrapper of t
+     */
+    private void rethrowDataForDapQueryThrowable(Throwable t) throws Throwable {
+
+        EDStatic.rethrowClientAbortException(t);  //first thing in catch{}
+
+        if (t instanceof WaitThenTryAgainException) //from getConnectionForRequest
+            throw t;
+
+        String msg = MustBe.throwableToString(t);
+        //String2.log("EDDTableFromDatabase caught:\n" + msg);
+
+        if (t instanceof InterruptedException ||
+            msg.indexOf(MustBe.THERE_IS_NO_DATA) >= 0 ||
+            msg.indexOf(EDStatic.caughtInterrupted) >= 0) {
+            throw t;
+        } else {
+            //all other errors probably from database
+            throw new Throwable(EDStatic.errorFromDataSource + t.toString(), t);
+        }
+    }
+
+    /**
+     * This runs one query (the whole request or a sub-query) and sends the
+     * standardized results (chunk by chunk) to the tableWriter or queue.
+     * It gets a connection (via getConnectionForRequest) and releases it when done.
+     *
+     * @param query the sql (with '?' placeholders)
+     * @param humanQuery a human-readable version of the query (for the log)
+     * @param extraTimes the epochMillis values for extra time placeholders
+     *    (after the constraints' placeholders). Use long[0] if none.
+     * @param scriptNames the sourceNames of the script variables (or null if none)
+     * @param scriptTypes the dataTypes of the script variables (or null if none)
+     * @param tableWriter if queue is null, the results are written to this
+     *    (but this doesn't call tableWriter.finish())
+     * @param queue if not null, the results are put in this (and tableWriter is ignored)
+     * @throws Throwable if trouble
+     */
+    private void runQuery(String loggedInAs, String requestUrl, String userDapQuery,
+        String query, String humanQuery, long extraTimes[],
+        StringArray constraintVariables, StringArray constraintOps, StringArray constraintValues,
+        StringArray resultsVariables, StringArray scriptNames, StringArray scriptTypes,
+        TableWriter tableWriter, ArrayBlockingQueue<Table> queue) throws Throwable {
+
+        Connection connection = getConnectionForRequest();
+        boolean connectionOK = false;
+        PreparedStatement statement = null;
+        try {
 
             //fill in the '?' in the preparedStatement
             //***!!! This method avoids SQL Injection Vulnerability !!!***
             //(see https://en.wikipedia.org/wiki/SQL_injection) by using
             //preparedStatements (so String values are properly escaped and
             //numbers are assured to be numbers).
-            statement = connection.prepareStatement(query.toString());
-            EDV constraintEDVs[] = new EDV[nCv];
-            nActiveCV = 0;
+            if (fetchSize > 0)
+                //e.g., PostgreSQL only uses a cursor (and so sends just fetchSize rows at a time)
+                //  if autoCommit is off. releaseConnection() turns it back on.
+                connection.setAutoCommit(false);
+            statement = connection.prepareStatement(query);
+            if (fetchSize > 0)
+                statement.setFetchSize(fetchSize);
+            int nCv = constraintVariables.size();
+            int nActiveCV = 0;
             for (int cv = 0; cv < nCv; cv++) {
                 if (constraintVariables.get(cv).startsWith("="))
                     continue;
                 nActiveCV++; //+1 since sql uses 1..
                 EDV edv = findDataVariableBySourceName(constraintVariables.get(cv));
-                constraintEDVs[cv] = edv;
                 PAType tPAType = edv.sourceDataPAType();
                 String val = constraintValues.get(cv);
                 //String2.log("cv=" + cv + " tPAType=" + tPAType);
                 if (edv instanceof EDVTimeStamp &&
-                    !constraintOps.get(cv).equals(PrimitiveArray.REGEX_OP)) statement.setTimestamp(nActiveCV, 
+                    !constraintOps.get(cv).equals(PrimitiveArray.REGEX_OP)) statement.setTimestamp(nActiveCV,
                                                   //round to nearest milli
                                                   new Timestamp(Math.round(String2.parseDouble(val)*1000)));
                 else if (edv.isBoolean())         statement.setBoolean(nActiveCV, String2.parseBoolean(val)); //special case
@@ -934,20 +1375,23 @@ public class EDDTableFromDatabase extends EDDTable{
                 else if (tPAType == PAType.ULONG)   statement.setDouble( nActiveCV, String2.parseDouble(val));  //???
                 else if (tPAType == PAType.INT)     statement.setInt(    nActiveCV, String2.parseInt(val));  //???NaN???
                 else if (tPAType == PAType.UINT)    statement.setLong(   nActiveCV, String2.parseLong(val)); //???NaN???
-                else if (tPAType == PAType.SHORT)   statement.setShort(  nActiveCV, Math2.narrowToShort(String2.parseInt(val))); 
+                else if (tPAType == PAType.SHORT)   statement.setShort(  nActiveCV, Math2.narrowToShort(String2.parseInt(val)));
                 else if (tPAType == PAType.USHORT)  statement.setInt(    nActiveCV, String2.parseInt(val)); //???
-                else if (tPAType == PAType.BYTE)    statement.setByte(   nActiveCV, Math2.narrowToByte(String2.parseInt(val))); 
+                else if (tPAType == PAType.BYTE)    statement.setByte(   nActiveCV, Math2.narrowToByte(String2.parseInt(val)));
                 else if (tPAType == PAType.UBYTE)   statement.setShort(  nActiveCV, Math2.narrowToShort(String2.parseInt(val))); //???
-                else if (tPAType == PAType.CHAR)    statement.setString( nActiveCV, val.length() == 0? "\u0000" : val.substring(0, 1)); //FFFF??? 
-                else throw new RuntimeException("Prepared statements don't support class type=" + edv.sourceDataType() + ".");            
+                else if (tPAType == PAType.CHAR)    statement.setString( nActiveCV, val.length() == 0? "\u0000" : val.substring(0, 1)); //FFFF???
+                else throw new RuntimeException("Prepared statements don't support class type=" + edv.sourceDataType() + ".");
             }
+            for (int i = 0; i < extraTimes.length; i++)
+                statement.setTimestamp(++nActiveCV, new Timestamp(extraTimes[i]));
             if (verbose) String2.log("  statement=" + statement.toString() + "\n" +
-                                     " statement~=" + humanQuery.toString());
+                                     " statement~=" + humanQuery);
 
             //execute the query
             ResultSet rs = statement.executeQuery();
 
             //make empty table with a column for each resultsVariable
+            int nRv = resultsVariables.size();
             int tableColToRsCol[]= new int[nRv]; //stored as 1..
             EDV resultsEDVs[] = new EDV[nRv];
             for (int rv = 0; rv < nRv; rv++) {
@@ -958,9 +1402,12 @@ public class EDDTableFromDatabase extends EDDTable{
                 tableColToRsCol[rv] = rs.findColumn(tName); //stored as 1..    throws Throwable if not found
             }
             int triggerNRows = EDStatic.partialRequestMaxCells / resultsEDVs.length;
+            if (fetchSize > 0)
+                //send the first rows to the user sooner
+                triggerNRows = Math.min(triggerNRows, Math.max(fetchSize, 1000));
             Table table = makeEmptySourceTable(resultsEDVs, triggerNRows);
             PrimitiveArray paArray[] = new PrimitiveArray[nRv];
-            for (int rv = 0; rv < nRv; rv++) 
+            for (int rv = 0; rv < nRv; rv++)
                 paArray[rv] = table.getColumn(rv);
 
             //process the resultSet rows of data
@@ -978,50 +1425,53 @@ public class EDDTableFromDatabase extends EDDTable{
                             paArray[rv].addInt(rs.wasNull()? Integer.MAX_VALUE : tb? 1 : 0);
                         } else if (edv instanceof EDVTimeStamp) {
                             Timestamp tts = rs.getTimestamp(rsCol);         //zulu millis -> epoch seconds
-                            paArray[rv].addDouble(tts == null? Double.NaN : tts.getTime() / 1000.0); 
+                            paArray[rv].addDouble(tts == null? Double.NaN : tts.getTime() / 1000.0);
                         } else if (tPAType == PAType.STRING) {
                             String ts = rs.getString(rsCol); //it may return null
-                            paArray[rv].addString(ts == null? "" : ts); 
+                            paArray[rv].addString(ts == null? "" : ts);
                         } else if (tPAType == PAType.DOUBLE) {
                             double d = rs.getDouble(rsCol);
-                            paArray[rv].addDouble(rs.wasNull()? Double.NaN : d); 
+                            paArray[rv].addDouble(rs.wasNull()? Double.NaN : d);
                         } else if (tPAType == PAType.FLOAT) {
                             float f = rs.getFloat(rsCol);
-                            paArray[rv].addFloat(rs.wasNull()? Float.NaN : f); 
+                            paArray[rv].addFloat(rs.wasNull()? Float.NaN : f);
                         } else if (tPAType == PAType.LONG) {
                             long tl = rs.getLong(rsCol);
-                            paArray[rv].addLong(rs.wasNull()? Long.MAX_VALUE : tl); 
+                            paArray[rv].addLong(rs.wasNull()? Long.MAX_VALUE : tl);
                         } else {
                             int ti = rs.getInt(rsCol);
-                            paArray[rv].addInt(rs.wasNull()? Integer.MAX_VALUE : ti); 
+                            paArray[rv].addInt(rs.wasNull()? Integer.MAX_VALUE : ti);
                         }
                     }
                 }
 
-                if ((paArray[0].size() > 0 && !hasNext) || 
+                if ((paArray[0].size() > 0 && !hasNext) ||
                     paArray[0].size() >= triggerNRows) {
                     if (Thread.currentThread().isInterrupted())
-                        throw new SimpleException("EDDTableFromDatabase.getDataForDapQuery" + 
+                        throw new SimpleException("EDDTableFromDatabase.getDataForDapQuery" +
                             EDStatic.caughtInterrupted);
 
                     //convert script columns into data columns
-                    if (scriptNames != null)             
-                        convertScriptColumnsToDataColumns("", table, 
+                    if (scriptNames != null)
+                        convertScriptColumnsToDataColumns("", table,
                             scriptNames, scriptTypes, scriptNeedsColumns);
-       
+
                     //String2.log(table.toString("rows",5));
-                    preStandardizeResultsTable(loggedInAs, table); 
+                    preStandardizeResultsTable(loggedInAs, table);
                     if (table.nRows() > 0) {
                         standardizeResultsTable(requestUrl, userDapQuery, table); //changes sourceNames to destinationNames
-                        tableWriter.writeSome(table); //okay if 0 rows
+                        if (queue == null)
+                            tableWriter.writeSome(table); //okay if 0 rows
+                        else if (table.nRows() > 0)
+                            queue.put(table); //waits if the queue is full
                     }
 
                     if (hasNext) {
                         table = makeEmptySourceTable(resultsEDVs, triggerNRows);
-                        for (int rv = 0; rv < nRv; rv++) 
+                        for (int rv = 0; rv < nRv; rv++)
                             paArray[rv] = table.getColumn(rv);
                     }
-                    if (tableWriter.noMoreDataPlease) {
+                    if (queue == null && tableWriter.noMoreDataPlease) {
                         tableWriter.logCaughtNoMoreDataPlease(datasetID);
                         break;
                     }
@@ -1029,28 +1479,13 @@ public class EDDTableFromDatabase extends EDDTable{
                 if (!hasNext)
                     break;
             }
-            tableWriter.finish();
             statement.close();
+            statement = null;
+            connectionOK = true;
 
-            //last thing
-            connection.close();
-
-        } catch (Throwable t) {
-            try {connection.close();} catch (Exception e) {}
+        } finally {
             try {if (statement != null) statement.close();} catch (Exception e) {}
-
-            EDStatic.rethrowClientAbortException(t);  //first thing in catch{}
-
-            String msg = MustBe.throwableToString(t);
-            //String2.log("EDDTableFromDatabase caught:\n" + msg);
-
-            if (msg.indexOf(MustBe.THERE_IS_NO_DATA) >= 0 ||
-                msg.indexOf(EDStatic.caughtInterrupted) >= 0) { 
-                throw t;
-            } else {
-                //all other errors probably from database
-                throw new Throwable(EDStatic.errorFromDataSource + t.toString(), t);
-            }
+            releaseConnection(connection, connectionOK);
         }
     }
 
@@ -2181,6 +2616,58 @@ expected =
         Test.ensureTrue(results.indexOf("relation \"myschema.zztop\" does not exist") >= 0, "results=\n" + results);
     }
 
+    /**
+     * This tests the connectionPool, fetchSize, and splitting a request 
+     * into parallel sub-queries (nThreads) with the local postgres database.
+     *
+     * @throws Throwable if trouble
+     */
+    public static void testPoolAndPartitions() throws Throwable {
+        String2.log("\n*** EDDTableFromDatabase.testPoolAndPartitions()");
+        testVerboseOn();
+        String dir = EDStatic.fullTestCacheDirectory;
+        String results, expected;
+
+        EDDTableFromDatabase tedd = (EDDTableFromDatabase)oneFromDatasetsXml(null,
+            "testMyDatabaseNo"); 
+        //sub-queries' results can only be concatenated if the results are sorted by time
+        tedd.orderBy = new String[]{tedd.dataVariables[tedd.timeIndex].sourceName()};
+        expected = 
+"category,first,last,height,weight_kg,weight_lb,time\n" +
+",,,cm,kg,lb,UTC\n" +
+"A,John,Johnson,191,88.5,195,1961-03-05T04:05:06Z\n" +
+"A,Bob,Bucher,182,83.2,183,1966-01-31T16:16:17Z\n" +
+"B,Betty,Bach,161,54.2,119,1967-07-08T09:10:11Z\n" +
+"B,Stan,Smith,177,81.1,179,1971-10-12T23:24:25Z\n";
+        //sub-queries share EDStatic.nTableThreads threads (with 3, nThreads=5 gets 3 sub-queries)
+        int oNTableThreads = EDStatic.nTableThreads;
+        EDStatic.nTableThreads = 3;
+        try {
+            for (int tnThreads = 1; tnThreads <= 5; tnThreads += 2) {
+                for (int tFetchSize = 0; tFetchSize <= 2; tFetchSize += 2) {
+                    tedd.nThreads = tnThreads;
+                    tedd.fetchSize = tFetchSize;
+                    String tName = tedd.makeNewFileForDapQuery(null, null, 
+                        "&time>=1961-01-01&time<1972-01-01", dir, 
+                        tedd.className() + "_partitions" + tnThreads + "_" + tFetchSize, ".csv"); 
+                    results = String2.directReadFrom88591File(dir + tName);
+                    Test.ensureEqual(results, expected, 
+                        "nThreads=" + tnThreads + " fetchSize=" + tFetchSize + "\nresults=\n" + results);
+                }
+            }
+        } finally {
+            EDStatic.nTableThreads = oNTableThreads;
+        }
+        synchronized(partitionLock) {
+            Test.ensureEqual(nPartitionThreadsInUse, 0, "");
+        }
+
+        //the connections were reused
+        results = connectionPoolStatsString();
+        String2.log(results);
+        Test.ensureTrue(results.indexOf("nReused=0,") < 0, "results=\n" + results);
+    }
+
 
     /**
      * This runs all of the interactive or not interactive tests for this class.
@@ -2196,7 +2683,7 @@ expected =
     public static void test(StringBuilder errorSB, boolean interactive, 
         boolean doSlowTestsToo, int firstTest, int lastTest) {
         if (lastTest < 0)
-            lastTest = interactive? -1 : 5;
+            lastTest = interactive? -1 : 6;
         String msg = "\n^^^ EDDTableFromDatabase.test(" + interactive + ") test=";
 
         for (int test = firstTest; test <= lastTest; test++) {
@@ -2215,6 +2702,7 @@ expected =
                     if (test ==  3) testBasic("testMyDatabaseYes");
                     if (test ==  4) testNonExistentVariable();
                     if (test ==  5) testNonExistentTable();
+                    if (test ==  6) testPoolAndPartitions();
                 }
 
                 String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
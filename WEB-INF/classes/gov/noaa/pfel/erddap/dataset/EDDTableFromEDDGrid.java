@@ -10,6 +10,7 @@ import com.cohort.array.DoubleArray;
 import com.cohort.array.IntArray;
 import com.cohort.array.NDimensionalIndex;
 import com.cohort.array.PAOne;
+import com.cohort.array.PAType;
 import com.cohort.array.PrimitiveArray;
 import com.cohort.array.StringArray;
 import com.cohort.util.Calendar2;
@@ -50,6 +51,13 @@ public class EDDTableFromEDDGrid extends EDDTable{
     public final static int DEFAULT_MAX_AXIS0 = 10; 
     protected int maxAxis0; //if <=0, no limit 
 
+    /** 
+     * If true (the default), numeric data variable constraints are tested on 
+     * each grid cell before its row is made (see getDataForDapQuery). 
+     * Tests set this to false to compare the results.
+     */
+    public static boolean pushdownConstraints = true;
+
     //If childDataset is a fromErddap dataset from this ERDDAP, 
     //childDataset will be kept as null and always refreshed from 
     //erddap.gridDatasetHashMap.get(localChildDatasetID).
@@ -553,10 +561,69 @@ public class EDDTableFromEDDGrid extends EDDTable{
                 paOne[col] = new PAOne(paAr[col]);
             }
 
+            //Predicate pushdown: find the data variable constraints which can be 
+            //tested on the raw grid values, so rows are only made for cells which might pass.
+            //The tests here are looser than the real tests (standardizeResultsTable
+            //still applies all constraints), so no cell which would pass is rejected.
+            IntArray pdDv     = new IntArray();    //the dv number in gda
+            StringArray pdOp  = new StringArray();
+            DoubleArray pdVal = new DoubleArray();
+            for (int c = 0; pushdownConstraints && c < constraintVariables.size(); c++) { 
+                String conOp = constraintOps.get(c);
+                double conValD = String2.parseDouble(constraintValues.get(c));
+                if (conOp.equals(PrimitiveArray.REGEX_OP) || conOp.equals("!=") ||
+                    Double.isNaN(conValD))
+                    continue;
+                int dv = 0;
+                while (dv < nQueryDV && !queryDV[dv].destinationName().equals(constraintVariables.get(c)))
+                    dv++;
+                if (dv == nQueryDV)
+                    continue;
+                //the value in the grid must be the value that will be tested
+                EDV edv = sourceTableVars[childDatasetNAV + dv];
+                PAType tPAType = edv.destinationDataPAType();
+                if (edv.getClass() != EDV.class || edv.isFixedValue() || edv.scaleAddOffset() ||
+                    tPAType != edv.sourceDataPAType() ||
+                    tPAType == PAType.STRING || tPAType == PAType.CHAR)
+                    continue;
+                pdDv.add(dv);
+                pdOp.add(conOp);
+                pdVal.add(conValD);
+            }
+            int nPd = pdDv.size();
+            double pdFill[] = new double[nPd];
+            double pdMv[]   = new double[nPd];
+            for (int pd = 0; pd < nPd; pd++) {
+                EDV edv = sourceTableVars[childDatasetNAV + pdDv.get(pd)];
+                pdFill[pd] = edv.destinationFillValue();
+                pdMv[pd]   = edv.destinationMissingValue();
+            }
+            if (reallyVerbose && nPd > 0) 
+                String2.log("  nPushdownConstraints=" + nPd);
+            long nCellsSkipped = 0;
 
             //walk through it, periodically saving to tableWriter
             int cumNRows = 0;
+            cellLoop:
             while (gda.increment()) {
+                //test the pushdown constraints before making the row
+                for (int pd = 0; pd < nPd; pd++) {
+                    double d = gda.getDataValueAsDouble(pdDv.get(pd));
+                    double conValD = pdVal.get(pd);
+                    String conOp = pdOp.get(pd);
+                    boolean mightPass;
+                    if (Double.isNaN(d) || d == pdFill[pd] || d == pdMv[pd]) 
+                        mightPass = false; //missing values fail all tests (except !=, which isn't pushed down) 
+                    else mightPass = PrimitiveArray.testValueOpValue(d, conOp, conValD) ||
+                        Math2.almostEqual(5, d, conValD); //looser than all of the real tests
+                    if (!mightPass) {
+                        if ((++nCellsSkipped & 0xFFFFF) == 0 && Thread.currentThread().isInterrupted())
+                            throw new SimpleException("EDDTableFromEDDGrid.getDataForDapQuery" + 
+                                EDStatic.caughtInterrupted);      
+                        continue cellLoop;
+                    }
+                }
+
                 for (int av = 0; av < childDatasetNAV; av++) 
                     gda.getAxisValueAsPAOne(av, paOne[av]).addTo(paAr[av]);
                 for (int dv = 0; dv < nQueryDV; dv++) 
@@ -581,6 +648,8 @@ public class EDDTableFromEDDGrid extends EDDTable{
                 }
             }
             gda.releaseResources();
+            if (reallyVerbose && nPd > 0) 
+                String2.log("  nCellsSkipped by pushdown constraints=" + nCellsSkipped);
 
             //finish
             if (tTable.nRows() > 0) {
@@ -2146,6 +2215,61 @@ sb.append(
     }
 
 
+    /**
+     * This tests that pushing data variable constraints down to the grid cells
+     * (pushdownConstraints=true) gets the same results as the original
+     * (make every row, then test it) approach.
+     *
+     * @throws Throwable if trouble
+     */
+    public static void testPushdown() throws Throwable {
+        String2.log("\nEDDTableFromEDDGrid.testPushdown()");
+        testVerboseOn();
+        String id = "erdMBsstdmday_AsATable";
+        EDDTable tedd = (EDDTable)oneFromDatasetsXml(null, id);
+        String dir = EDStatic.fullTestCacheDirectory;
+        String queries[] = {
+            //dv constraint 
+            "latitude,longitude,altitude,time,sst&sst>37&time=\"2008-02-15T12\"",
+            //just av results, dv and av constraints
+            "latitude,longitude,time&latitude>0&sst>37&time=\"2008-02-15T12\"",
+            //a range of dv values (including values near the limits) in a small region
+            "latitude,longitude,sst&sst>=22.5&sst<22.6" +
+                "&latitude>20&latitude<=20.5&longitude>=215&longitude<215.5&time=\"2008-02-15T12\"",
+            //= and != on a dv value (= uses almostEqual)
+            "latitude,longitude,sst&sst=22.4018" +
+                "&latitude>20&latitude<=20.1&longitude>=215&longitude<215.1&time=\"2008-02-15T12\"",
+            "latitude,longitude,sst&sst!=22.4018" +
+                "&latitude>20&latitude<=20.1&longitude>=215&longitude<215.1&time=\"2008-02-15T12\"",
+            //dv constraint which no cell passes
+            "latitude,longitude,sst&sst<-100&latitude>20&latitude<=20.5&time=\"2008-02-15T12\"",
+            //av constraint which is out of range (actual_range is -45 to 65)
+            "latitude,longitude,sst&sst>37&latitude>70&time=\"2008-02-15T12\"",
+            "latitude,longitude,sst&sst>37&latitude<-90&time=\"2008-02-15T12\""};
+
+        boolean oPushdown = pushdownConstraints;
+        try {
+            for (int q = 0; q < queries.length; q++) {
+                String results[] = new String[2];
+                for (int pd = 0; pd < 2; pd++) {
+                    pushdownConstraints = pd == 1;
+                    try {
+                        String tName = tedd.makeNewFileForDapQuery(null, null, 
+                            queries[q], dir, 
+                            tedd.className() + "_pushdown" + q + "_" + pd, ".csv"); 
+                        results[pd] = String2.directReadFrom88591File(dir + tName);
+                    } catch (Throwable t) {
+                        results[pd] = "Caught: " + t.toString();
+                    }
+                }
+                String2.log("query=" + queries[q] + "\nresults=\n" + results[1]);
+                Test.ensureEqual(results[1], results[0], "query=" + queries[q]);
+            }
+        } finally {
+            pushdownConstraints = oPushdown;
+        }
+    }
+
     /**
      * This runs all of the interactive or not interactive tests for this class.
      *
@@ -2160,7 +2284,7 @@ sb.append(
     public static void test(StringBuilder errorSB, boolean interactive, 
         boolean doSlowTestsToo, int firstTest, int lastTest) {
         if (lastTest < 0)
-            lastTest = interactive? -1 : 3;
+            lastTest = interactive? -1 : 4;
         String msg = "\n^^^ EDDTableFromEDDGrid.test(" + interactive + ") test=";
 
         for (int test = firstTest; test <= lastTest; test++) {
@@ -2176,6 +2300,7 @@ sb.append(
                     if (test ==  1) testInErddap();
                     if (test ==  2) testBasic();
                     if (test ==  3) testFiles();
+                    if (test ==  4) testPushdown();
                 }
 
                 String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
@@ -5,6 +5,7 @@
 package gov.noaa.pfel.erddap.dataset;
 
 import com.cohort.array.Attributes;
+import com.cohort.array.BloomFilter;
 import com.cohort.array.ByteArray;
 import com.cohort.array.DoubleArray;
 import com.cohort.array.IntArray;
@@ -74,11 +75,25 @@ public abstract class EDDTableFromFiles extends EDDTable{
 
     public final static String MF_FIRST = "first", MF_LAST = "last";
     public static int suggestedUpdateEveryNMillis = 10000;
+
+    /** 
+     * While the constructor reads new or changed files, it saves a checkpoint
+     * (the partially updated dirTable, fileTable, and badFileMap) this often,
+     * so if the constructor is interrupted (e.g., ERDDAP is restarted) 
+     * the next attempt only has to read the files whose lastMod or size changed 
+     * since the checkpoint. A checkpointed fileTable has a _checkpoint_ 
+     * global attribute, so it isn't used for a quickRestart.
+     */
+    public static long checkpointEveryNMillis = 5 * Calendar2.MILLIS_PER_MINUTE;
+    public final static String _checkpoint_ = "_checkpoint_";
     public static int suggestUpdateEveryNMillis(String tFileDir) {
         return String2.isRemote(tFileDir)? 0 : suggestedUpdateEveryNMillis;
     }
     /** Don't set this to true here.  Some test methods set this to true temporarily. */
     protected static boolean testQuickRestart = false;
+    /** Don't set this here.  testCheckpoint sets this temporarily to simulate 
+     * a load that is interrupted after this many files have been read. */
+    protected static int testInterruptAfterNReadFiles = -1;
 
     //set by constructor
     protected String fileDir;
@@ -138,6 +153,9 @@ public abstract class EDDTableFromFiles extends EDDTable{
         FT_SORTED_SPACING_COL=4;
     //then 3 cols for each dataVariable: sourceName + _min_|_max_|_hasNaN starting at dv0
     protected final static int dv0 = 5;
+    //then (if EDStatic.fileValueIndexMaxBits > 0) 1 col for each indexed dataVariable: sourceName + _bloom_
+    //  with a (base64) BloomFilter of the distinct values in each file.
+    protected int fileValueIndexCol[]; //for each dv: the fileTable column number, or -1 if not indexed
     int     fileTableSortColumns[];   //null if not active
     boolean fileTableSortAscending[]; //size matches fileTableSortcolumns, all true
 
@@ -1119,6 +1137,32 @@ public abstract class EDDTableFromFiles extends EDDTable{
         sourceCanConstrainStringData  = CONSTRAIN_PARTIAL; //all partially handled
         sourceCanConstrainStringRegex = PrimitiveArray.REGEX_OP; //partially
 
+        //which dataVariables get a fileValueIndex column in fileTable?
+        //String and integer variables (not time or the extract variable),
+        //so files which can't have a requested value (e.g., station_id="46088") can be skipped.
+        fileValueIndexCol = new int[ndv];
+        Arrays.fill(fileValueIndexCol, -1);
+        int nFileValueIndexCols = 0;
+        if (EDStatic.fileValueIndexMaxBits > 0 && supportsFileValueIndex()) {
+            for (int dv = 0; dv < ndv; dv++) {
+                String tName = (String)tDataVariables[dv][1];  //destName
+                if (!String2.isSomething(tName))
+                    tName = (String)tDataVariables[dv][0];  //sourceName
+                Attributes tAtts = (Attributes)tDataVariables[dv][2];
+                String tUnits = tAtts == null? null : tAtts.getString("units");
+                if (dv == extractedColNameIndex ||
+                    sourceDataNames.get(dv).startsWith("=") ||
+                    sourceDataTypes[dv].equals("boolean") ||
+                    !BloomFilter.isSupported(PrimitiveArray.elementStringToPAType(sourceDataTypes[dv])) ||
+                    tName.equals("time") || Calendar2.isTimeUnits(tUnits))
+                    continue;
+                fileValueIndexCol[dv] = dv0 + ndv*3 + nFileValueIndexCols++;
+            }
+        }
+        if (verbose && nFileValueIndexCols > 0) 
+            String2.log("nFileValueIndexCols=" + nFileValueIndexCols + 
+                " fileValueIndexMaxBits=" + EDStatic.fileValueIndexMaxBits);
+
         //load cached dirTable->dirList
         dirTable = tryToLoadDirFileTable(dirTableFileName); //may be null
         if (dirTable != null) {
@@ -1155,6 +1199,10 @@ public abstract class EDDTableFromFiles extends EDDTable{
                 desiredOrder.add(safeSourceDataNames.get(dv) + "_max_");
                 desiredOrder.add(safeSourceDataNames.get(dv) + "_hasNaN_");
             }
+            for (int dv = 0; dv < ndv; dv++) {
+                if (fileValueIndexCol[dv] >= 0)
+                    desiredOrder.add(safeSourceDataNames.get(dv) + "_bloom_");
+            }
             //reorder and ensure all are present
             boolean ok = fileTable.reorderColumns(desiredOrder, true) == desiredOrder.size(); //discardOthers
 
@@ -1176,6 +1224,15 @@ public abstract class EDDTableFromFiles extends EDDTable{
                     break;
                 }
             }
+            if (ok) {
+                for (int dv = 0; dv < ndv; dv++) {
+                    if (fileValueIndexCol[dv] >= 0 && 
+                        !(fileTable.getColumn(fileValueIndexCol[dv]) instanceof StringArray)) {
+                        ok = false;
+                        break;
+                    }
+                }
+            }
             if (!ok) {
                 try { //added 2016-05-20
                     String2.log("Old fileTable discarded because of incorrect column names and/or data types (first 2 rows):");
@@ -1214,6 +1271,10 @@ public abstract class EDDTableFromFiles extends EDDTable{
                 fileTable.addColumn(safeSourceDataNames.get(dv) + "_hasNaN_", 
                     PrimitiveArray.factory(PAType.BYTE, 8, false));
             }
+            for (int dv = 0; dv < ndv; dv++) {
+                if (fileValueIndexCol[dv] >= 0)
+                    fileTable.addColumn(safeSourceDataNames.get(dv) + "_bloom_", new StringArray());
+            }
 
             badFileMap = newEmptyBadFileMap();
         }
@@ -1245,6 +1306,7 @@ public abstract class EDDTableFromFiles extends EDDTable{
 
         //doQuickRestart? 
         boolean doQuickRestart = fileTable.nRows() > 0 && 
+            fileTable.globalAttributes().get(_checkpoint_) == null &&
             (testQuickRestart || (EDStatic.quickRestart && EDStatic.initialLoadDatasets()));
         if (verbose)
             String2.log("doQuickRestart=" + doQuickRestart);
@@ -1415,11 +1477,32 @@ public abstract class EDDTableFromFiles extends EDDTable{
             long removeCumTime = 0;
             int nUnchanged = 0, nRemoved = 0, nDifferentModTime = 0, nNew = 0;
             elapsedTime = System.currentTimeMillis();
+            long checkpointTime = elapsedTime;
+            int nReadFileAtCheckpoint = 0;
             while (tFileListPo < tFileNamePA.size()) {
                 if (Thread.currentThread().isInterrupted())
                     throw new SimpleException("EDDTableFromFiles.init" +
                         EDStatic.caughtInterrupted);
 
+                //checkpoint? The rows before fileListPo are up-to-date. 
+                //The rows after are from the previous fileTable (and will be rechecked next time).
+                if (nReadFile > nReadFileAtCheckpoint &&
+                    System.currentTimeMillis() - checkpointTime >= checkpointEveryNMillis) {
+                    try {
+                        fileTable.globalAttributes().set(_checkpoint_, tFileListPo + " of " + ntft);
+                        saveDirTableFileTableBadFiles(standardizeWhat, dirTable, fileTable, badFileMap); //throws Throwable
+                        if (verbose) String2.log("checkpoint saved after " + tFileListPo + " of " + 
+                            ntft + " files (nReadFile=" + nReadFile + ")");
+                    } catch (Throwable t) {
+                        //saveDirTableFileTableBadFiles logged and emailed it. Keep going.
+                    }
+                    checkpointTime = System.currentTimeMillis();
+                    nReadFileAtCheckpoint = nReadFile;
+                }
+                if (testInterruptAfterNReadFiles >= 0 && nReadFile >= testInterruptAfterNReadFiles)
+                    throw new SimpleException("EDDTableFromFiles.init" +
+                        EDStatic.caughtInterrupted);
+
                 int    tDirI   = tFileDirIndexPA.get(tFileListPo);
                 String tFileS  = tFileNamePA.get(tFileListPo);
                 int    dirI    = fileListPo < ftFileList.size()? ftDirIndex.get(fileListPo) : Integer.MAX_VALUE;
@@ -1624,6 +1707,7 @@ public abstract class EDDTableFromFiles extends EDDTable{
         Table tMinMaxTable = makeMinMaxTable(dirList, fileTable);
 
         //if !quickRestart, save dirTable, fileTable, badFileMap
+        fileTable.globalAttributes().remove(_checkpoint_); //it's complete
         if (!doQuickRestart) 
             saveDirTableFileTableBadFiles(standardizeWhat, dirTable, fileTable, badFileMap); //throws Throwable
         //then make related changes as quickly/atomically as possible
@@ -1896,7 +1980,11 @@ public abstract class EDDTableFromFiles extends EDDTable{
         //    " type=" + edv.sourceDataType() + " min=" + edv.destinationMinDouble());
 
         //dirTable and fileTable InMemory?
-        if (!fileTableInMemory) {
+        if (fileTableInMemory) {
+            //they are read-only from here on, so use less memory
+            dirTable.compactStringColumns();
+            fileTable.compactStringColumns();
+        } else {
             dirTable = null;
             fileTable = null;
         }
@@ -2199,6 +2287,8 @@ public abstract class EDDTableFromFiles extends EDDTable{
             fileTable.setStringData(dv0 + dv*3 + 0, fileListPo, ""); //numeric will be NaN
             fileTable.setStringData(dv0 + dv*3 + 1, fileListPo, "");
             fileTable.setStringData(dv0 + dv*3 + 2, fileListPo, ""); //hasNaN unspecified
+            if (fileValueIndexCol[dv] >= 0)
+                fileTable.setStringData(fileValueIndexCol[dv], fileListPo, ""); //no index
 
             //skip this variable if not in this source file 
             String dvName = sourceDataNames.get(dv);
@@ -2274,6 +2364,17 @@ public abstract class EDDTableFromFiles extends EDDTable{
                     }
                 }
             }
+
+            //make the fileValueIndex
+            //(not if file has just 1 value, since then min=max is enough)
+            //(not if file's data type is unexpected, e.g., String vs int, since then hashes differ)
+            if (fileValueIndexCol[dv] >= 0 &&
+                (tPaPAType == PAType.STRING) == sourceDataTypes[dv].equals("String") &&
+                !fileTable.getStringData(dv0 + dv*3 + 0, fileListPo).equals(
+                 fileTable.getStringData(dv0 + dv*3 + 1, fileListPo)))
+                fileTable.setStringData(fileValueIndexCol[dv], fileListPo, 
+                    BloomFilter.make(pa, EDStatic.fileValueIndexMaxBits));
+
             //if (logThis)
             //    String2.log(dvName + 
             //        " min="    + fileTable.getStringData(dv0 + dv*3 + 0, fileListPo) + 
@@ -2282,6 +2383,18 @@ public abstract class EDDTableFromFiles extends EDDTable{
         }
     }
 
+    /**
+     * This indicates if this subclass supports the optional fileValueIndex columns
+     * in fileTable (see EDStatic.fileValueIndexMaxBits).
+     * Subclasses which change fileTable rows without calling setFileTableRow
+     * must override this to return false.
+     *
+     * @return true (the default) if fileValueIndex columns are supported.
+     */
+    protected boolean supportsFileValueIndex() {
+        return true;
+    }
+
     /** 
      * This is used to make a new minMaxTable just before saving a changed fileTable.
      *
@@ -2626,6 +2739,8 @@ public abstract class EDDTableFromFiles extends EDDTable{
             minMaxTable = tMinMaxTable;
             if (fileTableInMemory) {
                 //quickly swap into place
+                tDirTable.compactStringColumns();
+                tFileTable.compactStringColumns();
                 dirTable  = tDirTable;
                 fileTable = tFileTable; 
             }
@@ -3698,6 +3813,16 @@ public abstract class EDDTableFromFiles extends EDDTable{
                             ok = false;
                             break;
                         }
+                        if (op.equals("=") && fileValueIndexCol[dv] >= 0 &&
+                            !BloomFilter.mightContain(tFileTable.getStringData(fileValueIndexCol[dv], f),
+                                conEdvSourcePAType, conValues.get(con))) {
+                            if (debugMode) 
+                                String2.log("file " + f + 
+                                    " rejected because fileValueIndex doesn't have " +
+                                    conVars.get(con) + op + String2.toJson(conValues.get(con), 256));
+                            ok = false;
+                            break;
+                        }
 
                     } else {
                         //numeric variables (and not PrimitiveArray.REGEX_OP)
@@ -3714,6 +3839,16 @@ public abstract class EDDTableFromFiles extends EDDTable{
                             ok = false;
                             break;
                         }
+                        if (op.equals("=") && fileValueIndexCol[dv] >= 0 &&
+                            !BloomFilter.mightContain(tFileTable.getStringData(fileValueIndexCol[dv], f),
+                                conEdvSourcePAType, conValues.get(con))) {
+                            if (debugMode) 
+                                String2.log("file " + f + 
+                                    " rejected because fileValueIndex doesn't have " +
+                                    conVars.get(con) + op + conValues.get(con));
+                            ok = false;
+                            break;
+                        }
                     }
                 }
                 if (!ok) {
@@ -285,6 +285,16 @@ public class EDDTableFromHttpGet extends EDDTableFromFiles {
             datasetID + " finished successfully.");
     }
 
+    /**
+     * EDDTableFromHttpGet doesn't support fileValueIndex columns because
+     * insertOrDelete() changes fileTable rows directly.
+     *
+     * @return false
+     */
+    protected boolean supportsFileValueIndex() {
+        return false;
+    }
+
     /**
      * This gets source data from one file.
      * See documentation in EDDTableFromFiles.
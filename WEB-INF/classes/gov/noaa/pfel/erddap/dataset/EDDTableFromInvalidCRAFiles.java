@@ -147,7 +147,8 @@ public class EDDTableFromInvalidCRAFiles extends EDDTableFromFiles {
         Table table = new Table();
         String decompFullName = FileVisitorDNLS.decompressIfNeeded(
             tFileDir + tFileName, fileDir, decompressedDirectory(), 
-            EDStatic.decompressedCacheMaxGB, true); //reuseExisting
+            EDStatic.decompressedCacheMaxGB, true, //reuseExisting
+            compressedIndexDirectory(), false); //inMemoryOk
         table.readInvalidCRA(decompFullName, sourceDataNames, 
             standardizeWhat,
             sourceConVars, sourceConOps, sourceConValues);
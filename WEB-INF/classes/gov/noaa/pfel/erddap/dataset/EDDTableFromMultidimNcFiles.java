@@ -118,7 +118,8 @@ public class EDDTableFromMultidimNcFiles extends EDDTableFromFiles {
         Table table = new Table();
         String decompFullName = FileVisitorDNLS.decompressIfNeeded(
             tFileDir + tFileName, fileDir, decompressedDirectory(), 
-            EDStatic.decompressedCacheMaxGB, true); //reuseExisting
+            EDStatic.decompressedCacheMaxGB, true, //reuseExisting
+            compressedIndexDirectory(), true); //inMemoryOk
         table.readMultidimNc(decompFullName, sourceDataNames, null,
             treatDimensionsAs,
             getMetadata, standardizeWhat, removeMVRows,  
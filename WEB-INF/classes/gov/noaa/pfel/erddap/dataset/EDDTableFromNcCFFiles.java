@@ -133,7 +133,8 @@ public class EDDTableFromNcCFFiles extends EDDTableFromFiles {
         Table table = new Table();
         String decompFullName = FileVisitorDNLS.decompressIfNeeded(
             tFileDir + tFileName, fileDir, decompressedDirectory(), 
-            EDStatic.decompressedCacheMaxGB, true); //reuseExisting
+            EDStatic.decompressedCacheMaxGB, true, //reuseExisting
+            compressedIndexDirectory(), true); //inMemoryOk
         table.readNcCF(decompFullName, sourceDataNames, standardizeWhat,
             sourceConVars, sourceConOps, sourceConValues);
         return table;
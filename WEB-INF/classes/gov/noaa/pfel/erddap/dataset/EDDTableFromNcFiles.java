@@ -210,7 +210,8 @@ public class EDDTableFromNcFiles extends EDDTableFromFiles {
         Table table = new Table();
         String decompFullName = FileVisitorDNLS.decompressIfNeeded(
             tFileDir + tFileName, fileDir, decompressedDirectory(), 
-            EDStatic.decompressedCacheMaxGB, true); //reuseExisting
+            EDStatic.decompressedCacheMaxGB, true, //reuseExisting
+            compressedIndexDirectory(), true); //inMemoryOk
         table.readNDNc(decompFullName, sourceDataNames.toArray(),
             standardizeWhat,
             sortedSpacing >= 0 && !Double.isNaN(minSorted)? sortedColumnSourceName : null,
@@ -2996,6 +2997,192 @@ Test.ensureEqual(results, expected, "\nresults=\n" + results);
 
     }
 
+    /**
+     * This tests that orderBy and distinct give the same results 
+     * when they use an external merge sort (forced by a tiny sortMemoryMaxBytes).
+     *
+     * @throws Throwable if trouble
+     */
+    public static void testExternalSort() throws Throwable {
+        String2.log("\n****************** EDDTableFromNcFiles.testExternalSort() *****************\n");
+        testVerboseOn();
+        String tName, results, expected;
+        String dir = EDStatic.fullTestCacheDirectory;
+        EDDTable eddTable = (EDDTable)oneFromDatasetsXml(null, "cwwcNDBCMet"); 
+        String queries[] = {
+            "time,station,wtmp,atmp&station>\"4\"&station<\"6\"" +
+                "&time>=2005-04-19&time<2005-04-21&orderBy(\"station,time\")",
+            "time,station,wtmp,atmp&station>\"4\"&station<\"6\"" +
+                "&time>=2005-04-19&time<2005-04-21&orderBy(\"wtmp\")",  //many ties, so tests stability
+            "station,wtmp&station>\"4\"&station<\"6\"" +
+                "&time>=2005-04-19&time<2005-04-21&distinct()"};
+        int oSortMemoryMaxBytes = EDStatic.sortMemoryMaxBytes;
+        try {
+            for (int q = 0; q < queries.length; q++) {
+                EDStatic.sortMemoryMaxBytes = EDStatic.DEFAULT_sortMemoryMaxBytes;
+                tName = eddTable.makeNewFileForDapQuery(null, null, queries[q], dir, 
+                    eddTable.className() + "_inMemorySort" + q, ".csv"); 
+                expected = String2.directReadFrom88591File(dir + tName);
+
+                EDStatic.sortMemoryMaxBytes = 1; //so each run is 100 rows
+                tName = eddTable.makeNewFileForDapQuery(null, null, queries[q], dir, 
+                    eddTable.className() + "_externalSort" + q, ".csv"); 
+                results = String2.directReadFrom88591File(dir + tName);
+                Test.ensureTrue(String2.countAll(expected, "\n") > 200, 
+                    "Too few rows to test the external sort: q=" + q);
+                Test.ensureEqual(results, expected, "q=" + q + "\nresults=\n" + results);
+
+                //merge just 2 runs at a time, so there is more than one merge pass
+                TableWriterAll.maxMergeFanIn = 2; 
+                long oNPasses = TableWriterAll.totalNIntermediateMergePasses;
+                tName = eddTable.makeNewFileForDapQuery(null, null, queries[q], dir, 
+                    eddTable.className() + "_externalSortPasses" + q, ".csv"); 
+                results = String2.directReadFrom88591File(dir + tName);
+                Test.ensureTrue(TableWriterAll.totalNIntermediateMergePasses > oNPasses, 
+                    "No intermediate merge pass: q=" + q);
+                Test.ensureEqual(results, expected, "q=" + q + " (2-way merges)\nresults=\n" + results);
+                TableWriterAll.maxMergeFanIn = 64;
+            }
+        } finally {
+            EDStatic.sortMemoryMaxBytes = oSortMemoryMaxBytes;
+            TableWriterAll.maxMergeFanIn = 64;
+        }
+    }
+
+    /**
+     * This tests that orderByMean, orderByCount, orderByMax, orderByMin,
+     * and orderByMinMax get the same results when there are too many groups 
+     * to hold in memory (so rows are spilled to partitions).
+     *
+     * @throws Throwable if trouble
+     */
+    public static void testAggregateSpill() throws Throwable {
+        String2.log("\n****************** EDDTableFromNcFiles.testAggregateSpill() *****************\n");
+        testVerboseOn();
+        String tName, results, expected;
+        String dir = EDStatic.fullTestCacheDirectory;
+        EDDTable eddTable = (EDDTable)oneFromDatasetsXml(null, "cwwcNDBCMet"); 
+        String base = "time,station,wtmp,atmp&station>\"4\"&station<\"6\"" +
+                "&time>=2005-04-19&time<2005-04-21";
+        String queries[] = {
+            base + "&orderByMean(\"station,time/3hours\")",
+            base + "&orderByCount(\"station,time/3hours\")",
+            base + "&orderByMax(\"station,time/3hours,wtmp\")",
+            base + "&orderByMin(\"station,time/3hours,wtmp\")",
+            base + "&orderByMinMax(\"station,time/3hours,wtmp\")"};
+        int oSortMemoryMaxBytes = EDStatic.sortMemoryMaxBytes;
+        try {
+            for (int q = 0; q < queries.length; q++) {
+                EDStatic.sortMemoryMaxBytes = EDStatic.DEFAULT_sortMemoryMaxBytes;
+                tName = eddTable.makeNewFileForDapQuery(null, null, queries[q], dir, 
+                    eddTable.className() + "_inMemoryGroups" + q, ".csv"); 
+                expected = String2.directReadFrom88591File(dir + tName);
+
+                EDStatic.sortMemoryMaxBytes = 1; //so maxGroups=100
+                tName = eddTable.makeNewFileForDapQuery(null, null, queries[q], dir, 
+                    eddTable.className() + "_spilledGroups" + q, ".csv"); 
+                results = String2.directReadFrom88591File(dir + tName);
+                Test.ensureTrue(String2.countAll(expected, "\n") > 110, 
+                    "Too few groups to test spilling: q=" + q);
+                Test.ensureEqual(results, expected, "q=" + q + "\nresults=\n" + results);
+            }
+        } finally {
+            EDStatic.sortMemoryMaxBytes = oSortMemoryMaxBytes;
+        }
+    }
+
+    /**
+     * This tests that EDDTableFromFiles uses the fileValueIndex (Bloom filter) 
+     * columns in fileTable to skip files which don't have the requested value,
+     * even though the value is between the file's min and max.
+     *
+     * @throws Throwable if trouble
+     */
+    public static void testFileValueIndex() throws Throwable {
+        String2.log("\n****************** EDDTableFromNcFiles.testFileValueIndex() *****************\n");
+        testVerboseOn();
+        String tDatasetID = "testFileValueIndex";
+        String dataDir = EDStatic.fullTestCacheDirectory + tDatasetID + "/";
+        File2.makeDirectory(dataDir);
+        File2.deleteAllFiles(dataDir);
+
+        //each file has 2 stations, so min != max. 
+        //"B2" is between the min and max of all 3 files, but only f1 has it.
+        String stations[][] = {{"A1", "C3"}, {"B2", "D4"}, {"A1", "D4"}};
+        int values[][]      = {{1,    3},    {2,    4},    {1,    4}};
+        for (int f = 0; f < stations.length; f++) {
+            Table table = new Table();
+            table.addColumn("station", new StringArray(stations[f]));
+            table.addColumn("value",   new IntArray(values[f]));
+            table.saveAsFlatNc(dataDir + "f" + f + ".nc", "row", false);
+        }
+        String xml = 
+"<dataset type=\"EDDTableFromNcFiles\" datasetID=\"" + tDatasetID + "\" active=\"true\">\n" +
+"    <reloadEveryNMinutes>10000</reloadEveryNMinutes>\n" +
+"    <fileDir>" + dataDir + "</fileDir>\n" +
+"    <fileNameRegex>.*\\.nc</fileNameRegex>\n" +
+"    <recursive>false</recursive>\n" +
+"    <metadataFrom>last</metadataFrom>\n" +
+"    <fileTableInMemory>false</fileTableInMemory>\n" +
+"    <addAttributes>\n" +
+"        <att name=\"cdm_data_type\">Other</att>\n" +
+"        <att name=\"Conventions\">COARDS, CF-1.6, ACDD-1.3</att>\n" +
+"        <att name=\"infoUrl\">https://www.pfeg.noaa.gov</att>\n" +
+"        <att name=\"institution\">NOAA</att>\n" +
+"        <att name=\"license\">[standard]</att>\n" +
+"        <att name=\"summary\">A dataset for testing fileValueIndexMaxBits.</att>\n" +
+"        <att name=\"title\">Test fileValueIndexMaxBits</att>\n" +
+"    </addAttributes>\n" +
+"    <dataVariable>\n" +
+"        <sourceName>station</sourceName>\n" +
+"        <destinationName>station</destinationName>\n" +
+"        <dataType>String</dataType>\n" +
+"        <addAttributes>\n" +
+"            <att name=\"ioos_category\">Identifier</att>\n" +
+"        </addAttributes>\n" +
+"    </dataVariable>\n" +
+"    <dataVariable>\n" +
+"        <sourceName>value</sourceName>\n" +
+"        <destinationName>value</destinationName>\n" +
+"        <dataType>int</dataType>\n" +
+"        <addAttributes>\n" +
+"            <att name=\"ioos_category\">Unknown</att>\n" +
+"        </addAttributes>\n" +
+"    </dataVariable>\n" +
+"</dataset>\n";
+        String dir = EDStatic.fullTestCacheDirectory;
+        String queries[] = {"station,value&station=\"B2\"", "station,value&value=2"};
+        String expected = 
+"station,value\n" +
+",\n" +
+"B2,2\n";
+        int oMaxBits = EDStatic.fileValueIndexMaxBits;
+        try {
+            for (int maxBits = 0; maxBits <= 4096; maxBits += 4096) {
+                EDStatic.fileValueIndexMaxBits = maxBits;
+                deleteCachedDatasetInfo(tDatasetID); //so fileTable is remade
+                EDDTableFromFiles eddTable = (EDDTableFromFiles)oneFromXmlFragment(null, xml);
+                for (int q = 0; q < queries.length; q++) {
+                    long oNNotRead = eddTable.cumNNotRead;
+                    long oNRead = eddTable.cumNReadHaveMatch + eddTable.cumNReadNoMatch;
+                    String tName = eddTable.makeNewFileForDapQuery(null, null, queries[q], dir, 
+                        eddTable.className() + "_fileValueIndex" + maxBits + "_" + q, ".csv"); 
+                    String results = String2.directReadFrom88591File(dir + tName);
+                    Test.ensureEqual(results, expected, "maxBits=" + maxBits + " q=" + q + 
+                        "\nresults=\n" + results);
+                    long nNotRead = eddTable.cumNNotRead - oNNotRead;
+                    long nRead = eddTable.cumNReadHaveMatch + eddTable.cumNReadNoMatch - oNRead;
+                    //without the index, all 3 files are read; with it, just f1
+                    Test.ensureEqual(nRead,    maxBits == 0? 3 : 1, "maxBits=" + maxBits + " q=" + q);
+                    Test.ensureEqual(nNotRead, maxBits == 0? 0 : 2, "maxBits=" + maxBits + " q=" + q);
+                }
+            }
+        } finally {
+            EDStatic.fileValueIndexMaxBits = oMaxBits;
+            deleteCachedDatasetInfo(tDatasetID); 
+        }
+    }
+
     /**
      * This tests orderByCount.
      *
@@ -18772,6 +18959,9 @@ if (test ==  6) testNetcdf();  //trouble: opendap bytes are 0 - 255, Java/ERDDAP
                     if (test == 20) testAddVariablesWhere();
                     if (test == 21) testStationLonLat();
                     if (test == 22) testGlobal();  //tests global: metadata to data conversion
+                    if (test == 23) testExternalSort();
+                    if (test == 26) testAggregateSpill();
+                    if (test == 27) testFileValueIndex();
                     if (test == 24) testGenerateDatasetsXml2();
                     if (test == 25) testGenerateDatasetsXmlNcdump();
                     if (test == 28) testErdGtsppBest("erdGtsppBestNc");
@@ -157,13 +157,9 @@ public class EDDTableFromThreddsFiles extends EDDTableFromFiles {
         try {
             //if previous tasks are still running, return
             EDStatic.ensureTaskThreadIsRunningIfNeeded();  //ensure info is up-to-date
-            Integer lastAssignedTask = (Integer)EDStatic.lastAssignedTask.get(tDatasetID);
-            boolean pendingTasks = lastAssignedTask != null &&  
-                EDStatic.lastFinishedTask < lastAssignedTask.intValue();
+            boolean pendingTasks = EDStatic.hasPendingTasks(tDatasetID);
             if (verbose) 
-                String2.log("  lastFinishedTask=" + EDStatic.lastFinishedTask + 
-                    " < lastAssignedTask(" + tDatasetID + ")=" + lastAssignedTask + 
-                    "? pendingTasks=" + pendingTasks);
+                String2.log("  pendingTasks(" + tDatasetID + ")=" + pendingTasks);
             if (pendingTasks) 
                 return;
 
@@ -355,7 +351,7 @@ public class EDDTableFromThreddsFiles extends EDDTableFromFiles {
                 taskOA[1] = sourceDir + sourceName;
                 taskOA[2] = localFile;
                 taskOA[3] = new Long(sourceFileLastMod.get(f));
-                int tTaskNumber = EDStatic.addTask(taskOA);
+                int tTaskNumber = EDStatic.addTask(tDatasetID, taskOA);
                 if (tTaskNumber >= 0) {
                     nTasksCreated++;
                     taskNumber = tTaskNumber;
@@ -371,7 +367,7 @@ public class EDDTableFromThreddsFiles extends EDDTableFromFiles {
                 Object taskOA[] = new Object[2];
                 taskOA[0] = TaskThread.TASK_SET_FLAG;
                 taskOA[1] = tDatasetID;
-                taskNumber = EDStatic.addTask(taskOA); //TASK_SET_FLAG will always be added
+                taskNumber = EDStatic.addTask(tDatasetID, taskOA); //TASK_SET_FLAG will always be added
                 nTasksCreated++;
                 if (reallyVerbose)
                     String2.log("  task#" + taskNumber + " TASK_SET_FLAG " + tDatasetID);
@@ -387,7 +383,6 @@ public class EDDTableFromThreddsFiles extends EDDTableFromFiles {
                     MustBe.throwableToString(t));
         }
         if (taskNumber > -1) {
-            EDStatic.lastAssignedTask.put(tDatasetID, new Integer(taskNumber));
             EDStatic.ensureTaskThreadIsRunningIfNeeded();  //ensure info is up-to-date
         }
     }
@@ -608,7 +603,8 @@ public class EDDTableFromThreddsFiles extends EDDTableFromFiles {
         Table table = new Table();
         String decompFullName = FileVisitorDNLS.decompressIfNeeded(
             tFileDir + tFileName, fileDir, decompressedDirectory(), 
-            EDStatic.decompressedCacheMaxGB, true); //reuseExisting
+            EDStatic.decompressedCacheMaxGB, true, //reuseExisting
+            compressedIndexDirectory(), true); //inMemoryOk
         table.readNDNc(decompFullName, sourceDataNames.toArray(), 
             standardizeWhat,
             sortedSpacing >= 0 && !Double.isNaN(minSorted)? sortedColumnSourceName : null,
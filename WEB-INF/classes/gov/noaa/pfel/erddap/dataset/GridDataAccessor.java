@@ -89,6 +89,7 @@ public class GridDataAccessor {
     protected EDV dataVariables[]; //[dv in the query]
     protected IntArray constraints;
     protected int getAllOfNAxes;
+    protected int leftmostNPerChunk = 1; //if avInDriver[0], the number of leftmost axis values per partial request
     protected NDimensionalIndex totalIndex, driverIndex, partialIndex;
     protected boolean avInDriver[];
     protected Attributes globalAttributes;
@@ -312,7 +313,12 @@ public class GridDataAccessor {
         avInDriver = new boolean[nAxisVariables]; 
         Arrays.fill(avInDriver, true);
         long nBytesPerPartialRequest = nDataBytesPerRow; //long to safely avoid overflow
-        int tPartialRequestMaxBytes = EDStatic.partialRequestMaxBytes; //local copy so constant for this calculation
+        //local copy so constant for this calculation.
+        //With nThreads>1, some datasets (e.g., EDDGridFromFiles) prefer smaller 
+        //  partial requests, so the threads can work on different files at the same time.
+        int tPartialRequestMaxBytes = Math.min(EDStatic.partialRequestMaxBytes,
+            eddGrid.preferredPartialRequestMaxBytes(nThreads, 
+                totalIndex.size() * nDataBytesPerRow));
         if (rowMajor) {
             //work from right
             int av = axisAttributes.length - 1;
@@ -349,6 +355,21 @@ public class GridDataAccessor {
         tDirTable  = eddGrid.getDirTable();   //throw exception if trouble
         tFileTable = eddGrid.getFileTable(); 
 
+        //If nThreads>1 and each partial request gets 1 leftmost axis value (e.g., 1 time)
+        //  (and all of the other axes), try to get several leftmost axis values per
+        //  partial request, but only in ways that keep each partial request within 
+        //  one source file (e.g., of EDDGridFromFiles).
+        if (nThreads > 1 && rowMajor && nAxisVariables > 1 && 
+            getAllOfNAxes == nAxisVariables - 1) {
+            leftmostNPerChunk = leftmostNPerChunk(
+                eddGrid.leftmostAxisNValuesPerFile(tFileTable),
+                constraints.get(0), constraints.get(1), totalShape[0],
+                nBytesPerPartialRequest, tPartialRequestMaxBytes);
+            driverShape[0]  = totalShape[0] / leftmostNPerChunk;
+            partialShape[0] = leftmostNPerChunk;
+            nBytesPerPartialRequest *= leftmostNPerChunk;
+        }
+
         //finish up
         EDStatic.ensureMemoryAvailable(nBytesPerPartialRequest, "GridDataAccessor");
         driverIndex = new NDimensionalIndex(driverShape);
@@ -366,6 +387,41 @@ public class GridDataAccessor {
         
     }
 
+    /**
+     * This determines how many leftmost axis values (with all of the other axes) 
+     * each partial request should get, so that every partial request is the same size
+     * and stays within one source file.
+     * The source files each have nPerFile leftmost axis values, so file f has
+     * source indices [f*nPerFile, (f+1)*nPerFile).
+     * If the request has the same number of values from each file
+     * (nPerFile is a multiple of stride and start is in the first stride of a file),
+     * the result is the largest divisor of gcd(nPerFile/stride, n)
+     * for which a partial request is less than maxBytes.
+     * So the partial request boundaries include all of the file boundaries.
+     *
+     * @param nPerFile the number of leftmost axis values in each source file,
+     *    or -1 if unknown or if it varies.
+     * @param start the request's start index (a source index) for the leftmost axis
+     * @param stride the request's stride for the leftmost axis
+     * @param n the number of leftmost axis values in the request
+     * @param nBytesPerValue the number of bytes of data per leftmost axis value
+     * @param maxBytes the maximum number of bytes per partial request
+     * @return the number of leftmost axis values per partial request (1 or more).
+     *    n is evenly divisible by this.
+     */
+    public static int leftmostNPerChunk(int nPerFile, int start, int stride, int n,
+        long nBytesPerValue, int maxBytes) {
+        if (nPerFile <= 1 || stride < 1 || n <= 1 || nPerFile % stride != 0 ||
+            start % nPerFile >= stride)
+            return 1;
+        int d = Math2.gcd(nPerFile / stride, n);
+        long maxN = (maxBytes - 1) / Math.max(1, nBytesPerValue);
+        for (int k = (int)Math.min(d, maxN); k > 1; k--) 
+            if (d % k == 0)
+                return k;
+        return 1;
+    }
+
 
     /**
      * This returns the totalIndex.
@@ -695,13 +751,16 @@ class GetChunkCallable implements Callable {
             double avInDriverExpectedValues[] = new double[gda.nAxisVariables]; //source value
             for (int av = 0; av < gda.nAxisVariables; av++) {
                 if (gda.avInDriver[av]) {
-                    //get 1 value: driverCurrent indicates 'which' in 0,1,2... form
+                    //get 1 value (or leftmostNPerChunk values for av=0): 
+                    //driverCurrent indicates 'which' in 0,1,2... form
                     //so need calculate source 'which' based on total constraint
+                    int tn = av == 0? gda.leftmostNPerChunk : 1;
+                    int stride = gda.constraints.get(pcPo + 1);
                     int which = gda.constraints.get(pcPo + 0) +
-                        driverCurrent[av] * gda.constraints.get(pcPo + 1);
+                        driverCurrent[av] * tn * stride;
                     partialConstraints.set(pcPo + 0, which);
-                    partialConstraints.set(pcPo + 1, 1);
-                    partialConstraints.set(pcPo + 2, which);
+                    partialConstraints.set(pcPo + 1, tn == 1? 1 : stride);
+                    partialConstraints.set(pcPo + 2, which + (tn - 1) * stride);
                     avInDriverExpectedValues[av] = gda.axisVariables[av].sourceValues().getDouble(which);
                 } //no change if !avInDriver[av]
                 pcPo += 3;
@@ -747,7 +806,7 @@ class GetChunkCallable implements Callable {
             for (int av = 0; av < gda.nAxisVariables; av++) {
                 PrimitiveArray pa = partialResults[av];
                 if (gda.avInDriver[av]) {
-                    if (pa.size() != 1 ||
+                    if (pa.size() != (av == 0? gda.leftmostNPerChunk : 1) ||
                         !Math2.almostEqual(9, pa.getDouble(0), avInDriverExpectedValues[av])) { //source values
                         throw new WaitThenTryAgainException(EDStatic.waitThenTryAgain +
                             "\n(Details: GridDataAccessor.increment: partialResults[" + av +
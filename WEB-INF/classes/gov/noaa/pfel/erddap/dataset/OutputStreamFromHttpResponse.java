@@ -136,6 +136,9 @@ public class OutputStreamFromHttpResponse implements OutputStreamSource {
                    extension.equals(".aifc")) {
             response.setContentType("audio/x-aiff"); 
 
+        } else if (extension.equals(".arrow")) {
+            response.setContentType("application/vnd.apache.arrow.stream"); 
+
         } else if (extension.equals(".asc")) { 
             //There are a couple of fileNameTypes that lead to .asc.
             //If DODS, ...
@@ -738,6 +741,7 @@ public class OutputStreamFromHttpResponse implements OutputStreamSource {
 
         //specify the file's name  (this may force show File Save As dialog box in user's browser)        
         if (genericCompressed ||         //include all genericCompressed types
+            extension.equals(".arrow") || 
             extension.equals(".cdf")  || 
             extension.equals(".csv")  || 
             extension.equals(".itx")  || 
@@ -0,0 +1,833 @@
+/*
+ * ResponseCache Copyright, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.util.Calendar2;
+import com.cohort.util.File2;
+import com.cohort.util.Math2;
+import com.cohort.util.MustBe;
+import com.cohort.util.String2;
+
+import gov.noaa.pfel.coastwatch.util.SSR;
+import gov.noaa.pfel.erddap.util.EDStatic;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * ResponseCache is a cache (shared by all datasets) of recent responses to
+ * griddap and tabledap requests for file types which are streamed to the user
+ * (e.g., .csv, .json, .dods, .htmlTable), so identical requests
+ * (e.g., from many clients polling the same latest-value URL)
+ * can be answered without getting the data again.
+ * (File types which are made as files, e.g., .nc and .png, are already
+ * cached in each dataset's cacheDirectory.)
+ *
+ * <p>Entries are keyed by datasetID, the dataset's creationTime
+ * (so a reloaded dataset never uses an old entry), loggedInAs,
+ * the fileType, and the percent-decoded query.
+ * Small responses are stored in memory. If responseCacheDiskMaxMB &gt; 0,
+ * larger responses are stored in files in EDStatic.fullCacheDirectory + "_responseCache/".
+ * Each tier has a byte budget; the least recently used entries are removed
+ * to make room, and no entry may use more than 1/10th of its tier's budget.
+ * Responses which are being captured count against the budget as they grow,
+ * and a capture is abandoned as soon as it is too big.
+ * Entries expire after responseCacheMaxSeconds and are removed
+ * (via remove(datasetID)) when the dataset is updated or reloaded.
+ * A response which was being made when its dataset's entries were removed
+ * isn't stored (see generation()).
+ *
+ * <p>Each response which is put in the cache has an ETag header.
+ * If a request's If-None-Match header has the ETag of the cached response,
+ * the response is just "304 Not Modified".
+ *
+ * <p>Identical requests which arrive while the first one is being answered
+ * wait for its response to be made, then get the response from the cache
+ * (see respondOrCapture and Capture).
+ *
+ * <p>The data is stored uncompressed, so each response from the cache
+ * is compressed (or not) as requested by that user.
+ *
+ * <p>This is thread-safe.
+ */
+public class ResponseCache {
+
+    /**
+     * Set this to true (by calling verbose=true in your program,
+     * not by changing the code here)
+     * if you want lots of diagnostic messages sent to String2.log.
+     */
+    public static boolean verbose = false;
+
+    /** The fileTypes which may be cached. */
+    public final static String FILE_TYPES[] = {
+        ".arrow", ".asc", ".csv", ".csvp", ".csv0", ".das", ".dds", ".dods",
+        ".esriCsv", ".geoJson", ".htmlTable", ".itx", ".json",
+        ".jsonlCSV1", ".jsonlCSV", ".jsonlKVP", ".nccsv", ".nccsvMetadata",
+        ".ncoJson", ".odvTxt", ".tsv", ".tsvp", ".tsv0", ".xhtml"};
+
+    /** A response in the cache. */
+    private static class Entry {
+        String datasetID;
+        String etag;
+        String characterEncoding;
+        long createdAt;
+        long nBytes;
+        byte bytes[];    //if in memory (else null)
+        String fileName; //if on disk (else null)
+    }
+
+    //all of these are guarded by synchronized(entries)
+    //accessOrder=true, so the first entry is the least recently used
+    private static LinkedHashMap<String,Entry> entries = new LinkedHashMap(64, 0.75f, true);
+    private static long memoryBytes = 0, diskBytes = 0; //entries + captures in progress
+    private static HashMap<String,Capture> inFlight = new HashMap(); //the requests being answered now
+    private static HashMap<String,Long> generations = new HashMap(); //datasetID -> nRemoves
+    private static long nClears = 0;
+    private static long nHits = 0, nNotModified = 0, nMisses = 0, nCoalesced = 0, 
+        nStored = 0, nTooBig = 0, nStale = 0, nEvicted = 0, nRemoved = 0;
+    private static long nextId = 0;
+    private static boolean diskDirReady = false;
+
+    /** 
+     * The maximum time that a request will wait for an identical request
+     * (which is being answered by another thread) to finish. 
+     */
+    public final static long MAX_WAIT_MILLIS = 10 * Calendar2.MILLIS_PER_MINUTE;
+
+    /** This makes the ETags unique to this run of ERDDAP. */
+    private final static String ETAG_BASE = Long.toString(System.currentTimeMillis(), 36);
+
+    /**
+     * This returns the directory for responses stored on disk.
+     */
+    public static String diskDirectory() {
+        return EDStatic.fullCacheDirectory + "_responseCache/";
+    }
+
+    /**
+     * This returns the cache key for a request,
+     * or null if the response to this request shouldn't be cached
+     * (e.g., the cache is off or the fileType isn't cacheable).
+     *
+     * @param request the user's request
+     * @param dataset the dataset
+     * @param loggedInAs the name of the logged in user (or null if not logged in)
+     * @param userDapQuery the part of the user's request after the '?',
+     *    still percentEncoded, may be null.
+     * @param fileTypeName e.g., .csv
+     * @return the key, or null
+     */
+    public static String key(HttpServletRequest request, EDD dataset, String loggedInAs,
+        String userDapQuery, String fileTypeName) {
+
+        if ((EDStatic.responseCacheMaxMB <= 0 && EDStatic.responseCacheDiskMaxMB <= 0) ||
+            String2.indexOf(FILE_TYPES, fileTypeName) < 0 ||
+            request.getHeader("Range") != null)
+            return null;
+
+        //canonicalize the query: percent-decode each part (so e.g., %3E and > are the same)
+        StringBuilder sb = new StringBuilder();
+        sb.append(dataset.datasetID()).append('\n')
+          .append(dataset.creationTimeMillis()).append('\n')
+          .append(loggedInAs == null? "" : loggedInAs).append('\n')
+          .append(fileTypeName).append('\n');
+        String parts[] = String2.split(userDapQuery == null? "" : userDapQuery, '&');
+        for (int p = 0; p < parts.length; p++) {
+            if (p == 0 || parts[p].length() > 0) {
+                String part = parts[p];
+                try {
+                    part = SSR.percentDecode(part);
+                } catch (Exception e) {
+                    //leave it as is
+                }
+                sb.append(p == 0? "" : "&").append(part);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * If the response for this key is in the cache, this sends it
+     * (or "304 Not Modified" if the request's If-None-Match header has its ETag)
+     * and returns null.
+     * If an identical request is currently being answered by another thread,
+     * this waits (up to MAX_WAIT_MILLIS) for that response to be put in the cache,
+     * then sends it. (If it wasn't put in the cache, e.g., it was too big or 
+     * the dataset was updated while it was being made, this makes the response.) So one source read serves all of the identical requests
+     * which arrive at about the same time (request coalescing).
+     * Otherwise, this returns a Capture, which the caller must use to
+     * make the response, then call capture.store() (if successful, 
+     * to send the response) and capture.finished() (always, e.g., in a finally clause).
+     *
+     * @param key a key from key()
+     * @param datasetID the datasetID
+     * @param request the user's request
+     * @param response the response
+     * @param outputStreamSource the source of the response's outputStream
+     * @return null if the response was sent, else a Capture
+     * @throws Throwable if trouble (e.g., while writing to the outputStream)
+     */
+    public static Capture respondOrCapture(String key, String datasetID,
+        HttpServletRequest request, HttpServletResponse response,
+        OutputStreamSource outputStreamSource) throws Throwable {
+
+        long deadline = System.currentTimeMillis() + MAX_WAIT_MILLIS;
+        while (true) {
+            Entry entry;
+            Capture leader = null;
+            synchronized(entries) {
+                entry = entries.get(key); //makes it the most recently used
+                if (entry != null && System.currentTimeMillis() - entry.createdAt >=
+                        EDStatic.responseCacheMaxSeconds * 1000L) {
+                    removeEntry(key, entry);
+                    entry = null;
+                }
+                if (entry == null) {
+                    leader = inFlight.get(key);
+                    if (leader == null || deadline == 0) {
+                        //this thread will make the response
+                        nMisses++;
+                        Capture capture = new Capture(key, datasetID, response, outputStreamSource);
+                        if (leader == null) {
+                            capture.inFlight = true;
+                            inFlight.put(key, capture);
+                        }
+                        return capture;
+                    }
+                    nCoalesced++;
+                }
+            }
+
+            if (entry != null) {
+                if (send(entry, request, response, outputStreamSource))
+                    return null;
+                //its file is gone, so try again
+                synchronized(entries) {
+                    if (entries.get(key) == entry)
+                        removeEntry(key, entry);
+                }
+                continue;
+            }
+
+            //wait for the other thread to finish, then look again (but don't wait again,
+            //  e.g., if that response was too big to be cached)
+            if (verbose) String2.log("ResponseCache is waiting for an identical request to finish.");
+            leader.await(deadline - System.currentTimeMillis());
+            deadline = 0;
+        }
+    }
+
+    /**
+     * This sends a cached response (or "304 Not Modified").
+     *
+     * @return true if sent, or false if the entry's file is gone (so nothing was sent).
+     * @throws Throwable if trouble (e.g., while writing to the outputStream)
+     */
+    private static boolean send(Entry entry, HttpServletRequest request,
+        HttpServletResponse response, OutputStreamSource outputStreamSource)
+        throws Throwable {
+
+        //If-None-Match?
+        response.setHeader("ETag", entry.etag);
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            String tags[] = String2.split(ifNoneMatch, ',');
+            for (int i = 0; i < tags.length; i++) {
+                String tag = tags[i].startsWith("W/")? tags[i].substring(2) : tags[i];
+                if (tag.equals(entry.etag) || tag.equals("*")) {
+                    synchronized(entries) {
+                        nNotModified++;
+                    }
+                    response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return true;
+                }
+            }
+        }
+
+        //open the file before committing to this response (it may have been removed)
+        InputStream in = null;
+        if (entry.bytes == null) {
+            try {
+                in = new FileInputStream(entry.fileName);
+            } catch (Exception e) {
+                return false;
+            }
+        }
+        synchronized(entries) {
+            nHits++;
+        }
+        OutputStream out = outputStreamSource.outputStream(entry.characterEncoding);
+        if (in == null) {
+            out.write(entry.bytes);
+        } else {
+            try {
+                byte buffer[] = new byte[32768];
+                int nRead;
+                while ((nRead = in.read(buffer)) >= 0)
+                    out.write(buffer, 0, nRead);
+            } finally {
+                in.close();
+            }
+        }
+        out.flush();
+        if (verbose) String2.log("ResponseCache hit nBytes=" + entry.nBytes +
+            " etag=" + entry.etag);
+        return true;
+    }
+
+    /**
+     * This returns the dataset's generation, which changes each time
+     * remove(datasetID) or clear() is called.
+     * A Capture notes this when it starts and doesn't store the response
+     * if it has changed, since the response may have been made from the old data.
+     * The caller must have synchronized on entries.
+     *
+     * @param datasetID the datasetID
+     * @return the dataset's generation
+     */
+    private static long generation(String datasetID) {
+        Long g = generations.get(datasetID);
+        return (g == null? 0 : g.longValue()) + nClears;
+    }
+
+    /**
+     * This removes all entries for a dataset (e.g., because the dataset was
+     * updated or reloaded).
+     * Responses for this dataset which are being made now won't be stored.
+     *
+     * @param datasetID the datasetID
+     */
+    public static void remove(String datasetID) {
+        synchronized(entries) {
+            Long g = generations.get(datasetID);
+            generations.put(datasetID, new Long(g == null? 1 : g.longValue() + 1));
+            Iterator<Map.Entry<String,Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next().getValue();
+                if (entry.datasetID.equals(datasetID)) {
+                    it.remove();
+                    forget(entry);
+                    nRemoved++;
+                }
+            }
+        }
+    }
+
+    /** This removes all entries. Responses which are being made now won't be stored. */
+    public static void clear() {
+        synchronized(entries) {
+            nClears++;
+            Iterator<Map.Entry<String,Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next().getValue();
+                it.remove();
+                forget(entry);
+                nRemoved++;
+            }
+        }
+    }
+
+    /** The caller must have synchronized on entries. */
+    private static void removeEntry(String key, Entry entry) {
+        entries.remove(key);
+        forget(entry);
+        nRemoved++;
+    }
+
+    /**
+     * This reserves room for nBytes in the memory or disk tier,
+     * removing the least recently used entries of that tier if needed.
+     * The caller must have synchronized on entries.
+     *
+     * @param inMemory true for the memory tier, false for the disk tier
+     * @param nBytes the number of bytes
+     * @return true if successful, or false if the tier's budget is too small.
+     */
+    private static boolean reserve(boolean inMemory, long nBytes) {
+        long max = (inMemory? EDStatic.responseCacheMaxMB : EDStatic.responseCacheDiskMaxMB) *
+            (long)Math2.BytesPerMB;
+        Iterator<Map.Entry<String,Entry>> it = entries.entrySet().iterator();
+        while ((inMemory? memoryBytes : diskBytes) + nBytes > max && it.hasNext()) {
+            Entry tEntry = it.next().getValue();
+            if ((tEntry.bytes != null) == inMemory) { //same tier
+                it.remove();
+                forget(tEntry);
+                nEvicted++;
+            }
+        }
+        if ((inMemory? memoryBytes : diskBytes) + nBytes > max)
+            return false;
+        if (inMemory) memoryBytes += nBytes;
+        else          diskBytes   += nBytes;
+        return true;
+    }
+
+    /**
+     * This updates the byte counts and deletes the entry's file (if any).
+     * The caller must have synchronized on entries and already removed entry from entries.
+     */
+    private static void forget(Entry entry) {
+        if (entry.bytes == null) {
+            diskBytes -= entry.nBytes;
+            File2.delete(entry.fileName);
+        } else {
+            memoryBytes -= entry.nBytes;
+        }
+    }
+
+    /**
+     * This returns a string with statistics about the cache (for the status page).
+     *
+     * @return a string with statistics about the cache
+     */
+    public static String statsString() {
+        synchronized(entries) {
+            long n = nHits + nNotModified + nMisses;
+            return "ResponseCache: nEntries=" + entries.size() +
+                ", memoryMB=" + (memoryBytes / Math2.BytesPerMB) +
+                " of " + EDStatic.responseCacheMaxMB +
+                ", diskMB=" + (diskBytes / Math2.BytesPerMB) +
+                " of " + EDStatic.responseCacheDiskMaxMB +
+                ", nHits=" + nHits +
+                ", nNotModified=" + nNotModified +
+                " (" + (n == 0? 0 : Math2.roundToInt(100.0 * (nHits + nNotModified) / n)) + "%)" +
+                ", nMisses=" + nMisses +
+                ", nCoalesced=" + nCoalesced +
+                ", nStored=" + nStored +
+                ", nTooBig=" + nTooBig +
+                ", nStale=" + nStale +
+                ", nEvicted=" + nEvicted +
+                ", nRemoved=" + nRemoved;
+        }
+    }
+
+
+    /**
+     * Capture is an OutputStreamSource which captures the uncompressed bytes
+     * written to it, so that the response can be put in the cache by calling store().
+     * The bytes are held (not sent to the other OutputStreamSource) until
+     * the response is complete (store()) or is too big to be cached.
+     * So the response is stored and the identical requests which are waiting for it
+     * are released as soon as it has been made, not after it has been sent
+     * to this request's (perhaps slow) client.
+     */
+    public static class Capture implements OutputStreamSource {
+
+        private String key, datasetID, etag;
+        private HttpServletResponse response;
+        private OutputStreamSource source;
+        private String characterEncoding = "";
+        private long startMillis = System.currentTimeMillis();
+        private long generation;
+        private CaptureOutputStream outputStream;
+        private boolean done = false;
+        boolean inFlight = false; //true if this is in ResponseCache.inFlight
+
+        /**
+         * The constructor. This sets the response's ETag header.
+         *
+         * @param tKey a key from key()
+         * @param tDatasetID the datasetID
+         * @param tResponse the response
+         * @param tSource the source of the response's outputStream
+         */
+        public Capture(String tKey, String tDatasetID,
+            HttpServletResponse tResponse, OutputStreamSource tSource) {
+
+            key = tKey;
+            datasetID = tDatasetID;
+            response = tResponse;
+            source = tSource;
+            synchronized(entries) {
+                etag = "\"" + ETAG_BASE + "-" + Long.toString(nextId++, 36) + "\"";
+                generation = generation(datasetID);
+            }
+            response.setHeader("ETag", etag);
+        }
+
+        public OutputStream outputStream(String tCharacterEncoding) throws Throwable {
+            return outputStream(tCharacterEncoding, -1);
+        }
+
+        public OutputStream outputStream(String tCharacterEncoding, long tLength)
+            throws Throwable {
+            if (outputStream == null) {
+                characterEncoding = tCharacterEncoding;
+                outputStream = new CaptureOutputStream(this,
+                    source.outputStream(tCharacterEncoding, tLength));
+            }
+            return outputStream;
+        }
+
+        public OutputStream existingOutputStream() {
+            return outputStream;
+        }
+
+        public String usingCompression() {
+            return source.usingCompression();
+        }
+
+        /**
+         * Call this when finished with this Capture (successful or not),
+         * e.g., in a finally clause, so threads waiting for this response stop waiting.
+         * If store() wasn't called (e.g., an exception), the held bytes are discarded.
+         * This won't throw an exception.
+         */
+        public void finished() {
+            release();
+            if (outputStream != null && !outputStream.stored)
+                outputStream.abandon(); 
+        }
+
+        /**
+         * This releases the threads which are waiting for this response.
+         * This won't throw an exception.
+         */
+        void release() {
+            if (inFlight) {
+                synchronized(entries) {
+                    if (ResponseCache.inFlight.get(key) == this)
+                        ResponseCache.inFlight.remove(key);
+                }
+            }
+            synchronized(this) {
+                done = true;
+                notifyAll();
+            }
+        }
+
+        /**
+         * This waits until release() is called or maxMillis has elapsed.
+         *
+         * @param maxMillis the maximum time to wait
+         */
+        synchronized void await(long maxMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + maxMillis;
+            long remaining = maxMillis;
+            while (!done && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+        }
+
+        /**
+         * Call this after the response has been successfully made.
+         * This puts it in the cache (if it isn't too big and 
+         * the dataset's entries weren't removed while it was being made),
+         * releases the threads which are waiting for it,
+         * and then sends it to this request's client.
+         *
+         * @throws Throwable if trouble while sending the response
+         */
+        public void store() throws Throwable {
+            if (outputStream != null)
+                outputStream.stopHolding(response.getStatus() == HttpServletResponse.SC_OK);
+            release();
+        }
+
+        /**
+         * This puts the captured response in the cache (unless the dataset's 
+         * generation has changed).
+         * The capture must be finished.
+         * This won't throw an exception.
+         */
+        void put() {
+            CaptureOutputStream cos = outputStream;
+            try {
+                Entry entry = new Entry();
+                entry.datasetID = datasetID;
+                entry.etag = etag;
+                entry.characterEncoding = characterEncoding;
+                entry.createdAt = startMillis; //data may have changed since then
+                entry.nBytes = cos.nBytes;
+                if (cos.diskName == null)
+                    entry.bytes = cos.memory.length == entry.nBytes? 
+                        cos.memory : Arrays.copyOf(cos.memory, (int)entry.nBytes);
+                else entry.fileName = cos.diskName;
+
+                synchronized(entries) {
+                    if (generation(datasetID) != generation) {
+                        //the dataset's entries were removed (e.g., it was updated) while this was being made
+                        nStale++;
+                        return;
+                    }
+                    Entry oldEntry = entries.put(key, entry);
+                    if (oldEntry != null)
+                        forget(oldEntry);
+                    //the reserved bytes now belong to the entry (the extra memory is released)
+                    memoryBytes -= cos.reservedMemory;
+                    diskBytes   -= cos.reservedDisk;
+                    if (entry.bytes == null)
+                         diskBytes   += entry.nBytes;
+                    else memoryBytes += entry.nBytes;
+                    cos.reservedMemory = 0;
+                    cos.reservedDisk = 0;
+                    cos.stored = true; //the file now belongs to the entry
+                    nStored++;
+                }
+                if (verbose) String2.log("ResponseCache stored nBytes=" + entry.nBytes +
+                    (entry.bytes == null? " on disk" : " in memory") + " etag=" + etag);
+
+            } catch (Throwable t) {
+                String2.log("ResponseCache.put caught:\n" + MustBe.throwableToString(t));
+            }
+        }
+    }
+
+    /**
+     * An OutputStream which keeps a copy of the bytes 
+     * (in memory, then on disk if the response gets big)
+     * and holds them until stopHolding() is called (by Capture.store() or 
+     * because the response is too big to be cached), which sends 
+     * the bytes to another OutputStream. After that, bytes are passed through.
+     * The copy's bytes are reserved in the cache's memory or disk budget as it grows.
+     * If the response gets too big (or the budget or the JVM's memory is too small), 
+     * the copy is abandoned.
+     */
+    private static class CaptureOutputStream extends OutputStream {
+
+        /** The disk budget is reserved in chunks of this many bytes. */
+        private final static long DISK_CHUNK = Math2.BytesPerMB;
+
+        private Capture owner;
+        private OutputStream out;
+        private long maxMemoryEntry, maxDiskEntry;
+        byte memory[] = new byte[0];
+        String diskName;
+        private OutputStream disk;
+        long nBytes = 0; //the number of bytes held
+        long reservedMemory = 0, reservedDisk = 0; //guarded by synchronized(entries)
+        boolean holding = true;
+        boolean closeRequested = false;
+        boolean stored = false;
+
+        CaptureOutputStream(Capture tOwner, OutputStream tOut) {
+            owner = tOwner;
+            out = tOut;
+            maxMemoryEntry = EDStatic.responseCacheMaxMB     * (long)Math2.BytesPerMB / 10;
+            maxDiskEntry   = EDStatic.responseCacheDiskMaxMB * (long)Math2.BytesPerMB / 10;
+        }
+
+        public void write(int b) throws IOException {
+            if (holding && capture(1)) {
+                if (disk == null) memory[(int)nBytes] = (byte)b;
+                else disk.write(b);
+                nBytes++;
+                return;
+            }
+            out.write(b);
+        }
+
+        public void write(byte b[], int off, int len) throws IOException {
+            if (holding && capture(len)) {
+                if (disk == null) System.arraycopy(b, off, memory, (int)nBytes, len);
+                else disk.write(b, off, len);
+                nBytes += len;
+                return;
+            }
+            out.write(b, off, len);
+        }
+
+        public void flush() throws IOException {
+            if (!holding) 
+                out.flush();
+        }
+
+        public void close() throws IOException {
+            if (holding) 
+                 closeRequested = true; //close out after the held bytes are sent
+            else out.close();
+        }
+
+        /** 
+         * This makes room for n more bytes (growing memory, moving to disk, 
+         * or, if the response is too big, calling stopHolding(false)).
+         *
+         * @return true if there is room, or false if the bytes should be passed through.
+         * @throws IOException if trouble
+         */
+        private boolean capture(int n) throws IOException {
+            long needed = nBytes + n;
+            if (disk == null) {
+                if (needed <= memory.length) 
+                    return true;
+                if (needed <= maxMemoryEntry && growMemory(needed))
+                    return true;
+                if (needed > maxDiskEntry) 
+                    return tooBig();
+                //move the bytes so far to a file
+                try {
+                    String dir = diskDirectory();
+                    synchronized(entries) {
+                        if (!diskDirReady) {
+                            File2.makeDirectory(dir);
+                            File2.deleteAllFiles(dir); //leftovers from before a restart
+                            diskDirReady = true;
+                        }
+                        diskName = dir + ETAG_BASE + "-" + Long.toString(nextId++, 36) + ".bin";
+                    }
+                    disk = new FileOutputStream(diskName);
+                    disk.write(memory, 0, (int)nBytes);
+                } catch (Throwable t) {
+                    String2.log("ResponseCache caught:\n" + MustBe.throwableToString(t));
+                    if (disk != null) {
+                        try {
+                            disk.close();
+                        } catch (Throwable t2) {
+                        }
+                        disk = null;
+                    }
+                    File2.delete(diskName);
+                    diskName = null;
+                    stopHolding(false); //send the bytes in memory
+                    return false;
+                }
+                memory = null;
+                synchronized(entries) {
+                    memoryBytes -= reservedMemory;
+                    reservedMemory = 0;
+                }
+            }
+            if (needed > maxDiskEntry) 
+                return tooBig();
+            if (needed > reservedDisk) {
+                long more = Math.min(maxDiskEntry, Math.max(needed, reservedDisk + DISK_CHUNK)) - 
+                    reservedDisk;
+                synchronized(entries) {
+                    if (reserve(false, more)) {
+                        reservedDisk += more;
+                        return true;
+                    }
+                }
+                return tooBig();
+            }
+            return true;
+        }
+
+        /**
+         * This grows memory (up to maxMemoryEntry) so that it can hold needed bytes.
+         *
+         * @return true if successful, or false if the memory budget or
+         *   the JVM's free memory is too small.
+         */
+        private boolean growMemory(long needed) {
+            long newSize = Math.min(maxMemoryEntry, 
+                Math.max(needed, Math.max(8192, 2L * memory.length)));
+            long more = newSize - memory.length;
+            synchronized(entries) {
+                if (!reserve(true, more))
+                    return false;
+                reservedMemory += more;
+            }
+            if (Math2.getMemoryInUse() + more > Math2.maxSafeMemory) {
+                //don't risk an OutOfMemoryError just to cache a response
+                synchronized(entries) {
+                    memoryBytes -= more;
+                    reservedMemory -= more;
+                }
+                return false;
+            }
+            memory = Arrays.copyOf(memory, (int)newSize);
+            return true;
+        }
+
+        /** 
+         * This stops capturing because the response is too big to be cached. 
+         *
+         * @return false
+         * @throws IOException if trouble
+         */
+        private boolean tooBig() throws IOException {
+            synchronized(entries) {
+                nTooBig++;
+            }
+            stopHolding(false);
+            return false;
+        }
+
+        /**
+         * This stops holding: it (optionally) puts the captured response in the cache,
+         * releases the threads waiting for this response, 
+         * sends the held bytes to out, and then closes out if close() was called.
+         * If the response wasn't put in the cache, the copy is abandoned.
+         * This does nothing if not holding.
+         *
+         * @param tryToStore true if the response is complete and should be put in the cache
+         * @throws IOException if trouble
+         */
+        void stopHolding(boolean tryToStore) throws IOException {
+            if (!holding)
+                return;
+            holding = false;
+            InputStream in = null;
+            try {
+                if (disk != null) {
+                    disk.close();
+                    disk = null;
+                }
+                //open the file before releasing it to the cache (it may be removed)
+                if (diskName != null)
+                    in = new FileInputStream(diskName);
+                if (tryToStore) 
+                    owner.put();
+                owner.release(); //waiting threads can use the cached response now
+
+                if (in == null) {
+                    out.write(memory, 0, (int)nBytes);
+                } else {
+                    byte buffer[] = new byte[32768];
+                    int nRead;
+                    while ((nRead = in.read(buffer)) >= 0)
+                        out.write(buffer, 0, nRead);
+                }
+            } finally {
+                if (in != null) 
+                    in.close();
+                if (!stored)
+                    abandon();
+            }
+            if (closeRequested)
+                out.close();
+        }
+
+        /** 
+         * This stops capturing, deletes the captured bytes (which are never sent 
+         * if still holding), and releases the reserved bytes. 
+         */
+        void abandon() {
+            holding = false;
+            memory = null;
+            synchronized(entries) {
+                memoryBytes -= reservedMemory;
+                diskBytes   -= reservedDisk;
+                reservedMemory = 0;
+                reservedDisk = 0;
+            }
+            if (disk != null) {
+                try {
+                    disk.close();
+                } catch (Throwable t) {
+                }
+                disk = null;
+            }
+            if (diskName != null) {
+                File2.delete(diskName);
+                diskName = null;
+            }
+        }
+    }
+
+}
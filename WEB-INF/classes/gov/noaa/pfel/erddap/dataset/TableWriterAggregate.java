@@ -0,0 +1,489 @@
+/*
+ * TableWriterAggregate Copyright, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.Attributes;
+import com.cohort.array.DoubleArray;
+import com.cohort.array.GroupIndex;
+import com.cohort.array.PAType;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.util.Math2;
+import com.cohort.util.SimpleException;
+import com.cohort.util.String2;
+
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+import gov.noaa.pfel.erddap.util.EDStatic;
+
+import java.io.DataInputStream;
+import java.util.Arrays;
+
+/**
+ * TableWriterAggregate is the shared engine for the TableWriters which
+ * reduce each group of rows (rows with the same values of the orderBy
+ * columns, perhaps rounded, e.g., time/1day) to one or two rows:
+ * orderByMean, orderByCount, orderByMin, orderByMax, and orderByMinMax.
+ *
+ * <p>As each chunk of data arrives, the group number of each row is found
+ * with a GroupIndex (an open-addressing hash table which works directly on the
+ * PrimitiveArray values) and the subclass updates that group's accumulators
+ * in place. So the memory needed depends on the number of groups, not the
+ * number of rows.
+ *
+ * <p>If there are more than maxGroups groups (based on EDStatic.sortMemoryMaxBytes),
+ * the rows of the additional groups are written (spilled) to
+ * N_PARTITIONS partition files (based on the group's hash).
+ * When the in-memory groups are finished, each partition is processed the
+ * same way (and may spill again, using different bits of the hash).
+ *
+ * <p>The results for each set of groups are stored (via super.writeSome),
+ * then sorted (in memory or with TableWriterAll.externalSortAndWrite)
+ * and written to otherTableWriter.
+ */
+public abstract class TableWriterAggregate extends TableWriterAll {
+
+    /** The number of partitions that rows are spilled to if there are too many groups. */
+    public final static int N_PARTITIONS = 16;
+
+    //set by constructor
+    protected TableWriter otherTableWriter;
+    protected String responsible;  //e.g., orderByMean
+    protected String keyNames[];   //the orderBy CSV items, e.g., time/1day
+    protected boolean lastKeyIsValue; //if true, the last key isn't part of the group key
+
+    //set by configure()
+    protected int nColumns;
+    protected int keyCols[];  //the column numbers of all of the keys
+    protected int nGroupKeys;
+    protected Table.Rounder rounders[];  //one per group key, null if not rounded
+    protected GroupIndex groups;
+    protected int maxGroups;
+    protected String chunkColumnNames[];
+    protected PAType chunkColumnTypes[];
+    protected Attributes chunkColumnAttributes[];
+
+    //spilling
+    protected int spillLevel = 0;
+    protected int nPartitionsMade = 0;
+    protected TableWriterAll spillTo[];  //null until rows are spilled
+
+    /**
+     * The constructor.
+     *
+     * @param tDir a private cache directory for storing the intermediate files,
+     *    usually cacheDirectory(datasetID)
+     * @param tFileNameNoExt is the fileName without dir or extension (used as basis for temp files).
+     *     A random number will be added to it for safety.
+     * @param tOtherTableWriter the tableWriter that will receive the results
+     * @param tResponsible the name of the filter (e.g., orderByMean), for error messages
+     * @param tKeyNames the orderBy column names (most to least important),
+     *    perhaps with rounding (e.g., time/1day)
+     * @param tLastKeyIsValue If true, the last key isn't part of the group key;
+     *    it is the value that the subclass finds the min and/or max of.
+     */
+    public TableWriterAggregate(EDD tEdd, String tNewHistory, String tDir,
+        String tFileNameNoExt, TableWriter tOtherTableWriter, String tResponsible,
+        String tKeyNames[], boolean tLastKeyIsValue) {
+
+        super(tEdd, tNewHistory, tDir, tFileNameNoExt);
+        otherTableWriter = tOtherTableWriter;
+        responsible = tResponsible;
+        keyNames = tKeyNames;
+        lastKeyIsValue = tLastKeyIsValue;
+        //the results are sorted with externalSortAndWrite if they are big
+        needsAllRowsInMemory = false;
+    }
+
+    /**
+     * This is called by configure() to find the key columns in the first chunk.
+     *
+     * @return the column numbers of the keys
+     * @throws SimpleException if a key column isn't in the table
+     */
+    protected int[] findKeyColumns(Table table) {
+        return table.keyColumnNamesToNumbers(responsible,
+            Table.deriveActualColumnNames(keyNames));
+    }
+
+    /**
+     * This is called by configure() for each group key that has rounding.
+     *
+     * @param column the column number
+     * @param k the key number
+     * @throws RuntimeException if the column can't be rounded
+     */
+    protected void ensureRoundable(Table table, int column, int k) {
+        PrimitiveArray pa = table.getColumn(column);
+        if (!(pa.isFloatingPointType() || pa.isIntegerType()))
+            throw new IllegalArgumentException(Table.QUERY_ERROR + responsible +
+                " cannot apply rounding to " + keyNames[k] +
+                " because it is not a numeric data type.");
+    }
+
+    /**
+     * This is called once, with the first chunk of data,
+     * so the subclass can set up its accumulators.
+     */
+    protected abstract void configureAccumulators(Table table) throws Throwable;
+
+    /**
+     * This is called for each incoming chunk of data (before the rows are grouped),
+     * e.g., to convert missing values to standard missing values.
+     * The rows of the spilled partitions have already been prepared.
+     */
+    protected void prepareChunk(Table table) throws Throwable {
+    }
+
+    /**
+     * This lets the subclass skip some rows (e.g., rows with a missing value
+     * for the last key).
+     *
+     * @param groupKeyPAs the (perhaps rounded) group key values for this chunk
+     * @return true if the row should be included
+     */
+    protected boolean includeRow(Table table, PrimitiveArray groupKeyPAs[], int row) {
+        return true;
+    }
+
+    /**
+     * This adds the information from one row to the accumulators for a group.
+     *
+     * @param group the group number (0.. groups.size()-1)
+     * @param isNewGroup true if this is the first row of this group
+     */
+    protected abstract void accumulate(Table table, int row, int group,
+        boolean isNewGroup) throws Throwable;
+
+    /**
+     * This makes a table with the results for the current groups
+     * (row number = group number) in any order.
+     */
+    protected abstract Table resultsTable() throws Throwable;
+
+    /** This removes all of the groups from the accumulators. */
+    protected abstract void clearAccumulators();
+
+    /**
+     * This is called after all of the results have been stored,
+     * so the subclass can modify the column attributes (columnAttributes[]).
+     */
+    protected void finishMetadata() {
+    }
+
+    /**
+     * This returns the column numbers (in the results table) that the results
+     * are sorted by (all ascending).
+     */
+    protected int[] resultSortKeys() {
+        return keyCols;
+    }
+
+    /**
+     * This is called with each chunk of the sorted results just before
+     * it is written to otherTableWriter (e.g., to remove temporary columns).
+     */
+    protected void finishChunk(Table table) throws Throwable {
+    }
+
+    /**
+     * This estimates the number of bytes of memory needed for each group.
+     * Subclasses with larger accumulators can override this.
+     */
+    protected long bytesPerGroup(Table table) {
+        return 2L * table.estimatedBytesPerRow() + 16;
+    }
+
+    /** Find the key columns, set up the rounders and the GroupIndex. */
+    private void configure(Table table) throws Throwable {
+        nColumns = table.nColumns();
+        keyCols = findKeyColumns(table);
+        nGroupKeys = lastKeyIsValue? keyCols.length - 1 : keyCols.length;
+        rounders = new Table.Rounder[nGroupKeys];
+        PAType keyTypes[] = new PAType[nGroupKeys];
+        for (int k = 0; k < keyCols.length; k++) {
+            if (keyNames[k].indexOf('/') < 0)
+                continue;
+            if (k >= nGroupKeys)
+                throw new IllegalArgumentException(Table.QUERY_ERROR + responsible +
+                    " cannot apply rounding to " + keyNames[k] +
+                    " because it is the last variable in the CSV list.");
+            ensureRoundable(table, keyCols[k], k);
+            rounders[k] = Table.createRounder(responsible, keyNames[k]);
+        }
+        for (int k = 0; k < nGroupKeys; k++)
+            keyTypes[k] = rounders[k] == null?
+                table.getColumn(keyCols[k]).elementType() : PAType.DOUBLE;
+
+        chunkColumnNames      = new String[nColumns];
+        chunkColumnTypes      = new PAType[nColumns];
+        chunkColumnAttributes = new Attributes[nColumns];
+        for (int col = 0; col < nColumns; col++) {
+            chunkColumnNames[col]      = table.getColumnName(col);
+            chunkColumnTypes[col]      = table.getColumn(col).elementType();
+            chunkColumnAttributes[col] = new Attributes(table.columnAttributes(col));
+        }
+
+        maxGroups = Math2.narrowToInt(Math.max(100,
+            EDStatic.sortMemoryMaxBytes / Math.max(1, bytesPerGroup(table))));
+        groups = new GroupIndex(keyTypes, Math.min(maxGroups, 1024));
+        configureAccumulators(table);
+    }
+
+    /**
+     * This adds the current contents of table (a chunk of data) to the groups.
+     *
+     * @param table with destinationValues.
+     *   The table should have missing values stored as destinationMissingValues
+     *   or destinationFillValues.
+     * @throws Throwable if trouble
+     */
+    public void writeSome(Table table) throws Throwable {
+        if (table.nRows() == 0)
+            return;
+        if (groups == null)
+            configure(table);
+        prepareChunk(table);
+        aggregate(table);
+    }
+
+    /** This adds the rows of a (prepared) chunk to the groups, or spills them. */
+    private void aggregate(Table table) throws Throwable {
+        int nRows = table.nRows();
+
+        //get the (perhaps rounded) values of the group keys
+        PrimitiveArray groupKeyPAs[] = new PrimitiveArray[nGroupKeys];
+        for (int k = 0; k < nGroupKeys; k++) {
+            PrimitiveArray pa = table.getColumn(keyCols[k]);
+            if (rounders[k] == null) {
+                groupKeyPAs[k] = pa;
+                continue;
+            }
+            DoubleArray da = new DoubleArray(nRows, false);
+            for (int row = 0; row < nRows; row++) {
+                double d = pa.getNiceDouble(row);
+                if (!Double.isNaN(d)) {
+                    try {
+                        d = rounders[k].round(d);
+                    } catch (Exception e) {
+                        throw new SimpleException(responsible + " problem rounding " +
+                            keyNames[k] + " for value=" + d + " because " + e, e);
+                    }
+                }
+                da.add(d);
+            }
+            groupKeyPAs[k] = da;
+        }
+
+        Table spillTables[] = null;
+        for (int row = 0; row < nRows; row++) {
+            if (!includeRow(table, groupKeyPAs, row))
+                continue;
+            int hash = GroupIndex.hash(groupKeyPAs, row);
+            int oldSize = groups.size();
+            int group;
+            if (oldSize < maxGroups) {
+                group = groups.add(groupKeyPAs, row, hash);
+            } else {
+                group = groups.find(groupKeyPAs, row, hash);
+                if (group < 0) {
+                    //too many groups: spill the row (based on bits not used by the GroupIndex slots)
+                    if (spillTables == null)
+                        spillTables = new Table[N_PARTITIONS];
+                    int p = (hash >>> (28 - 4 * (spillLevel % 8))) & (N_PARTITIONS - 1);
+                    if (spillTables[p] == null) {
+                        spillTables[p] = new Table();
+                        for (int col = 0; col < nColumns; col++)
+                            spillTables[p].addColumn(col, table.getColumnName(col),
+                                PrimitiveArray.factory(table.getColumn(col).elementType(), 128, false),
+                                new Attributes());
+                    }
+                    for (int col = 0; col < nColumns; col++)
+                        spillTables[p].getColumn(col).addFromPA(table.getColumn(col), row);
+                    continue;
+                }
+            }
+            accumulate(table, row, group, group == oldSize);
+        }
+
+        if (spillTables != null) {
+            if (spillTo == null)
+                spillTo = new TableWriterAll[N_PARTITIONS];
+            for (int p = 0; p < N_PARTITIONS; p++) {
+                if (spillTables[p] == null)
+                    continue;
+                if (spillTo[p] == null) {
+                    spillTo[p] = new TableWriterAll(null, null, dir,
+                        fileNameNoExt + ".part" + nPartitionsMade++);
+                    spillTo[p].needsAllRowsInMemory = false;
+                }
+                spillTo[p].writeSome(spillTables[p]);
+            }
+        }
+    }
+
+    /** This stores the results for the current groups, then removes the groups. */
+    private void storeResults() throws Throwable {
+        if (groups.size() == 0)
+            return;
+        super.writeSome(resultsTable());
+        groups.clear();
+        clearAccumulators();
+    }
+
+    /** This reads a finished partition in chunks and aggregates the rows. */
+    private void aggregatePartition(TableWriterAll partition) throws Throwable {
+        int nCols = partition.nColumns();
+        int chunkNRows = Math2.narrowToInt(Math.max(1000,
+            EDStatic.sortMemoryMaxBytes / (4L * Math.max(1, partition.makeEmptyTable().estimatedBytesPerRow()))));
+        DataInputStream dis[] = new DataInputStream[nCols];
+        try {
+            for (int col = 0; col < nCols; col++)
+                dis[col] = partition.dataInputStream(col);
+            long remaining = partition.nRows();
+            while (remaining > 0) {
+                int n = (int)Math.min(chunkNRows, remaining);
+                Table table = partition.makeEmptyTable();
+                for (int col = 0; col < nCols; col++)
+                    table.getColumn(col).readDis(dis[col], n);
+                remaining -= n;
+                aggregate(table);
+            }
+        } finally {
+            for (int col = 0; col < nCols; col++)
+                try {if (dis[col] != null) dis[col].close();} catch (Exception e) {}
+        }
+    }
+
+    /**
+     * This returns a PrimitiveArray with the values of group key k for each group,
+     * with the data type of the original column.
+     */
+    protected PrimitiveArray groupKeyResults(int k) {
+        PrimitiveArray keyPA = groups.keyColumn(k);
+        PAType paType = chunkColumnTypes[keyCols[k]];
+        if (keyPA.elementType() == paType)
+            return keyPA;
+        int nGroups = groups.size();
+        PrimitiveArray pa = PrimitiveArray.factory(paType, nGroups, false);
+        for (int group = 0; group < nGroups; group++)
+            pa.addDouble(keyPA.getDouble(group));
+        return pa;
+    }
+
+    /** This makes an empty table with the columns of the incoming data. */
+    protected Table makeEmptyChunkTable() {
+        Table table = new Table();
+        for (int col = 0; col < nColumns; col++)
+            table.addColumn(col, chunkColumnNames[col],
+                PrimitiveArray.factory(chunkColumnTypes[col], 8, false),
+                new Attributes(chunkColumnAttributes[col]));
+        return table;
+    }
+
+    /**
+     * This finishes the groups (including the spilled partitions),
+     * sorts the results, and writes them to otherTableWriter.
+     * If ignoreFinish=true, nothing will be done.
+     *
+     * @throws Throwable if trouble (e.g., MustBe.THERE_IS_NO_DATA if there is no data)
+     */
+    public void finish() throws Throwable {
+        if (ignoreFinish)
+            return;
+
+        if (groups != null) {
+            storeResults();
+
+            //process the spilled partitions (which may spill again)
+            int nPasses = 0;
+            while (spillTo != null) {
+                TableWriterAll partitions[] = spillTo;
+                spillTo = null;
+                spillLevel++;
+                nPasses++;
+                try {
+                    for (int p = 0; p < N_PARTITIONS; p++) {
+                        if (partitions[p] == null)
+                            continue;
+                        partitions[p].finish();
+                        aggregatePartition(partitions[p]);
+                        partitions[p].releaseResources();
+                        partitions[p] = null;
+                        storeResults();
+                    }
+                } finally {
+                    for (int p = 0; p < N_PARTITIONS; p++)
+                        if (partitions[p] != null)
+                            partitions[p].releaseResources();
+                }
+            }
+            if (verbose && nPasses > 0)
+                String2.log("TableWriterAggregate " + responsible + " maxGroups=" + maxGroups +
+                    " nPartitionsMade=" + nPartitionsMade + " nPasses=" + nPasses);
+        }
+        super.finish();  //this ensures there is data
+        finishMetadata();
+
+        int sortKeys[] = resultSortKeys();
+        if (sortKeys.length == 0 || canSortInMemory()) {
+            Table cumulativeTable = cumulativeTable();
+            releaseResources();
+            if (sortKeys.length > 0)
+                cumulativeTable.ascendingSort(sortKeys);
+            finishChunk(cumulativeTable);
+            otherTableWriter.writeAllAndFinish(cumulativeTable);
+        } else {
+            boolean ascending[] = new boolean[sortKeys.length];
+            Arrays.fill(ascending, true);
+            final TableWriter tOtherTableWriter = otherTableWriter;
+            try {
+                externalSortAndWrite(sortKeys, ascending, false, false,
+                    new TableWriter(edd, newHistory, null) {
+                        public void writeSome(Table table) throws Throwable {
+                            finishChunk(table);
+                            tOtherTableWriter.writeSome(table);
+                            noMoreDataPlease = tOtherTableWriter.noMoreDataPlease;
+                        }
+                        public void finish() throws Throwable {
+                            tOtherTableWriter.finish();
+                        }
+                    });
+            } finally {
+                releaseResources();
+            }
+        }
+
+        //clean up
+        otherTableWriter = null;
+        groups = null;
+    }
+
+    /**
+     * This deletes the temporary files (including any spilled partitions).
+     * This won't throw an exception.
+     */
+    public void releaseResources() {
+        super.releaseResources();
+        TableWriterAll partitions[] = spillTo;
+        if (partitions != null) {
+            spillTo = null;
+            for (int p = 0; p < N_PARTITIONS; p++)
+                if (partitions[p] != null)
+                    partitions[p].releaseResources();
+        }
+    }
+
+    /**
+     * If caller has the entire table, use this instead of repeated writeSome() + finish().
+     *
+     * @throws Throwable if trouble (e.g., MustBe.THERE_IS_NO_DATA if there is no data)
+     */
+    public void writeAllAndFinish(Table tCumulativeTable) throws Throwable {
+        writeSome(tCumulativeTable);
+        if (ignoreFinish)
+            return;
+        finish();
+    }
+
+}
@@ -29,8 +29,14 @@ import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.FileInputStream;
+import java.io.EOFException;
 import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.PriorityQueue;
 
 /**
  * TableWriterAll provides a way to write a table to a series of 
@@ -43,6 +49,15 @@ import java.util.Arrays;
  * write the data anywhere (to an outputStream or to another tableWriter), 
  * it just makes all of the data available.
  *
+ * <p>Each column's file is a simple columnar spool: the values are stored
+ * back-to-back in writeDos format (fixed-width big-endian values for numeric
+ * and char columns, writeUTF length-prefixed Strings).
+ * After finish(), column(), cumulativeTable(), and externalSortAndWrite 
+ * read the files with a ColumnReader (bulk column reads): it reads big blocks 
+ * of the file into a reused ByteBuffer, and numeric values are bulk-copied 
+ * from there into the PrimitiveArrays
+ * (instead of being read one value at a time from a DataInputStream).
+ *
  * @author Bob Simons (bob.simons@noaa.gov) 2007-08-23
  */
 public class TableWriterAll extends TableWriter {
@@ -63,6 +78,25 @@ public class TableWriterAll extends TableWriter {
 
     protected Table cumulativeTable; //set by writeAllAndFinish, if used
 
+    /**
+     * Subclasses which never need all of the rows in memory at once
+     * (e.g., because they use externalSortAndWrite) set this to false
+     * so that writeSome() doesn't refuse large results.
+     */
+    protected boolean needsAllRowsInMemory = true;
+
+    /** 
+     * The maximum number of runs merged at once by externalSortAndWrite.
+     * This is public so tests can force several merge passes.
+     */
+    public static int maxMergeFanIn = 64;
+
+    /** 
+     * The total number of intermediate merge passes done by externalSortAndWrite
+     * (for diagnostics and tests).
+     */
+    public static volatile long totalNIntermediateMergePasses = 0;
+
     /**
      * The constructor.
      * TableWriterAll will create several temporary files using the dir+name as
@@ -127,8 +161,10 @@ public class TableWriterAll extends TableWriter {
         //avoid gathering more data than can be processed
         //(although in some cases, perhaps more could be handled)
         long newTotalNRows = totalNRows + table.nRows();
-        EDStatic.ensureArraySizeOkay(newTotalNRows, attributeTo);
-        EDStatic.ensureMemoryAvailable(newTotalNRows * 8, attributeTo); //to process one PA
+        if (needsAllRowsInMemory) {
+            EDStatic.ensureArraySizeOkay(newTotalNRows, attributeTo);
+            EDStatic.ensureMemoryAvailable(newTotalNRows * 8, attributeTo); //to process one PA
+        }
 
         //do everyTime stuff
         //write the data
@@ -186,15 +222,15 @@ public class TableWriterAll extends TableWriter {
         if (cumulativeTable != null)
             return cumulativeTable.getColumn(col);
 
-        //get it from DOSFile
+        //get it from the column's file
         EDStatic.ensureArraySizeOkay(totalNRows, "TableWriterAll");
         PrimitiveArray pa = PrimitiveArray.factory(columnType(col), 
             (int)totalNRows, false);  //safe since checked above
-        DataInputStream dis = dataInputStream(col);
+        ColumnReader reader = columnReader(col);
         try {
-            pa.readDis(dis, (int)totalNRows); //safe since checked above
+            reader.read(pa, (int)totalNRows); //safe since checked above
         } finally {
-            dis.close();
+            reader.close();
         }
         return pa;
     }
@@ -221,15 +257,15 @@ public class TableWriterAll extends TableWriter {
         if (cumulativeTable != null)
             return cumulativeTable.getColumn(col);
 
-        //get it from DOSFile
+        //get it from the column's file
         EDStatic.ensureArraySizeOkay(totalNRows, "TableWriterAll");
-        PrimitiveArray pa = PrimitiveArray.factory(columnType(col), 
-            (int)totalNRows, false);  //safe since checked above
-        DataInputStream dis = dataInputStream(col);
+        int n = Math.min(firstNRows, Math2.narrowToInt(totalNRows));
+        PrimitiveArray pa = PrimitiveArray.factory(columnType(col), n, false);
+        ColumnReader reader = columnReader(col);
         try {
-            pa.readDis(dis, Math.min(firstNRows, Math2.narrowToInt(totalNRows)));
+            reader.read(pa, n);
         } finally { 
-            dis.close();
+            reader.close();
         }
         return pa;
     }
@@ -254,6 +290,18 @@ public class TableWriterAll extends TableWriter {
         return dis;
     }
 
+    /**
+     * Call this after finish() to get a ColumnReader for one of the columns.
+     * IT IS UP TO THE CALLER TO CLOSE THE ColumnReader.
+     *
+     * @param col   0..  the column number in the request (not the dataset)
+     * @return a ColumnReader ready to have the first element read
+     * @throws Throwable if trouble
+     */
+    public ColumnReader columnReader(int col) throws Throwable {
+        return new ColumnReader(columnFileName(col));
+    }
+
     public String columnFileName(int col) {
         return dir + fileNameNoExt + "." + randomInt + "." + 
             String2.encodeFileNameSafe(columnNames[col]) + ".temp";
@@ -294,6 +342,352 @@ public class TableWriterAll extends TableWriter {
         return table;
     }
 
+    /**
+     * Call this after finish() to see if the data is small enough 
+     * (given EDStatic.sortMemoryMaxBytes) to be sorted in memory.
+     *
+     * @return true if the data should be sorted in memory
+     */
+    public boolean canSortInMemory() {
+        if (cumulativeTable != null || columnNames == null)
+            return true;
+        return nRows() * makeEmptyTable().estimatedBytesPerRow() <= EDStatic.sortMemoryMaxBytes;
+    }
+
+    /**
+     * Call this after finish() to sort all of the data with an external merge sort
+     * and write the sorted rows to otherTableWriter in chunks (then call its finish()).
+     * The data is read back in runs of roughly EDStatic.sortMemoryMaxBytes,
+     * each run is sorted in memory and written to its own TableWriterAll,
+     * then the runs are merged (in several passes if there are a lot of runs).
+     * So the memory needed is limited no matter how many rows there are.
+     *
+     * <p>This sort is stable: equal elements will not be reordered as a result of the sort.
+     * This doesn't call releaseResources().
+     *
+     * @param keys the column numbers of the sort keys (the first is the most important)
+     * @param ascending corresponding to keys
+     * @param ignoreCase if true, StringArrays are compared in a case-insensitive way
+     *   (as with Table.sortIgnoreCase)
+     * @param removeDuplicates if true, rows which are identical to the previous 
+     *   (sorted) row aren't written (as with Table.removeDuplicates)
+     * @param otherTableWriter the tableWriter which will receive the sorted rows
+     * @throws Throwable if trouble (e.g., MustBe.THERE_IS_NO_DATA if there is no data)
+     */
+    public void externalSortAndWrite(int keys[], boolean ascending[], boolean ignoreCase,
+        boolean removeDuplicates, TableWriter otherTableWriter) throws Throwable {
+
+        long eTime = System.currentTimeMillis();
+        if (columnNames == null || totalNRows == 0)
+            throw new SimpleException(MustBe.THERE_IS_NO_DATA + " (nRows = 0)");
+        int nColumns = nColumns();
+        int bytesPerRow = Math.max(1, makeEmptyTable().estimatedBytesPerRow());
+        int runNRows = Math2.narrowToInt(Math.max(100, EDStatic.sortMemoryMaxBytes / bytesPerRow));
+        //limit the number of open files when merging
+        int maxFanIn = Math.max(2, Math.min(maxMergeFanIn, 1024 / nColumns));
+
+        //make the sorted runs
+        ArrayList<TableWriterAll> runs = new ArrayList();
+        ColumnReader readers[] = new ColumnReader[nColumns];
+        try {
+            for (int col = 0; col < nColumns; col++) 
+                readers[col] = columnReader(col);
+            long remaining = totalNRows;
+            while (remaining > 0) {
+                int n = (int)Math.min(runNRows, remaining);
+                Table table = makeEmptyTable();
+                for (int col = 0; col < nColumns; col++) 
+                    readers[col].read(table.getColumn(col), n);
+                remaining -= n;
+                if (ignoreCase) 
+                     table.sortIgnoreCase(keys, ascending);
+                else table.sort(keys, ascending);
+                if (removeDuplicates)
+                    table.removeDuplicates();
+                TableWriterAll run = new TableWriterAll(edd, newHistory, dir, 
+                    fileNameNoExt + ".run" + runs.size());
+                run.needsAllRowsInMemory = false; //a run is never held in memory
+                runs.add(run); //before writeSome, so it will be cleaned up if trouble
+                run.writeSome(table);
+                run.finish();
+            }
+        } catch (Throwable t) {
+            for (int r = 0; r < runs.size(); r++)
+                runs.get(r).releaseResources();
+            throw t;
+        } finally {
+            for (int col = 0; col < nColumns; col++) 
+                if (readers[col] != null) readers[col].close();
+        }
+        int nRuns = runs.size();
+
+        //merge groups of runs until there are few enough to merge into otherTableWriter
+        int pass = 0;
+        try {
+            while (runs.size() > maxFanIn) {
+                pass++;
+                ArrayList<TableWriterAll> newRuns = new ArrayList();
+                for (int r = 0; r < runs.size(); r += maxFanIn) {
+                    TableWriterAll run = new TableWriterAll(edd, newHistory, dir, 
+                        fileNameNoExt + ".merge" + pass + "_" + newRuns.size());
+                    run.needsAllRowsInMemory = false; //a merged run may have all the rows
+                    newRuns.add(run);
+                    mergeRuns(new ArrayList(runs.subList(r, Math.min(r + maxFanIn, runs.size()))),
+                        keys, ascending, ignoreCase, removeDuplicates, runNRows, run);
+                }
+                runs = newRuns;
+                totalNIntermediateMergePasses++;
+            }
+            mergeRuns(runs, keys, ascending, ignoreCase, removeDuplicates, runNRows, 
+                otherTableWriter);
+        } finally {
+            for (int r = 0; r < runs.size(); r++)
+                runs.get(r).releaseResources();
+        }
+
+        if (verbose)
+            String2.log("TableWriterAll.externalSortAndWrite nRows=" + totalNRows + 
+                " nRuns=" + nRuns + " nMergePasses=" + (pass + 1) + 
+                " TIME=" + (System.currentTimeMillis() - eTime) + "ms");
+    }
+
+    /**
+     * This does a k-way merge of sorted runs, writing the merged rows
+     * to otherTableWriter in chunks, then calling otherTableWriter.finish().
+     * The runs' resources are released when they have been merged.
+     *
+     * @param runs the finished, sorted runs
+     * @param outNRows the total number of rows to be buffered
+     *    (it is shared by the runs' buffers)
+     */
+    private void mergeRuns(ArrayList<TableWriterAll> runs, int keys[], boolean ascending[],
+        boolean ignoreCase, boolean removeDuplicates, int outNRows, 
+        TableWriter otherTableWriter) throws Throwable {
+
+        int nRuns = runs.size();
+        int bufferNRows = Math.max(100, outNRows / (2 * nRuns));
+        outNRows = Math.max(100, outNRows / 2);
+        int nColumns = nColumns();
+        MergeRun mergeRun[] = new MergeRun[nRuns];
+        PriorityQueue<MergeRun> queue = new PriorityQueue(Math.max(1, nRuns), 
+            new java.util.Comparator<MergeRun>() {
+                public int compare(MergeRun run1, MergeRun run2) {
+                    int result = compareRows(run1.table, run1.po, run2.table, run2.po, 
+                        keys, ascending, ignoreCase);
+                    //ties go to the earlier run, so the sort is stable
+                    return result != 0? result : run1.runNumber - run2.runNumber;
+                }
+            });
+        try {
+            for (int r = 0; r < nRuns; r++) {
+                mergeRun[r] = new MergeRun(runs.get(r), r, bufferNRows);
+                if (mergeRun[r].next())
+                    queue.add(mergeRun[r]);
+            }
+
+            Table lastRow = null; //just used if removeDuplicates
+            Table out = makeEmptyTable();
+            while (!queue.isEmpty()) {
+                MergeRun run = queue.poll();
+
+                boolean keep = true;
+                if (removeDuplicates) {
+                    int outN = out.nRows();
+                    keep = outN > 0? 
+                        !rowsAreEqual(out, outN - 1, run.table, run.po) :
+                        lastRow == null || !rowsAreEqual(lastRow, 0, run.table, run.po);
+                }
+                if (keep) {
+                    for (int col = 0; col < nColumns; col++) 
+                        out.getColumn(col).addFromPA(run.table.getColumn(col), run.po);
+                    if (out.nRows() >= outNRows) {
+                        if (removeDuplicates) {
+                            //otherTableWriter may change out, so save a copy of the last row
+                            lastRow = makeEmptyTable();
+                            for (int col = 0; col < nColumns; col++) 
+                                lastRow.getColumn(col).addFromPA(out.getColumn(col), out.nRows() - 1);
+                        }
+                        otherTableWriter.writeSome(out);
+                        if (otherTableWriter.noMoreDataPlease) 
+                            throw new NoMoreDataPleaseException();
+                        out = makeEmptyTable();
+                    }
+                }
+
+                if (run.next()) 
+                    queue.add(run);
+            }
+            if (out.nRows() > 0)
+                otherTableWriter.writeSome(out);
+            otherTableWriter.finish();
+
+        } catch (NoMoreDataPleaseException nmdpe) {
+            otherTableWriter.finish();
+        } finally {
+            for (int r = 0; r < nRuns; r++) 
+                if (mergeRun[r] != null)
+                    mergeRun[r].close();
+        }
+    }
+
+    /**
+     * This compares row1 of table1 and row2 of table2 (which have the same structure).
+     *
+     * @return a negative integer, zero, or a positive integer if 
+     *   row1 should sort before, the same as, or after row2
+     */
+    private static int compareRows(Table table1, int row1, Table table2, int row2,
+        int keys[], boolean ascending[], boolean ignoreCase) {
+        for (int k = 0; k < keys.length; k++) {
+            PrimitiveArray pa1 = table1.getColumn(keys[k]);
+            int result = ignoreCase?
+                pa1.compareIgnoreCase(row1, table2.getColumn(keys[k]), row2) :
+                pa1.compare(          row1, table2.getColumn(keys[k]), row2);
+            if (result != 0) 
+                return ascending[k]? result : -result;
+        }
+        return 0;
+    }
+
+    /** This returns true if all of the values in row1 of table1 equal those in row2 of table2. */
+    private static boolean rowsAreEqual(Table table1, int row1, Table table2, int row2) {
+        int nColumns = table1.nColumns();
+        for (int col = 0; col < nColumns; col++) 
+            if (table1.getColumn(col).compare(row1, table2.getColumn(col), row2) != 0)
+                return false;
+        return true;
+    }
+
+    /** 
+     * This reads one sorted run (from a finished TableWriterAll) 
+     * a buffer-full at a time for mergeRuns. 
+     */
+    private class MergeRun {
+        TableWriterAll source;
+        int runNumber;
+        int bufferNRows;
+        ColumnReader readers[];
+        long remaining;
+        Table table;
+        int po = -1;
+
+        MergeRun(TableWriterAll tSource, int tRunNumber, int tBufferNRows) throws Throwable {
+            source = tSource;
+            runNumber = tRunNumber;
+            bufferNRows = tBufferNRows;
+            remaining = source.nRows();
+            int nColumns = source.nColumns();
+            readers = new ColumnReader[nColumns];
+            for (int col = 0; col < nColumns; col++) 
+                readers[col] = source.columnReader(col);
+            table = source.makeEmptyTable();
+        }
+
+        /** 
+         * This advances po to the next row, reading the next buffer-full if needed.
+         *
+         * @return false if there are no more rows
+         */
+        boolean next() throws Throwable {
+            po++;
+            if (po < table.nRows())
+                return true;
+            if (remaining == 0)
+                return false;
+            int n = (int)Math.min(bufferNRows, remaining);
+            table.removeAllRows();
+            for (int col = 0; col < readers.length; col++) 
+                readers[col].read(table.getColumn(col), n);
+            remaining -= n;
+            po = 0;
+            return true;
+        }
+
+        void close() {
+            for (int col = 0; col < readers.length; col++) 
+                if (readers[col] != null) readers[col].close();
+            source.releaseResources();
+        }
+    }
+
+    /**
+     * This reads the values in one column's file (written by writeDos) 
+     * sequentially, via positional FileChannel reads into a reused direct buffer
+     * of up to BUFFER_BYTES. (FileChannel.read fills a direct buffer directly;
+     * with a heap buffer it would read into a temporary direct buffer and copy.)
+     * When a value (e.g., a String) spans the end of the buffer, 
+     * the unread bytes are moved to the start of the buffer before the next read.
+     * Nothing here outlives close(), so the file can be deleted right away (even on Windows).
+     * This is not thread-safe.
+     */
+    public static class ColumnReader {
+        /** 
+         * The maximum size of the buffer. 
+         * It must be at least 65537 (the largest writeUTF String).
+         */
+        public final static int BUFFER_BYTES = 1 << 17; //128KB
+
+        protected String fileName;
+        protected RandomAccessFile raf;
+        protected FileChannel channel;
+        protected long filePosition = 0; //of the next byte to be read into buffer
+        protected ByteBuffer buffer; 
+
+        /**
+         * The constructor.
+         *
+         * @param tFileName the full name of a file written by PrimitiveArray.writeDos
+         * @throws Throwable if trouble
+         */
+        public ColumnReader(String tFileName) throws Throwable {
+            fileName = tFileName;
+            raf = new RandomAccessFile(fileName, "r");
+            channel = raf.getChannel();
+            buffer = ByteBuffer.allocateDirect((int)Math.max(1, Math.min(BUFFER_BYTES, channel.size())));
+            buffer.limit(0); //nothing read yet
+        }
+
+        /**
+         * This reads/adds the next n values to pa.
+         *
+         * @param pa the PrimitiveArray (of the column's type) which will receive the values
+         * @param n the number of values to be read
+         * @throws Throwable if trouble (e.g., EOFException if there aren't n more values)
+         */
+        public void read(PrimitiveArray pa, int n) throws Throwable {
+            while (n > 0) {
+                n -= pa.readByteBuffer(buffer, n);
+                if (n > 0) {
+                    //move the unread bytes to the start of buffer, then fill the rest
+                    buffer.compact();
+                    int nBytes = 0;
+                    while (buffer.hasRemaining()) {
+                        int tn = channel.read(buffer, filePosition);
+                        if (tn <= 0) 
+                            break;
+                        filePosition += tn;
+                        nBytes += tn;
+                    }
+                    buffer.flip();
+                    if (nBytes == 0)
+                        throw new EOFException("TableWriterAll.ColumnReader: unexpected end of " + 
+                            fileName + " at byte #" + filePosition);
+                }
+            }
+        }
+
+        /**
+         * This closes the file and releases the buffer. This won't throw an exception.
+         */
+        public void close() {
+            buffer = null;
+            try {if (channel != null) channel.close();} catch (Exception e) {}
+            try {if (raf     != null) raf.close();    } catch (Exception e) {}
+            channel = null;
+            raf = null;
+        }
+    }
+
     /**
      * This deletes the columnStreams files and cumulativeTable (if any).
      * This won't throw an exception.
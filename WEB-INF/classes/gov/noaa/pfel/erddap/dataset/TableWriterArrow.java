@@ -0,0 +1,684 @@
+/*
+ * TableWriterArrow Copyright, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.Attributes;
+import com.cohort.array.ByteArray;
+import com.cohort.array.DoubleArray;
+import com.cohort.array.FloatArray;
+import com.cohort.array.IntArray;
+import com.cohort.array.LongArray;
+import com.cohort.array.PAType;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.array.ShortArray;
+import com.cohort.array.StringArray;
+import com.cohort.array.UByteArray;
+import com.cohort.array.UIntArray;
+import com.cohort.array.ULongArray;
+import com.cohort.array.UShortArray;
+import com.cohort.util.MustBe;
+import com.cohort.util.SimpleException;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * TableWriterArrow provides a way to write a table to an Apache Arrow
+ * IPC stream (https://arrow.apache.org/docs/format/Columnar.html#ipc-streaming-format)
+ * outputStream in chunks so that the whole table doesn't have to be in memory
+ * at one time.
+ * The first call to writeSome() writes the Schema message;
+ * each call to writeSome() writes one RecordBatch message with the table's
+ * columns; and finish() writes the end-of-stream marker.
+ * This is used by EDDTable and EDDGrid.
+ * The outputStream isn't obtained until the first call to writeSome().
+ *
+ * <p>Byte, short, int, and long columns (signed and unsigned) become Arrow Int
+ * columns, float and double columns become FloatingPoint columns,
+ * and char and String columns become Utf8 columns.
+ * Time columns are written as doubles (epoch seconds), as in .dods.
+ * Missing values are left as destinationMissingValues or
+ * destinationFillValues (so there are no nulls).
+ * Each column's attributes (e.g., units, _FillValue) are in its Field's
+ * custom_metadata and the global attributes are in the Schema's custom_metadata.
+ *
+ * <p>The FlatBuffers metadata is written by FlatBufferWriter (below),
+ * so no Arrow library is needed.
+ */
+public class TableWriterArrow extends TableWriter {
+
+    /** The Arrow MetadataVersion. V5=4 */
+    public final static short METADATA_VERSION = 4;
+
+    //Arrow MessageHeader union type ids
+    final static byte HEADER_SCHEMA = 1;
+    final static byte HEADER_RECORD_BATCH = 3;
+
+    //Arrow Type union type ids
+    final static byte TYPE_INT = 2;
+    final static byte TYPE_FLOATING_POINT = 3;
+    final static byte TYPE_UTF8 = 5;
+
+    //set by firstTime
+    protected OutputStream outputStream;
+
+    public long totalNRows = 0;
+    public int nRecordBatches = 0;
+
+    //reused for each record batch
+    private byte body[] = new byte[0];
+
+    /**
+     * The constructor.
+     *
+     * @param tOutputStreamSource  the source of an outputStream that receives the
+     *     results, usually already buffered.
+     *     The ouputStream is not procured until there is data to be written.
+     */
+    public TableWriterArrow(EDD tEdd, String tNewHistory,
+        OutputStreamSource tOutputStreamSource) {
+
+        super(tEdd, tNewHistory, tOutputStreamSource);
+    }
+
+    /**
+     * This adds the current contents of table (a chunk of data) to the OutputStream
+     * as one RecordBatch.
+     * This calls ensureCompatible each time it is called.
+     * If this is the first time this is called, this does first time things
+     *   (e.g., call OutputStreamSource.outputStream() and write the Schema message).
+     * The number of columns, the column names, and the types of columns
+     *   must be the same each time this is called.
+     *
+     * @param table with destinationValues.
+     *   The table should have missing values stored as destinationMissingValues
+     *   or destinationFillValues.
+     *   This implementation doesn't change them.
+     * @throws Throwable if trouble
+     */
+    public void writeSome(Table table) throws Throwable {
+        if (table.nRows() == 0)
+            return;
+
+        //ensure the table's structure is the same as before
+        boolean firstTime = columnNames == null;
+        ensureCompatible(table);
+
+        //do firstTime stuff
+        if (firstTime) {
+            outputStream = outputStreamSource.outputStream("");
+            writeMessage(outputStream, schemaMetadata(columnNames, columnTypes,
+                columnAttributes, globalAttributes), null, 0);
+        }
+
+        //do everyTime stuff
+        //leave missing values as destinationMissingValues or destinationFillValues
+        int nRows = table.nRows();
+        totalNRows += nRows;
+        nRecordBatches++;
+        writeRecordBatch(outputStream, table, nRows);
+
+        //so data gets to user right away
+        outputStream.flush();
+    }
+
+
+    /**
+     * This writes the end-of-stream marker and flushes the stream.
+     * If ignoreFinish=true, nothing will be done.
+     *
+     * @throws Throwable if trouble (e.g., MustBe.THERE_IS_NO_DATA if there is no data)
+     */
+    public void finish() throws Throwable {
+        if (ignoreFinish)
+            return;
+
+        //check for MustBe.THERE_IS_NO_DATA
+        if (outputStream == null)
+            throw new SimpleException(MustBe.THERE_IS_NO_DATA + " (nRows = 0)");
+
+        //end of stream: continuation marker, then metadata length=0
+        outputStream.write(new byte[]{-1, -1, -1, -1, 0, 0, 0, 0});
+        outputStream.flush(); //essential
+        body = null;
+
+        //diagnostic
+        if (verbose)
+            String2.log("TableWriterArrow done. nRows=" + totalNRows +
+                " nRecordBatches=" + nRecordBatches +
+                " TIME=" + (System.currentTimeMillis() - time) + "ms\n");
+
+    }
+
+    /**
+     * This returns the number of bytes per value in an Arrow buffer for a
+     * column of this type (or 0 for char and String columns, which are
+     * written as Utf8).
+     */
+    static int bytesPerValue(PAType paType) {
+        switch (paType) {
+            case BYTE:  case UBYTE:  return 1;
+            case SHORT: case USHORT: return 2;
+            case INT:   case UINT:   case FLOAT:  return 4;
+            case LONG:  case ULONG:  case DOUBLE: return 8;
+            default: return 0;
+        }
+    }
+
+    /** This rounds n up to a multiple of 8 (Arrow's required buffer alignment). */
+    static long pad8(long n) {
+        return (n + 7) & ~7L;
+    }
+
+    /**
+     * This writes one IPC message: the continuation marker, the metadata length,
+     * the metadata (padded to 8 bytes), and the body.
+     *
+     * @param fb the Message flatbuffer
+     * @param tBody the body (or null if bodyLength=0)
+     * @param bodyLength the number of bytes of tBody to write (a multiple of 8)
+     */
+    static void writeMessage(OutputStream out, FlatBufferWriter fb,
+        byte tBody[], long bodyLength) throws Exception {
+
+        int metaLength = (int)pad8(fb.n);
+        byte prefix[] = {-1, -1, -1, -1,
+            (byte)metaLength, (byte)(metaLength >> 8), (byte)(metaLength >> 16), (byte)(metaLength >> 24)};
+        out.write(prefix);
+        out.write(fb.b, 0, fb.n);
+        for (int i = fb.n; i < metaLength; i++)
+            out.write(0);
+        if (bodyLength > 0)
+            out.write(tBody, 0, (int)bodyLength);
+    }
+
+    /**
+     * This starts a Message flatbuffer.
+     *
+     * @return the position of the Message's header field (which the caller
+     *   must set to the header table's position)
+     */
+    static int startMessage(FlatBufferWriter fb, byte headerType, long bodyLength) {
+        fb.n = 4; //the root offset
+        //Message: version, header_type, header, bodyLength
+        int m[] = fb.table(2, 1, 4, 8);
+        fb.put2(m[0], METADATA_VERSION);
+        fb.put1(m[1], headerType);
+        fb.put8(m[3], bodyLength);
+        fb.putOffset(0, m[4]);
+        return m[2];
+    }
+
+    /**
+     * This makes the Schema message's flatbuffer.
+     */
+    static FlatBufferWriter schemaMetadata(String tColumnNames[], PAType tColumnTypes[],
+        Attributes tColumnAttributes[], Attributes tGlobalAttributes) {
+
+        FlatBufferWriter fb = new FlatBufferWriter();
+        int headerPos = startMessage(fb, HEADER_SCHEMA, 0);
+
+        //Schema: endianness, fields, custom_metadata
+        int nColumns = tColumnNames.length;
+        int s[] = fb.table(2, 4, 4);
+        fb.putOffset(headerPos, s[3]);
+        fb.put2(s[0], (short)0); //Little
+        int fields = fb.vector(nColumns, 4, 4);
+        fb.putOffset(s[1], fields);
+        fb.putOffset(s[2], keyValues(fb, tGlobalAttributes));
+
+        for (int col = 0; col < nColumns; col++) {
+            //Field: name, nullable, type_type, type, dictionary, children, custom_metadata
+            PAType paType = tColumnTypes[col];
+            int nBytes = bytesPerValue(paType);
+            int f[] = fb.table(4, 1, 1, 4, 0, 4, 4);
+            fb.putOffset(fields + 4 + 4 * col, f[7]);
+            fb.putOffset(f[0], fb.string(tColumnNames[col]));
+            fb.put1(f[1], (byte)1);
+            if (paType == PAType.FLOAT || paType == PAType.DOUBLE) {
+                //FloatingPoint: precision (SINGLE=1, DOUBLE=2)
+                fb.put1(f[2], TYPE_FLOATING_POINT);
+                int t[] = fb.table(2);
+                fb.put2(t[0], (short)(nBytes == 4? 1 : 2));
+                fb.putOffset(f[3], t[1]);
+            } else if (nBytes > 0) {
+                //Int: bitWidth, is_signed
+                fb.put1(f[2], TYPE_INT);
+                int t[] = fb.table(4, 1);
+                fb.put4(t[0], nBytes * 8);
+                fb.put1(t[1], (byte)(paType == PAType.UBYTE  || paType == PAType.USHORT ||
+                                     paType == PAType.UINT   || paType == PAType.ULONG? 0 : 1));
+                fb.putOffset(f[3], t[2]);
+            } else {
+                fb.put1(f[2], TYPE_UTF8);
+                int t[] = fb.table();
+                fb.putOffset(f[3], t[0]);
+            }
+            fb.putOffset(f[5], fb.vector(0, 4, 4)); //no children
+            fb.putOffset(f[6], keyValues(fb, tColumnAttributes[col]));
+        }
+        return fb;
+    }
+
+    /**
+     * This writes the attributes as a vector of KeyValue tables.
+     * Numeric attribute values are written as comma-space-separated values.
+     *
+     * @return the position of the vector
+     */
+    static int keyValues(FlatBufferWriter fb, Attributes atts) {
+        String names[] = atts == null? new String[0] : atts.getNames();
+        int v = fb.vector(names.length, 4, 4);
+        for (int i = 0; i < names.length; i++) {
+            PrimitiveArray pa = atts.get(names[i]);
+            String value = pa.elementType() == PAType.STRING?
+                String2.toSVString(((StringArray)pa).toArray(), "\n", false) :
+                pa.toString();
+            //KeyValue: key, value
+            int kv[] = fb.table(4, 4);
+            fb.putOffset(v + 4 + 4 * i, kv[2]);
+            fb.putOffset(kv[0], fb.string(names[i]));
+            fb.putOffset(kv[1], fb.string(value));
+        }
+        return v;
+    }
+
+    /**
+     * This writes the first nRows of the table as a RecordBatch message.
+     * Each column has a validity buffer (length=0, since there are no nulls)
+     * and a data buffer (or, for Utf8 columns, an offsets buffer and a data buffer).
+     */
+    void writeRecordBatch(OutputStream out, Table table, int nRows) throws Exception {
+
+        //convert the char and String columns to UTF-8 and find the size of the body
+        int nColumns = table.nColumns();
+        byte utf8[][][] = new byte[nColumns][][];
+        long bodyLength = 0;
+        for (int col = 0; col < nColumns; col++) {
+            PrimitiveArray pa = table.getColumn(col);
+            int nBytes = bytesPerValue(pa.elementType());
+            if (nBytes > 0) {
+                bodyLength += pad8((long)nBytes * nRows);
+            } else {
+                byte bar[][] = new byte[nRows][];
+                long nChars = 0;
+                for (int row = 0; row < nRows; row++) {
+                    bar[row] = String2.stringToUtf8Bytes(pa.getString(row));
+                    nChars += bar[row].length;
+                }
+                if (nChars > Integer.MAX_VALUE)
+                    throw new SimpleException("The UTF-8 data for column=" + table.getColumnName(col) +
+                        " in one chunk is too big for an Arrow Utf8 column (" + nChars + " bytes).");
+                utf8[col] = bar;
+                bodyLength += pad8(4L * (nRows + 1)) + pad8(nChars);
+            }
+        }
+        if (bodyLength >= Integer.MAX_VALUE)
+            throw new SimpleException("The chunk of data is too big for one Arrow RecordBatch (" +
+                bodyLength + " bytes).");
+        if (body.length < bodyLength)
+            body = new byte[(int)Math.max(bodyLength, Math.min(Integer.MAX_VALUE - 8, body.length * 2L))];
+        ByteBuffer bb = ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN);
+
+        //RecordBatch: length, nodes, buffers
+        FlatBufferWriter fb = new FlatBufferWriter();
+        int headerPos = startMessage(fb, HEADER_RECORD_BATCH, bodyLength);
+        int r[] = fb.table(8, 4, 4);
+        fb.putOffset(headerPos, r[3]);
+        fb.put8(r[0], nRows);
+        int nodes = fb.vector(nColumns, 16, 8); //FieldNode: length, null_count
+        fb.putOffset(r[1], nodes);
+        int nBuffers = 0;
+        for (int col = 0; col < nColumns; col++)
+            nBuffers += utf8[col] == null? 2 : 3;
+        int buffers = fb.vector(nBuffers, 16, 8); //Buffer: offset, length
+        fb.putOffset(r[2], buffers);
+
+        int po = 0; //position in body
+        int bufferPos = buffers + 4;
+        for (int col = 0; col < nColumns; col++) {
+            PrimitiveArray pa = table.getColumn(col);
+            fb.put8(nodes + 4 + 16 * col, nRows);
+            fb.put8(nodes + 4 + 16 * col + 8, 0);
+
+            //validity buffer
+            fb.put8(bufferPos, po);
+            fb.put8(bufferPos + 8, 0);
+            bufferPos += 16;
+
+            if (utf8[col] == null) {
+                //data buffer
+                int length = bytesPerValue(pa.elementType()) * nRows;
+                bb.position(po);
+                switch (pa.elementType()) {
+                    case BYTE:   System.arraycopy(((ByteArray)pa).array,   0, body, po, nRows); break;
+                    case UBYTE:  System.arraycopy(((UByteArray)pa).array,  0, body, po, nRows); break;
+                    case SHORT:  bb.asShortBuffer().put(((ShortArray)pa).array,   0, nRows); break;
+                    case USHORT: bb.asShortBuffer().put(((UShortArray)pa).array,  0, nRows); break;
+                    case INT:    bb.asIntBuffer().put(((IntArray)pa).array,       0, nRows); break;
+                    case UINT:   bb.asIntBuffer().put(((UIntArray)pa).array,      0, nRows); break;
+                    case LONG:   bb.asLongBuffer().put(((LongArray)pa).array,     0, nRows); break;
+                    case ULONG:  bb.asLongBuffer().put(((ULongArray)pa).array,    0, nRows); break;
+                    case FLOAT:  bb.asFloatBuffer().put(((FloatArray)pa).array,   0, nRows); break;
+                    case DOUBLE: bb.asDoubleBuffer().put(((DoubleArray)pa).array, 0, nRows); break;
+                }
+                po = writeBuffer(fb, bufferPos, po, length);
+                bufferPos += 16;
+
+            } else {
+                //offsets buffer
+                byte bar[][] = utf8[col];
+                int offset = 0;
+                bb.position(po);
+                bb.putInt(0);
+                for (int row = 0; row < nRows; row++) {
+                    offset += bar[row].length;
+                    bb.putInt(offset);
+                }
+                po = writeBuffer(fb, bufferPos, po, 4 * (nRows + 1));
+                bufferPos += 16;
+
+                //data buffer
+                int dataPo = po;
+                for (int row = 0; row < nRows; row++) {
+                    System.arraycopy(bar[row], 0, body, dataPo, bar[row].length);
+                    dataPo += bar[row].length;
+                }
+                po = writeBuffer(fb, bufferPos, po, offset);
+                bufferPos += 16;
+            }
+        }
+        Test.ensureEqual(po, bodyLength, "TableWriterArrow body length");
+
+        writeMessage(out, fb, body, bodyLength);
+    }
+
+    /**
+     * This sets a Buffer struct and zeros the padding after the buffer's bytes.
+     *
+     * @return the position in the body of the next buffer
+     */
+    private int writeBuffer(FlatBufferWriter fb, int bufferPos, int po, int length) {
+        fb.put8(bufferPos, po);
+        fb.put8(bufferPos + 8, length);
+        int next = (int)pad8(po + length);
+        for (int i = po + length; i < next; i++)
+            body[i] = 0;
+        return next;
+    }
+
+
+    /**
+     * A minimal FlatBuffers (https://google.github.io/flatbuffers/) writer
+     * for the Arrow IPC metadata.
+     * Unlike the FlatBufferBuilder in the FlatBuffers library, this writes front to back:
+     * each table's vtable and inline fields are written when the table is made,
+     * and the strings, vectors, and tables that it refers to are written later
+     * (since offsets are unsigned, they must point forward) and their
+     * positions are put into its fields.
+     * All positions are relative to the start of the buffer,
+     * which the reader must have 8-byte aligned.
+     */
+    static class FlatBufferWriter {
+        byte b[] = new byte[512];
+        int n = 0;
+
+        private void ensureCapacity(int more) {
+            if (n + more > b.length) {
+                byte tb[] = new byte[Math.max(n + more, 2 * b.length)];
+                System.arraycopy(b, 0, tb, 0, n);
+                b = tb;
+            }
+        }
+
+        /** This adds 0's so that n is a multiple of align. */
+        void pad(int align) {
+            ensureCapacity(align);
+            while (n % align != 0)
+                b[n++] = 0;
+        }
+
+        /** This adds nBytes 0's. */
+        void skip(int nBytes) {
+            ensureCapacity(nBytes);
+            for (int i = 0; i < nBytes; i++)
+                b[n++] = 0;
+        }
+
+        void put1(int pos, byte v) {
+            b[pos] = v;
+        }
+
+        void put2(int pos, short v) {
+            b[pos]     = (byte)v;
+            b[pos + 1] = (byte)(v >> 8);
+        }
+
+        void put4(int pos, int v) {
+            for (int i = 0; i < 4; i++)
+                b[pos + i] = (byte)(v >> (8 * i));
+        }
+
+        void put8(int pos, long v) {
+            for (int i = 0; i < 8; i++)
+                b[pos + i] = (byte)(v >> (8 * i));
+        }
+
+        /** This sets the uoffset at pos to point to target (which must be after pos). */
+        void putOffset(int pos, int target) {
+            put4(pos, target - pos);
+        }
+
+        /**
+         * This writes a vtable and then the table's inline fields (all 0's).
+         * The fields are laid out largest first, each aligned to its size.
+         *
+         * @param slotSizes the size (1, 2, 4 (also for offsets), or 8 bytes) of each
+         *   field slot in the schema, or 0 if the field is absent.
+         *   For a union field, the type (1 byte) and the value (an offset)
+         *   are separate slots.
+         * @return the position of each field (-1 if absent),
+         *   and then (at [slotSizes.length]) the position of the table
+         */
+        int[] table(int... slotSizes) {
+            int nSlots = slotSizes.length;
+            int pos[] = new int[nSlots + 1];
+            int tableSize = 4; //the soffset to the vtable
+            for (int size = 8; size >= 1; size /= 2) {
+                for (int slot = 0; slot < nSlots; slot++) {
+                    if (slotSizes[slot] == size) {
+                        tableSize = (tableSize + size - 1) / size * size;
+                        pos[slot] = tableSize;
+                        tableSize += size;
+                    }
+                }
+            }
+
+            //the vtable is just before the table, and the table is 8-byte aligned
+            int vtableSize = 4 + 2 * nSlots;
+            ensureCapacity(8);
+            while ((n + vtableSize) % 8 != 0)
+                b[n++] = 0;
+            int vtable = n;
+            skip(vtableSize);
+            put2(vtable, (short)vtableSize);
+            put2(vtable + 2, (short)tableSize);
+            int table = n;
+            for (int slot = 0; slot < nSlots; slot++)
+                put2(vtable + 4 + 2 * slot, (short)(slotSizes[slot] == 0? 0 : pos[slot]));
+            skip(tableSize);
+            put4(table, table - vtable);
+
+            for (int slot = 0; slot < nSlots; slot++)
+                pos[slot] = slotSizes[slot] == 0? -1 : table + pos[slot];
+            pos[nSlots] = table;
+            return pos;
+        }
+
+        /**
+         * This writes a vector's length and space for its elements (all 0's).
+         * Element i is at the returned position + 4 + i*elementSize.
+         *
+         * @param elementAlign the required alignment of the elements (4 or 8)
+         * @return the position of the vector
+         */
+        int vector(int nElements, int elementSize, int elementAlign) {
+            ensureCapacity(8);
+            while (n % 4 != 0 || (n + 4) % elementAlign != 0)
+                b[n++] = 0;
+            int v = n;
+            skip(4 + nElements * elementSize);
+            put4(v, nElements);
+            return v;
+        }
+
+        /**
+         * This writes a string (the length, the UTF-8 bytes, and a terminating 0).
+         *
+         * @return the position of the string
+         */
+        int string(String s) {
+            byte bar[] = String2.stringToUtf8Bytes(s);
+            pad(4);
+            int v = n;
+            skip(4 + bar.length + 1);
+            put4(v, bar.length);
+            System.arraycopy(bar, 0, b, v + 4, bar.length);
+            return v;
+        }
+    }
+
+
+    /**
+     * This tests the basic methods in this class.
+     */
+    public static void basicTest() throws Throwable {
+        String2.log("\n*** TableWriterArrow.basicTest");
+
+        //FlatBufferWriter
+        FlatBufferWriter fb = new FlatBufferWriter();
+        fb.n = 4;
+        int t[] = fb.table(2, 1, 4, 8);
+        Test.ensureEqual(String2.toCSSVString(t), "36, 38, 32, 24, 16", "");
+        Test.ensureEqual(fb.n, 39, "");
+        Test.ensureEqual(fb.b[4] + " " + fb.b[6] + " " + fb.b[8] + " " + fb.b[10] + " " +
+            fb.b[12] + " " + fb.b[14] + " " + fb.b[16],
+            "12 23 20 22 16 8 12", ""); //vtableSize tableSize slots... soffset
+        int v = fb.vector(2, 16, 8);
+        Test.ensureEqual(v, 44, "");
+        Test.ensureEqual((v + 4) % 8, 0, "");
+        int s = fb.string("ab");
+        Test.ensureEqual(s, 80, "");
+        Test.ensureEqual(fb.n, 87, "");
+
+        //write a table
+        Table table = new Table();
+        table.addColumn("b", new ByteArray(new byte[]{1, -2, 3}));
+        table.addColumn("us", new UShortArray(new short[]{1, -1, 3}));
+        table.addColumn("d", new DoubleArray(new double[]{1.5, Double.NaN, -3}));
+        table.addColumn("s", new StringArray(new String[]{"a", "", "\u00fcbc"}));
+        table.columnAttributes(2).add("units", "m");
+        table.globalAttributes().add("title", "Test");
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        TableWriterArrow tw = new TableWriterArrow(null, null,
+            new OutputStreamSourceSimple(baos));
+        tw.writeSome(table);
+        tw.writeSome(table);
+        tw.finish();
+        byte bar[] = baos.toByteArray();
+        ByteBuffer bb = ByteBuffer.wrap(bar).order(ByteOrder.LITTLE_ENDIAN);
+
+        //walk through the messages
+        int po = 0;
+        int nMessages = 0;
+        while (true) {
+            Test.ensureEqual(bb.getInt(po), -1, "continuation at po=" + po);
+            int metaLength = bb.getInt(po + 4);
+            Test.ensureEqual(metaLength % 8, 0, "");
+            if (metaLength == 0) {
+                po += 8;
+                break;
+            }
+            int message = po + 8 + bb.getInt(po + 8); //root table
+            int vtable = message - bb.getInt(message);
+            Test.ensureEqual(bb.getShort(message + bb.getShort(vtable + 4)), METADATA_VERSION, "");
+            byte headerType = bb.get(message + bb.getShort(vtable + 6));
+            Test.ensureEqual(headerType, nMessages == 0? HEADER_SCHEMA : HEADER_RECORD_BATCH, "");
+            long bodyLength = bb.getLong(message + bb.getShort(vtable + 10));
+            po += 8 + metaLength;
+            if (nMessages > 0) {
+                Test.ensureEqual(bodyLength, 64L, "");
+                Test.ensureEqual(bar[po + 1], -2, "");                    //b[1]
+                Test.ensureEqual(bb.getShort(po + 8 + 2), -1, "");        //us[1]
+                Test.ensureEqual(bb.getDouble(po + 16 + 16), -3.0, "");   //d[2]
+                Test.ensureEqual(bb.getInt(po + 40 + 12), 5, "");         //s offsets[3]
+                Test.ensureEqual(new String(bar, po + 56, 5, String2.UTF_8), "a\u00fcbc", "");
+            }
+            po += bodyLength;
+            nMessages++;
+        }
+        Test.ensureEqual(nMessages, 3, "");
+        Test.ensureEqual(po, bar.length, "");
+        Test.ensureEqual(tw.totalNRows, 6, "");
+
+        //no data
+        tw = new TableWriterArrow(null, null, new OutputStreamSourceSimple(new ByteArrayOutputStream()));
+        try {
+            tw.finish();
+            throw new SimpleException("Shouldn't get here.");
+        } catch (Exception e) {
+            Test.ensureTrue(e.toString().indexOf(MustBe.THERE_IS_NO_DATA) >= 0, e.toString());
+        }
+        String2.log("TableWriterArrow.basicTest finished successfully");
+    }
+
+    /**
+     * This runs all of the interactive or not interactive tests for this class.
+     *
+     * @param errorSB all caught exceptions are logged to this.
+     * @param interactive  If true, this runs all of the interactive tests;
+     *   otherwise, this runs all of the non-interactive tests.
+     * @param doSlowTestsToo If true, this runs the slow tests, too.
+     * @param firstTest The first test to be run (0...).  Test numbers may change.
+     * @param lastTest The last test to be run, inclusive (0..., or -1 for the last test).
+     *   Test numbers may change.
+     */
+    public static void test(StringBuilder errorSB, boolean interactive,
+        boolean doSlowTestsToo, int firstTest, int lastTest) {
+        if (lastTest < 0)
+            lastTest = interactive? -1 : 0;
+        String msg = "\n^^^ TableWriterArrow.test(" + interactive + ") test=";
+
+        for (int test = firstTest; test <= lastTest; test++) {
+            try {
+                long time = System.currentTimeMillis();
+                String2.log(msg + test);
+
+                if (interactive) {
+                    //if (test ==  0) ...;
+
+                } else {
+                    if (test ==  0) basicTest();
+                }
+
+                String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
+            } catch (Throwable testThrowable) {
+                String eMsg = msg + test + " caught throwable:\n" +
+                    MustBe.throwableToString(testThrowable);
+                errorSB.append(eMsg);
+                String2.log(eMsg);
+                if (interactive)
+                    String2.pressEnterToContinue("");
+            }
+        }
+    }
+
+}
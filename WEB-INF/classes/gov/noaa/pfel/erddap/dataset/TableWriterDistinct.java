@@ -57,6 +57,7 @@ public class TableWriterDistinct extends TableWriterAll {
         TableWriter tOtherTableWriter) {
 
         super(tEdd, tNewHistory, tDir, tFileNameNoExt); 
+        needsAllRowsInMemory = false; //large results are sorted with externalSortAndWrite
         otherTableWriter = tOtherTableWriter;
     }
 
@@ -92,6 +93,8 @@ public class TableWriterDistinct extends TableWriterAll {
     /**
      * This reconstructs the table, sorts and removes duplicates, and sends table to otherTableWriter.
      * If ignoreFinish=true, nothing will be done.
+     * If there is more data than EDStatic.sortMemoryMaxBytes, 
+     * this uses an external merge sort, so all of the data is never in memory.
      *
      * @throws Throwable if trouble (e.g., MustBe.THERE_IS_NO_DATA if there is no data)
      */
@@ -102,6 +105,21 @@ public class TableWriterDistinct extends TableWriterAll {
         //close the dataOutputStreams
         super.finish();  //this throws Throwable if no data
 
+        if (!canSortInMemory()) {
+            //sort and remove duplicates like sortAndRemoveDuplicates
+            int nColumns = nColumns();
+            boolean ascending[] = new boolean[nColumns];
+            Arrays.fill(ascending, true);
+            try {
+                externalSortAndWrite((new IntArray(0, nColumns - 1)).toArray(), ascending, 
+                    true, true, otherTableWriter);
+            } finally {
+                releaseResources();
+                otherTableWriter = null;
+            }
+            return;
+        }
+
         //makeCumulativeTable
         Table table = cumulativeTable();   
         releaseResources();
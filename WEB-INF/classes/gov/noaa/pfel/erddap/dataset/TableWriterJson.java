@@ -7,7 +7,7 @@ package gov.noaa.pfel.erddap.dataset;
 import com.cohort.array.Attributes;
 import com.cohort.array.CharArray;
 import com.cohort.array.PrimitiveArray;
-import com.cohort.util.Calendar2;
+import com.cohort.util.FormattingWriter;
 import com.cohort.util.MustBe;
 import com.cohort.util.SimpleException;
 import com.cohort.util.String2;
@@ -16,7 +16,6 @@ import gov.noaa.pfel.coastwatch.pointdata.Table;
 import gov.noaa.pfel.erddap.util.EDStatic;
 import gov.noaa.pfel.erddap.variable.EDV;
 
-import java.io.BufferedWriter;
 import java.io.OutputStreamWriter;
 
 /**
@@ -38,7 +37,7 @@ public class TableWriterJson extends TableWriter {
     //set by firstTime
     protected volatile boolean isTimeStamp[];
     protected volatile String time_precision[];
-    protected volatile BufferedWriter writer;
+    protected volatile FormattingWriter writer;
 
     //other
     protected volatile boolean rowsWritten = false;
@@ -115,8 +114,8 @@ public class TableWriterJson extends TableWriter {
             }
 
             //write the header
-            writer = String2.getBufferedOutputStreamWriterUtf8(
-                outputStreamSource.outputStream(String2.UTF_8));
+            writer = FormattingWriter.forOutputStream(
+                outputStreamSource.outputStream(String2.UTF_8), String2.UTF_8_CHARSET);
             if (jsonp != null) 
                 writer.write(jsonp + "(");
 
@@ -172,11 +171,15 @@ public class TableWriterJson extends TableWriter {
                 if (col > 0) writer.write(", "); 
                 if (isTimeStamp[col]) {
                     double d = pas[col].getDouble(row);
-                    writer.write(Double.isNaN(d)? "null" : 
-                        "\"" + Calendar2.epochSecondsToLimitedIsoStringT(
-                        time_precision[col], d, "") + "\"");
+                    if (Double.isNaN(d)) {
+                        writer.write("null");
+                    } else {
+                        writer.write('"');
+                        writer.writeIsoTime(time_precision[col], d, "");
+                        writer.write('"');
+                    }
                 } else {
-                    writer.write(pas[col].getJsonString(row));
+                    writer.writeJsonString(pas[col], row);
                 }
             }
             writer.write(row < nRows - 1? "],\n" : "]"); //endRow
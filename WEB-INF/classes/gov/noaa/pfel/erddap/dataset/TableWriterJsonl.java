@@ -7,7 +7,7 @@ package gov.noaa.pfel.erddap.dataset;
 import com.cohort.array.Attributes;
 import com.cohort.array.CharArray;
 import com.cohort.array.PrimitiveArray;
-import com.cohort.util.Calendar2;
+import com.cohort.util.FormattingWriter;
 import com.cohort.util.MustBe;
 import com.cohort.util.SimpleException;
 import com.cohort.util.String2;
@@ -16,7 +16,6 @@ import gov.noaa.pfel.coastwatch.pointdata.Table;
 import gov.noaa.pfel.erddap.util.EDStatic;
 import gov.noaa.pfel.erddap.variable.EDV;
 
-import java.io.BufferedWriter;
 import java.io.OutputStreamWriter;
 
 /**
@@ -39,7 +38,7 @@ public class TableWriterJsonl extends TableWriter {
     //set by firstTime
     protected volatile boolean isTimeStamp[];
     protected volatile String time_precision[];
-    protected volatile BufferedWriter writer;
+    protected volatile FormattingWriter writer;
 
     //other
     public volatile long totalNRows = 0;
@@ -119,8 +118,8 @@ public class TableWriterJsonl extends TableWriter {
             }
 
             //write the header
-            writer = String2.getBufferedOutputStreamWriterUtf8(
-                outputStreamSource.outputStream(String2.UTF_8));  //a requirement
+            writer = FormattingWriter.forOutputStream(
+                outputStreamSource.outputStream(String2.UTF_8), String2.UTF_8_CHARSET);  //a requirement
             if (jsonp != null) 
                 writer.write(jsonp + "(\n"); //I think this never makes sense for jsonl
 
@@ -156,11 +155,15 @@ public class TableWriterJsonl extends TableWriter {
                 }
                 if (isTimeStamp[col]) {
                     double d = pas[col].getDouble(row);
-                    writer.write(Double.isNaN(d)? "null" : 
-                        "\"" + Calendar2.epochSecondsToLimitedIsoStringT(
-                        time_precision[col], d, "") + "\"");
+                    if (Double.isNaN(d)) {
+                        writer.write("null");
+                    } else {
+                        writer.write('"');
+                        writer.writeIsoTime(time_precision[col], d, "");
+                        writer.write('"');
+                    }
                 } else {
-                    writer.write(pas[col].getJsonString(row));
+                    writer.writeJsonString(pas[col], row);
                 }
             }
             writer.write(writeKVP? "}\n" : "]\n"); //endRow    //recommended: always just \n
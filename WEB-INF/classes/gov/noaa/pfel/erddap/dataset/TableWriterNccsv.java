@@ -6,9 +6,11 @@ package gov.noaa.pfel.erddap.dataset;
 
 import com.cohort.array.Attributes;
 import com.cohort.array.DoubleArray;
+import com.cohort.array.PAType;
 import com.cohort.array.PrimitiveArray;
 import com.cohort.array.StringArray;
 import com.cohort.util.Calendar2;
+import com.cohort.util.FormattingWriter;
 import com.cohort.util.MustBe;
 import com.cohort.util.SimpleException;
 import com.cohort.util.String2;
@@ -17,7 +19,6 @@ import gov.noaa.pfel.coastwatch.pointdata.Table;
 import gov.noaa.pfel.erddap.util.EDStatic;
 import gov.noaa.pfel.erddap.variable.EDV;
 
-import java.io.BufferedWriter;
 import java.io.OutputStreamWriter;
 
 /**
@@ -38,7 +39,7 @@ public class TableWriterNccsv extends TableWriter {
     protected volatile boolean isLong[];
     protected volatile boolean isTimeStamp[];
     protected volatile String time_precision[];
-    protected volatile BufferedWriter writer;
+    protected volatile FormattingWriter writer;
 
     public volatile long totalNRows = 0;
 
@@ -82,8 +83,8 @@ public class TableWriterNccsv extends TableWriter {
         if (firstTime) {
 
             //write the header
-            writer = String2.getBufferedOutputStreamWriter88591(
-                outputStreamSource.outputStream(String2.ISO_8859_1));
+            writer = FormattingWriter.forOutputStream(
+                outputStreamSource.outputStream(String2.ISO_8859_1), String2.ISO_8859_1_CHARSET);
 
             //write the global attributes   (ensureCompatibly added newHistory)
             writer.write(globalAttributes.toNccsvString(String2.NCCSV_GLOBAL));
@@ -151,13 +152,14 @@ public class TableWriterNccsv extends TableWriter {
         for (int row = 0; row < nRows; row++) {
             for (int col = 0; col < nColumns; col++) {
                 if (isTimeStamp[col]) {
-                    writer.write(Calendar2.epochSecondsToLimitedIsoStringT(
-                        time_precision[col], pas[col].getDouble(row), ""));
+                    writer.writeIsoTime(time_precision[col], pas[col].getDouble(row), "");
                 } else {
-                    String ts = pas[col].getNccsvDataString(row);
-                    writer.write(ts);
-                    if (isLong[col] && ts.length() > 0)
+                    PAType paType = pas[col].elementType();
+                    if (paType == PAType.STRING || paType == PAType.CHAR) {
+                        writer.write(pas[col].getNccsvDataString(row));
+                    } else if (writer.writeString(pas[col], row, "") && isLong[col]) {
                         writer.write('L'); //special case not handled by getNccsvDataString
+                    }
                 }
                 writer.write(col == nColumns -1? "\n" : ",");
             }
@@ -10,6 +10,8 @@ import com.cohort.util.String2;
 import gov.noaa.pfel.coastwatch.pointdata.Table;
 import gov.noaa.pfel.erddap.util.EDStatic;
 
+import java.util.Arrays;
+
 
 /**
  * TableWriterOrderBy provides a way to gather all rows,
@@ -48,6 +50,7 @@ public class TableWriterOrderBy extends TableWriterAll {
         String tFileNameNoExt, TableWriter tOtherTableWriter, String tOrderByCsv) {
 
         super(tEdd, tNewHistory, tDir, tFileNameNoExt); 
+        needsAllRowsInMemory = false; //large results are sorted with externalSortAndWrite
         otherTableWriter = tOtherTableWriter;
         String err = EDStatic.queryError +
                "No column names were specified for 'orderBy'.";
@@ -67,6 +70,8 @@ public class TableWriterOrderBy extends TableWriterAll {
     /**
      * This sorts cumulativeTable, then writes it to otherTableWriter
      * If ignoreFinish=true, nothing will be done.
+     * If there is more data than EDStatic.sortMemoryMaxBytes, 
+     * this uses an external merge sort, so all of the data is never in memory.
      *
      * @throws Throwable if trouble (e.g., MustBe.THERE_IS_NO_DATA if there is no data)
      */
@@ -76,6 +81,19 @@ public class TableWriterOrderBy extends TableWriterAll {
 
         super.finish();
 
+        if (!canSortInMemory()) {
+            boolean ascending[] = new boolean[orderBy.length];
+            Arrays.fill(ascending, true);
+            try {
+                externalSortAndWrite(keys(makeEmptyTable()), ascending, false, false, 
+                    otherTableWriter);
+            } finally {
+                releaseResources();
+                otherTableWriter = null;
+            }
+            return;
+        }
+
         Table cumulativeTable = cumulativeTable();
         releaseResources();
         writeAllAndFinish(cumulativeTable);
@@ -105,18 +123,27 @@ public class TableWriterOrderBy extends TableWriterAll {
 
 
     private void sort(Table table) {
+        boolean[] ascending = new boolean[orderBy.length];
+        Arrays.fill(ascending, true);
+        table.sort(keys(table), ascending);  
+    }
+
+    /** 
+     * This finds the orderBy columns in the table.
+     *
+     * @return the column numbers of the orderBy columns
+     * @throws SimpleException if an orderBy column isn't in the table
+     */
+    private int[] keys(Table table) {
         //ensure orderBy columns are present in results table
         int[] keys = new int[orderBy.length];
-        boolean[] ascending = new boolean[orderBy.length];
         for (int ob = 0; ob < orderBy.length; ob++) {
             keys[ob] = table.findColumnNumber(orderBy[ob]);
-            ascending[ob] = true;
             if (keys[ob] < 0)
                 throw new SimpleException(EDStatic.queryError +
                     "'orderBy' column=" + orderBy[ob] + " isn't in the results table.");
         }
-
-        table.sort(keys, ascending);  
+        return keys;
     }
 
 
@@ -4,6 +4,7 @@
  */
 package gov.noaa.pfel.erddap.dataset;
 
+import com.cohort.array.Attributes;
 import com.cohort.array.PrimitiveArray;
 import com.cohort.util.SimpleException;
 import com.cohort.util.String2;
@@ -11,17 +12,22 @@ import com.cohort.util.String2;
 import gov.noaa.pfel.coastwatch.pointdata.Table;
 import gov.noaa.pfel.erddap.util.EDStatic;
 
-import java.util.BitSet;
-
 /**
  * TableWriterOrderByMinMax provides a way to sort the response table's rows,
- * and just keep the row where the value of the last sort variable is highest.
+ * and just keep the rows where the value of the last sort variable is lowest and highest.
  * For example, you could use orderBy(\"stationID,time\") to just get the rows
  * of data with each station's minimum and maximum time value (min on one row 
  * and max on the next).
+ * If a group has only one row, it will be duplicated.
+ *
+ * <p>The rows are grouped as they arrive (see TableWriterAggregate),
+ * so just the min and max rows of each group are held in memory.
+ * TableWriterOrderByMin and TableWriterOrderByMax use this to keep
+ * just the min or just the max row.
  *
- * <p>This doesn't do anything to missing values and doesn't assume they are
- * stored as NaN or fake missing values.
+ * <p>Rows with a missing value for the last sort variable are removed.
+ * Missing values and _FillValues of the other sort variables are temporarily
+ * converted to standard missing values, so they are treated as one group.
  *
  * <p>Unlike TableWriterAllWithMetadata, this doesn't keep track of min,max for actual_range
  * or update metadata at end. It is assumed that this is like a filter,
@@ -29,12 +35,15 @@ import java.util.BitSet;
  *
  * @author Bob Simons (bob.simons@noaa.gov) 2009-05-13
  */
-public class TableWriterOrderByMinMax extends TableWriterAll {
-
+public class TableWriterOrderByMinMax extends TableWriterAggregate {
 
     //set by constructor
-    protected TableWriter otherTableWriter;
     public String orderBy[];
+    protected boolean keepMin, keepMax;
+
+    //set by configureAccumulators
+    protected int valueCol; //the last key column
+    protected Table minRows, maxRows; //row = group number
 
     /**
      * The constructor.
@@ -50,89 +59,128 @@ public class TableWriterOrderByMinMax extends TableWriterAll {
     public TableWriterOrderByMinMax(EDD tEdd, String tNewHistory, String tDir, 
         String tFileNameNoExt, TableWriter tOtherTableWriter, String tOrderByCsv) {
 
-        super(tEdd, tNewHistory, tDir, tFileNameNoExt); 
-        otherTableWriter = tOtherTableWriter;
+        this(tEdd, tNewHistory, tDir, tFileNameNoExt, tOtherTableWriter, tOrderByCsv,
+            "orderByMinMax", true, true);
+    }
+
+    /**
+     * The constructor used by this class and TableWriterOrderByMin and Max.
+     *
+     * @param tResponsible e.g., orderByMinMax
+     * @param tKeepMin if true, the row with the min value of the last sort variable is kept
+     * @param tKeepMax if true, the row with the max value of the last sort variable is kept
+     */
+    protected TableWriterOrderByMinMax(EDD tEdd, String tNewHistory, String tDir, 
+        String tFileNameNoExt, TableWriter tOtherTableWriter, String tOrderByCsv,
+        String tResponsible, boolean tKeepMin, boolean tKeepMax) {
+
+        super(tEdd, tNewHistory, tDir, tFileNameNoExt, tOtherTableWriter, 
+            tResponsible, parseOrderByCsv(tResponsible, tOrderByCsv), true);
+        orderBy = keyNames;
+        keepMin = tKeepMin;
+        keepMax = tKeepMax;
+    }
+
+    private static String[] parseOrderByCsv(String responsible, String tOrderByCsv) {
         String err = EDStatic.queryError + 
-            "No column names were specified for 'orderByMinMax'.";
+            "No column names were specified for '" + responsible + "'.";
         if (tOrderByCsv == null || tOrderByCsv.trim().length() == 0)
             throw new SimpleException(err);
-        orderBy = String2.split(tOrderByCsv, ',');
-        if (orderBy.length == 0)
+        String tOrderBy[] = String2.split(tOrderByCsv, ',');
+        if (tOrderBy.length == 0)
             throw new SimpleException(err);
+        return tOrderBy;
     }
 
-
-    /**
-     * This adds the current contents of table (a chunk of data) to the OutputStream.
-     * This calls ensureCompatible each time it is called.
-     * If this is the first time this is called, this does first time things
-     *   (e.g., call OutputStreamSource.outputStream() and write file header).
-     * The number of columns, the column names, and the types of columns 
-     *   must be the same each time this is called.
-     *
-     * @param table with destinationValues.
-     *   The table should have missing values stored as destinationMissingValues
-     *   or destinationFillValues.
-     *   This implementation converts them to NaNs for processing, 
-     *   then back to destinationMV and FV when finished.
-     * @throws Throwable if trouble
-     */
-    public void writeSome(Table table) throws Throwable {
-        if (table.nRows() == 0) 
-            return;
-
-        //to save time and disk space, this just does a partial job 
-        //  (remove non-min/max rows from this partial table)
-        //  and leaves perfect job to finish()
-        table.orderByMinMax(orderBy); //this handles missingValues and _FillValues temporarily
-
-        //ensure the table's structure is the same as before
-        //and write to dataOutputStreams
-        super.writeSome(table);
+    protected void configureAccumulators(Table table) {
+        valueCol = keyCols[keyCols.length - 1];
+        if (keepMin) minRows = makeEmptyChunkTable();
+        if (keepMax) maxRows = makeEmptyChunkTable();
     }
 
-    
-    /**
-     * This finishes orderByMinMax and writes results to otherTableWriter
-     * If ignoreFinish=true, nothing will be done.
-     *
-     * @throws Throwable if trouble (e.g., EDStatic.THERE_IS_NO_DATA if there is no data)
+    /** 
+     * This temporarily converts the keys' missing values to standard missing values
+     * (so they are switched back in finishChunk).
      */
-    public void finish() throws Throwable {
-        if (ignoreFinish) 
-            return;
+    protected void prepareChunk(Table table) {
+        table.temporarilyConvertToStandardMissingValues(keyCols);
+    }
 
-        super.finish();
+    /** Rows with a missing value for the last sort variable are skipped. */
+    protected boolean includeRow(Table table, PrimitiveArray groupKeyPAs[], int row) {
+        return !table.getColumn(valueCol).isMissingValue(row);
+    }
 
-        Table cumulativeTable = cumulativeTable();
-        releaseResources();
-        cumulativeTable.orderByMinMax(orderBy); //this handles missingValues and _FillValues temporarily
-        otherTableWriter.writeAllAndFinish(cumulativeTable);
+    protected void accumulate(Table table, int row, int group, boolean isNewGroup) {
+        PrimitiveArray pa = table.getColumn(valueCol);
+        //for ties, the min is the first row and the max is the last row
+        if (keepMin && (isNewGroup || pa.compare(row, minRows.getColumn(valueCol), group) < 0))
+            copyRow(table, row, minRows, group, isNewGroup);
+        if (keepMax && (isNewGroup || pa.compare(row, maxRows.getColumn(valueCol), group) >= 0))
+            copyRow(table, row, maxRows, group, isNewGroup);
+    }
 
-        //clean up
-        otherTableWriter = null;
+    /** This adds (if isNew) or sets a row of 'to' to the values in a row of 'from'. */
+    private void copyRow(Table from, int fromRow, Table to, int toRow, boolean isNew) {
+        for (int col = 0; col < nColumns; col++) {
+            if (isNew)
+                 to.getColumn(col).addFromPA(from.getColumn(col), fromRow);
+            else to.getColumn(col).setFromPA(toRow, from.getColumn(col), fromRow);
+        }
     }
 
     /**
-     * If caller has the entire table, use this instead of repeated writeSome() + finish().
-     * This overwrites the superclass method.
-     *
-     * @throws Throwable if trouble (e.g., EDStatic.THERE_IS_NO_DATA if there is no data)
+     * The results are the min rows (if keepMin), then the max rows (if keepMax),
+     * with temporary columns for the rounded sort variables
+     * (e.g., time.1day for time/1day) so the results can be sorted.
      */
-    public void writeAllAndFinish(Table tCumulativeTable) throws Throwable {
-        if (ignoreFinish) {
-            writeSome(tCumulativeTable);
-            tCumulativeTable.removeAllRows();
-            return;
+    protected Table resultsTable() {
+        Table table = makeEmptyChunkTable();
+        if (keepMin) table.append(minRows);
+        if (keepMax) table.append(maxRows);
+        int nCopies = keepMin && keepMax? 2 : 1;
+        for (int k = 0; k < nGroupKeys; k++) {
+            if (rounders[k] == null)
+                continue;
+            PrimitiveArray rounded = groups.keyColumn(k);
+            PrimitiveArray pa = PrimitiveArray.factory(rounded.elementType(), 
+                nCopies * rounded.size(), false);
+            for (int copy = 0; copy < nCopies; copy++)
+                pa.append(rounded);
+            table.addColumn(table.nColumns(), keyNames[k].replaceAll("\\W", "."), //e.g., time/1day -> time.1day
+                pa, new Attributes());
         }
-        tCumulativeTable.orderByMinMax(orderBy); //this handles missingValues and _FillValues temporarily
-        otherTableWriter.writeAllAndFinish(tCumulativeTable);
-        otherTableWriter = null;
+        return table;
     }
 
+    protected void clearAccumulators() {
+        if (keepMin) minRows.removeAllRows();
+        if (keepMax) maxRows.removeAllRows();
+    }
 
+    /** The results are sorted by the (rounded) sort variables. */
+    protected int[] resultSortKeys() {
+        int sortKeys[] = new int[keyCols.length];
+        int nRounded = 0;
+        for (int k = 0; k < keyCols.length; k++) 
+            sortKeys[k] = k < nGroupKeys && rounders[k] != null?
+                nColumns + nRounded++ : keyCols[k];
+        return sortKeys;
+    }
 
-}
-
+    /** 
+     * This removes the temporary columns and switches the keys' standard 
+     * missing values back to the fake missing values. 
+     */
+    protected void finishChunk(Table table) {
+        while (table.nColumns() > nColumns)
+            table.removeColumn(table.nColumns() - 1);
+        table.temporarilySwitchNaNToFakeMissingValues(keyCols);
+    }
 
+    /** The minRows and maxRows need about 2 rows per group. */
+    protected long bytesPerGroup(Table table) {
+        return 3L * table.estimatedBytesPerRow() + 16;
+    }
 
+}
@@ -7,7 +7,7 @@ package gov.noaa.pfel.erddap.dataset;
 import com.cohort.array.Attributes;
 import com.cohort.array.PAType;
 import com.cohort.array.PrimitiveArray;
-import com.cohort.util.Calendar2;
+import com.cohort.util.FormattingWriter;
 import com.cohort.util.MustBe;
 import com.cohort.util.SimpleException;
 import com.cohort.util.String2;
@@ -16,7 +16,6 @@ import gov.noaa.pfel.coastwatch.pointdata.Table;
 import gov.noaa.pfel.erddap.util.EDStatic;
 import gov.noaa.pfel.erddap.variable.EDV;
 
-import java.io.BufferedWriter;
 import java.io.OutputStreamWriter;
 
 /**
@@ -41,7 +40,7 @@ public class TableWriterSeparatedValue extends TableWriter {
     protected volatile boolean isStringOrChar[];
     protected volatile boolean isTimeStamp[];
     protected volatile String time_precision[];
-    protected volatile BufferedWriter writer;
+    protected volatile FormattingWriter writer;
 
     public volatile long totalNRows = 0;
 
@@ -125,8 +124,8 @@ public class TableWriterSeparatedValue extends TableWriter {
             }
 
             //write the header
-            writer = String2.getBufferedOutputStreamWriter88591(
-                outputStreamSource.outputStream(String2.ISO_8859_1));
+            writer = FormattingWriter.forOutputStream(
+                outputStreamSource.outputStream(String2.ISO_8859_1), String2.ISO_8859_1_CHARSET);
 
             //write the column names   
             isStringOrChar = new boolean[nColumns];
@@ -184,14 +183,12 @@ public class TableWriterSeparatedValue extends TableWriter {
         for (int row = 0; row < nRows; row++) {
             for (int col = 0; col < nColumns; col++) {
                 if (isTimeStamp[col]) {
-                    writer.write(Calendar2.epochSecondsToLimitedIsoStringT(
-                        time_precision[col], pas[col].getDouble(row), ""));
+                    writer.writeIsoTime(time_precision[col], pas[col].getDouble(row), "");
                 } else if (isStringOrChar[col]) {
                     writer.write(quoted? pas[col].getNccsvDataString(row) :
                                          pas[col].getTsvString(row));
                 } else {
-                    String s = pas[col].getString(row);
-                    writer.write(s.length() == 0? nanString : s); 
+                    writer.writeString(pas[col], row, nanString); //no String per cell
                 }
                 writer.write(col == nColumns -1? "\n" : separator);
             }
@@ -0,0 +1,295 @@
+/*
+ * WmsTileCache Copyright, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.util.Math2;
+import com.cohort.util.MustBe;
+import com.cohort.util.String2;
+
+import gov.noaa.pfel.coastwatch.util.RegexFilenameFilter;
+import gov.noaa.pfel.erddap.Erddap;
+import gov.noaa.pfel.erddap.util.EDStatic;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * WmsTileCache is the in-memory tier of the cache of WMS GetMap images
+ * (tiles) made by Erddap.doWmsGetMap. The disk tier is the .png files in
+ * each dataset's cacheDirectory (and in EDStatic.fullWmsCacheDirectory).
+ *
+ * <p>A tile's key (and so its file name) includes the griddap query for each
+ * data layer (so "current" and an explicit time for the last time step
+ * share a tile) and each data layer's dataset's generation(),
+ * which changes when the dataset is reloaded (creationTime) or when an update
+ * finds a change (see datasetChanged). So tiles are invalidated by
+ * changes to the dataset, not by age.
+ *
+ * <p>The memory tier holds the most recently used tiles, up to
+ * EDStatic.wmsTileCacheMaxMB. No tile may use more than 1/10th of that.
+ *
+ * <p>For the datasets in EDStatic.wmsPrerenderDatasetIDs, datasetChanged
+ * queues the dataset for the Prerenderer thread, which makes the tiles
+ * (for zoom levels 0 through EDStatic.wmsPrerenderMaxZoom) for the newest
+ * time step of each of the dataset's variables, so map viewers get them
+ * from the cache.
+ *
+ * <p>This is thread-safe.
+ */
+public class WmsTileCache {
+
+    /**
+     * Set this to true (by calling verbose=true in your program,
+     * not by changing the code here)
+     * if you want lots of diagnostic messages sent to String2.log.
+     */
+    public static boolean verbose = false;
+
+    /** A tile in the memory tier. */
+    private static class Entry {
+        String datasetIDs[]; //the data layers' datasets
+        byte png[];
+    }
+
+    //all of these are guarded by synchronized(entries)
+    //accessOrder=true, so the first entry is the least recently used
+    private static LinkedHashMap<String,Entry> entries = new LinkedHashMap(64, 0.75f, true);
+    private static long memoryBytes = 0;
+    private static long nHits = 0, nMisses = 0, nStored = 0, nTooBig = 0,
+        nEvicted = 0, nRemoved = 0, nPrerendered = 0;
+
+    /** key=datasetID, value=the number of changes found by updates (since the dataset was loaded).
+     * Changes are synchronized(nChanges). */
+    private static ConcurrentHashMap<String,Long> nChanges = new ConcurrentHashMap(16, 0.75f, 4);
+
+    /** The datasetIDs waiting to be prerendered. Guarded by synchronized(pending). */
+    private static LinkedHashSet<String> pending = new LinkedHashSet();
+
+    /**
+     * This returns a string which changes each time the dataset is reloaded
+     * or an update finds a change. It is part of the key of each tile
+     * which has data from this dataset.
+     *
+     * @param edd a dataset
+     * @return the dataset's generation
+     */
+    public static String generation(EDD edd) {
+        Long n = nChanges.get(edd.datasetID());
+        return edd.creationTimeMillis() + "." + (n == null? 0 : n.longValue());
+    }
+
+    /**
+     * This returns the tile with this key from the memory tier (or null if not there).
+     *
+     * @param key cacheDirectory + fileName + extension
+     * @return the tile's .png bytes, or null
+     */
+    public static byte[] get(String key) {
+        synchronized(entries) {
+            Entry entry = entries.get(key); //makes it the most recently used
+            if (entry == null) {
+                nMisses++;
+                return null;
+            }
+            nHits++;
+            return entry.png;
+        }
+    }
+
+    /**
+     * This puts a tile in the memory tier (if it isn't too big),
+     * removing the least recently used tiles to make room.
+     *
+     * @param key cacheDirectory + fileName + extension
+     * @param datasetIDs the datasetIDs of the tile's data layers
+     *    (length=0 if it just has non-data layers)
+     * @param png the tile's .png bytes
+     */
+    public static void put(String key, String datasetIDs[], byte png[]) {
+        long maxMemory = EDStatic.wmsTileCacheMaxMB * (long)Math2.BytesPerMB;
+        synchronized(entries) {
+            if (png.length > maxMemory / 10) {
+                nTooBig++;
+                return;
+            }
+            Iterator<Map.Entry<String,Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext() && memoryBytes + png.length > maxMemory) {
+                memoryBytes -= it.next().getValue().png.length;
+                it.remove();
+                nEvicted++;
+            }
+            Entry entry = new Entry();
+            entry.datasetIDs = datasetIDs;
+            entry.png = png;
+            Entry oldEntry = entries.put(key, entry);
+            if (oldEntry != null)
+                memoryBytes -= oldEntry.png.length;
+            memoryBytes += png.length;
+            nStored++;
+        }
+    }
+
+    /**
+     * Call this when a dataset has been reloaded or an update found a change.
+     * This changes the dataset's generation, removes the dataset's tiles
+     * from the memory tier and from the dataset's cacheDirectory,
+     * and (if the dataset is in EDStatic.wmsPrerenderDatasetIDs)
+     * queues the dataset for the Prerenderer.
+     * Tiles in EDStatic.fullWmsCacheDirectory with data from this dataset
+     * are no longer used (since their keys include the old generation)
+     * and are eventually deleted because of their age.
+     *
+     * @param datasetID the datasetID
+     */
+    public static void datasetChanged(String datasetID) {
+        synchronized(nChanges) {
+            Long n = nChanges.get(datasetID);
+            nChanges.put(datasetID, new Long(n == null? 1 : n.longValue() + 1));
+        }
+        remove(datasetID);
+        int nDeleted = RegexFilenameFilter.regexDelete(EDD.cacheDirectory(datasetID),
+            String2.plainTextToRegex(datasetID + "_wms_") + ".+\\.png", false);
+        if (verbose) String2.log("WmsTileCache.datasetChanged(" + datasetID +
+            ") deleted " + nDeleted + " tile files.");
+
+        if (String2.indexOf(EDStatic.wmsPrerenderDatasetIDs, datasetID) >= 0) {
+            synchronized(pending) {
+                pending.add(datasetID);
+                pending.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * This removes all tiles with data from a dataset from the memory tier
+     * (e.g., because the dataset was unloaded).
+     *
+     * @param datasetID the datasetID
+     */
+    public static void remove(String datasetID) {
+        synchronized(entries) {
+            Iterator<Map.Entry<String,Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next().getValue();
+                if (String2.indexOf(entry.datasetIDs, datasetID) >= 0) {
+                    memoryBytes -= entry.png.length;
+                    it.remove();
+                    nRemoved++;
+                }
+            }
+        }
+    }
+
+    /** This removes all tiles from the memory tier. */
+    public static void clear() {
+        synchronized(entries) {
+            nRemoved += entries.size();
+            entries.clear();
+            memoryBytes = 0;
+        }
+    }
+
+    /**
+     * This returns true if the dataset has been queued for the Prerenderer
+     * (e.g., because it changed again while it was being prerendered).
+     *
+     * @param datasetID the datasetID
+     * @return true if the dataset is queued
+     */
+    public static boolean isPending(String datasetID) {
+        synchronized(pending) {
+            return pending.contains(datasetID);
+        }
+    }
+
+    /** The Prerenderer calls this after it makes a tile. */
+    public static void prerendered() {
+        synchronized(entries) {
+            nPrerendered++;
+        }
+    }
+
+    /**
+     * This returns a string with statistics about the cache (for the status page).
+     *
+     * @return a string with statistics about the cache
+     */
+    public static String statsString() {
+        int nPending;
+        synchronized(pending) {
+            nPending = pending.size();
+        }
+        synchronized(entries) {
+            long n = nHits + nMisses;
+            return "WmsTileCache: nTiles=" + entries.size() +
+                ", memoryMB=" + (memoryBytes / Math2.BytesPerMB) +
+                " of " + EDStatic.wmsTileCacheMaxMB +
+                ", nHits=" + nHits +
+                " (" + (n == 0? 0 : Math2.roundToInt(100.0 * nHits / n)) + "%)" +
+                ", nMisses=" + nMisses +
+                ", nStored=" + nStored +
+                ", nTooBig=" + nTooBig +
+                ", nEvicted=" + nEvicted +
+                ", nRemoved=" + nRemoved +
+                ", nPrerendered=" + nPrerendered +
+                ", nDatasetsPendingPrerender=" + nPending;
+        }
+    }
+
+
+    /**
+     * The Prerenderer is a thread which makes the low zoom level tiles
+     * for datasets which have been queued by datasetChanged.
+     */
+    public static class Prerenderer extends Thread {
+
+        private Erddap erddap;
+
+        /**
+         * The constructor.
+         *
+         * @param tErddap the Erddap which has the datasets
+         */
+        public Prerenderer(Erddap tErddap) {
+            erddap = tErddap;
+            setName("WmsTileCache.Prerenderer");
+            setDaemon(true);
+            setPriority(Thread.MIN_PRIORITY); //user requests come first
+        }
+
+        public void run() {
+            while (!isInterrupted()) {
+                String datasetID;
+                try {
+                    synchronized(pending) {
+                        while (pending.isEmpty())
+                            pending.wait();
+                        Iterator<String> it = pending.iterator();
+                        datasetID = it.next();
+                        it.remove();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                try {
+                    long time = System.currentTimeMillis();
+                    int nTiles = erddap.prerenderWmsTiles(datasetID);
+                    String2.log("WmsTileCache.Prerenderer made " + nTiles +
+                        " tiles for datasetID=" + datasetID +
+                        " TIME=" + (System.currentTimeMillis() - time) + "ms");
+                } catch (Throwable t) {
+                    if (t instanceof InterruptedException)
+                        return;
+                    String2.log("WmsTileCache.Prerenderer caught an error while prerendering " +
+                        "datasetID=" + datasetID + ":\n" + MustBe.throwableToString(t));
+                }
+            }
+        }
+    }
+}
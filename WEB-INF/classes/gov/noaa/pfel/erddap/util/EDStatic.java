@@ -29,6 +29,7 @@ import gov.noaa.pfel.coastwatch.sgt.Boundaries;
 import gov.noaa.pfel.coastwatch.sgt.FilledMarkerRenderer;
 import gov.noaa.pfel.coastwatch.sgt.GSHHS;
 import gov.noaa.pfel.coastwatch.sgt.PathCartesianRenderer;
+import gov.noaa.pfel.coastwatch.sgt.PolygonIndex;
 import gov.noaa.pfel.coastwatch.sgt.SgtGraph;
 import gov.noaa.pfel.coastwatch.sgt.SgtMap;
 import gov.noaa.pfel.coastwatch.sgt.SgtUtil;
@@ -266,32 +267,57 @@ public static boolean developmentMode = false;
     public final static int DEFAULT_decompressedCacheMaxMinutesOld = 15;
     public final static int DEFAULT_nGridThreads = 1;
     public final static int DEFAULT_nTableThreads = 1;
+    public final static int DEFAULT_nTaskThreads = 2;
+    public final static int DEFAULT_taskThreadsMaxPerHost = 1;
     public static int decompressedCacheMaxGB         = DEFAULT_decompressedCacheMaxGB; 
     public static int decompressedCacheMaxMinutesOld = DEFAULT_decompressedCacheMaxMinutesOld; 
     public static int nGridThreads                   = DEFAULT_nGridThreads;   //will be a valid number 1+
     public static int nTableThreads                  = DEFAULT_nTableThreads; //will be a valid number 1+
+    public static int nTaskThreads                   = DEFAULT_nTaskThreads;  //will be a valid number 1+
+    public static int taskThreadsMaxPerHost          = DEFAULT_taskThreadsMaxPerHost; //will be a valid number 1+
 
     //things that were in setup.xml (discouraged) and are now in datasets.xml (v2.00+)
     public final static int    DEFAULT_cacheMinutes            = 60;
+    public final static int    DEFAULT_dataRequestsMaxActive   = 0; //0=no limit on the number of active griddap, tabledap, files, and wms requests
     public final static String DEFAULT_drawLandMask            = "under";  
+    public final static int    DEFAULT_fileValueIndexMaxBits   = 0; //0=EDDTableFromFiles doesn't make Bloom filters of each file's String and integer values
     public final static int    DEFAULT_graphBackgroundColorInt = 0xffccccff; 
+    public final static int    DEFAULT_ipAddressMaxRequests    = 0; //0=no limit on the number of active+waiting requests from one IP address
+    public final static int    DEFAULT_ipAddressMaxRequestsActive = 0; //0=no limit on the number of active requests from one IP address
     public final static int    DEFAULT_loadDatasetsMinMinutes  = 15;
     public final static int    DEFAULT_loadDatasetsMaxMinutes  = 60;
     public final static String DEFAULT_logLevel                = "info"; //warning|info|all
     public final static int    DEFAULT_partialRequestMaxBytes  = 490000000; //this is just below tds default <opendap><binLimit> of 500MB
     public final static int    DEFAULT_partialRequestMaxCells  = 10000000;
+    public final static int    DEFAULT_responseCacheMaxMB      = 0; //0=griddap and tabledap responses aren't cached in memory
+    public final static int    DEFAULT_responseCacheDiskMaxMB  = 0; //0=griddap and tabledap responses aren't cached on disk
+    public final static int    DEFAULT_responseCacheMaxSeconds = 60;
     public final static int    DEFAULT_slowDownTroubleMillis   = 1000;
+    public final static int    DEFAULT_sortMemoryMaxBytes      = 100000000; //beyond this, orderBy and distinct use an external merge sort and orderByMean/Count/Min/Max/MinMax spill groups to disk
     public final static int    DEFAULT_unusualActivity         = 10000;
+    public final static int    DEFAULT_wmsPrerenderMaxZoom     = 2;
+    public final static int    DEFAULT_wmsTileCacheMaxMB       = 20; //in-memory tier of WMS GetMap images
     public static long   cacheMillis            = DEFAULT_cacheMinutes           * Calendar2.MILLIS_PER_MINUTE;
+    public static int    dataRequestsMaxActive  = DEFAULT_dataRequestsMaxActive;
     public static String drawLandMask           = DEFAULT_drawLandMask;    
+    public static int    fileValueIndexMaxBits  = DEFAULT_fileValueIndexMaxBits;
     public static Color  graphBackgroundColor   = new Color(DEFAULT_graphBackgroundColorInt, true); //hasAlpha
+    public static int    ipAddressMaxRequests   = DEFAULT_ipAddressMaxRequests;
+    public static int    ipAddressMaxRequestsActive = DEFAULT_ipAddressMaxRequestsActive;
     public static long   loadDatasetsMinMillis  = DEFAULT_loadDatasetsMinMinutes * Calendar2.MILLIS_PER_MINUTE;
     public static long   loadDatasetsMaxMillis  = DEFAULT_loadDatasetsMaxMinutes * Calendar2.MILLIS_PER_MINUTE;
     //logLevel handled specially by setLogLevel
     public static int    partialRequestMaxBytes = DEFAULT_partialRequestMaxBytes;
     public static int    partialRequestMaxCells = DEFAULT_partialRequestMaxCells;
+    public static int    responseCacheMaxMB      = DEFAULT_responseCacheMaxMB;
+    public static int    responseCacheDiskMaxMB  = DEFAULT_responseCacheDiskMaxMB;
+    public static int    responseCacheMaxSeconds = DEFAULT_responseCacheMaxSeconds;
     public static int    slowDownTroubleMillis  = DEFAULT_slowDownTroubleMillis;
+    public static int    sortMemoryMaxBytes     = DEFAULT_sortMemoryMaxBytes;
     public static int    unusualActivity        = DEFAULT_unusualActivity;
+    public static String wmsPrerenderDatasetIDs[] = new String[0];
+    public static int    wmsPrerenderMaxZoom    = DEFAULT_wmsPrerenderMaxZoom;
+    public static int    wmsTileCacheMaxMB      = DEFAULT_wmsTileCacheMaxMB;
 
     public static String  //these are set by setup.xml (deprecated) and/or datasets.xml (v2.00+)
         standardShortDescriptionHtml, 
@@ -349,29 +375,21 @@ public static boolean developmentMode = false;
     public static ConcurrentHashMap runningThreads = new ConcurrentHashMap(16, 0.75f, 4); 
 
     //taskThread variables
-    //Funnelling all taskThread tasks through one taskThread ensures
-    //  that the memory requirements, bandwidth usage, cpu usage,
-    //  and stress on remote servers will be minimal 
-    //  (although at the cost of not doing the tasks faster / in parallel).
-    //In a grid of erddaps, each will have its own taskThread, which is appropriate.
-    public static ArrayList taskList = new ArrayList(); //keep here in case TaskThread needs to be restarted
-    private static TaskThread taskThread;
-    /** lastAssignedTask is used by EDDxxxCopy instances to keep track of 
-     * the number of the last task assigned to taskThread for a given datasetID.
-     * key=datasetID value=Integer(task#)
-     */
-    public static ConcurrentHashMap lastAssignedTask = new ConcurrentHashMap(16, 0.75f, 4); 
-    /** 
-     * This returns the index number of the task in taskList (-1,0..) of the last completed task
-     * (successful or not).
-     * nFinishedTasks = lastFinishedTask + 1;
-     */
-    public static volatile int lastFinishedTask = -1;
-    /** 
-     * This returns the index number of the task in taskList (0..) that will be started
-     * when the current task is finished.
-     */
-    public static volatile int nextTask = 0;
+    //Tasks are done by up to nTaskThreads taskThreads at once, 
+    //  but by at most taskThreadsMaxPerHost at once for each remote host,
+    //  so the memory requirements, bandwidth usage, cpu usage,
+    //  and stress on each remote server are still limited,
+    //  and one slow remote server doesn't delay the tasks for other servers.
+    //In a grid of erddaps, each will have its own taskThreads, which is appropriate.
+    /** All task-related things synch on taskQueue. */
+    public static TaskQueue taskQueue = new TaskQueue(); //keep here in case TaskThreads need to be restarted
+    private static ArrayList<TaskThread> taskThreads = new ArrayList();
+    private static int nTaskThreadsCreated = 0;
+    /** A task which runs longer than this is considered stalled and its taskThread is stopped. */
+    public static long taskThreadStalledMillis = 6 * Calendar2.MILLIS_PER_HOUR;
+    /** The taskQueue.changeCount() when the unfinished tasks were last saved. */
+    private static long tasksSavedChangeCount = 0;
+    private static long tasksSavedTime = 0;
 
 
     /** This recieves key=startOfLocalSourceUrl value=startOfPublicSourceUrl from LoadDatasets 
@@ -428,6 +446,9 @@ public static boolean developmentMode = false;
 
     //also see updateLucene in LoadDatasets
 
+    //made below if useIndexSearchEngine; updated by LoadDatasets
+    public  static SearchIndex   searchIndex;
+
     public final static int defaultItemsPerPage = 1000; //1000, for /info/index.xxx and search
     public final static String defaultPIppQuery        = "page=1&itemsPerPage=" + defaultItemsPerPage;
     public final static String allPIppQuery            = "page=1&itemsPerPage=1000000000";
@@ -599,7 +620,7 @@ public static boolean developmentMode = false;
         wmsClientActive, 
         sosActive, wcsActive, wmsActive,
         quickRestart, subscribeToRemoteErddapDataset,
-        useOriginalSearchEngine, useLuceneSearchEngine,  //exactly one will be true
+        useOriginalSearchEngine, useLuceneSearchEngine, useIndexSearchEngine,  //exactly one will be true
         variablesMustHaveIoosCategory,
         verbose;
     public static String  categoryAttributes[];       //as it appears in metadata (and used for hashmap)
@@ -607,6 +628,7 @@ public static boolean developmentMode = false;
     public static boolean categoryIsGlobal[];
     public static int variableNameCategoryAttributeIndex = -1;
     public static int logMaxSizeMB;
+    public static int dataRequestsMaxMemoryPercent; //0=off (see RequestLimiter)
     
     private static String
         emailSmtpHost, emailUserName, emailFromAddress, emailPassword, emailProperties; 
@@ -937,6 +959,7 @@ public static boolean developmentMode = false;
         extensionsNoRangeRequests[],
         externalLink,
         externalWebSite,
+        fileHelp_arrow,
         fileHelp_asc,
         fileHelp_csv,
         fileHelp_csvp,
@@ -1775,6 +1798,7 @@ wcsActive = false; //setup.getBoolean(         "wcsActive",                  fal
         highResLogoImageFile       = setup.getNotNothingString("highResLogoImageFile",       errorInMethod);
         listPrivateDatasets        = setup.getBoolean(         "listPrivateDatasets",        false);
         logMaxSizeMB               = Math2.minMax(1, 2000, setup.getInt("logMaxSizeMB", 20));  //2048MB=2GB
+        dataRequestsMaxMemoryPercent = Math2.minMax(0, 100, setup.getInt("dataRequestsMaxMemoryPercent", 0)); //0=off
 
         //v2.00: these are now also in datasets.xml
         cacheMillis                = setup.getInt(             "cacheMinutes",               DEFAULT_cacheMinutes)            * 60000L; 
@@ -1800,9 +1824,13 @@ wcsActive = false; //setup.getBoolean(         "wcsActive",                  fal
         //use Lucence?
         if (searchEngine.equals("lucene")) {
             useLuceneSearchEngine = true;
+        } else if (searchEngine.equals("index")) {
+            //same results as original, but via an in-memory inverted index
+            useIndexSearchEngine = true;
+            searchIndex = new SearchIndex();
         } else {
             Test.ensureEqual(searchEngine, "original", 
-                "<searchEngine> must be \"original\" (the default) or \"lucene\".");
+                "<searchEngine> must be \"original\" (the default), \"index\", or \"lucene\".");
             useOriginalSearchEngine = true;
         }
         
@@ -2283,6 +2311,7 @@ wcsActive = false; //setup.getBoolean(         "wcsActive",                  fal
                                      ",", true, false); //trim, keepNothing
         externalLink         = " " + messages.getNotNothingString("externalLink",               errorInMethod);
         externalWebSite            = messages.getNotNothingString("externalWebSite",            errorInMethod);
+        fileHelp_arrow             = messages.getNotNothingString("fileHelp_arrow",             errorInMethod);
         fileHelp_asc               = messages.getNotNothingString("fileHelp_asc",               errorInMethod);
         fileHelp_csv               = messages.getNotNothingString("fileHelp_csv",               errorInMethod);
         fileHelp_csvp              = messages.getNotNothingString("fileHelp_csvp",              errorInMethod);
@@ -2956,7 +2985,10 @@ accessibleViaNC4 = ".nc4 is not yet supported.";
         searchHintsTooltip = 
             "<div class=\"standard_max_width\">" +
             searchHintsTooltip + "\n" +
-            (useLuceneSearchEngine? searchHintsLuceneTooltip : searchHintsOriginalTooltip) +
+            (useLuceneSearchEngine? searchHintsLuceneTooltip : 
+             useIndexSearchEngine?  String2.replaceAll(searchHintsOriginalTooltip, 
+                                        "searchEngine=original", "searchEngine=index") :
+                                    searchHintsOriginalTooltip) +
             "</div>";
         advancedSearchDirections = String2.replaceAll(advancedSearchDirections, "&searchButton;", searchButton);
 
@@ -3697,15 +3729,8 @@ accessibleViaNC4 = ".nc4 is not yet supported.";
         sb.append("Response Succeeded Time (since startup)                 ");
         sb.append(String2.getBriefDistributionStatistics(responseTimesDistributionTotal) + "\n");
 
-        synchronized(taskList) { //all task-related things synch on taskList
-            ensureTaskThreadIsRunningIfNeeded();  //clients (like this class) are responsible for checking on it
-            long tElapsedTime = taskThread == null? -1 : taskThread.elapsedTime();
-            sb.append("TaskThread has finished " + (lastFinishedTask + 1) + " out of " + 
-                taskList.size() + " tasks.  " +
-                (tElapsedTime < 0? 
-                   "Currently, no task is running.\n" : 
-                   "The current task has been running for " + Calendar2.elapsedTimeString(tElapsedTime) + ".\n"));
-        }
+        ensureTaskThreadIsRunningIfNeeded();  //clients (like this class) are responsible for checking on it
+        sb.append(taskQueue.statistics());
         sb.append("TaskThread Failed    Time (since last Daily Report)     ");
         sb.append(String2.getBriefDistributionStatistics(taskThreadFailedDistribution24) + "\n");
         sb.append("TaskThread Failed    Time (since startup)               ");
@@ -3768,6 +3793,15 @@ accessibleViaNC4 = ".nc4 is not yet supported.";
 
         sb.append(SgtMap.topographyStats() + "\n");
         sb.append(GSHHS.statsString() + "\n");
+        sb.append(PolygonIndex.statsString() + "\n");
+        sb.append(NcHelper.openFileCacheStatsString() + "\n");
+        sb.append(ResponseCache.statsString() + "\n");
+        sb.append(WmsTileCache.statsString() + "\n");
+        sb.append(EDDTableFromCassandra.partitionQueryStatsString() + "\n");
+        sb.append(EDDTableFromDatabase.connectionPoolStatsString() + "\n");
+        sb.append(RequestLimiter.statsString() + "\n");
+        if (searchIndex != null)
+            sb.append(searchIndex.statsString() + "\n");
         sb.append(SgtMap.nationalBoundaries.statsString() + "\n");
         sb.append(SgtMap.stateBoundaries.statsString() + "\n");
         sb.append(SgtMap.rivers.statsString() + "\n");
@@ -4128,6 +4162,9 @@ accessibleViaNC4 = ".nc4 is not yet supported.";
     public static void destroy() {
         long time = System.currentTimeMillis();
         try {
+            //save the unfinished tasks (including the running tasks, which will be interrupted)
+            saveTasks();
+
             String names[] = String2.toStringArray(runningThreads.keySet().toArray());
             String2.log("\nEDStatic.destroy will try to interrupt nThreads=" + names.length + 
                 "\n  threadNames=" +
@@ -4250,103 +4287,190 @@ accessibleViaNC4 = ".nc4 is not yet supported.";
     }
 
     /**
-     * This checks if the task thread is running and not stalled.
-     * If it is stalled, this will stop it.
-     *
-     * @return true if the task thread is running.
-     *    If false, taskThread will be null.
+     * This stops the taskThreads which are stalled (their task has been running 
+     * for more than taskThreadStalledMillis) and forgets the taskThreads which have finished.
      */
-    public static boolean isTaskThreadRunning() {
-        synchronized(taskList) { //all task-related things synch on taskList
-            if (taskThread == null)
-                return false;
+    private static void stopStalledTaskThreads() {
+        synchronized(taskQueue) { //all task-related things synch on taskQueue
+            for (int i = taskThreads.size() - 1; i >= 0; i--) {
+                TaskThread taskThread = taskThreads.get(i);
+                if (!taskThread.isAlive()) {
+                    //it should have removed itself, but it may have died
+                    TaskQueue.Task task = taskThread.currentTask();
+                    if (task != null)
+                        taskQueue.finished(task, false, false);
+                    taskThreads.remove(i);
+                    runningThreads.remove(taskThread.getName());
+                    continue;
+                }
 
-            if (taskThread.isAlive()) {
                 //is it stalled?
-                long eTime = taskThread.elapsedTime();
-                long maxTime = 6 * Calendar2.MILLIS_PER_HOUR; //appropriate??? user settable???
-                if (eTime > maxTime) {  
+                TaskQueue.Task task = taskThread.currentTask();
+                long eTime = task == null? -1 : task.elapsedTime();
+                if (eTime > taskThreadStalledMillis) {  
 
                     //taskThread is stalled; interrupt it
-                    String tError = "\n*** Error: EDStatic is interrupting a stalled taskThread (" +
+                    String tError = "\n*** Error: EDStatic is interrupting a stalled " + 
+                        taskThread.getName() + " (" +
                         Calendar2.elapsedTimeString(eTime) + " > " + 
-                        Calendar2.elapsedTimeString(maxTime) + ") at " + 
-                        Calendar2.getCurrentISODateTimeStringLocalTZ();
+                        Calendar2.elapsedTimeString(taskThreadStalledMillis) + ") at " + 
+                        Calendar2.getCurrentISODateTimeStringLocalTZ() + 
+                        "\ntask #" + task.number + 
+                        (task.datasetID == null? "" : " for " + task.datasetID) +
+                        ": " + TaskThread.TASK_NAMES[((Integer)task.taskOA[0]).intValue()] +
+                        (task.host == null? "" : " from " + task.host);
                     email(emailEverythingToCsv, "taskThread Stalled", tError);
                     String2.log("\n*** " + tError);
 
                     stopThread(taskThread, 10); //short time; it is already in trouble
-                    //runningThreads.remove   not necessary since new one is put() in below
-                    lastFinishedTask = nextTask - 1;
-                    taskThread = null;
-                    return false;
+                    taskQueue.finished(task, false, true);
+                    taskThreads.remove(i);
+                    runningThreads.remove(taskThread.getName());
                 }
-                return true;
-            } else {
-                //it isn't alive
-                String2.log("\n*** EDStatic noticed that taskThread is finished (" + 
-                    Calendar2.getCurrentISODateTimeStringLocalTZ() + ")\n");
-                lastFinishedTask = nextTask - 1;
-                taskThread = null;
-                return false;
             }
         }
     }
 
     /** 
-     * This ensures the task thread is running if there are tasks to do
+     * This ensures that enough taskThreads are running to do the tasks which can be started now
+     * (up to nTaskThreads), and stops stalled taskThreads.
+     * This also saves the unfinished tasks if they have changed (at most once per minute).
      */
     public static void ensureTaskThreadIsRunningIfNeeded() {
-        synchronized(taskList) { //all task-related things synch on taskList
+        synchronized(taskQueue) { //all task-related things synch on taskQueue
             try {
-                //this checks if it is running and not stalled
-                if (isTaskThreadRunning())
-                    return;
-                
-                //taskThread isn't running
-                //Are there no tasks to do? 
-                int nPending = taskList.size() - nextTask;
-                if (nPending <= 0) 
-                    return; //no need to start it
-
-                //need to start a new taskThread
-                taskThread = new TaskThread(nextTask);
-                runningThreads.put(taskThread.getName(), taskThread); 
-                String2.log("\n*** new taskThread started at " + 
-                    Calendar2.getCurrentISODateTimeStringLocalTZ() + " nPendingTasks=" + nPending + "\n");
-                taskThread.start();
-                return;            
+                //this stops stalled taskThreads 
+                stopStalledTaskThreads();
+
+                //Are there tasks that can be started now?
+                int nToStart = taskQueue.nStartable(taskThreadsMaxPerHost, 
+                    Math.max(0, nTaskThreads - taskThreads.size()));
+                if (nToStart > 0) {
+                    //need to start new taskThreads
+                    String2.log("\n*** starting " + nToStart + " new taskThread(s) at " + 
+                        Calendar2.getCurrentISODateTimeStringLocalTZ() + 
+                        " nWaitingTasks=" + taskQueue.nWaiting() + "\n");
+                    for (int i = 0; i < nToStart; i++) {
+                        TaskThread taskThread = new TaskThread(nTaskThreadsCreated++);
+                        taskThreads.add(taskThread);
+                        runningThreads.put(taskThread.getName(), taskThread); 
+                        taskThread.start();
+                    }
+                }
             } catch (Throwable t) {
+                String2.log(MustBe.throwableToString(t));
+            }
+        }
+
+        //save the unfinished tasks?
+        long now = System.currentTimeMillis();
+        if (taskQueue.changeCount() != tasksSavedChangeCount &&
+            now - tasksSavedTime >= Calendar2.MILLIS_PER_MINUTE) 
+            saveTasks();
+    }
+
+    /**
+     * TaskThreads call this to get their next task.
+     * If there is no task that can be started now, the taskThread is removed
+     * from the list of taskThreads (and it must exit).
+     *
+     * @param taskThread the taskThread which is ready for a task
+     * @return the task (or null if there is no task that can be started now)
+     */
+    static TaskQueue.Task nextTask(TaskThread taskThread) {
+        synchronized(taskQueue) { //all task-related things synch on taskQueue
+            TaskQueue.Task task = taskThreads.contains(taskThread)? //not if it was stopped
+                taskQueue.next(taskThread.getName(), taskThreadsMaxPerHost) : null;
+            if (task == null) {
+                taskThreads.remove(taskThread);
+                runningThreads.remove(taskThread.getName());
             }
+            return task;
         }
     }
 
     /**
-     * This returns the number of unfinished tasks.
+     * TaskThreads call this when a task is finished (successfully or not).
+     * Finishing a task may let other tasks start (e.g., the dataset's TASK_SET_FLAG), 
+     * so this ensures enough taskThreads are running.
+     *
+     * @param task the task
+     * @param succeeded true if it succeeded
+     */
+    static void taskFinished(TaskQueue.Task task, boolean succeeded) {
+        taskQueue.finished(task, succeeded, false);
+        ensureTaskThreadIsRunningIfNeeded();
+    }
+
+    /**
+     * This returns the number of unfinished (waiting or running) tasks.
      */
     public static int nUnfinishedTasks() {
-        return (taskList.size() - lastFinishedTask) - 1;
+        return taskQueue.nUnfinished();
     }
 
-    /** This adds a task to the taskList if it (other than TASK_SET_FLAG)
-     * isn't already on the taskList.
+    /**
+     * This returns true if there are unfinished (waiting or running) tasks for the datasetID.
+     * Task creators (e.g., EDDGridCopy) use this to avoid creating new tasks for a dataset
+     * until its previously created tasks are all finished.
+     *
+     * @param datasetID the datasetID
+     */
+    public static boolean hasPendingTasks(String datasetID) {
+        return taskQueue.hasUnfinished(datasetID);
+    }
+
+    /** This adds a task to the taskQueue if it (other than TASK_SET_FLAG)
+     * isn't already waiting or running (i.e., a task for the same file).
+     *
+     * @param datasetID the datasetID of the dataset that the task is for.
+     * @param taskOA the task settings (see TaskThread)
      * @return the task number that was assigned to the task,
      *   or -1 if it was a duplicate task.
      */
-    public static int addTask(Object taskOA[]) {
-        synchronized(taskList) { //all task-related things synch on taskList
+    public static int addTask(String datasetID, Object taskOA[]) {
+        //tasks for the same remote host share that host's limit of taskThreadsMaxPerHost
+        String host = null;
+        Object taskType = taskOA[0];
+        if (taskType.equals(TaskThread.TASK_MAKE_A_DATAFILE)) 
+            host = TaskQueue.host(((EDD)taskOA[1]).localSourceUrl());
+        else if (taskType.equals(TaskThread.TASK_DAP_TO_NC) ||
+                 taskType.equals(TaskThread.TASK_ALL_DAP_TO_NC) ||
+                 taskType.equals(TaskThread.TASK_DOWNLOAD)) 
+            host = TaskQueue.host((String)taskOA[1]);
+        return taskQueue.add(datasetID, host, taskOA);
+    }
 
-            //Note that all task creators check that
-            //   EDStatic.lastFinishedTask >= lastAssignedTask(datasetID).  I.E., tasks are all done,
-            //before again creating new tasks.
-            //So no need to see if this new task duplicates an existing unfinished task.  
-            
-            //add the task to the list
-            taskList.add(taskOA);
-            return taskList.size() - 1;
+    /**
+     * This saves the unfinished tasks to [bigParentDirectory]pendingTasks.txt,
+     * so that restoreTasks can add them again after ERDDAP is restarted.
+     * This won't throw an exception.
+     */
+    public static void saveTasks() {
+        try {
+            long tChangeCount = taskQueue.changeCount();
+            int n = taskQueue.writeTasks(bigParentDirectory + "pendingTasks.txt");
+            tasksSavedChangeCount = tChangeCount;
+            tasksSavedTime = System.currentTimeMillis();
+            if (reallyVerbose) String2.log("EDStatic.saveTasks saved " + n + " tasks.");
+        } catch (Throwable t) {
+            String2.log("EDStatic.saveTasks " + String2.ERROR + ":\n" + 
+                MustBe.throwableToString(t));
         }
     }
 
+    /**
+     * When ERDDAP starts, this adds the tasks that were unfinished when 
+     * ERDDAP was last stopped (see saveTasks).
+     * This won't throw an exception.
+     */
+    public static void restoreTasks() {
+        int n = taskQueue.readTasks(bigParentDirectory + "pendingTasks.txt");
+        tasksSavedChangeCount = taskQueue.changeCount();
+        if (n > 0) 
+            String2.log("EDStatic.restoreTasks restored " + n + " unfinished tasks.");
+    }
+
     /**
      * This returns the Oceanic/Atmospheric Acronyms table: col 0=acronym 1=fullName.
      * <br>Acronyms are case-sensitive, sometimes with common variants included.
@@ -5052,14 +5176,10 @@ accessibleViaNC4 = ".nc4 is not yet supported.";
         try {
             //if previous tasks are still running, return
             ensureTaskThreadIsRunningIfNeeded();  //ensure info is up-to-date
-            Integer datasetLastAssignedTask = (Integer)lastAssignedTask.get(tDatasetID);
-            boolean pendingTasks = datasetLastAssignedTask != null &&  
-                lastFinishedTask < datasetLastAssignedTask.intValue();
+            boolean pendingTasks = hasPendingTasks(tDatasetID);
             if (verbose) 
                 String2.log("  " + tClassName + 
-                    ".makeCopyFileTasks: lastFinishedTask=" + lastFinishedTask + 
-                    " < datasetLastAssignedTask(" + tDatasetID + ")=" + datasetLastAssignedTask + 
-                    "? pendingTasks=" + pendingTasks);
+                    ".makeCopyFileTasks: pendingTasks(" + tDatasetID + ")=" + pendingTasks);
             if (pendingTasks) 
                 return 0;
 
@@ -5145,7 +5265,9 @@ accessibleViaNC4 = ".nc4 is not yet supported.";
                     taskOA[3] = new Long(remoteLastMod.get(remoteI));  //or if unknown?
                     nFilesToDownload++;
                     int tTaskNumber = nFilesToDownload <= maxTasks? 
-                        (lastTask = addTask(taskOA)) : -nFilesToDownload;                        
+                        addTask(tDatasetID, taskOA) : -nFilesToDownload;                        
+                    if (tTaskNumber >= 0)
+                        lastTask = tTaskNumber;
                     if (reallyVerbose)
                         String2.log( 
                             (tTaskNumber < 0? "% didn't create" : "% created") +
@@ -5165,10 +5287,9 @@ accessibleViaNC4 = ".nc4 is not yet supported.";
                 Object taskOA[] = new Object[2];
                 taskOA[0] = TaskThread.TASK_SET_FLAG;
                 taskOA[1] = tDatasetID;
-                lastTask = addTask(taskOA); //TASK_SET_FLAG will always be added
+                lastTask = addTask(tDatasetID, taskOA); //TASK_SET_FLAG will always be added
                 if (reallyVerbose)
                     String2.log("% created task#" + lastTask + " TASK_SET_FLAG " + tDatasetID);
-                lastAssignedTask.put(tDatasetID, new Integer(lastTask));
                 ensureTaskThreadIsRunningIfNeeded();  //ensure info is up-to-date
             }
 
@@ -5325,8 +5446,12 @@ accessibleViaNC4 = ".nc4 is not yet supported.";
                 msg = "Payload Too Large: " + msg;
             else if (errorNo == HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE) //http error 416
                 msg = "Requested Range Not Satisfiable: " + msg;
+            else if (errorNo == RequestLimiter.SC_TOO_MANY_REQUESTS) //http error 429
+                msg = "Too Many Requests: " + msg;
             else if (errorNo == HttpServletResponse.SC_INTERNAL_SERVER_ERROR) //http error 500
                 msg = "Internal Server Error: " + msg;
+            else if (errorNo == RequestLimiter.SC_SERVICE_UNAVAILABLE) //http error 503
+                msg = "Service Unavailable: " + msg;
 
             //always log the error
             String fullMsg = 
@@ -0,0 +1,288 @@
+/*
+ * RequestLimiter Copyright, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.util;
+
+import com.cohort.util.Math2;
+import com.cohort.util.String2;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * RequestLimiter decides if a data request (griddap, tabledap, files, wms)
+ * may start now, must wait, or should be refused,
+ * so that one client (e.g., a script making many parallel requests)
+ * can't use all of Tomcat's threads and ERDDAP's memory while other users wait.
+ *
+ * <ul>
+ * <li>If EDStatic.ipAddressMaxRequests &gt; 0, a request from an IP address which
+ *   already has that many active or waiting requests is refused
+ *   (HTTP 429 Too Many Requests).
+ * <li>If EDStatic.ipAddressMaxRequestsActive &gt; 0, at most that many requests
+ *   from each IP address are active at once. Others wait.
+ * <li>If EDStatic.dataRequestsMaxActive &gt; 0, at most that many requests
+ *   (from all IP addresses) are active at once. Others wait.
+ * <li>Waiting requests are started in round-robin order across IP addresses,
+ *   so a client with many waiting requests can't delay other clients' requests
+ *   for long. A request which waits longer than MAX_WAIT_SECONDS is refused
+ *   (HTTP 503 Service Unavailable).
+ * <li>If setup.xml's dataRequestsMaxMemoryPercent &gt; 0 and memory in use 
+ *   is greater than that percent of Math2.maxSafeMemory,
+ *   new requests are refused (HTTP 503 Service Unavailable) until memory is available.
+ *   To see if it is just garbage, gc is called at most once per MEMORY_GC_MILLIS
+ *   (not for each request).
+ * </ul>
+ *
+ * <p>Usage: <tt>int status = RequestLimiter.admit(ipAddress);</tt>
+ * If status is 0, handle the request, then (in a finally clause) call
+ * <tt>RequestLimiter.release(ipAddress);</tt>.
+ * Otherwise, send an error with that HTTP status code and
+ * <tt>RequestLimiter.refusedMessage(status)</tt>.
+ *
+ * <p>This is thread-safe.
+ */
+public class RequestLimiter {
+
+    /** The maximum time a request will wait to start. */
+    public final static int MAX_WAIT_SECONDS = 60;
+
+    /** 
+     * When memory use is too high, gc is called at most this often 
+     * (to see how much memory is really in use).
+     */
+    public final static long MEMORY_GC_MILLIS = 10000;
+
+    /** HTTP status codes (429 isn't in HttpServletResponse). */
+    public final static int SC_TOO_MANY_REQUESTS = 429;
+    public final static int SC_SERVICE_UNAVAILABLE = 503;
+
+    /** The state of one IP address. */
+    private static class IpState {
+        int nActive = 0;
+        ArrayDeque<Waiter> queue = new ArrayDeque();
+    }
+
+    /** One waiting request. */
+    private static class Waiter {
+        boolean admitted = false;
+    }
+
+    //all of these are guarded by synchronized(lock)
+    private final static Object lock = new Object();
+    private static HashMap<String,IpState> ipStates = new HashMap();
+    //the IP addresses with waiting requests, in the order that they'll be considered
+    private static ArrayDeque<String> roundRobin = new ArrayDeque();
+    private static int nActive = 0, nWaiting = 0, maxNWaiting = 0;
+    private static long nAdmitted = 0, nHadToWait = 0,
+        nRefusedTooMany = 0, nRefusedTimeout = 0, nRefusedMemory = 0;
+
+    //these are guarded by synchronized(memoryLock)
+    private final static Object memoryLock = new Object();
+    private static long lastGcMillis = 0, memoryInUseAfterGc = 0;
+
+    /**
+     * This decides if a request from ipAddress may start.
+     * If it can't start now, this waits (up to MAX_WAIT_SECONDS).
+     *
+     * @param ipAddress the requester's IP address
+     * @return 0 if the request may start (then the caller MUST call release(ipAddress)
+     *   when finished), or the HTTP status code
+     *   (SC_TOO_MANY_REQUESTS or SC_SERVICE_UNAVAILABLE) if the request is refused.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static int admit(String ipAddress) throws InterruptedException {
+
+        //too much memory in use?
+        if (tooMuchMemoryInUse()) {
+            synchronized(lock) {
+                nRefusedMemory++;
+            }
+            return SC_SERVICE_UNAVAILABLE;
+        }
+
+        int ipMaxRequests = EDStatic.ipAddressMaxRequests; //local copies (they may change)
+        Waiter waiter = new Waiter();
+        synchronized(lock) {
+            IpState ipState = ipStates.get(ipAddress);
+            if (ipState == null) {
+                ipState = new IpState();
+                ipStates.put(ipAddress, ipState);
+            }
+            if (ipMaxRequests > 0 &&
+                ipState.nActive + ipState.queue.size() >= ipMaxRequests) {
+                nRefusedTooMany++;
+                removeIfIdle(ipAddress, ipState);
+                return SC_TOO_MANY_REQUESTS;
+            }
+
+            //add to the queue, then see which requests can start
+            ipState.queue.add(waiter);
+            if (ipState.queue.size() == 1)
+                roundRobin.add(ipAddress);
+            nWaiting++;
+            dispatch();
+            if (waiter.admitted)
+                return 0;
+
+            //wait
+            nHadToWait++;
+            maxNWaiting = Math.max(maxNWaiting, nWaiting);
+            long deadline = System.currentTimeMillis() + MAX_WAIT_SECONDS * 1000L;
+            InterruptedException interrupted = null;
+            try {
+                while (!waiter.admitted) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        nRefusedTimeout++;
+                        break;
+                    }
+                    lock.wait(remaining);
+                }
+            } catch (InterruptedException e) {
+                interrupted = e;
+            }
+            if (waiter.admitted) {
+                if (interrupted == null)
+                    return 0;
+                //it was admitted, but this thread won't use it
+                ipState.nActive--;
+                nActive--;
+                dispatch();
+            } else {
+                //timeout or interrupted
+                ipState.queue.remove(waiter);
+                nWaiting--;
+                if (ipState.queue.isEmpty())
+                    roundRobin.remove(ipAddress);
+            }
+            removeIfIdle(ipAddress, ipState);
+            if (interrupted != null)
+                throw interrupted;
+            return SC_SERVICE_UNAVAILABLE;
+        }
+    }
+
+    /**
+     * This returns true if EDStatic.dataRequestsMaxMemoryPercent &gt; 0 and 
+     * memory in use is greater than that percent of Math2.maxSafeMemory.
+     * If memory in use (which includes garbage) is above the limit, 
+     * this uses the memory in use after the most recent gc, 
+     * and only calls gc if that was more than MEMORY_GC_MILLIS ago.
+     *
+     * @return true if new requests should be refused
+     */
+    private static boolean tooMuchMemoryInUse() {
+        int percent = EDStatic.dataRequestsMaxMemoryPercent;
+        if (percent <= 0)
+            return false;
+        long limit = Math2.maxSafeMemory / 100 * percent;
+        if (Math2.getMemoryInUse() <= limit)
+            return false;
+        synchronized(memoryLock) {
+            if (System.currentTimeMillis() - lastGcMillis >= MEMORY_GC_MILLIS) {
+                Math2.gcAndWait(); //in RequestLimiter, at most once per MEMORY_GC_MILLIS
+                lastGcMillis = System.currentTimeMillis();
+                memoryInUseAfterGc = Math2.getMemoryInUse();
+            }
+            return memoryInUseAfterGc > limit;
+        }
+    }
+
+    /**
+     * Call this when a request (which was admitted) is finished.
+     *
+     * @param ipAddress the requester's IP address
+     */
+    public static void release(String ipAddress) {
+        synchronized(lock) {
+            IpState ipState = ipStates.get(ipAddress);
+            if (ipState == null) {
+                String2.log("ERROR: RequestLimiter.release(" + ipAddress + ") without admit()");
+                return;
+            }
+            ipState.nActive--;
+            nActive--;
+            removeIfIdle(ipAddress, ipState);
+            dispatch();
+        }
+    }
+
+    /**
+     * This starts as many waiting requests as the limits allow,
+     * taking one request at a time from each IP address in round-robin order.
+     * The caller must have synchronized on lock.
+     */
+    private static void dispatch() {
+        int maxActive   = EDStatic.dataRequestsMaxActive;
+        int ipMaxActive = EDStatic.ipAddressMaxRequestsActive;
+        boolean admittedAny = false;
+        int nToCheck = roundRobin.size(); //IP addresses not yet checked in this pass
+        while (nToCheck > 0 && (maxActive <= 0 || nActive < maxActive)) {
+            String ipAddress = roundRobin.poll();
+            IpState ipState = ipStates.get(ipAddress);
+            if (ipMaxActive > 0 && ipState.nActive >= ipMaxActive) {
+                //this IP address has to wait
+                roundRobin.add(ipAddress);
+                nToCheck--;
+                continue;
+            }
+
+            //start its oldest waiting request
+            Waiter waiter = ipState.queue.poll();
+            waiter.admitted = true;
+            admittedAny = true;
+            ipState.nActive++;
+            nActive++;
+            nWaiting--;
+            nAdmitted++;
+            if (!ipState.queue.isEmpty()) {
+                roundRobin.add(ipAddress); //go to the end of the line
+            } else {
+                nToCheck--;
+            }
+        }
+        if (admittedAny)
+            lock.notifyAll();
+    }
+
+    /** The caller must have synchronized on lock. */
+    private static void removeIfIdle(String ipAddress, IpState ipState) {
+        if (ipState.nActive == 0 && ipState.queue.isEmpty())
+            ipStates.remove(ipAddress);
+    }
+
+    /**
+     * This returns the message for a refused request.
+     *
+     * @param status the status code from admit()
+     * @return the message for the user
+     */
+    public static String refusedMessage(int status) {
+        return status == SC_TOO_MANY_REQUESTS?
+            "You have too many requests in progress. Please wait for some of them " +
+                "to finish before making more requests." :
+            "The server is too busy to handle your request right now. " +
+                "Please try again later.";
+    }
+
+    /**
+     * This returns a string with statistics (for the status page and daily report).
+     *
+     * @return a string with statistics
+     */
+    public static String statsString() {
+        synchronized(lock) {
+            return "RequestLimiter: nActive=" + nActive +
+                ", nWaiting=" + nWaiting + " (max=" + maxNWaiting + ")" +
+                ", nIPAddresses=" + ipStates.size() +
+                ", nAdmitted=" + nAdmitted +
+                ", nHadToWait=" + nHadToWait +
+                ", nRefusedTooMany=" + nRefusedTooMany +
+                ", nRefusedTimeout=" + nRefusedTimeout +
+                ", nRefusedMemory=" + nRefusedMemory;
+        }
+    }
+
+}
@@ -0,0 +1,697 @@
+/*
+ * SearchIndex Copyright, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.util;
+
+import com.cohort.util.MustBe;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+
+import gov.noaa.pfel.erddap.dataset.EDD;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * SearchIndex is the in-memory inverted index used by searchEngine=index.
+ * It finds the same datasets, with the same ranks, as the original search engine
+ * (EDD.searchRank), but without scanning every dataset's searchBytes for every search.
+ *
+ * <p>Each dataset's searchBytes (the lowercase, UTF-8 searchString) is split into
+ * terms (runs of ASCII letters and digits and non-ASCII bytes).
+ * For each term, the index has the byte positions where the term occurs in
+ * each dataset (positional postings).
+ * To find a search word (or phrase), this finds the terms which contain
+ * the search word's longest term (via a trigram index of the terms),
+ * then compares the search word's bytes at each of those terms' positions.
+ * So partial words (wind finds windspeed), phrases, punctuation
+ * (e.g., protocol=griddap), negation, and ranking
+ * (the position of the first match, so matches in the title rank higher)
+ * are all exactly as with the original search engine.
+ *
+ * <p>LoadDatasets updates this as datasets are loaded, reloaded and unloaded.
+ * When ERDDAP starts, the whole index is built (in parallel) at the end of
+ * the first major LoadDatasets. Until then, isReady() is false and
+ * Erddap uses the original search engine (EDD.searchRank, which searches
+ * each dataset's cached searchBytes).
+ *
+ * <p>This is thread-safe.
+ */
+public class SearchIndex {
+
+    /** One dataset in the index. */
+    private static class Doc {
+        String datasetID;
+        byte bytes[];      //the dataset's (cached) searchBytes, so not a copy
+        boolean deprecated;
+        String terms[];    //the distinct terms
+        int positions[][]; //parallel to terms: the ascending byte positions of each term
+    }
+
+    //all of these are guarded by lock
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private HashMap<String,Doc> docs = new HashMap();                    //datasetID -> Doc
+    private HashMap<String,HashMap<Doc,int[]>> postings = new HashMap(); //term -> Doc -> positions
+    private HashMap<String,HashSet<String>> trigramTerms = new HashMap(); //trigram -> terms
+    private volatile boolean ready = false;
+
+    //guarded by synchronized(searchTimeDistribution)
+    private final int searchTimeDistribution[] = new int[String2.DistributionSize];
+    private long nSearches = 0, nUpdates = 0;
+    private long lastBuildMillis = -1;
+
+    /**
+     * This returns true if the index has been built (so it can be used for searches).
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * This (re)builds the whole index from these datasets,
+     * making each dataset's postings in parallel.
+     * Afterwards, isReady() is true.
+     *
+     * @param edds the datasets. Nulls are ignored.
+     * @param nThreads the number of threads to use (1+)
+     */
+    public void build(EDD edds[], int nThreads) {
+        long time = System.currentTimeMillis();
+        int nEdds = edds.length;
+        Doc newDocs[] = new Doc[nEdds];
+        nThreads = Math.max(1, Math.min(nThreads, nEdds));
+        if (nThreads == 1) {
+            for (int i = 0; i < nEdds; i++)
+                newDocs[i] = makeDoc(edds[i]);
+        } else {
+            ExecutorService executorService = Executors.newFixedThreadPool(nThreads);
+            try {
+                ArrayList<Future<Doc>> futures = new ArrayList(nEdds);
+                for (int i = 0; i < nEdds; i++) {
+                    final EDD edd = edds[i];
+                    futures.add(executorService.submit(new Callable<Doc>() {
+                        public Doc call() {
+                            return makeDoc(edd);
+                        }
+                    }));
+                }
+                for (int i = 0; i < nEdds; i++) {
+                    try {
+                        newDocs[i] = futures.get(i).get();
+                    } catch (Throwable t) {
+                        String2.log("ERROR in SearchIndex.build:\n" + MustBe.throwableToString(t));
+                    }
+                }
+            } finally {
+                executorService.shutdownNow();
+            }
+        }
+
+        //swap the new postings into place
+        int nDocs, nTerms;
+        lock.writeLock().lock();
+        try {
+            docs.clear();
+            postings.clear();
+            trigramTerms.clear();
+            for (int i = 0; i < nEdds; i++)
+                if (newDocs[i] != null)
+                    insert(newDocs[i]);
+            ready = true;
+            nDocs = docs.size();
+            nTerms = postings.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        time = System.currentTimeMillis() - time;
+        synchronized(searchTimeDistribution) {
+            lastBuildMillis = time;
+        }
+        String2.log("SearchIndex.build finished. nDatasets=" + nDocs +
+            " nTerms=" + nTerms + " nThreads=" + nThreads + " time=" + time + "ms");
+    }
+
+    /**
+     * This adds (or replaces) a dataset's entry in the index.
+     *
+     * @param edd the dataset
+     */
+    public void add(EDD edd) {
+        Doc doc = makeDoc(edd);
+        if (doc == null)
+            remove(edd.datasetID());
+        else update(doc);
+    }
+
+    /**
+     * This adds (or replaces) a dataset's entry in the index.
+     * This variant is mostly for testing.
+     *
+     * @param datasetID the datasetID
+     * @param title the dataset's title
+     * @param searchString the dataset's searchString (mixed case)
+     */
+    public void add(String datasetID, String title, String searchString) {
+        update(makeDoc(datasetID, title,
+            String2.stringToUtf8Bytes(searchString.toLowerCase())));
+    }
+
+    /** This swaps doc into place. */
+    private void update(Doc doc) {
+        lock.writeLock().lock();
+        try {
+            Doc oldDoc = docs.get(doc.datasetID);
+            if (oldDoc != null)
+                delete(oldDoc);
+            insert(doc);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        synchronized(searchTimeDistribution) {
+            nUpdates++;
+        }
+    }
+
+    /**
+     * This removes a dataset's entry from the index (if it is there).
+     *
+     * @param datasetID the datasetID
+     */
+    public void remove(String datasetID) {
+        lock.writeLock().lock();
+        try {
+            Doc oldDoc = docs.get(datasetID);
+            if (oldDoc != null)
+                delete(oldDoc);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        synchronized(searchTimeDistribution) {
+            nUpdates++;
+        }
+    }
+
+    /** This returns the number of datasets in the index. */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * This makes the Doc for a dataset.
+     *
+     * @return the Doc, or null if trouble (which is logged)
+     */
+    private static Doc makeDoc(EDD edd) {
+        if (edd == null)
+            return null;
+        try {
+            return makeDoc(edd.datasetID(), edd.title(), edd.searchBytes());
+        } catch (Throwable t) {
+            String2.log("ERROR in SearchIndex.makeDoc for datasetID=" + edd.datasetID() + ":\n" +
+                MustBe.throwableToString(t));
+            return null;
+        }
+    }
+
+    /**
+     * This makes the Doc for a dataset.
+     *
+     * @param bytes the dataset's searchBytes (lowercase, UTF-8)
+     */
+    private static Doc makeDoc(String datasetID, String title, byte bytes[]) {
+        //find the positions of each term
+        HashMap<String,int[]> termPositions = new HashMap(); //int[0] has the count
+        int n = bytes.length;
+        int po = 0;
+        while (po < n) {
+            if (!isTermByte(bytes[po])) {
+                po++;
+                continue;
+            }
+            int start = po;
+            while (po < n && isTermByte(bytes[po]))
+                po++;
+            String term = new String(bytes, start, po - start, String2.ISO_8859_1_CHARSET);
+            int ar[] = termPositions.get(term);
+            if (ar == null) {
+                ar = new int[3];
+            } else if (ar[0] + 1 == ar.length) {
+                int ar2[] = new int[ar.length * 2];
+                System.arraycopy(ar, 0, ar2, 0, ar.length);
+                ar = ar2;
+            }
+            ar[++ar[0]] = start;
+            termPositions.put(term, ar);
+        }
+
+        Doc doc = new Doc();
+        doc.datasetID  = datasetID;
+        doc.bytes      = bytes;
+        doc.deprecated = title.indexOf("DEPRECATED") >= 0;
+        int nTerms = termPositions.size();
+        doc.terms      = new String[nTerms];
+        doc.positions  = new int[nTerms][];
+        int t = 0;
+        Iterator<Map.Entry<String,int[]>> it = termPositions.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String,int[]> entry = it.next();
+            int ar[] = entry.getValue();
+            int positions[] = new int[ar[0]];
+            System.arraycopy(ar, 1, positions, 0, ar[0]);
+            doc.terms[t] = entry.getKey();
+            doc.positions[t++] = positions;
+        }
+        return doc;
+    }
+
+    /**
+     * Terms are runs of ASCII letters and digits and non-ASCII bytes
+     * (so multi-byte UTF-8 characters are never split).
+     */
+    private static boolean isTermByte(byte b) {
+        return b < 0 || (b >= 'a' && b <= 'z') || (b >= '0' && b <= '9') ||
+            (b >= 'A' && b <= 'Z');
+    }
+
+    /** This adds doc to the data structures. The caller must have the write lock. */
+    private void insert(Doc doc) {
+        docs.put(doc.datasetID, doc);
+        for (int t = 0; t < doc.terms.length; t++) {
+            String term = doc.terms[t];
+            HashMap<Doc,int[]> termPostings = postings.get(term);
+            if (termPostings == null) {
+                termPostings = new HashMap(4);
+                postings.put(term, termPostings);
+                //it's a new term, so add it to trigramTerms
+                for (int i = term.length() - 3; i >= 0; i--) {
+                    String trigram = term.substring(i, i + 3);
+                    HashSet<String> terms = trigramTerms.get(trigram);
+                    if (terms == null) {
+                        terms = new HashSet();
+                        trigramTerms.put(trigram, terms);
+                    }
+                    terms.add(term);
+                }
+            }
+            termPostings.put(doc, doc.positions[t]);
+        }
+    }
+
+    /** This removes doc from the data structures. The caller must have the write lock. */
+    private void delete(Doc doc) {
+        docs.remove(doc.datasetID);
+        for (int t = 0; t < doc.terms.length; t++) {
+            String term = doc.terms[t];
+            HashMap<Doc,int[]> termPostings = postings.get(term);
+            if (termPostings == null)
+                continue;
+            termPostings.remove(doc);
+            if (termPostings.isEmpty()) {
+                //no dataset has this term, so remove it from trigramTerms
+                postings.remove(term);
+                for (int i = term.length() - 3; i >= 0; i--) {
+                    String trigram = term.substring(i, i + 3);
+                    HashSet<String> terms = trigramTerms.get(trigram);
+                    if (terms != null) {
+                        terms.remove(term);
+                        if (terms.isEmpty())
+                            trigramTerms.remove(trigram);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Given words from a text search query, this returns the matching datasets
+     * and their ranks. The ranks are identical to EDD.searchRank's.
+     *
+     * @param isNegative indicates which words are negative search words (-word)
+     * @param words the words or phrases to be searched for (already lowercase)
+     *    stored as byte[] via word.getBytes(String2.UTF_8).
+     * @return a HashMap with datasetID -&gt; rank (lower numbers are better)
+     *   of the datasets which have all of the positive words and none of the
+     *   negative words.
+     */
+    public HashMap<String,Integer> search(boolean isNegative[], byte words[][]) {
+        long time = System.currentTimeMillis();
+        HashMap<String,Integer> results = new HashMap();
+        if (words.length == 0)
+            return results;
+
+        lock.readLock().lock();
+        try {
+            //positive words: rank is the sum of the first positions
+            //(each search is restricted to the datasets which matched the previous words)
+            HashMap<Doc,Integer> ranks = null; //null = all datasets, rank=0
+            int rankAdjust = 0;
+            for (int w = 0; w < words.length; w++) {
+                if (words[w].length == 0) //search word was removed
+                    continue;
+                if (isNegative[w]) {
+                    rankAdjust--; //as in searchRank, an absent negative word adds -1
+                    continue;
+                }
+                HashMap<Doc,Integer> found = firstPositions(words[w], ranks);
+                if (ranks != null) {
+                    Iterator<Map.Entry<Doc,Integer>> it = found.entrySet().iterator();
+                    while (it.hasNext()) {
+                        Map.Entry<Doc,Integer> entry = it.next();
+                        entry.setValue(entry.getValue() + ranks.get(entry.getKey()));
+                    }
+                }
+                ranks = found;
+                if (ranks.isEmpty())
+                    return results;
+            }
+            if (ranks == null) {
+                ranks = new HashMap(Math.max(16, docs.size() * 2));
+                Iterator<Doc> it = docs.values().iterator();
+                while (it.hasNext())
+                    ranks.put(it.next(), 0);
+            }
+
+            //negative words: remove datasets which have them
+            for (int w = 0; w < words.length; w++) {
+                if (words[w].length == 0 || !isNegative[w])
+                    continue;
+                Iterator<Doc> it = firstPositions(words[w], ranks).keySet().iterator();
+                while (it.hasNext())
+                    ranks.remove(it.next());
+            }
+
+            Iterator<Map.Entry<Doc,Integer>> it = ranks.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Doc,Integer> entry = it.next();
+                Doc doc = entry.getKey();
+                results.put(doc.datasetID,
+                    entry.getValue() + rankAdjust + (doc.deprecated? 10000 : 0));
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+            time = System.currentTimeMillis() - time;
+            synchronized(searchTimeDistribution) {
+                nSearches++;
+                String2.distribute(time, searchTimeDistribution);
+            }
+        }
+    }
+
+    /**
+     * This finds the position of the first occurrence of word in each dataset.
+     * The caller must have the read lock.
+     *
+     * @param word a word or phrase (lowercase, UTF-8)
+     * @param restrictTo if not null, only these datasets are searched
+     * @return Doc -&gt; the byte position of the first occurrence of word
+     *   (for the datasets which have word).
+     */
+    private HashMap<Doc,Integer> firstPositions(byte word[], HashMap<Doc,Integer> restrictTo) {
+        HashMap<Doc,Integer> found = new HashMap();
+
+        //find word's longest term
+        int anchorStart = -1, anchorEnd = -1;
+        int po = 0;
+        while (po < word.length) {
+            if (!isTermByte(word[po])) {
+                po++;
+                continue;
+            }
+            int start = po;
+            while (po < word.length && isTermByte(word[po]))
+                po++;
+            if (po - start > anchorEnd - anchorStart) {
+                anchorStart = start;
+                anchorEnd = po;
+            }
+        }
+
+        if (anchorStart < 0) {
+            //no terms (e.g., just punctuation), so search each dataset's bytes
+            int jump[] = String2.makeJumpTable(word);
+            Iterator<Doc> it = (restrictTo == null? docs.values() : restrictTo.keySet()).iterator();
+            while (it.hasNext()) {
+                Doc doc = it.next();
+                int tPo = String2.indexOf(doc.bytes, word, jump);
+                if (tPo >= 0)
+                    found.put(doc, tPo);
+            }
+            return found;
+        }
+
+        //look at each place where a term which contains the anchor occurs
+        String anchor = new String(word, anchorStart, anchorEnd - anchorStart,
+            String2.ISO_8859_1_CHARSET);
+        boolean anchorIsWord = anchorStart == 0 && anchorEnd == word.length;
+        ArrayList<String> terms = termsContaining(anchor);
+        int nTerms = terms.size();
+        for (int t = 0; t < nTerms; t++) {
+            String term = terms.get(t);
+            int firstK = term.indexOf(anchor);
+            HashMap<Doc,int[]> termPostings = postings.get(term);
+            Iterator<Map.Entry<Doc,int[]>> it = termPostings.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Doc,int[]> entry = it.next();
+                Doc doc = entry.getKey();
+                if (restrictTo != null && !restrictTo.containsKey(doc))
+                    continue;
+                Integer previous = found.get(doc);
+                int best = previous == null? Integer.MAX_VALUE : previous.intValue();
+                int positions[] = entry.getValue();
+                //positions are ascending and occurrences of a term don't overlap,
+                //  so the first match in this term is this term's best match
+                positionLoop:
+                for (int p = 0; p < positions.length; p++) {
+                    if (positions[p] - anchorStart >= best)
+                        break;
+                    int k = firstK;
+                    while (k >= 0) {
+                        int start = positions[p] + k - anchorStart;
+                        if (start >= best)
+                            break positionLoop;
+                        if (anchorIsWord || matches(doc.bytes, start, word)) {
+                            best = start;
+                            break positionLoop;
+                        }
+                        k = term.indexOf(anchor, k + 1);
+                    }
+                }
+                if (best < Integer.MAX_VALUE && (previous == null || best < previous.intValue()))
+                    found.put(doc, best);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * This returns the terms which contain s.
+     * The caller must have the read lock.
+     */
+    private ArrayList<String> termsContaining(String s) {
+        ArrayList<String> results = new ArrayList();
+        if (s.length() < 3) {
+            //look at all terms
+            Iterator<String> it = postings.keySet().iterator();
+            while (it.hasNext()) {
+                String term = it.next();
+                if (term.indexOf(s) >= 0)
+                    results.add(term);
+            }
+            return results;
+        }
+
+        //use the trigram with the fewest terms
+        HashSet<String> fewest = null;
+        for (int i = s.length() - 3; i >= 0; i--) {
+            HashSet<String> terms = trigramTerms.get(s.substring(i, i + 3));
+            if (terms == null)
+                return results; //no term has this trigram
+            if (fewest == null || terms.size() < fewest.size())
+                fewest = terms;
+        }
+        Iterator<String> it = fewest.iterator();
+        while (it.hasNext()) {
+            String term = it.next();
+            if (term.indexOf(s) >= 0)
+                results.add(term);
+        }
+        return results;
+    }
+
+    /** This returns true if bytes has word starting at start. */
+    private static boolean matches(byte bytes[], int start, byte word[]) {
+        if (start < 0 || start + word.length > bytes.length)
+            return false;
+        for (int i = 0; i < word.length; i++)
+            if (bytes[start + i] != word[i])
+                return false;
+        return true;
+    }
+
+    /**
+     * This returns a string with statistics (for the status page and daily report).
+     *
+     * @return a string with statistics
+     */
+    public String statsString() {
+        int nDocs, nTerms;
+        lock.readLock().lock();
+        try {
+            nDocs = docs.size();
+            nTerms = postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+        synchronized(searchTimeDistribution) {
+            return "SearchIndex: ready=" + ready +
+                ", nDatasets=" + nDocs +
+                ", nTerms=" + nTerms +
+                ", buildTime=" + lastBuildMillis + "ms" +
+                ", nUpdates=" + nUpdates +
+                ", nSearches=" + nSearches +
+                (nSearches == 0? "" :
+                    ", time: " + String2.getBriefDistributionStatistics(searchTimeDistribution));
+        }
+    }
+
+
+    /**
+     * This tests that searches find the same datasets, with the same ranks,
+     * as a linear scan with String2.indexOf (as EDD.searchRank does).
+     *
+     * @throws Throwable if trouble
+     */
+    public static void basicTest() throws Throwable {
+        String2.log("\n*** SearchIndex.basicTest");
+        String ids[] = {"erdA", "erdB", "erdC", "erdD", "erdE"};
+        String titles[] = {
+            "Wind Speed, Monthly",
+            "Sea Surface Temperature",
+            "DEPRECATED Sea Surface Temperature, Daily",
+            "Chlorophyll-a, Aqua MODIS",
+            "Caf\u00e9 Windows"};
+        String searchStrings[] = new String[ids.length];
+        SearchIndex index = new SearchIndex();
+        for (int i = 0; i < ids.length; i++) {
+            searchStrings[i] = "all\ntitle=" + titles[i] + "\ndatasetID=" + ids[i] + "\n" +
+                "protocol=" + (i % 2 == 0? "griddap" : "tabledap") + "\n" +
+                "variableName=" + (i == 0? "windSpeed" : i == 3? "chlorophyll" : "sst") + "\n" +
+                "summary=Some data. More data about wind.\n";
+            index.add(ids[i], titles[i], searchStrings[i]);
+        }
+
+        String queries[] = {"all", "wind", "ind", "\"sea surface\"", "-wind",
+            "sea -\"daily\"", "protocol=griddap", "=", "\"datasetid=erd\"",
+            "caf\u00e9", "\u00e9", "wind speed monthly", "nothing", "sst -sea",
+            "data. more", "-", "a"};
+        for (int q = 0; q < queries.length; q++) {
+            //the same as Erddap.search does
+            com.cohort.array.StringArray searchWords =
+                com.cohort.array.StringArray.wordsAndQuotedPhrases(queries[q].toLowerCase());
+            int nWords = searchWords.size();
+            boolean isNegative[] = new boolean[nWords];
+            byte words[][] = new byte[nWords][];
+            int jump[][] = new int[nWords][];
+            for (int w = 0; w < nWords; w++) {
+                String sw = searchWords.get(w);
+                isNegative[w] = sw.charAt(0) == '-';
+                if (isNegative[w])
+                    sw = sw.substring(1);
+                sw = String2.fromJson(sw);
+                words[w] = String2.stringToUtf8Bytes(sw);
+                jump[w] = String2.makeJumpTable(words[w]);
+            }
+
+            //the expected results, via a linear scan
+            HashMap<String,Integer> expected = new HashMap();
+            for (int i = 0; i < ids.length; i++) {
+                byte bytes[] = String2.stringToUtf8Bytes(searchStrings[i].toLowerCase());
+                int rank = 0;
+                for (int w = 0; w < nWords; w++) {
+                    if (words[w].length == 0)
+                        continue;
+                    int po = String2.indexOf(bytes, words[w], jump[w]);
+                    if (isNegative[w]? po >= 0 : po < 0) {
+                        rank = Integer.MAX_VALUE;
+                        break;
+                    }
+                    rank += po;
+                }
+                if (rank < Integer.MAX_VALUE)
+                    expected.put(ids[i], rank + (titles[i].indexOf("DEPRECATED") >= 0? 10000 : 0));
+            }
+            Test.ensureEqual(index.search(isNegative, words), expected, "query=" + queries[q]);
+        }
+
+        //remove and replace
+        index.remove("erdA");
+        Test.ensureEqual(index.size(), 4, "");
+        byte windWords[][] = {String2.stringToUtf8Bytes("wind")};
+        boolean notNegative[] = {false};
+        Test.ensureEqual(index.search(notNegative, windWords).containsKey("erdA"), false, "");
+        index.add("erdB", titles[1], "all\ntitle=" + titles[1] + "\nsummary=no longer mentions it\n");
+        HashMap<String,Integer> results = index.search(notNegative, windWords);
+        Test.ensureEqual(results.size(), 3, "");
+        Test.ensureEqual(results.containsKey("erdB"), false, "");
+        index.add("erdA", titles[0], searchStrings[0]);
+        Test.ensureEqual(index.search(notNegative, windWords).get("erdA"), new Integer(10), "");
+        String2.log(index.statsString());
+    }
+
+    /**
+     * This runs all of the interactive or not interactive tests for this class.
+     *
+     * @param errorSB all caught exceptions are logged to this.
+     * @param interactive  If true, this runs all of the interactive tests;
+     *   otherwise, this runs all of the non-interactive tests.
+     * @param doSlowTestsToo If true, this runs the slow tests, too.
+     * @param firstTest The first test to be run (0...).  Test numbers may change.
+     * @param lastTest The last test to be run, inclusive (0..., or -1 for the last test).
+     *   Test numbers may change.
+     */
+    public static void test(StringBuilder errorSB, boolean interactive,
+        boolean doSlowTestsToo, int firstTest, int lastTest) {
+        if (lastTest < 0)
+            lastTest = interactive? -1 : 0;
+        String msg = "\n^^^ SearchIndex.test(" + interactive + ") test=";
+
+        for (int test = firstTest; test <= lastTest; test++) {
+            try {
+                long time = System.currentTimeMillis();
+                String2.log(msg + test);
+
+                if (interactive) {
+                    //if (test ==  0) ...;
+
+                } else {
+                    if (test ==  0) basicTest();
+                }
+
+                String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
+            } catch (Throwable testThrowable) {
+                String eMsg = msg + test + " caught throwable:\n" +
+                    MustBe.throwableToString(testThrowable);
+                errorSB.append(eMsg);
+                String2.log(eMsg);
+                if (interactive)
+                    String2.pressEnterToContinue("");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,641 @@
+/*
+ * TaskQueue Copyright, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.util;
+
+import com.cohort.array.StringArray;
+import com.cohort.util.Calendar2;
+import com.cohort.util.File2;
+import com.cohort.util.Math2;
+import com.cohort.util.MustBe;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * TaskQueue holds the tasks (see the TASK_ constants in TaskThread)
+ * which are waiting to be done or are being done by TaskThreads,
+ * and decides which task a TaskThread should do next.
+ *
+ * <ul>
+ * <li>The next task is the waiting task with the highest priority
+ *   (see setPriorities), then the lowest task number (i.e., the oldest).
+ * <li>A task for a remote host isn't started if maxPerHost tasks for that host
+ *   are already running, so one slow remote server only holds up its own tasks
+ *   and no remote server gets more than maxPerHost requests at once from the TaskThreads.
+ * <li>A TASK_SET_FLAG task isn't started until the unfinished tasks
+ *   (other than TASK_SET_FLAG tasks) for its datasetID which were added before it
+ *   are finished, so the dataset is reloaded when all of its files are ready.
+ *   (Later tasks and other TASK_SET_FLAG tasks for the dataset don't hold it up.)
+ * <li>A task (other than TASK_SET_FLAG) which would write to the same file
+ *   as a waiting or running task isn't added.
+ * </ul>
+ *
+ * <p>This is thread-safe.
+ */
+public class TaskQueue {
+
+    /** One task. */
+    public static class Task {
+        /** The task number, assigned when the task is added (0..). */
+        public final int number;
+        /** The datasetID the task is for (or null if unknown). */
+        public final String datasetID;
+        /** The protocol+domain of the remote host the task gets data from
+         * (or null if not remote). */
+        public final String host;
+        /** The key used to find duplicate tasks (or null if never a duplicate). */
+        public final String key;
+        /** The task settings: taskOA[0] is the TaskThread.TASK_ type. */
+        public final Object taskOA[];
+        //set when the task is started
+        volatile long startTime;
+        volatile String threadName;
+
+        Task(int tNumber, String tDatasetID, String tHost, String tKey, Object tTaskOA[]) {
+            number = tNumber;
+            datasetID = tDatasetID;
+            host = tHost;
+            key = tKey;
+            taskOA = tTaskOA;
+        }
+
+        /** This returns the time (ms) since the task was started (or -1 if not started). */
+        public long elapsedTime() {
+            long tStartTime = startTime;
+            return tStartTime == 0? -1 : System.currentTimeMillis() - tStartTime;
+        }
+    }
+
+    //all of these are guarded by synchronized(this)
+    private ArrayList<Task> waiting = new ArrayList();
+    private ArrayList<Task> running = new ArrayList();
+    private HashSet<String> keys = new HashSet();  //of waiting and running tasks
+    private HashMap<String,int[]> nRunningPerHost = new HashMap();
+    private HashMap<String,int[]> nUnfinishedPerDataset = new HashMap();
+    //the numbers of each datasetID's unfinished tasks (other than TASK_SET_FLAG)
+    private HashMap<String,TreeSet<Integer>> unfinishedNumbersPerDataset = new HashMap();
+    private HashMap<String,Integer> priorities = new HashMap();
+    private ArrayDeque<Long> recentFinishTimes = new ArrayDeque();  //in the last hour
+    private int nextNumber = 0;
+    private long nAdded = 0, nDuplicate = 0, nSucceeded = 0, nFailed = 0, nStalled = 0;
+    private long changeCount = 0;
+    private long createdTime = System.currentTimeMillis();
+
+    /**
+     * This returns the key used to find duplicate tasks:
+     * the task type and the file the task will write.
+     *
+     * @param taskOA the task settings
+     * @return the key (or null if the task is never considered a duplicate)
+     */
+    public static String key(Object taskOA[]) {
+        Object type = taskOA[0];
+        String fullName =
+            type.equals(TaskThread.TASK_MAKE_A_DATAFILE)?
+                "" + taskOA[3] + taskOA[4] + taskOA[5] :
+            type.equals(TaskThread.TASK_DAP_TO_NC)?     (String)taskOA[4] :
+            type.equals(TaskThread.TASK_ALL_DAP_TO_NC)? (String)taskOA[2] :
+            type.equals(TaskThread.TASK_DOWNLOAD)?      (String)taskOA[2] :
+            null;
+        return fullName == null? null : type + " " + fullName;
+    }
+
+    /**
+     * This returns the protocol+domain of a remote source url.
+     *
+     * @param url a url or local file name (or null)
+     * @return the protocol+domain of url (e.g., https://www.a.com),
+     *   or null if url isn't remote.
+     */
+    public static String host(String url) {
+        return url != null && String2.isRemote(url)? File2.getProtocolDomain(url) : null;
+    }
+
+    /**
+     * This sets the priorities of the tasks of some datasets.
+     * The default priority is 0. Tasks with higher priorities are done first.
+     * The new priorities apply right away (to waiting tasks, too).
+     *
+     * @param tPriorities a map of datasetID to priority (or null for none)
+     */
+    public synchronized void setPriorities(Map<String,Integer> tPriorities) {
+        priorities = tPriorities == null? new HashMap() : new HashMap(tPriorities);
+    }
+
+    /** This returns the priority of a datasetID's tasks. */
+    private int priority(String datasetID) {
+        Integer p = datasetID == null? null : priorities.get(datasetID);
+        return p == null? 0 : p.intValue();
+    }
+
+    /**
+     * This adds a task (unless it is a duplicate of a waiting or running task).
+     *
+     * @param datasetID the datasetID the task is for (or null if unknown).
+     *   For TASK_SET_FLAG, this is taskOA[1].
+     * @param host the protocol+domain of the remote host the task gets data from
+     *   (or null if not remote). See host(url).
+     * @param taskOA the task settings
+     * @return the task number that was assigned to the task,
+     *   or -1 if it was a duplicate task.
+     */
+    public synchronized int add(String datasetID, String host, Object taskOA[]) {
+        if (taskOA[0].equals(TaskThread.TASK_SET_FLAG))
+            datasetID = (String)taskOA[1];
+        String tKey = key(taskOA);
+        if (tKey != null && !keys.add(tKey)) {
+            nDuplicate++;
+            return -1;
+        }
+        Task task = new Task(nextNumber++, datasetID, host, tKey, taskOA);
+        waiting.add(task);
+        if (datasetID != null) {
+            increment(nUnfinishedPerDataset, datasetID, 1);
+            if (!taskOA[0].equals(TaskThread.TASK_SET_FLAG)) {
+                TreeSet<Integer> numbers = unfinishedNumbersPerDataset.get(datasetID);
+                if (numbers == null) {
+                    numbers = new TreeSet();
+                    unfinishedNumbersPerDataset.put(datasetID, numbers);
+                }
+                numbers.add(new Integer(task.number));
+            }
+        }
+        nAdded++;
+        changeCount++;
+        return task.number;
+    }
+
+    private static void increment(HashMap<String,int[]> map, String name, int by) {
+        int ia[] = map.get(name);
+        if (ia == null) {
+            ia = new int[1];
+            map.put(name, ia);
+        }
+        ia[0] += by;
+        if (ia[0] <= 0)
+            map.remove(name);
+    }
+
+    private static int get(HashMap<String,int[]> map, String name) {
+        int ia[] = name == null? null : map.get(name);
+        return ia == null? 0 : ia[0];
+    }
+
+    /** This returns true if the waiting task can be started now. */
+    private boolean canStart(Task task, int maxPerHost, HashMap<String,int[]> tNRunningPerHost) {
+        if (task.host != null && get(tNRunningPerHost, task.host) >= maxPerHost)
+            return false;
+        if (task.taskOA[0].equals(TaskThread.TASK_SET_FLAG) && task.datasetID != null) {
+            //wait for the dataset's other (not SET_FLAG) tasks which were added before this one
+            TreeSet<Integer> numbers = unfinishedNumbersPerDataset.get(task.datasetID);
+            if (numbers != null && numbers.first().intValue() < task.number)
+                return false;
+        }
+        return true;
+    }
+
+    /** This returns the index in waiting of the next task to be started (or -1 if none). */
+    private int nextIndex(int maxPerHost, HashMap<String,int[]> tNRunningPerHost) {
+        int bestI = -1, bestPriority = Integer.MIN_VALUE;
+        int n = waiting.size();
+        for (int i = 0; i < n; i++) {  //waiting is sorted by task number
+            Task task = waiting.get(i);
+            int p = priority(task.datasetID);
+            if (p > bestPriority && canStart(task, maxPerHost, tNRunningPerHost)) {
+                bestI = i;
+                bestPriority = p;
+            }
+        }
+        return bestI;
+    }
+
+    /**
+     * This removes the next task which can be started from the waiting tasks
+     * and marks it as running.
+     * The caller MUST call finished(task, ...) when the task is finished.
+     *
+     * @param threadName the name of the thread which will do the task
+     * @param maxPerHost the maximum number of running tasks for each remote host (1+)
+     * @return the task (or null if no waiting task can be started now)
+     */
+    public synchronized Task next(String threadName, int maxPerHost) {
+        int i = nextIndex(Math.max(1, maxPerHost), nRunningPerHost);
+        if (i < 0)
+            return null;
+        Task task = waiting.remove(i);
+        task.threadName = threadName;
+        task.startTime = System.currentTimeMillis();
+        running.add(task);
+        if (task.host != null)
+            increment(nRunningPerHost, task.host, 1);
+        changeCount++;
+        return task;
+    }
+
+    /**
+     * This returns the number of waiting tasks which could be started now
+     * (if there were that many free threads).
+     *
+     * @param maxPerHost the maximum number of running tasks for each remote host (1+)
+     * @param max the maximum number of interest
+     * @return the number of waiting tasks which could be started now (0 - max)
+     */
+    public synchronized int nStartable(int maxPerHost, int max) {
+        maxPerHost = Math.max(1, maxPerHost);
+        HashMap<String,int[]> tNRunningPerHost = new HashMap();
+        for (Map.Entry<String,int[]> entry : nRunningPerHost.entrySet())
+            tNRunningPerHost.put(entry.getKey(), new int[]{entry.getValue()[0]});
+        int count = 0;
+        int n = waiting.size();
+        for (int i = 0; i < n && count < max; i++) {
+            Task task = waiting.get(i);
+            if (canStart(task, maxPerHost, tNRunningPerHost)) {
+                count++;
+                if (task.host != null)
+                    increment(tNRunningPerHost, task.host, 1);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * This marks a running task as finished.
+     * Calling this again for the same task does nothing.
+     *
+     * @param task the task from next()
+     * @param succeeded true if the task succeeded
+     * @param stalled true if the task was stopped because it took too long
+     */
+    public synchronized void finished(Task task, boolean succeeded, boolean stalled) {
+        if (!running.remove(task))
+            return;
+        if (task.host != null)
+            increment(nRunningPerHost, task.host, -1);
+        if (task.datasetID != null) {
+            increment(nUnfinishedPerDataset, task.datasetID, -1);
+            TreeSet<Integer> numbers = unfinishedNumbersPerDataset.get(task.datasetID);
+            if (numbers != null) {
+                numbers.remove(new Integer(task.number));
+                if (numbers.isEmpty())
+                    unfinishedNumbersPerDataset.remove(task.datasetID);
+            }
+        }
+        if (task.key != null)
+            keys.remove(task.key);
+        if (stalled)    nStalled++;
+        if (succeeded)  nSucceeded++;
+        else            nFailed++;
+        long now = System.currentTimeMillis();
+        recentFinishTimes.add(new Long(now));
+        removeOldFinishTimes(now);
+        changeCount++;
+    }
+
+    private void removeOldFinishTimes(long now) {
+        while (!recentFinishTimes.isEmpty() &&
+            recentFinishTimes.peekFirst().longValue() < now - Calendar2.MILLIS_PER_HOUR)
+            recentFinishTimes.removeFirst();
+    }
+
+    /** This returns true if there are waiting or running tasks for the datasetID. */
+    public synchronized boolean hasUnfinished(String datasetID) {
+        return get(nUnfinishedPerDataset, datasetID) > 0;
+    }
+
+    /** This returns the number of waiting tasks. */
+    public synchronized int nWaiting() {
+        return waiting.size();
+    }
+
+    /** This returns the number of running tasks. */
+    public synchronized int nRunning() {
+        return running.size();
+    }
+
+    /** This returns the number of waiting and running tasks. */
+    public synchronized int nUnfinished() {
+        return waiting.size() + running.size();
+    }
+
+    /** This returns the number of finished tasks (succeeded or failed). */
+    public synchronized long nFinished() {
+        return nSucceeded + nFailed;
+    }
+
+    /** This returns a number which changes whenever tasks are added, started, or finished. */
+    public synchronized long changeCount() {
+        return changeCount;
+    }
+
+    /** This returns the running tasks. */
+    public synchronized Task[] runningTasks() {
+        return running.toArray(new Task[0]);
+    }
+
+    /**
+     * This returns a description of the queue for the status page.
+     *
+     * @return the description (with \n at the end of each line)
+     */
+    public synchronized String statistics() {
+        long now = System.currentTimeMillis();
+        removeOldFinishTimes(now);
+        long longest = -1;
+        for (int i = 0; i < running.size(); i++)
+            longest = Math.max(longest, running.get(i).elapsedTime());
+        StringArray busyHosts = new StringArray();
+        for (Map.Entry<String,int[]> entry : nRunningPerHost.entrySet())
+            busyHosts.add(entry.getKey() + " (" + entry.getValue()[0] + ")");
+        busyHosts.sort();
+        double hours = Math.max(1, now - createdTime) / (double)Calendar2.MILLIS_PER_HOUR;
+        return
+            "TaskThreads: nWaiting=" + waiting.size() +
+                " nRunning=" + running.size() +
+                (longest < 0? "" : " (the longest has been running for " +
+                    Calendar2.elapsedTimeString(longest) + ")") + "\n" +
+            "  Since startup: nAdded=" + nAdded + " nDuplicate=" + nDuplicate +
+                " nSucceeded=" + nSucceeded + " nFailed=" + nFailed +
+                " nStalled=" + nStalled + "\n" +
+            "  Throughput: " + recentFinishTimes.size() + " tasks finished in the last hour, " +
+                Math.round(10 * (nSucceeded + nFailed) / hours) / 10.0 + " tasks/hour since startup\n" +
+            (busyHosts.size() == 0? "" :
+                "  Remote hosts with running tasks: " + busyHosts.toString() + "\n");
+    }
+
+    /**
+     * This encodes a task as one line of text (for writeTasks).
+     *
+     * @return the line (or null if the task can't be saved, e.g., TASK_MAKE_A_DATAFILE)
+     */
+    static String encode(Task task) {
+        Object taskOA[] = task.taskOA;
+        if (taskOA[0].equals(TaskThread.TASK_MAKE_A_DATAFILE)) //its EDD can't be saved
+            return null;
+        StringBuilder sb = new StringBuilder();
+        sb.append(String2.toJson(task.datasetID));
+        sb.append('\t').append(String2.toJson(task.host));
+        for (int i = 0; i < taskOA.length; i++) {
+            Object o = taskOA[i];
+            sb.append('\t');
+            if (o == null)                    sb.append("null");
+            else if (o instanceof Integer)    sb.append('I').append(o);
+            else if (o instanceof Long)       sb.append('L').append(o);
+            else if (o instanceof Boolean)    sb.append('B').append(o);
+            else if (o instanceof String)     sb.append('S').append(String2.toJson((String)o));
+            else if (o instanceof StringArray) sb.append('A').append(
+                String2.toJson(((StringArray)o).toJsonCsvString()));
+            else return null;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * This adds a task from a line made by encode().
+     *
+     * @throws RuntimeException if trouble
+     */
+    void addEncoded(String line) {
+        String parts[] = String2.split(line, '\t');
+        Object taskOA[] = new Object[parts.length - 2];
+        for (int i = 0; i < taskOA.length; i++) {
+            String s = parts[i + 2];
+            char ch = s.charAt(0);
+            String v = s.substring(1);
+            taskOA[i] =
+                s.equals("null")? null :
+                ch == 'I'? (Object)new Integer(String2.parseInt(v)) :
+                ch == 'L'? (Object)new Long(String2.parseLong(v)) :
+                ch == 'B'? (Object)Boolean.valueOf(v) :
+                ch == 'S'? (Object)String2.fromJson(v) :
+                ch == 'A'? (Object)StringArray.fromCSV(String2.fromJson(v)) :
+                null;
+            if (taskOA[i] == null && !s.equals("null"))
+                throw new RuntimeException("Invalid task: " + line);
+        }
+        if (!(taskOA[0] instanceof Integer))
+            throw new RuntimeException("Invalid task: " + line);
+        add(parts[0].equals("null")? null : String2.fromJson(parts[0]),
+            parts[1].equals("null")? null : String2.fromJson(parts[1]),
+            taskOA);
+    }
+
+    /**
+     * This writes the unfinished (running and waiting) tasks to a file
+     * (except TASK_MAKE_A_DATAFILE tasks, which the EDDGridCopy and EDDTableCopy
+     * datasets make again when they are loaded),
+     * so readTasks can add them again (e.g., after ERDDAP is restarted).
+     * This writes to a temp file, then renames it, so the file is never partially written.
+     *
+     * @param fullName the name of the file
+     * @return the number of tasks written
+     * @throws Exception if trouble
+     */
+    public int writeTasks(String fullName) throws Exception {
+        Task tasks[];
+        synchronized(this) {
+            ArrayList<Task> al = new ArrayList(running);
+            al.addAll(waiting);
+            tasks = al.toArray(new Task[0]);
+        }
+        StringBuilder sb = new StringBuilder();
+        int n = 0;
+        for (int i = 0; i < tasks.length; i++) {
+            String line = encode(tasks[i]);
+            if (line != null) {
+                sb.append(line).append('\n');
+                n++;
+            }
+        }
+        String tempName = fullName + Math2.random(Integer.MAX_VALUE) + ".temp";
+        String error = String2.writeToFile(tempName, sb.toString(), String2.UTF_8);
+        if (error.length() > 0)
+            throw new RuntimeException(error);
+        File2.rename(tempName, fullName);
+        return n;
+    }
+
+    /**
+     * This adds the tasks in a file made by writeTasks (if it exists).
+     * Tasks which can't be read are logged and skipped.
+     *
+     * @param fullName the name of the file
+     * @return the number of tasks added
+     */
+    public int readTasks(String fullName) {
+        if (!File2.isFile(fullName))
+            return 0;
+        String results[] = String2.readFromFile(fullName, String2.UTF_8);
+        if (results[0].length() > 0) {
+            String2.log("TaskQueue.readTasks " + String2.ERROR + ": " + results[0]);
+            return 0;
+        }
+        String lines[] = String2.split(results[1], '\n');
+        int n = 0;
+        for (int i = 0; i < lines.length; i++) {
+            if (lines[i].length() == 0)
+                continue;
+            try {
+                addEncoded(lines[i]);
+                n++;
+            } catch (Throwable t) {
+                String2.log("TaskQueue.readTasks " + String2.ERROR + " on line #" + i + ":\n" +
+                    MustBe.throwableToString(t));
+            }
+        }
+        return n;
+    }
+
+    /**
+     * This tests TaskQueue.
+     */
+    public static void basicTest() throws Throwable {
+        String2.log("\n*** TaskQueue.basicTest");
+        String hostA = "https://a.org", hostB = "https://b.org";
+
+        //host() and key()
+        Test.ensureEqual(host("https://a.org/thredds/dodsC/x.nc"), hostA, "");
+        Test.ensureEqual(host("/u00/data/x.nc"), null, "");
+        Object dl1[] = {TaskThread.TASK_DOWNLOAD, hostA + "/1.nc", "/copy/1.nc", new Long(1000)};
+        Test.ensureEqual(key(dl1), "4 /copy/1.nc", "");
+        Test.ensureEqual(key(new Object[]{TaskThread.TASK_SET_FLAG, "d1"}), null, "");
+
+        //add, with deduplication
+        TaskQueue q = new TaskQueue();
+        Test.ensureEqual(q.add("d1", hostA, dl1), 0, "");
+        Test.ensureEqual(q.add("d1", hostA,
+            new Object[]{TaskThread.TASK_DOWNLOAD, hostA + "/1.nc", "/copy/1.nc", new Long(1000)}), -1, "");
+        Test.ensureEqual(q.add("d1", hostA,
+            new Object[]{TaskThread.TASK_DOWNLOAD, hostA + "/2.nc", "/copy/2.nc", new Long(1000)}), 1, "");
+        Test.ensureEqual(q.add(null, null, new Object[]{TaskThread.TASK_SET_FLAG, "d1"}), 2, "");
+        Test.ensureEqual(q.add("d2", hostB,
+            new Object[]{TaskThread.TASK_DOWNLOAD, hostB + "/3.nc", "/copy2/3.nc", new Long(1000)}), 3, "");
+        Test.ensureEqual(q.add(null, null, new Object[]{TaskThread.TASK_SET_FLAG, "d2"}), 4, "");
+        Test.ensureEqual(q.nWaiting(), 5, "");
+        Test.ensureTrue(q.hasUnfinished("d1"), "");
+        Test.ensureTrue(!q.hasUnfinished("d3"), "");
+
+        //per-host limit: only 1 task per host at once, so the d2 task starts next
+        //SET_FLAG tasks wait for their dataset's other tasks
+        Test.ensureEqual(q.nStartable(1, 100), 2, "");
+        Task t0 = q.next("w0", 1);
+        Test.ensureEqual(t0.number, 0, "");
+        Task t3 = q.next("w1", 1);
+        Test.ensureEqual(t3.number, 3, "");
+        Test.ensureEqual(q.next("w2", 1), null, "");
+        Test.ensureEqual(q.nStartable(2, 100), 1, "");
+
+        //persistence (running tasks are saved, too)
+        String fileName = File2.getSystemTempDirectory() + "TaskQueue.txt";
+        Test.ensureEqual(q.writeTasks(fileName), 5, "");
+        TaskQueue q2 = new TaskQueue();
+        Test.ensureEqual(q2.readTasks(fileName), 5, "");
+        File2.delete(fileName);
+        Task tasks[] = q2.waiting.toArray(new Task[0]);
+        Test.ensureEqual(tasks[0].datasetID, "d1", "");
+        Test.ensureEqual(tasks[0].host, hostA, "");
+        Test.ensureEqual(tasks[0].taskOA, dl1, "");
+        Test.ensureEqual(tasks[3].taskOA, new Object[]{TaskThread.TASK_SET_FLAG, "d1"}, "");
+        Object dapOA[] = {TaskThread.TASK_DAP_TO_NC, hostA + "/x", new StringArray(new String[]{"a", "b c"}),
+            "[0:10]", "/copy/x.nc", Boolean.FALSE, new Long(-5)};
+        q2.addEncoded(encode(new Task(0, null, hostA, null, dapOA)));
+        Test.ensureEqual(q2.waiting.get(5).taskOA, dapOA, "");
+        Test.ensureEqual(encode(new Task(0, null, null, null,
+            new Object[]{TaskThread.TASK_MAKE_A_DATAFILE, null, "q", "/d/", "f", ".nc"})), null, "");
+
+        //finish; now d1's SET_FLAG can't start, but 1.nc's host is free
+        q.finished(t0, true, false);
+        q.finished(t0, true, false); //does nothing
+        Task t1 = q.next("w0", 1);
+        Test.ensureEqual(t1.number, 1, "");
+        q.finished(t3, false, false);
+        Test.ensureEqual(q.next("w1", 1).number, 4, ""); //d2's SET_FLAG
+        q.finished(t1, true, false);
+        Task t2 = q.next("w0", 1);
+        Test.ensureEqual(t2.number, 2, ""); //d1's SET_FLAG
+        Test.ensureEqual(q.nWaiting(), 0, "");
+        Test.ensureEqual(q.nFinished(), 3, "");
+
+        //the file can be added again after its task finished
+        Test.ensureEqual(q.add("d1", hostA, dl1), 5, "");
+
+        //a SET_FLAG task only waits for its dataset's earlier, not SET_FLAG, tasks
+        q = new TaskQueue();
+        q.add("d1", null, new Object[]{TaskThread.TASK_DOWNLOAD, "/a/1", "/b/1", new Long(0)}); //0
+        q.add(null, null, new Object[]{TaskThread.TASK_SET_FLAG, "d1"});                       //1
+        q.add(null, null, new Object[]{TaskThread.TASK_SET_FLAG, "d1"});                       //2
+        q.add("d1", null, new Object[]{TaskThread.TASK_DOWNLOAD, "/a/3", "/b/3", new Long(0)}); //3
+        Task d0 = q.next("w0", 1);
+        Test.ensureEqual(d0.number, 0, "");
+        Test.ensureEqual(q.next("w1", 1).number, 3, ""); //the SET_FLAGs wait for 0
+        Test.ensureEqual(q.next("w2", 1), null, "");
+        q.finished(d0, true, false);  //3 is still running, but was added after the SET_FLAGs
+        Test.ensureEqual(q.next("w0", 1).number, 1, "");
+        Test.ensureEqual(q.next("w2", 1).number, 2, ""); //not held up by the other SET_FLAG
+
+        //priorities
+        q = new TaskQueue();
+        q.add("low",  null, new Object[]{TaskThread.TASK_DOWNLOAD, "/a/1", "/b/1", new Long(0)});
+        q.add("high", null, new Object[]{TaskThread.TASK_DOWNLOAD, "/a/2", "/b/2", new Long(0)});
+        q.add("mid",  null, new Object[]{TaskThread.TASK_DOWNLOAD, "/a/3", "/b/3", new Long(0)});
+        HashMap<String,Integer> pm = new HashMap();
+        pm.put("high", new Integer(10));
+        pm.put("low",  new Integer(-1));
+        q.setPriorities(pm);
+        Test.ensureEqual(q.next("w", 1).datasetID, "high", "");
+        Test.ensureEqual(q.next("w", 1).datasetID, "mid", "");
+        Test.ensureEqual(q.next("w", 1).datasetID, "low", "");
+        String stats = q.statistics();
+        Test.ensureTrue(stats.startsWith("TaskThreads: nWaiting=0 nRunning=3"), stats);
+        String2.log(stats);
+    }
+
+    /**
+     * This runs all of the interactive or not interactive tests for this class.
+     *
+     * @param errorSB all caught exceptions are logged to this.
+     * @param interactive  If true, this runs all of the interactive tests;
+     *   otherwise, this runs all of the non-interactive tests.
+     * @param doSlowTestsToo If true, this runs the slow tests, too.
+     * @param firstTest The first test to be run (0...).  Test numbers may change.
+     * @param lastTest The last test to be run, inclusive (0..., or -1 for the last test).
+     *   Test numbers may change.
+     */
+    public static void test(StringBuilder errorSB, boolean interactive,
+        boolean doSlowTestsToo, int firstTest, int lastTest) {
+        if (lastTest < 0)
+            lastTest = interactive? -1 : 0;
+        String msg = "\n^^^ TaskQueue.test(" + interactive + ") test=";
+
+        for (int test = firstTest; test <= lastTest; test++) {
+            try {
+                long time = System.currentTimeMillis();
+                String2.log(msg + test);
+
+                if (interactive) {
+                    //if (test ==  0) ...;
+
+                } else {
+                    if (test ==  0) basicTest();
+                }
+
+                String2.log(msg + test + " finished successfully in " + (System.currentTimeMillis() - time) + " ms.");
+            } catch (Throwable testThrowable) {
+                String eMsg = msg + test + " caught throwable:\n" +
+                    MustBe.throwableToString(testThrowable);
+                errorSB.append(eMsg);
+                String2.log(eMsg);
+                if (interactive)
+                    String2.pressEnterToContinue("");
+            }
+        }
+    }
+
+}
@@ -21,7 +21,9 @@ import gov.noaa.pfel.erddap.variable.EDV;
 import java.util.ArrayList;
 
 /**
- * This does a series of tasks.
+ * This does a series of tasks from EDStatic.taskQueue.
+ * Up to EDStatic.nTaskThreads TaskThreads may be running at once
+ * (see EDStatic.ensureTaskThreadIsRunningIfNeeded).
  *
  * @author Bob Simons (bob.simons@noaa.gov) 2009-05-20
  */
@@ -77,55 +79,60 @@ public class TaskThread extends Thread {
     public static boolean reallyVerbose = false; 
 
     //set while running
-    private long lastStartTime;
+    private volatile TaskQueue.Task currentTask;
 
 
     /**
      * The constructor.
-     * TaskThread uses task variables in EDStatic.
+     * TaskThread gets its tasks from EDStatic.nextTask.
      *
+     * @param tNumber a number which identifies this thread (e.g., in the log)
      */
-    public TaskThread(int tNextTask) {
-        EDStatic.nextTask = tNextTask;
-        EDStatic.lastFinishedTask = tNextTask - 1;
-        setName("TaskThread");
+    public TaskThread(int tNumber) {
+        setName("TaskThread" + tNumber);
+    }
+
+    /** 
+     * This returns the current task (or null if no task is running).
+     */
+    public TaskQueue.Task currentTask() {
+        return currentTask;
     }
 
     /** 
      * This returns elapsed time for the current task (or -1 if no task is running).
      */
     public long elapsedTime() {
-        return System.currentTimeMillis() - lastStartTime;
+        TaskQueue.Task task = currentTask;
+        return task == null? -1 : task.elapsedTime();
     }
 
     /**
-     * This does any pending tasks, then exits.
+     * This does tasks until there are no more tasks that it can start now, then exits.
      */
     public void run() {
-        while (EDStatic.nextTask < EDStatic.taskList.size()) {
+        while (true) {
+            //check isInterrupted
+            if (isInterrupted()) { 
+                String2.log("%%% " + getName() + " was interrupted at " + 
+                    Calendar2.getCurrentISODateTimeStringLocalTZ());
+                return;
+            }
+
+            //get the next task
+            TaskQueue.Task task = EDStatic.nextTask(this);
+            if (task == null)
+                return;
+            currentTask = task;
+            boolean succeeded = false;
             String taskSummary = null;
             try {
-                //check isInterrupted
-                if (isInterrupted()) { 
-                    String2.log("%%% TaskThread was interrupted at " + 
-                        Calendar2.getCurrentISODateTimeStringLocalTZ());
-                    return;
-                }
-
-                //start to do the task
-                //do these things quickly to keep internal consistency
-                lastStartTime = System.currentTimeMillis();  
-                String2.log("\n%%% TaskThread started task #" + EDStatic.nextTask + 
-                    " of " + (EDStatic.taskList.size() - 1) +
+                String2.log("\n%%% " + getName() + " started task #" + task.number + 
+                    (task.datasetID == null? "" : " for " + task.datasetID) +
                     " at " + Calendar2.getCurrentISODateTimeStringLocalTZ());
-                EDStatic.nextTask++;
 
                 //get the task settings
-                Object taskOA[] = (Object[])EDStatic.taskList.get(EDStatic.nextTask - 1);
-                if (taskOA == null) {
-                    String2.log("task #" + (EDStatic.nextTask - 1) + " was null.");
-                    continue;
-                }
+                Object taskOA[] = task.taskOA;
                 Integer taskType = (Integer)taskOA[0];
 
                 //TASK_MAKE_A_DATAFILE
@@ -151,7 +158,7 @@ public class TaskThread extends Thread {
                     taskSummary = "  TASK_SET_FLAG datasetID=" + datasetID;
                     String2.log(taskSummary);
 
-                    //It doesn't really matter if lastFinishedTask is set below before construction starts.
+                    //EDStatic.taskQueue doesn't start this until the dataset's other tasks are finished.
                     //All of the files are copied, so all will be detected.
                     EDD.requestReloadASAP(datasetID);
 
@@ -213,22 +220,22 @@ public class TaskThread extends Thread {
                 //UNKNOWN taskType
                 } else {
                     String2.log("TaskThread error: Unknown taskType=" + taskType + 
-                        " for task #" + (EDStatic.nextTask - 1) + ".");
+                        " for task #" + task.number + ".");
                 }
 
                 //task finished successfully
-                long tElapsedTime = elapsedTime();
-                String2.log("%%% TaskThread task #" + (EDStatic.nextTask - 1) + 
-                    " of " + (EDStatic.taskList.size() - 1) +
+                succeeded = true;
+                long tElapsedTime = task.elapsedTime();
+                String2.log("%%% " + getName() + " task #" + task.number + 
                     " succeeded.  elapsedTime = " + Calendar2.elapsedTimeString(tElapsedTime));
                 String2.distribute(tElapsedTime, EDStatic.taskThreadSucceededDistribution24);
                 String2.distribute(tElapsedTime, EDStatic.taskThreadSucceededDistributionTotal);
 
             } catch (Throwable t) {
-                long tElapsedTime = elapsedTime();
+                long tElapsedTime = task.elapsedTime();
                 String2.distribute(tElapsedTime, EDStatic.taskThreadFailedDistribution24);
                 String2.distribute(tElapsedTime, EDStatic.taskThreadFailedDistributionTotal);
-                String subject = "TaskThread error: task #" + (EDStatic.nextTask - 1) + 
+                String subject = "TaskThread error: task #" + task.number + 
                     " failed after " + Calendar2.elapsedTimeString(tElapsedTime);
                 String content = "" + taskSummary + "\n" +
                     MustBe.throwableToString(t);
@@ -237,10 +244,8 @@ public class TaskThread extends Thread {
             }
 
             //whether succeeded or failed
-            synchronized(EDStatic.taskList) { //all task-related things synch on taskList
-                EDStatic.lastFinishedTask = EDStatic.nextTask - 1;
-                EDStatic.taskList.set(EDStatic.nextTask - 1, null);  //throw away the task info (gc)
-            }
+            currentTask = null;
+            EDStatic.taskFinished(task, succeeded);
         }
     }
 